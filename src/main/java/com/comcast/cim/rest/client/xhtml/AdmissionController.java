@@ -0,0 +1,322 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.impl.cookie.DateParseException;
+import org.apache.http.impl.cookie.DateUtils;
+
+/**
+ * Decides when requests may be sent to each origin (scheme, host and
+ * port), so that bursts of navigations are smoothed out instead of
+ * being throttled by the server. Each origin has
+ * <ul>
+ * <li>an optional token-bucket rate limit;</li>
+ * <li>an adaptive concurrency limit, which grows while responses come
+ *   back promptly and shrinks when smoothed latency climbs well above
+ *   the origin's unloaded round trip time or the server answers
+ *   <code>429 Too Many Requests</code> or
+ *   <code>503 Service Unavailable</code>;</li>
+ * <li>a hold, set from the <code>Retry-After</code> header of such
+ *   responses, during which no requests are sent.</li>
+ * </ul>
+ * Requests wait for admission up to a maximum time, after which they
+ * fail with an {@link AdmissionRejectedException}.
+ */
+public class AdmissionController {
+
+	public static final int DEFAULT_INITIAL_LIMIT = 20;
+	public static final int DEFAULT_MIN_LIMIT = 1;
+	public static final int DEFAULT_MAX_LIMIT = 200;
+	public static final double DEFAULT_BACKOFF_RATIO = 0.9;
+	public static final double DEFAULT_LATENCY_TOLERANCE = 2.0;
+	public static final long DEFAULT_MAX_WAIT_MILLIS = 5000;
+
+	private static final int RTT_DECAY_INTERVAL = 1000;
+
+	private volatile int initialLimit = DEFAULT_INITIAL_LIMIT;
+	private volatile int minLimit = DEFAULT_MIN_LIMIT;
+	private volatile int maxLimit = DEFAULT_MAX_LIMIT;
+	private volatile double backoffRatio = DEFAULT_BACKOFF_RATIO;
+	private volatile double latencyTolerance = DEFAULT_LATENCY_TOLERANCE;
+	private volatile long maxWaitMillis = DEFAULT_MAX_WAIT_MILLIS;
+	private volatile double ratePerSecond;
+	private volatile int burst;
+
+	private final ConcurrentMap<String, Origin> origins =
+		new ConcurrentHashMap<String, Origin>();
+
+	private static class Origin {
+		final ConcurrencyLimit limit;
+		volatile TokenBucket bucket;
+		volatile long heldUntil;
+
+		Origin(ConcurrencyLimit limit, TokenBucket bucket) {
+			this.limit = limit;
+			this.bucket = bucket;
+		}
+	}
+
+	/** Admission of one request, to be released when it completes. */
+	class Permit {
+		private final Origin origin;
+		private final long start;
+
+		Permit(Origin origin, long start) {
+			this.origin = origin;
+			this.start = start;
+		}
+
+		/**
+		 * @param state the response, or <code>null</code> if the
+		 *   request failed without one
+		 */
+		void release(XhtmlApplicationState state) {
+			if (state == null) {
+				origin.limit.release();
+				return;
+			}
+			HttpResponse resp = state.getHttpResponse();
+			int status = resp.getStatusLine().getStatusCode();
+			boolean overloaded = (status == 429 || status == HttpStatus.SC_SERVICE_UNAVAILABLE);
+			if (overloaded) hold(origin, resp);
+			origin.limit.release(now() - start, overloaded);
+		}
+	}
+
+	/**
+	 * Waits until the request may be sent. A request armed in a
+	 * {@link NavigationContext} waits no longer than the time it has
+	 * left, and no longer once its context is cancelled.
+	 * @param req request about to be sent
+	 * @return permit to release once the response is in
+	 * @throws AdmissionRejectedException if the request is not admitted
+	 *   within the maximum wait
+	 * @throws DeadlineExceededException if the request's deadline would
+	 *   pass before it is admitted
+	 * @throws NavigationCancelledException if the request's context is
+	 *   cancelled while it waits
+	 * @throws InterruptedIOException if interrupted while waiting
+	 */
+	Permit acquire(HttpUriRequest req) throws AdmissionRejectedException,
+			InterruptedIOException {
+		String name = OriginGuard.originOf(req.getURI());
+		Origin origin = getOrigin(name);
+		NavigationContext ctx = NavigationContext.of(req);
+		long maxWait = maxWaitMillis;
+		boolean bounded = false;
+		if (ctx != null) {
+			ctx.checkDeadline();
+			long remaining = ctx.getRemainingMillis();
+			if (remaining < maxWait) {
+				maxWait = remaining;
+				bounded = true;
+			}
+		}
+		long deadline = now() + maxWait;
+		NavigationContext.Waiter waiter = (ctx == null) ? null : ctx.startWaiting();
+		try {
+			for(;;) {
+				long now = now();
+				long wait = origin.heldUntil - now;
+				if (wait <= 0) {
+					TokenBucket bucket = origin.bucket;
+					wait = (bucket == null) ? 0 : bucket.tryAcquire(now);
+				}
+				if (wait <= 0) break;
+				if (now + wait > deadline) {
+					if (bounded) throw new DeadlineExceededException(ctx.getDeadline());
+					throw new AdmissionRejectedException(name, wait);
+				}
+				sleep(wait);
+			}
+			if (!origin.limit.acquire(Math.max(0, deadline - now()))) {
+				if (bounded) throw new DeadlineExceededException(ctx.getDeadline());
+				throw new AdmissionRejectedException(name, 0);
+			}
+		} catch (InterruptedException e) {
+			if (waiter != null && waiter.finish()) throw new NavigationCancelledException();
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted waiting for " + name);
+		} finally {
+			if (waiter != null) waiter.finish();
+		}
+		return new Permit(origin, now());
+	}
+
+	private void hold(Origin origin, HttpResponse resp) {
+		Header h = resp.getFirstHeader("Retry-After");
+		if (h == null) return;
+		long delay = parseRetryAfter(h.getValue(), now());
+		if (delay <= 0) return;
+		long until = now() + delay;
+		synchronized(origin) {
+			if (until > origin.heldUntil) origin.heldUntil = until;
+		}
+	}
+
+	/**
+	 * @param value <code>Retry-After</code> header value: either a
+	 *   number of seconds or an HTTP date
+	 * @param now current time in milliseconds
+	 * @return delay in milliseconds, or -1 if the value is malformed
+	 */
+	static long parseRetryAfter(String value, long now) {
+		String v = value.trim();
+		try {
+			return Long.parseLong(v) * 1000L;
+		} catch (NumberFormatException e) {
+			// not delta-seconds; try an HTTP date
+		}
+		try {
+			Date date = DateUtils.parseDate(v);
+			return date.getTime() - now;
+		} catch (DateParseException e) {
+			return -1;
+		}
+	}
+
+	private Origin getOrigin(String name) {
+		Origin origin = origins.get(name);
+		if (origin != null) return origin;
+		ConcurrencyLimit limit = new ConcurrencyLimit(initialLimit, minLimit, maxLimit,
+				backoffRatio, latencyTolerance, RTT_DECAY_INTERVAL);
+		double rate = ratePerSecond;
+		TokenBucket bucket = (rate > 0) ? new TokenBucket(rate, burst, now()) : null;
+		Origin created = new Origin(limit, bucket);
+		origin = origins.putIfAbsent(name, created);
+		return (origin != null) ? origin : created;
+	}
+
+	/**
+	 * @return current time in milliseconds
+	 */
+	protected long now() {
+		return System.currentTimeMillis();
+	}
+
+	/**
+	 * Waits for a rate limit or <code>Retry-After</code> hold to pass.
+	 * @param millis how long to wait
+	 * @throws InterruptedException
+	 */
+	protected void sleep(long millis) throws InterruptedException {
+		Thread.sleep(millis);
+	}
+
+	/**
+	 * Limits the rate of requests to every origin first seen after
+	 * this call.
+	 * @param ratePerSecond sustained requests per second; zero or less
+	 *   for no limit
+	 * @param burst requests that may be sent back to back after a
+	 *   quiet period
+	 */
+	public void setRateLimit(double ratePerSecond, int burst) {
+		this.ratePerSecond = ratePerSecond;
+		this.burst = burst;
+	}
+
+	/**
+	 * Limits the rate of requests to one origin.
+	 * @param uri any URI on the origin
+	 * @param ratePerSecond sustained requests per second; zero or less
+	 *   for no limit
+	 * @param burst requests that may be sent back to back after a
+	 *   quiet period
+	 */
+	public void setRateLimit(URI uri, double ratePerSecond, int burst) {
+		Origin origin = getOrigin(OriginGuard.originOf(uri));
+		origin.bucket = (ratePerSecond > 0) ? new TokenBucket(ratePerSecond, burst, now()) : null;
+	}
+
+	/**
+	 * @param uri any URI on the origin
+	 * @return the origin's current concurrency limit
+	 */
+	public int getLimit(URI uri) {
+		Origin origin = origins.get(OriginGuard.originOf(uri));
+		return (origin == null) ? initialLimit : origin.limit.getLimit();
+	}
+
+	/**
+	 * @param uri any URI on the origin
+	 * @return number of admitted requests to the origin still in flight
+	 */
+	public int getInFlight(URI uri) {
+		Origin origin = origins.get(OriginGuard.originOf(uri));
+		return (origin == null) ? 0 : origin.limit.getInFlight();
+	}
+
+	/**
+	 * @param uri any URI on the origin
+	 * @return milliseconds until the origin's <code>Retry-After</code>
+	 *   hold ends, or zero if there is none
+	 */
+	public long getHoldMillis(URI uri) {
+		Origin origin = origins.get(OriginGuard.originOf(uri));
+		return (origin == null) ? 0 : Math.max(0, origin.heldUntil - now());
+	}
+
+	/**
+	 * Sets the bounds of the adaptive concurrency limit for origins
+	 * first seen after this call.
+	 * @param initialLimit starting limit
+	 * @param minLimit limit is never cut below this
+	 * @param maxLimit limit never grows beyond this
+	 */
+	public void setLimits(int initialLimit, int minLimit, int maxLimit) {
+		if (minLimit < 1 || initialLimit < minLimit || maxLimit < initialLimit) {
+			throw new IllegalArgumentException("need 1 <= min <= initial <= max");
+		}
+		this.initialLimit = initialLimit;
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+	}
+
+	/**
+	 * @param backoffRatio factor, between 0 and 1, the limit is
+	 *   multiplied by on signs of overload
+	 */
+	public void setBackoffRatio(double backoffRatio) {
+		this.backoffRatio = backoffRatio;
+	}
+
+	/**
+	 * @param latencyTolerance how many times the unloaded round trip
+	 *   time the smoothed round trip time may reach before it counts
+	 *   as a sign of overload
+	 */
+	public void setLatencyTolerance(double latencyTolerance) {
+		this.latencyTolerance = latencyTolerance;
+	}
+
+	/**
+	 * @param maxWaitMillis how long a request may wait for admission
+	 */
+	public void setMaxWait(long maxWaitMillis) {
+		this.maxWaitMillis = maxWaitMillis;
+	}
+}
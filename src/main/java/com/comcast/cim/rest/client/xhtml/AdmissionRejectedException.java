@@ -0,0 +1,40 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+/**
+ * Raised when an {@link AdmissionController} will not let a request
+ * through to its origin within the maximum wait, because the origin's
+ * rate limit or concurrency limit is exhausted or because the origin
+ * asked, with <code>Retry-After</code>, not to be sent requests yet.
+ */
+public class AdmissionRejectedException extends OriginUnavailableException {
+
+	private static final long serialVersionUID = 1L;
+
+	private long retryAfterMillis;
+
+	public AdmissionRejectedException(String origin, long retryAfterMillis) {
+		super(origin, "request to " + origin + " not admitted");
+		this.retryAfterMillis = retryAfterMillis;
+	}
+
+	/**
+	 * @return how long, in milliseconds, until the request would have
+	 *   been admitted, if known; otherwise zero
+	 */
+	public long getRetryAfterMillis() { return retryAfterMillis; }
+}
@@ -0,0 +1,416 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.Header;
+import org.apache.http.HeaderElement;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.impl.cookie.DateParseException;
+import org.apache.http.impl.cookie.DateUtils;
+import org.jdom.Document;
+import org.jdom.Element;
+import org.jdom.Text;
+
+/**
+ * Least-recently-used cache of the application states reached with
+ * <code>GET</code> requests, keyed by the request URL. Entries are
+ * bounded both in number and in total weight (the estimated size of
+ * their response bodies), and are only kept for as long as the response
+ * freshness headers (<code>Cache-Control: max-age</code> or
+ * <code>Expires</code>) allow. Any other request method, or a non-2XX
+ * response to a <code>GET</code>, invalidates the entry for that URL.
+ * <p>
+ * Cached states are shared between callers and must be treated as
+ * read-only.
+ */
+public class ApplicationStateCache {
+
+	public static final int DEFAULT_MAX_ENTRIES = 1024;
+	public static final long DEFAULT_MAX_WEIGHT = 64L * 1024 * 1024;
+	
+	private static final String GET = "GET";
+	private static final String HEAD = "HEAD";
+	private static final String OPTIONS = "OPTIONS";
+	
+	private final int maxEntries;
+	private final long maxWeight;
+	private final Map<String, Entry> entries =
+		new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	private long weight;
+	private int unparsed;
+	
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private final AtomicLong invalidations = new AtomicLong();
+	
+	private static class Entry {
+		final XhtmlApplicationState state;
+		long weight;
+		final long expires;
+		/** weighed by its raw body, before it was parsed */
+		boolean unparsed;
+		
+		Entry(XhtmlApplicationState state, long weight, long expires, boolean unparsed) {
+			this.state = state;
+			this.weight = weight;
+			this.expires = expires;
+			this.unparsed = unparsed;
+		}
+		
+		boolean parsedSinceWeighed() {
+			return unparsed && ((LazyXhtmlApplicationState)state).isMaterialized();
+		}
+	}
+	
+	public ApplicationStateCache() {
+		this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_WEIGHT);
+	}
+	
+	/**
+	 * Constructs a cache with the given bounds.
+	 * @param maxEntries maximum number of cached states
+	 * @param maxWeight maximum total estimated size, in bytes, of the
+	 *   cached response bodies
+	 */
+	public ApplicationStateCache(int maxEntries, long maxWeight) {
+		if (maxEntries < 1 || maxWeight < 1) {
+			throw new IllegalArgumentException("cache bounds must be positive");
+		}
+		this.maxEntries = maxEntries;
+		this.maxWeight = maxWeight;
+	}
+	
+	/**
+	 * Returns the cached state for a request, if the request is a
+	 * <code>GET</code> and a fresh state is cached for its URL.
+	 * @param req request about to be executed
+	 * @return cached {@link XhtmlApplicationState}, or <code>null</code>
+	 */
+	public XhtmlApplicationState get(HttpUriRequest req) {
+		if (!GET.equals(req.getMethod())) return null;
+		String key = req.getURI().toString();
+		synchronized(entries) {
+			Entry entry = entries.get(key);
+			if (entry != null && entry.expires <= now()) {
+				remove(key);
+				entry = null;
+			}
+			if (entry == null) {
+				misses.incrementAndGet();
+				return null;
+			}
+			hits.incrementAndGet();
+			if (entry.parsedSinceWeighed()) {
+				reweigh(entry);
+				evict();
+			}
+			return entry.state;
+		}
+	}
+	
+	/**
+	 * Records the outcome of an executed request: caches successful,
+	 * fresh, complete responses to <code>GET</code>s and invalidates
+	 * the URL on errors or on requests that may modify the resource.
+	 * @param req executed request
+	 * @param state resulting application state
+	 */
+	public void update(HttpUriRequest req, XhtmlApplicationState state) {
+		update(req, state, now());
+	}
+	
+	/**
+	 * Records the outcome of an executed request, counting the time
+	 * the request took towards the age of the response.
+	 * @param req executed request
+	 * @param state resulting application state
+	 * @param requestTime time in milliseconds, as given by {@link #now()},
+	 *   at which the request was sent
+	 */
+	public void update(HttpUriRequest req, XhtmlApplicationState state, long requestTime) {
+		String method = req.getMethod();
+		String key = req.getURI().toString();
+		if (!GET.equals(method)) {
+			if (!HEAD.equals(method) && !OPTIONS.equals(method)) {
+				invalidate(key);
+			}
+			return;
+		}
+		if (!state.succeeded()) {
+			invalidate(key);
+			return;
+		}
+		if (state.isPartial()) return;
+		long delay = Math.max(0, now() - requestTime);
+		long ttl = getFreshnessLifetime(state.getHttpResponse(), delay);
+		if (ttl <= 0) return;
+		/* checked before weighing, so a state parsed meanwhile is weighed again */
+		boolean raw = state instanceof LazyXhtmlApplicationState
+			&& !((LazyXhtmlApplicationState)state).isMaterialized();
+		long w = weigh(state);
+		if (w > maxWeight) return;
+		synchronized(entries) {
+			remove(key);
+			if (unparsed > 0) reweighParsed();
+			entries.put(key, new Entry(state, w, now() + ttl, raw));
+			weight += w;
+			if (raw) unparsed++;
+			evict();
+		}
+	}
+	
+	/**
+	 * Drops the cached state for a URL, if any.
+	 * @param url request URL
+	 */
+	public void invalidate(String url) {
+		synchronized(entries) {
+			if (remove(url)) invalidations.incrementAndGet();
+		}
+	}
+	
+	/**
+	 * Drops all cached states.
+	 */
+	public void clear() {
+		synchronized(entries) {
+			entries.clear();
+			weight = 0;
+			unparsed = 0;
+		}
+	}
+	
+	private boolean remove(String key) {
+		Entry old = entries.remove(key);
+		if (old == null) return false;
+		forget(old);
+		return true;
+	}
+	
+	private void forget(Entry entry) {
+		weight -= entry.weight;
+		if (entry.unparsed) unparsed--;
+	}
+	
+	private void evict() {
+		Iterator<Entry> it = entries.values().iterator();
+		while (it.hasNext() && (entries.size() > maxEntries || weight > maxWeight)) {
+			Entry eldest = it.next();
+			it.remove();
+			forget(eldest);
+			evictions.incrementAndGet();
+		}
+	}
+	
+	/**
+	 * Weighs again the states that were stored unparsed and have been
+	 * parsed since, as they now hold a document instead of raw bytes.
+	 */
+	private void reweighParsed() {
+		for(Entry entry : entries.values()) {
+			if (entry.parsedSinceWeighed()) reweigh(entry);
+		}
+	}
+	
+	private void reweigh(Entry entry) {
+		long w = weigh(entry.state);
+		weight += w - entry.weight;
+		entry.weight = w;
+		entry.unparsed = false;
+		unparsed--;
+	}
+	
+	/**
+	 * Determines how much longer a response may be served from the
+	 * cache: its freshness lifetime, from its <code>Cache-Control</code>
+	 * directives or, failing that, its <code>Expires</code> header, less
+	 * the age it already had when received.
+	 * @param resp response from the server
+	 * @param responseDelay time in milliseconds between sending the
+	 *   request and receiving the response
+	 * @return remaining freshness lifetime in milliseconds; zero or less
+	 *   if the response should not be cached
+	 */
+	protected long getFreshnessLifetime(HttpResponse resp, long responseDelay) {
+		return freshnessLifetime(resp, now(), responseDelay);
+	}
+
+	static long freshnessLifetime(HttpResponse resp, long now, long responseDelay) {
+		long lifetime = declaredLifetime(resp, now);
+		if (lifetime <= 0) return 0;
+		return lifetime - initialAge(resp, now, responseDelay);
+	}
+
+	private static long declaredLifetime(HttpResponse resp, long now) {
+		for(Header h : resp.getHeaders("Cache-Control")) {
+			for(HeaderElement elt : h.getElements()) {
+				String name = elt.getName();
+				if ("no-store".equalsIgnoreCase(name)
+						|| "no-cache".equalsIgnoreCase(name)) {
+					return 0;
+				}
+			}
+		}
+		for(Header h : resp.getHeaders("Cache-Control")) {
+			for(HeaderElement elt : h.getElements()) {
+				if ("max-age".equalsIgnoreCase(elt.getName())) {
+					try {
+						return Long.parseLong(elt.getValue().trim()) * 1000L;
+					} catch (RuntimeException e) {
+						return 0;
+					}
+				}
+			}
+		}
+		Header expires = resp.getFirstHeader("Expires");
+		if (expires == null) return 0;
+		try {
+			Date expiry = DateUtils.parseDate(expires.getValue());
+			Header date = resp.getFirstHeader("Date");
+			long base = (date != null) ?
+					DateUtils.parseDate(date.getValue()).getTime() : now;
+			return expiry.getTime() - base;
+		} catch (DateParseException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * Estimates the age of a response on receipt, as in RFC 7234
+	 * section 4.2.3: the larger of its <code>Age</code> header plus the
+	 * response delay and the time elapsed since its <code>Date</code>.
+	 */
+	private static long initialAge(HttpResponse resp, long now, long responseDelay) {
+		long age = 0;
+		Header h = resp.getFirstHeader("Age");
+		if (h != null) {
+			try {
+				age = Math.max(0, Long.parseLong(h.getValue().trim())) * 1000L;
+			} catch (NumberFormatException e) {
+				/* ignore malformed Age */
+			}
+		}
+		age += responseDelay;
+		Header date = resp.getFirstHeader("Date");
+		if (date != null) {
+			try {
+				age = Math.max(age, now - DateUtils.parseDate(date.getValue()).getTime());
+			} catch (DateParseException e) {
+				/* ignore malformed Date */
+			}
+		}
+		return age;
+	}
+	
+	/**
+	 * Estimates how much memory a cached state holds on to: the
+	 * declared <code>Content-Length</code> when there is one, the
+	 * length of the raw body for a {@link LazyXhtmlApplicationState}
+	 * that has not been parsed yet, otherwise an estimate from the
+	 * parsed document. Lazy states are weighed again once they have
+	 * been parsed.
+	 * @param state application state
+	 * @return estimated size in bytes
+	 */
+	protected long weigh(XhtmlApplicationState state) {
+		Header len = state.getHttpResponse().getFirstHeader("Content-Length");
+		if (len != null) {
+			try {
+				long n = Long.parseLong(len.getValue().trim());
+				if (n >= 0) return Math.max(n, 1);
+			} catch (NumberFormatException e) {
+				/* fall through to estimate */
+			}
+		}
+		if (state instanceof RawBodyApplicationState) {
+			byte[] body = ((RawBodyApplicationState)state).getBody();
+			return Math.max((body == null) ? 0 : body.length, 1);
+		}
+		if (state instanceof LazyXhtmlApplicationState) {
+			LazyXhtmlApplicationState lazy = (LazyXhtmlApplicationState)state;
+			if (!lazy.isMaterialized()) return Math.max(lazy.getBodyLength(), 1);
+		}
+		Document doc = state.getDocument();
+		if (doc == null) return 1;
+		long estimate = 0;
+		Iterator<?> it = doc.getDescendants();
+		while(it.hasNext()) {
+			Object o = it.next();
+			if (o instanceof Text) {
+				estimate += ((Text)o).getText().length();
+			} else if (o instanceof Element) {
+				Element e = (Element)o;
+				estimate += 2 * e.getName().length() + 5;
+				estimate += 16 * e.getAttributes().size();
+			}
+		}
+		return Math.max(estimate, 1);
+	}
+	
+	/**
+	 * @return current time in milliseconds
+	 */
+	protected long now() {
+		return System.currentTimeMillis();
+	}
+	
+	public int size() {
+		synchronized(entries) {
+			return entries.size();
+		}
+	}
+	
+	/**
+	 * @return total estimated size in bytes of the cached states
+	 */
+	public long getWeight() {
+		synchronized(entries) {
+			return weight;
+		}
+	}
+	
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+	
+	public long getMaxWeight() {
+		return maxWeight;
+	}
+	
+	public long getHitCount() {
+		return hits.get();
+	}
+	
+	public long getMissCount() {
+		return misses.get();
+	}
+	
+	public long getEvictionCount() {
+		return evictions.get();
+	}
+	
+	public long getInvalidationCount() {
+		return invalidations.get();
+	}
+}
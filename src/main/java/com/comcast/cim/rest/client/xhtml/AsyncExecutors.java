@@ -0,0 +1,72 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors used for asynchronous requests when none are supplied.
+ * They are created on first use and run on daemon threads, so they
+ * never keep the JVM alive.
+ */
+class AsyncExecutors {
+
+	static final int PARSE_QUEUE_SIZE = 1024;
+
+	/** Runs blocking request I/O; grows with the number of requests in flight. */
+	static final ExecutorService IO =
+		Executors.newCachedThreadPool(new DaemonThreadFactory("xhtml-io-"));
+
+	/** Parses response bodies; one thread per processor with a bounded queue. */
+	static final ExecutorService PARSE = newParseExecutor();
+
+	/** Fires timed actions such as aborting requests at a deadline. */
+	static final ScheduledExecutorService TIMER =
+		Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("xhtml-timer-"));
+
+	private AsyncExecutors() { }
+
+	private static ExecutorService newParseExecutor() {
+		int n = Runtime.getRuntime().availableProcessors();
+		ThreadPoolExecutor exec = new ThreadPoolExecutor(n, n, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(PARSE_QUEUE_SIZE),
+				new DaemonThreadFactory("xhtml-parse-"));
+		exec.allowCoreThreadTimeOut(true);
+		return exec;
+	}
+
+	static class DaemonThreadFactory implements ThreadFactory {
+		private final String prefix;
+		private final AtomicInteger count = new AtomicInteger();
+
+		DaemonThreadFactory(String prefix) {
+			this.prefix = prefix;
+		}
+
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, prefix + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	}
+}
@@ -0,0 +1,39 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+import java.io.IOException;
+import java.net.URL;
+
+import org.apache.http.HttpResponse;
+
+/**
+ * Strategy for turning a response with a body into an application
+ * state. {@link ResponseDispatcher} picks one per response based on
+ * its media type and status code.
+ */
+public interface BodyHandler {
+
+	/**
+	 * Consumes the body of the given response.
+	 * @param context the URL used to retrieve the response
+	 * @param resp response sent by the server; its entity is not
+	 *   <code>null</code>
+	 * @return new application state
+	 * @throws IOException if the body cannot be read
+	 */
+	XhtmlApplicationState handleBody(URL context, HttpResponse resp) throws IOException;
+}
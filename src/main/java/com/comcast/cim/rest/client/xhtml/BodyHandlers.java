@@ -0,0 +1,137 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * Built-in {@link BodyHandler}s for use with a {@link ResponseDispatcher}.
+ */
+public class BodyHandlers {
+
+	/**
+	 * Parse the body as XHTML, using whichever parsing strategy the
+	 * dispatching {@link XhtmlResponseHandler} was configured with.
+	 */
+	public static final BodyHandler PARSE = new BodyHandler() {
+		public XhtmlApplicationState handleBody(URL context, HttpResponse resp)
+				throws IOException {
+			return new XhtmlResponseHandler(context).handleResponse(resp);
+		}
+		public String toString() { return "parse"; }
+	};
+
+	/** Largest body {@link #DISCARD} will read to keep the connection. */
+	public static final long MAX_DRAIN_BYTES = 64 * 1024;
+
+	/**
+	 * Read and throw away the body, so the connection can be reused.
+	 * Bodies larger than {@link #MAX_DRAIN_BYTES} are not read; the
+	 * connection is closed instead. The resulting state has no document.
+	 */
+	public static final BodyHandler DISCARD = new BodyHandler() {
+		public XhtmlApplicationState handleBody(URL context, HttpResponse resp)
+				throws IOException {
+			HttpEntity entity = resp.getEntity();
+			if (entity != null) {
+				if (entity.getContentLength() > MAX_DRAIN_BYTES
+						|| !drain(entity.getContent(), MAX_DRAIN_BYTES)) {
+					XhtmlResponseHandler.abortConnection(entity);
+				}
+			}
+			return new XhtmlApplicationState(context, resp, null);
+		}
+		public String toString() { return "discard"; }
+	};
+
+	/**
+	 * Keep the entire body as a byte array in a {@link RawBodyApplicationState}.
+	 */
+	public static final BodyHandler RAW_BYTES = new BodyHandler() {
+		public XhtmlApplicationState handleBody(URL context, HttpResponse resp)
+				throws IOException {
+			byte[] body = EntityUtils.toByteArray(resp.getEntity());
+			return new RawBodyApplicationState(context, resp, body, false);
+		}
+		public String toString() { return "raw-bytes"; }
+	};
+
+	private BodyHandlers() { }
+
+	/**
+	 * Reads and throws away up to {@code max} bytes.
+	 * @return {@code true} iff the end of the stream was reached
+	 */
+	private static boolean drain(InputStream in, long max) throws IOException {
+		if (in == null) return true;
+		byte[] buf = new byte[4096];
+		long count = 0;
+		int n;
+		while((n = in.read(buf)) != -1) {
+			count += n;
+			if (count > max) return false;
+		}
+		in.close();
+		return true;
+	}
+
+	/**
+	 * Returns a handler that keeps at most the first {@code maxBytes}
+	 * bytes of the body in a {@link RawBodyApplicationState}, which is
+	 * useful for logging error pages without holding onto large ones.
+	 * If the body is longer, the rest is not read and the connection
+	 * is closed.
+	 * @param maxBytes maximum number of bytes to keep
+	 * @return {@link BodyHandler}
+	 */
+	public static BodyHandler boundedCapture(final int maxBytes) {
+		return new BodyHandler() {
+			public XhtmlApplicationState handleBody(URL context, HttpResponse resp)
+					throws IOException {
+				HttpEntity entity = resp.getEntity();
+				InputStream in = entity.getContent();
+				ByteArrayOutputStream out = new ByteArrayOutputStream(Math.min(maxBytes, 4096));
+				boolean truncated = false;
+				try {
+					byte[] buf = new byte[4096];
+					int n = 0;
+					while(out.size() < maxBytes
+							&& (n = in.read(buf, 0, Math.min(buf.length, maxBytes - out.size()))) != -1) {
+						out.write(buf, 0, n);
+					}
+					truncated = n != -1 && in.read() != -1;
+				} catch (IOException e) {
+					XhtmlResponseHandler.abortConnection(entity);
+					throw e;
+				}
+				if (truncated) {
+					XhtmlResponseHandler.abortConnection(entity);
+				} else {
+					in.close();
+				}
+				return new RawBodyApplicationState(context, resp, out.toByteArray(), truncated);
+			}
+			public String toString() { return "bounded-capture(" + maxBytes + ")"; }
+		};
+	}
+}
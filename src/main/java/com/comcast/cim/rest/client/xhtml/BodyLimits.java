@@ -0,0 +1,90 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+import java.io.File;
+
+/**
+ * Size limits applied while reading response bodies. A body longer
+ * than the maximum size causes the connection to be aborted and a
+ * {@link ResponseTooLargeException} to be thrown. Optionally, bodies
+ * can be buffered before parsing: up to a spill threshold they are
+ * kept on the heap, beyond it they are written to a temporary file
+ * that is then read back through a memory mapping, keeping large raw
+ * bodies off the heap.
+ */
+public class BodyLimits {
+
+	private static final int NO_BUFFERING = -1;
+
+	private final long maxBodySize;
+	private final int spillThreshold;
+	private final File tempDirectory;
+
+	/**
+	 * Creates limits that stream bodies straight into the parser,
+	 * failing once more than {@code maxBodySize} bytes have been read.
+	 * @param maxBodySize maximum body size in bytes
+	 * @return {@link BodyLimits}
+	 */
+	public static BodyLimits capped(long maxBodySize) {
+		return new BodyLimits(maxBodySize, NO_BUFFERING, null);
+	}
+
+	/**
+	 * Creates limits that buffer bodies before they are parsed,
+	 * spilling those over {@code spillThreshold} bytes to a temporary
+	 * file in the default temporary-file directory.
+	 * @param spillThreshold largest body, in bytes, kept on the heap
+	 * @param maxBodySize maximum body size in bytes
+	 * @return {@link BodyLimits}
+	 */
+	public static BodyLimits spilling(int spillThreshold, long maxBodySize) {
+		return new BodyLimits(maxBodySize, spillThreshold, null);
+	}
+
+	/**
+	 * @param maxBodySize maximum body size in bytes
+	 * @param spillThreshold largest body, in bytes, kept on the heap
+	 *   when buffering, or a negative number to not buffer at all
+	 * @param tempDirectory directory for spilled bodies, or <code>null</code>
+	 *   for the default temporary-file directory
+	 */
+	public BodyLimits(long maxBodySize, int spillThreshold, File tempDirectory) {
+		if (maxBodySize <= 0) {
+			throw new IllegalArgumentException("maximum body size must be positive");
+		}
+		if (spillThreshold >= 0 && maxBodySize > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("buffered bodies may not exceed " 
+					+ Integer.MAX_VALUE + " bytes");
+		}
+		this.maxBodySize = maxBodySize;
+		this.spillThreshold = (spillThreshold < 0) ? NO_BUFFERING : spillThreshold;
+		this.tempDirectory = tempDirectory;
+	}
+
+	/** @return maximum body size in bytes */
+	public long getMaxBodySize() { return maxBodySize; }
+
+	/** @return largest buffered body kept on the heap, or -1 */
+	public int getSpillThreshold() { return spillThreshold; }
+
+	/** @return directory for spilled bodies, or <code>null</code> */
+	public File getTempDirectory() { return tempDirectory; }
+
+	/** @return {@code true} if bodies are buffered before parsing */
+	public boolean isBuffering() { return spillThreshold != NO_BUFFERING; }
+}
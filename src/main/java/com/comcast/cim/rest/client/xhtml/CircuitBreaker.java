@@ -0,0 +1,184 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+/**
+ * Circuit breaker for a single origin. While <em>closed</em>, the
+ * outcomes of the most recent calls are kept in a fixed-size window;
+ * once enough calls have been seen and either the failure rate or the
+ * slow call rate reaches its threshold the breaker <em>opens</em> and
+ * refuses calls with a {@link CircuitOpenException}. After the open
+ * period it turns <em>half-open</em> and lets a few trial calls
+ * through; depending on how they fare it closes again or reopens.
+ * Breakers are created and configured by an {@link OriginGuard}.
+ */
+public class CircuitBreaker {
+
+	public enum State { CLOSED, OPEN, HALF_OPEN }
+
+	private final String origin;
+	private final OriginGuard guard;
+	private final int minimumCalls;
+	private final int halfOpenCalls;
+	private final double failureRateThreshold;
+	private final double slowCallRateThreshold;
+	private final long openMillis;
+
+	private final boolean[] failed;
+	private final boolean[] slow;
+	private int next;
+	private int count;
+	private int failures;
+	private int slowCalls;
+
+	private State state = State.CLOSED;
+	private long generation;
+	private long openedAt;
+	private int trialsStarted;
+
+	CircuitBreaker(String origin, OriginGuard guard) {
+		this.origin = origin;
+		this.guard = guard;
+		this.minimumCalls = guard.getMinimumCalls();
+		this.halfOpenCalls = guard.getHalfOpenCalls();
+		this.failureRateThreshold = guard.getFailureRateThreshold();
+		this.slowCallRateThreshold = guard.getSlowCallRateThreshold();
+		this.openMillis = guard.getOpenMillis();
+		this.failed = new boolean[guard.getWindowSize()];
+		this.slow = new boolean[guard.getWindowSize()];
+	}
+
+	/**
+	 * Asks for permission to make a call.
+	 * @return token to pass to {@link #record(long, boolean, boolean)}
+	 * @throws CircuitOpenException if the call is refused
+	 */
+	long acquire() throws CircuitOpenException {
+		State from = null;
+		long token;
+		synchronized(this) {
+			if (state == State.OPEN) {
+				long waited = guard.now() - openedAt;
+				if (waited < openMillis) {
+					throw new CircuitOpenException(origin, openMillis - waited);
+				}
+				from = transitionTo(State.HALF_OPEN);
+			}
+			if (state == State.HALF_OPEN) {
+				if (trialsStarted >= halfOpenCalls) {
+					throw new CircuitOpenException(origin, 0);
+				}
+				trialsStarted++;
+			}
+			token = generation;
+		}
+		if (from != null) guard.fireStateChanged(this, from, State.HALF_OPEN);
+		return token;
+	}
+
+	/**
+	 * Records the outcome of a permitted call. Outcomes of calls
+	 * started before the last change of state are ignored.
+	 * @param token as returned by {@link #acquire()}
+	 * @param failure whether the call failed
+	 * @param slowCall whether the call took too long
+	 */
+	void record(long token, boolean failure, boolean slowCall) {
+		State from = null;
+		State to;
+		synchronized(this) {
+			if (token != generation) return;
+			add(failure, slowCall);
+			if (state == State.CLOSED) {
+				if (count >= minimumCalls && isTripped()) from = transitionTo(State.OPEN);
+			} else if (state == State.HALF_OPEN
+					&& count >= Math.min(halfOpenCalls, failed.length)) {
+				from = transitionTo(isTripped() ? State.OPEN : State.CLOSED);
+			}
+			to = state;
+		}
+		if (from != null) guard.fireStateChanged(this, from, to);
+	}
+
+	/**
+	 * Gives back the permission for a call whose outcome is not to be
+	 * recorded, freeing its trial slot if the breaker is half-open.
+	 * @param token as returned by {@link #acquire()}
+	 */
+	synchronized void release(long token) {
+		if (token == generation && state == State.HALF_OPEN && trialsStarted > 0) {
+			trialsStarted--;
+		}
+	}
+
+	private void add(boolean failure, boolean slowCall) {
+		if (count == failed.length) {
+			if (failed[next]) failures--;
+			if (slow[next]) slowCalls--;
+		} else {
+			count++;
+		}
+		failed[next] = failure;
+		slow[next] = slowCall;
+		if (failure) failures++;
+		if (slowCall) slowCalls++;
+		next = (next + 1) % failed.length;
+	}
+
+	private boolean isTripped() {
+		return failures >= failureRateThreshold * count
+			|| slowCalls >= slowCallRateThreshold * count;
+	}
+
+	private State transitionTo(State to) {
+		State from = state;
+		state = to;
+		generation++;
+		next = count = failures = slowCalls = 0;
+		trialsStarted = 0;
+		if (to == State.OPEN) openedAt = guard.now();
+		return from;
+	}
+
+	/**
+	 * @return the origin (scheme, host and port) this breaker guards
+	 */
+	public String getOrigin() {
+		return origin;
+	}
+
+	/**
+	 * @return current state; an open breaker whose open period has
+	 *   elapsed only turns half-open when the next call is attempted
+	 */
+	public synchronized State getState() {
+		return state;
+	}
+
+	/**
+	 * @return fraction of calls in the current window that failed
+	 */
+	public synchronized double getFailureRate() {
+		return (count == 0) ? 0.0 : (double)failures / count;
+	}
+
+	/**
+	 * @return fraction of calls in the current window that were slow
+	 */
+	public synchronized double getSlowCallRate() {
+		return (count == 0) ? 0.0 : (double)slowCalls / count;
+	}
+}
@@ -0,0 +1,32 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+/**
+ * Told when a {@link CircuitBreaker} changes state.
+ */
+public interface CircuitBreakerListener {
+
+	/**
+	 * Called after the breaker has changed state, on the thread whose
+	 * request caused the change.
+	 * @param breaker the breaker
+	 * @param from previous state
+	 * @param to new state
+	 */
+	void stateChanged(CircuitBreaker breaker, CircuitBreaker.State from,
+			CircuitBreaker.State to);
+}
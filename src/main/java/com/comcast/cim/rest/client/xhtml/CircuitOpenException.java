@@ -0,0 +1,38 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+/**
+ * Raised when a request is refused because the origin's
+ * {@link CircuitBreaker} is open.
+ */
+public class CircuitOpenException extends OriginUnavailableException {
+
+	private static final long serialVersionUID = 1L;
+
+	private long retryAfterMillis;
+
+	public CircuitOpenException(String origin, long retryAfterMillis) {
+		super(origin, "circuit open for " + origin);
+		this.retryAfterMillis = retryAfterMillis;
+	}
+
+	/**
+	 * @return how long, in milliseconds, until the breaker lets a trial
+	 *   request through; zero if trial requests are already under way
+	 */
+	public long getRetryAfterMillis() { return retryAfterMillis; }
+}
@@ -0,0 +1,167 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Concurrency limit that adapts to how an origin copes with load,
+ * using additive increase and multiplicative decrease. The limit
+ * grows by one for every <code>limit</code> successful requests made
+ * while at least half of it was in use, and is cut back when the
+ * server signals overload or the smoothed round trip time climbs well
+ * above the origin's unloaded round trip time (the latency gradient).
+ * The limit is cut at most once per window of <code>limit</code>
+ * completed requests, so a burst of slow responses counts once.
+ * <p>
+ * The unloaded round trip time is the lowest smoothed round trip time
+ * seen, decaying slowly towards the current one so it can recover if
+ * the origin's normal latency rises; a single fast response therefore
+ * does not make every later one look slow.
+ */
+class ConcurrencyLimit {
+
+	/** Weight of the latest sample in the smoothed round trip time. */
+	private static final double SMOOTHING = 0.2;
+	/** Samples taken before the latency gradient is trusted. */
+	private static final int WARMUP_SAMPLES = 10;
+
+	private final int minLimit;
+	private final int maxLimit;
+	private final double backoffRatio;
+	private final double latencyTolerance;
+	private final int rttDecayInterval;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition available = lock.newCondition();
+
+	private double limit;
+	private int inFlight;
+	private double smoothedRtt = -1;
+	private double noLoadRtt = -1;
+	private int samples;
+	private int sinceBackoff = Integer.MAX_VALUE;
+
+	ConcurrencyLimit(int initialLimit, int minLimit, int maxLimit,
+			double backoffRatio, double latencyTolerance, int rttDecayInterval) {
+		this.limit = initialLimit;
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.backoffRatio = backoffRatio;
+		this.latencyTolerance = latencyTolerance;
+		this.rttDecayInterval = rttDecayInterval;
+	}
+
+	/**
+	 * Takes a slot, waiting for one if the limit has been reached.
+	 * @param waitMillis how long to wait at most
+	 * @return <code>false</code> if no slot became free in time
+	 * @throws InterruptedException
+	 */
+	boolean acquire(long waitMillis) throws InterruptedException {
+		long left = TimeUnit.MILLISECONDS.toNanos(waitMillis);
+		lock.lockInterruptibly();
+		try {
+			while(inFlight >= (int)limit) {
+				if (left <= 0) return false;
+				left = available.awaitNanos(left);
+			}
+			inFlight++;
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Gives back a slot without adjusting the limit, e.g. because the
+	 * request failed for reasons that say nothing about load.
+	 */
+	void release() {
+		lock.lock();
+		try {
+			inFlight--;
+			available.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Gives back a slot and adjusts the limit.
+	 * @param rttMillis how long the request took
+	 * @param overloaded whether the server said it was overloaded
+	 */
+	void release(long rttMillis, boolean overloaded) {
+		lock.lock();
+		try {
+			int used = inFlight;
+			inFlight--;
+			sample(rttMillis);
+			if (sinceBackoff < Integer.MAX_VALUE) sinceBackoff++;
+			if (overloaded || isLatencyHigh()) {
+				if (sinceBackoff >= (int)limit) {
+					limit = Math.max(minLimit, limit * backoffRatio);
+					sinceBackoff = 0;
+				}
+			} else if (used * 2 >= limit) {
+				limit = Math.min(maxLimit, limit + 1.0 / limit);
+			}
+			available.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void sample(long rttMillis) {
+		samples++;
+		if (smoothedRtt < 0) {
+			smoothedRtt = rttMillis;
+		} else {
+			smoothedRtt += SMOOTHING * (rttMillis - smoothedRtt);
+		}
+		if (samples < WARMUP_SAMPLES) return;
+		if (noLoadRtt < 0 || smoothedRtt < noLoadRtt) {
+			noLoadRtt = smoothedRtt;
+		} else {
+			noLoadRtt += (smoothedRtt - noLoadRtt) / rttDecayInterval;
+		}
+	}
+
+	private boolean isLatencyHigh() {
+		return noLoadRtt >= 0 && smoothedRtt > latencyTolerance * Math.max(1, noLoadRtt);
+	}
+
+	int getLimit() {
+		lock.lock();
+		try {
+			return (int)limit;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	int getInFlight() {
+		lock.lock();
+		try {
+			return inFlight;
+		} finally {
+			lock.unlock();
+		}
+	}
+}
@@ -0,0 +1,84 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+/**
+ * Snapshot of how busy a pool of HTTP connections is: how many
+ * connections are leased to requests, how many sit idle waiting to be
+ * reused, and how many requests are queued for a connection.
+ */
+public class ConnectionPoolStats {
+
+	private final int leased;
+	private final int available;
+	private final int pending;
+	private final int maxTotal;
+	private final int defaultMaxPerRoute;
+
+	public ConnectionPoolStats(int leased, int available, int pending,
+			int maxTotal, int defaultMaxPerRoute) {
+		this.leased = leased;
+		this.available = available;
+		this.pending = pending;
+		this.maxTotal = maxTotal;
+		this.defaultMaxPerRoute = defaultMaxPerRoute;
+	}
+
+	/**
+	 * @return number of connections currently leased to requests
+	 */
+	public int getLeased() { return leased; }
+
+	/**
+	 * @return number of open connections sitting idle in the pool
+	 */
+	public int getAvailable() { return available; }
+
+	/**
+	 * @return number of requests waiting for a connection
+	 */
+	public int getPending() { return pending; }
+
+	/**
+	 * @return number of open connections, whether leased or idle
+	 */
+	public int getConnectionsInPool() { return leased + available; }
+
+	/**
+	 * @return maximum number of open connections
+	 */
+	public int getMaxTotal() { return maxTotal; }
+
+	/**
+	 * @return maximum number of open connections to one route
+	 */
+	public int getDefaultMaxPerRoute() { return defaultMaxPerRoute; }
+
+	/**
+	 * @return fraction of the total connection limit that is leased
+	 *   to requests, between 0 and 1; idle connections do not count
+	 */
+	public double getUtilization() {
+		return (maxTotal <= 0) ? 0 : (double)leased / maxTotal;
+	}
+
+	@Override
+	public String toString() {
+		return "ConnectionPoolStats[leased=" + leased + ", available=" + available
+			+ ", pending=" + pending + ", maxTotal=" + maxTotal
+			+ ", maxPerRoute=" + defaultMaxPerRoute + "]";
+	}
+}
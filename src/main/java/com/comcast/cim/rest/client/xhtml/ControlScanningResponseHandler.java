@@ -0,0 +1,98 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+import java.io.IOException;
+import java.net.URL;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.jdom.Document;
+import org.jdom.Element;
+import org.jdom.JDOMException;
+import org.xml.sax.SAXException;
+
+/**
+ * Response handler that scans the response body only until a given
+ * control is found. As soon as the target link or form has been read
+ * the connection is aborted, so the rest of the body is neither
+ * downloaded nor parsed, and the resulting application state is
+ * marked {@linkplain XhtmlApplicationState#isPartial() partial}.
+ * If the target never appears, the whole body is scanned and the
+ * state holds all of the page's controls.
+ */
+public class ControlScanningResponseHandler extends ControlsOnlyResponseHandler {
+
+	private ControlTarget target;
+	private boolean targetFound;
+
+	public ControlScanningResponseHandler(URL context, XMLReaderPool readerPool,
+			ControlTarget target) {
+		super(context, readerPool);
+		this.target = target;
+	}
+
+	@Override
+	protected Document parseEntity(HttpEntity entity)
+			throws JDOMException, IOException {
+		ScanningHandler handler = new ScanningHandler(target);
+		try {
+			return parseControls(entity, handler);
+		} catch (JDOMException e) {
+			if (!handler.found) throw e;
+			targetFound = true;
+			abortConnection(entity);
+			return handler.getDocument();
+		}
+	}
+
+	@Override
+	protected XhtmlApplicationState createState(HttpResponse resp, Document doc) {
+		return new XhtmlApplicationState(getContext(), resp, doc, targetFound);
+	}
+
+	/**
+	 * @return the control this handler is scanning for
+	 */
+	public ControlTarget getTarget() {
+		return target;
+	}
+
+	private static class ScanningHandler extends HypermediaControlsHandler {
+		private ControlTarget target;
+		private boolean found;
+
+		ScanningHandler(ControlTarget target) {
+			this.target = target;
+		}
+
+		@Override
+		protected void controlEnded(Element control) throws SAXException {
+			if (target.matches(control)) {
+				found = true;
+				throw new TargetFound();
+			}
+		}
+	}
+
+	private static class TargetFound extends SAXException {
+		private static final long serialVersionUID = 1L;
+
+		TargetFound() {
+			super("target control found");
+		}
+	}
+}
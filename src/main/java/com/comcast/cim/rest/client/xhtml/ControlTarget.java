@@ -0,0 +1,93 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+import org.jdom.Element;
+
+/**
+ * Identifies the hypermedia control a client intends to use next:
+ * either a link with a given relation or a form with a given name.
+ */
+public class ControlTarget {
+
+	private final boolean link;
+	private final String key;
+
+	private ControlTarget(boolean link, String key) {
+		if (key == null) throw new IllegalArgumentException("target may not be null");
+		this.link = link;
+		this.key = key;
+	}
+
+	/**
+	 * @param rel link relation
+	 * @return target matching the first &lt;a&gt; with the relation
+	 */
+	public static ControlTarget link(String rel) {
+		return new ControlTarget(true, rel);
+	}
+
+	/**
+	 * @param name form name
+	 * @return target matching the first &lt;form&gt; with the name
+	 */
+	public static ControlTarget form(String name) {
+		return new ControlTarget(false, name);
+	}
+
+	/**
+	 * @param control an XHTML element
+	 * @return {@code true} iff the element is the control described
+	 *   by this target
+	 */
+	public boolean matches(Element control) {
+		if (!XhtmlParser.XHTML_NS_URI.equals(control.getNamespaceURI())) return false;
+		if (!link) {
+			return "form".equals(control.getName())
+				&& key.equals(control.getAttributeValue("name"));
+		}
+		if (!"a".equals(control.getName())) return false;
+		String rels = control.getAttributeValue("rel");
+		if (rels == null) return false;
+		for(String rel : rels.trim().split("\\s+")) {
+			if (key.equals(rel)) return true;
+		}
+		return false;
+	}
+
+	/** @return {@code true} for link targets, {@code false} for forms */
+	public boolean isLink() { return link; }
+
+	/** @return the link relation or form name */
+	public String getKey() { return key; }
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof ControlTarget)) return false;
+		ControlTarget other = (ControlTarget)o;
+		return link == other.link && key.equals(other.key);
+	}
+
+	@Override
+	public int hashCode() {
+		return key.hashCode() * 31 + (link ? 1 : 0);
+	}
+
+	@Override
+	public String toString() {
+		return (link ? "link rel=" : "form name=") + key;
+	}
+}
@@ -0,0 +1,71 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+import java.io.IOException;
+import java.net.URL;
+
+import org.apache.http.HttpEntity;
+import org.jdom.Document;
+import org.jdom.JDOMException;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+/**
+ * Response handler that streams XHTML response bodies through a
+ * {@link HypermediaControlsHandler}, so the resulting application
+ * state only holds the links and forms of the page rather than
+ * a full document tree.
+ */
+public class ControlsOnlyResponseHandler extends XhtmlResponseHandler {
+
+	private XMLReaderPool readerPool;
+
+	public ControlsOnlyResponseHandler(URL context, XMLReaderPool readerPool) {
+		super(context);
+		this.readerPool = readerPool;
+	}
+
+	@Override
+	protected Document parseEntity(HttpEntity entity)
+			throws JDOMException, IOException {
+		return parseControls(entity, new HypermediaControlsHandler());
+	}
+
+	protected Document parseControls(HttpEntity entity,
+			HypermediaControlsHandler handler) throws JDOMException, IOException {
+		XMLReader reader = readerPool.borrow();
+		try {
+			reader.setContentHandler(handler);
+			reader.setErrorHandler(handler);
+			reader.parse(new InputSource(entity.getContent()));
+			return handler.getDocument();
+		} catch (SAXException e) {
+			throw new JDOMException("unable to parse response body: " + e.getMessage(), e);
+		} catch (RuntimeException e) {
+			readerPool.discard(reader);
+			reader = null;
+			throw e;
+		} finally {
+			readerPool.release(reader);
+		}
+	}
+
+	protected XMLReaderPool getReaderPool() {
+		return readerPool;
+	}
+}
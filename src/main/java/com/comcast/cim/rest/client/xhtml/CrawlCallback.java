@@ -0,0 +1,41 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+import java.net.URI;
+
+/**
+ * Receives the resources reached by a {@link Crawler}. Methods are
+ * called concurrently from the crawl's worker threads.
+ */
+public interface CrawlCallback {
+
+	/**
+	 * Called for every resource successfully retrieved.
+	 * @param state application state of the resource
+	 * @param depth number of links followed from the entry point
+	 */
+	void visited(XhtmlApplicationState state, int depth);
+
+	/**
+	 * Called for every resource that could not be retrieved, or whose
+	 * response did not have a 2XX status ({@link ServerErrorException}).
+	 * @param uri the resource
+	 * @param depth number of links followed from the entry point
+	 * @param cause what went wrong
+	 */
+	void failed(URI uri, int depth, Throwable cause);
+}
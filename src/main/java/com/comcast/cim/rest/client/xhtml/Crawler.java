@@ -0,0 +1,432 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.jdom.Element;
+import org.jdom.JDOMException;
+
+/**
+ * Retrieves every resource reachable from an entry point by following
+ * links with a configured set of relations, handing each one to a
+ * {@link CrawlCallback}.
+ * <p>
+ * Each worker keeps its own deque of resources to fetch: links found
+ * on a page are added to the back of the finding worker's deque and
+ * taken from the front, so each worker crawls breadth-first and a
+ * resource is normally first reached, and so visited, by its shortest
+ * path from the entry point. A worker that runs out of work steals
+ * from the back of another's. Consecutive requests to one
+ * origin (scheme, host and port) are spaced by a politeness delay; a
+ * worker holding a resource whose origin is not yet due moves on to
+ * other work in the meantime. Resources already reached are remembered
+ * in a {@link VisitedUrlSet}, so each is fetched at most once, and the
+ * frontier only holds URL strings, which lets a crawl cover millions
+ * of resources on one node.
+ * <p>
+ * Workers run on virtual threads when the runtime has them, otherwise
+ * on a pool of platform threads. A crawler runs one crawl at a time.
+ */
+public class Crawler {
+
+	public static final int DEFAULT_PARALLELISM = 16;
+
+	private static final long IDLE_NANOS = 1000000L;
+
+	private final XhtmlParser parser;
+	private final RequestBuilder builder;
+	private final XhtmlHttpClient client;
+	private final List<String> rels;
+
+	private volatile int parallelism = DEFAULT_PARALLELISM;
+	private volatile int maxDepth = Integer.MAX_VALUE;
+	private volatile long maxResources = Long.MAX_VALUE;
+	private volatile long politenessMillis;
+
+	private volatile boolean stopped;
+	private volatile Worker[] workers;
+	private VisitedUrlSet visitedUrls;
+	private ConcurrentMap<String, AtomicLong> nextRequestAt;
+	private CrawlCallback callback;
+	private final AtomicLong pending = new AtomicLong();
+	private final AtomicLong admitted = new AtomicLong();
+	private final AtomicLong visited = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong duplicates = new AtomicLong();
+	private final AtomicLong steals = new AtomicLong();
+	private final AtomicReference<RuntimeException> callbackError =
+		new AtomicReference<RuntimeException>();
+
+	/**
+	 * @param parser parser used to find links
+	 * @param builder builds the request for each link
+	 * @param client client used to fetch resources
+	 * @param rels link relations to follow
+	 */
+	public Crawler(XhtmlParser parser, RequestBuilder builder, XhtmlHttpClient client,
+			String... rels) {
+		this.parser = parser;
+		this.builder = builder;
+		this.client = client;
+		this.rels = Arrays.asList(rels.clone());
+	}
+
+	/** A resource waiting to be fetched. */
+	private static class Task {
+		final String uri;
+		final int depth;
+
+		Task(String uri, int depth) {
+			this.uri = uri;
+			this.depth = depth;
+		}
+	}
+
+	/**
+	 * Crawls from the given entry point, returning once every reachable
+	 * resource has been handled or the crawl is stopped. The entry
+	 * point itself is passed to the callback at depth zero.
+	 * @param entry application state to start from
+	 * @param callback receives the resources reached
+	 * @return number of resources successfully visited, including the
+	 *   entry point
+	 * @throws InterruptedException if interrupted while waiting; the
+	 *   crawl is stopped
+	 * @throws RuntimeException if the callback throws one; the crawl is
+	 *   stopped
+	 */
+	public long crawl(XhtmlApplicationState entry, CrawlCallback callback)
+			throws InterruptedException {
+		int n = parallelism;
+		reset(callback, n);
+		visitedUrls.add(normalize(entry.getContext().toString()));
+		admitted.incrementAndGet();
+		pending.incrementAndGet();
+		handle(entry, 0, workers[0]);
+		pending.decrementAndGet();
+
+		ExecutorService exec = NavigationRunner.newVirtualThreadExecutor();
+		if (exec == null) {
+			exec = Executors.newFixedThreadPool(n,
+					new AsyncExecutors.DaemonThreadFactory("xhtml-crawl-"));
+		}
+		CountDownLatch done = new CountDownLatch(n);
+		try {
+			for(Worker w : workers) {
+				w.done = done;
+				exec.execute(w);
+			}
+			done.await();
+		} catch (InterruptedException e) {
+			stopped = true;
+			throw e;
+		} finally {
+			exec.shutdown();
+		}
+		RuntimeException e = callbackError.get();
+		if (e != null) throw e;
+		return visited.get();
+	}
+
+	private void reset(CrawlCallback callback, int n) {
+		this.callback = callback;
+		stopped = false;
+		visitedUrls = new VisitedUrlSet();
+		nextRequestAt = new ConcurrentHashMap<String, AtomicLong>();
+		pending.set(0);
+		admitted.set(0);
+		visited.set(0);
+		failed.set(0);
+		duplicates.set(0);
+		steals.set(0);
+		callbackError.set(null);
+		Worker[] ws = new Worker[n];
+		for(int i = 0; i < n; i++) ws[i] = new Worker(i);
+		workers = ws;
+	}
+
+	/**
+	 * Stops the crawl in progress. Requests already under way complete,
+	 * but nothing further is fetched.
+	 */
+	public void stop() {
+		stopped = true;
+	}
+
+	private class Worker implements Runnable {
+		final LinkedBlockingDeque<Task> deque = new LinkedBlockingDeque<Task>();
+		final int index;
+		final Random random;
+		CountDownLatch done;
+
+		Worker(int index) {
+			this.index = index;
+			this.random = new Random(index);
+		}
+
+		public void run() {
+			try {
+				int deferred = 0;
+				while(!stopped && pending.get() > 0) {
+					Task t = deque.pollFirst();
+					if (t == null) t = steal();
+					if (t == null) {
+						LockSupport.parkNanos(IDLE_NANOS);
+						continue;
+					}
+					long wait = reserve(t);
+					if (wait > 0) {
+						/* origin not due yet: work on something else */
+						deque.offerLast(t);
+						if (++deferred >= deque.size()) {
+							deferred = 0;
+							pause(Math.min(wait, Math.max(1, politenessMillis)));
+						}
+						continue;
+					}
+					deferred = 0;
+					try {
+						visit(t, this);
+					} finally {
+						pending.decrementAndGet();
+					}
+				}
+			} finally {
+				done.countDown();
+			}
+		}
+
+		private Task steal() {
+			Worker[] ws = workers;
+			int start = random.nextInt(ws.length);
+			for(int i = 0; i < ws.length; i++) {
+				Worker victim = ws[(start + i) % ws.length];
+				if (victim == this) continue;
+				Task t = victim.deque.pollLast();
+				if (t != null) {
+					steals.incrementAndGet();
+					return t;
+				}
+			}
+			return null;
+		}
+	}
+
+	private static void pause(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Claims the next request slot for the task's origin.
+	 * @return zero if the request may go now, otherwise how many
+	 *   milliseconds until it may
+	 */
+	private long reserve(Task t) {
+		long delay = politenessMillis;
+		if (delay <= 0) return 0;
+		String origin = OriginGuard.originOf(URI.create(t.uri));
+		AtomicLong next = nextRequestAt.get(origin);
+		if (next == null) {
+			AtomicLong created = new AtomicLong();
+			next = nextRequestAt.putIfAbsent(origin, created);
+			if (next == null) next = created;
+		}
+		for(;;) {
+			long now = System.currentTimeMillis();
+			long at = next.get();
+			if (at > now) return at - now;
+			if (next.compareAndSet(at, now + delay)) return 0;
+		}
+	}
+
+	private void visit(Task t, Worker worker) {
+		URI uri = URI.create(t.uri);
+		XhtmlApplicationState state;
+		try {
+			state = client.execute(new HttpGet(uri));
+		} catch (IOException e) {
+			fail(uri, t.depth, e);
+			return;
+		} catch (RuntimeException e) {
+			fail(uri, t.depth, e);
+			return;
+		}
+		if (!state.succeeded()) {
+			fail(uri, t.depth, new ServerErrorException(state.getHttpResponse()));
+			return;
+		}
+		handle(state, t.depth, worker);
+	}
+
+	private void handle(XhtmlApplicationState state, int depth, Worker worker) {
+		visited.incrementAndGet();
+		try {
+			callback.visited(state, depth);
+		} catch (RuntimeException e) {
+			callbackError.compareAndSet(null, e);
+			stopped = true;
+			return;
+		}
+		if (depth < maxDepth) expand(state, depth + 1, worker);
+	}
+
+	private void fail(URI uri, int depth, Throwable cause) {
+		failed.incrementAndGet();
+		try {
+			callback.failed(uri, depth, cause);
+		} catch (RuntimeException e) {
+			callbackError.compareAndSet(null, e);
+			stopped = true;
+		}
+	}
+
+	private void expand(XhtmlApplicationState state, int depth, Worker worker) {
+		for(String rel : rels) {
+			List<Element> links;
+			try {
+				links = parser.getLinksWithRelation(state, rel);
+			} catch (JDOMException e) {
+				continue;
+			}
+			for(Element a : links) {
+				HttpUriRequest req;
+				try {
+					req = builder.followLink(a, state.getContext());
+				} catch (IOException e) {
+					continue;
+				} catch (IllegalArgumentException e) {
+					continue;
+				}
+				String uri = normalize(req.getURI().toString());
+				if (!shouldFollow(URI.create(uri), rel, depth)) continue;
+				if (!visitedUrls.add(uri)) {
+					duplicates.incrementAndGet();
+					continue;
+				}
+				if (admitted.incrementAndGet() > maxResources) return;
+				pending.incrementAndGet();
+				worker.deque.offerLast(new Task(uri, depth));
+			}
+		}
+	}
+
+	private static String normalize(String uri) {
+		int hash = uri.indexOf('#');
+		return (hash < 0) ? uri : uri.substring(0, hash);
+	}
+
+	/**
+	 * Decides whether to follow a link. Follows every link by default;
+	 * override to, for example, stay on one origin.
+	 * @param uri resolved link target, without fragment
+	 * @param rel relation the link was found by
+	 * @param depth depth the target would be visited at
+	 * @return <code>true</code> to follow the link
+	 */
+	protected boolean shouldFollow(URI uri, String rel, int depth) {
+		return true;
+	}
+
+	/**
+	 * @param parallelism number of workers, and so of requests in flight
+	 */
+	public void setParallelism(int parallelism) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("parallelism must be positive");
+		}
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * @param maxDepth maximum number of links to follow from the entry
+	 *   point
+	 */
+	public void setMaxDepth(int maxDepth) {
+		this.maxDepth = maxDepth;
+	}
+
+	/**
+	 * @param maxResources maximum number of resources to fetch,
+	 *   including the entry point; links found after this many
+	 *   resources have been admitted are not followed
+	 */
+	public void setMaxResources(long maxResources) {
+		this.maxResources = maxResources;
+	}
+
+	/**
+	 * @param politenessMillis minimum time between the starts of two
+	 *   requests to the same origin; zero for none
+	 */
+	public void setPolitenessDelay(long politenessMillis) {
+		this.politenessMillis = politenessMillis;
+	}
+
+	/**
+	 * @return resources successfully visited by the current or last crawl
+	 */
+	public long getVisitedCount() {
+		return visited.get();
+	}
+
+	/**
+	 * @return resources that could not be retrieved
+	 */
+	public long getFailedCount() {
+		return failed.get();
+	}
+
+	/**
+	 * @return links skipped because their target had already been reached
+	 */
+	public long getDuplicateCount() {
+		return duplicates.get();
+	}
+
+	/**
+	 * @return resources an idle worker took from another worker's deque
+	 */
+	public long getStealCount() {
+		return steals.get();
+	}
+
+	/**
+	 * @return resources found but not yet handled
+	 */
+	public long getPendingCount() {
+		return pending.get();
+	}
+}
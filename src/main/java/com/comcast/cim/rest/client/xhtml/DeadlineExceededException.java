@@ -0,0 +1,45 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Raised when a navigation runs past the deadline of its
+ * {@link NavigationContext}. Any request in flight at the deadline has
+ * been aborted.
+ */
+public class DeadlineExceededException extends InterruptedIOException {
+
+	private static final long serialVersionUID = 1L;
+
+	private long deadline;
+
+	public DeadlineExceededException(long deadline) {
+		super("navigation deadline exceeded");
+		this.deadline = deadline;
+	}
+
+	public DeadlineExceededException(long deadline, Throwable cause) {
+		this(deadline);
+		initCause(cause);
+	}
+
+	/**
+	 * @return the deadline that passed, in milliseconds since the epoch
+	 */
+	public long getDeadline() { return deadline; }
+}
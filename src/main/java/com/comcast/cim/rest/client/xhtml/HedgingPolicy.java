@@ -0,0 +1,115 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides when to send a second, "hedge" copy of an idempotent request
+ * that is taking unusually long. The delay is the 95th percentile of
+ * recently observed latencies (but no less than a minimum), so only
+ * about one request in twenty is hedged; until enough latencies have
+ * been observed a fixed initial delay is used. Whichever copy responds
+ * first is used and the other is cancelled.
+ */
+public class HedgingPolicy {
+
+	public static final double DEFAULT_PERCENTILE = 0.95;
+	public static final long DEFAULT_INITIAL_DELAY_MILLIS = 500;
+	public static final long DEFAULT_MIN_DELAY_MILLIS = 10;
+	public static final int DEFAULT_WINDOW = 256;
+	public static final int MIN_SAMPLES = 20;
+
+	private final LatencyTracker latencies;
+	private volatile double percentile = DEFAULT_PERCENTILE;
+	private volatile long initialDelayMillis = DEFAULT_INITIAL_DELAY_MILLIS;
+	private volatile long minDelayMillis = DEFAULT_MIN_DELAY_MILLIS;
+	private final AtomicLong hedged = new AtomicLong();
+	private final AtomicLong hedgeWins = new AtomicLong();
+
+	public HedgingPolicy() {
+		this(DEFAULT_WINDOW);
+	}
+
+	/**
+	 * @param window number of recent latencies the delay is based on
+	 */
+	public HedgingPolicy(int window) {
+		latencies = new LatencyTracker(window);
+	}
+
+	/**
+	 * @return how long to wait for a response before hedging
+	 */
+	public long getHedgeDelayMillis() {
+		if (latencies.getCount() < MIN_SAMPLES) return initialDelayMillis;
+		return Math.max(minDelayMillis, latencies.getPercentile(percentile));
+	}
+
+	/**
+	 * Records the latency of a completed request, measured from when
+	 * it was first sent whether or not a hedge answered it.
+	 * @param millis latency in milliseconds
+	 */
+	public void recordLatency(long millis) {
+		latencies.record(millis);
+	}
+
+	void recordHedge() {
+		hedged.incrementAndGet();
+	}
+
+	void recordHedgeWin() {
+		hedgeWins.incrementAndGet();
+	}
+
+	/**
+	 * @param percentile latency percentile, between 0 and 1, after which
+	 *   to hedge
+	 */
+	public void setPercentile(double percentile) {
+		this.percentile = percentile;
+	}
+
+	/**
+	 * @param initialDelayMillis delay used until enough latencies
+	 *   have been observed
+	 */
+	public void setInitialDelay(long initialDelayMillis) {
+		this.initialDelayMillis = initialDelayMillis;
+	}
+
+	/**
+	 * @param minDelayMillis lower bound on the hedging delay
+	 */
+	public void setMinDelay(long minDelayMillis) {
+		this.minDelayMillis = minDelayMillis;
+	}
+
+	/**
+	 * @return number of hedge requests sent
+	 */
+	public long getHedgedCount() {
+		return hedged.get();
+	}
+
+	/**
+	 * @return number of hedge requests that responded first
+	 */
+	public long getHedgeWinCount() {
+		return hedgeWins.get();
+	}
+}
@@ -0,0 +1,47 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+import java.io.IOException;
+
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpUriRequest;
+
+/**
+ * {@link XhtmlTransport} backed by an Apache {@link HttpClient}.
+ */
+public class HttpClientTransport implements XhtmlTransport {
+
+	private HttpClient httpClient;
+
+	public HttpClientTransport(HttpClient httpClient) {
+		this.httpClient = httpClient;
+	}
+
+	public <T> T execute(HttpUriRequest req, ResponseHandler<? extends T> handler)
+			throws ClientProtocolException, IOException {
+		return httpClient.execute(req, handler);
+	}
+
+	/**
+	 * @return the underlying {@link HttpClient}
+	 */
+	public HttpClient getHttpClient() {
+		return httpClient;
+	}
+}
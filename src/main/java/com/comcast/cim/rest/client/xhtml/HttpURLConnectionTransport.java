@@ -0,0 +1,221 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.AbortableHttpRequest;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.ConnectionReleaseTrigger;
+import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.params.CoreConnectionPNames;
+import org.apache.http.params.HttpParams;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * {@link XhtmlTransport} built on the JDK's {@link HttpURLConnection},
+ * which keeps a pool of persistent connections per origin (see the
+ * <code>http.keepAlive</code> and <code>http.maxConnections</code>
+ * system properties). A connection is returned to that pool when the
+ * response body has been read to the end, and dropped when the response
+ * is aborted. Connect and read timeouts given in a request's parameters
+ * are used where they are shorter than the transport's own.
+ */
+public class HttpURLConnectionTransport implements XhtmlTransport {
+
+	private int connectTimeout;
+	private int readTimeout;
+
+	public <T> T execute(HttpUriRequest req, ResponseHandler<? extends T> handler)
+			throws ClientProtocolException, IOException {
+		URL url = req.getURI().toURL();
+		final HttpURLConnection conn = (HttpURLConnection)url.openConnection();
+		if (req instanceof AbortableHttpRequest) {
+			((AbortableHttpRequest)req).setReleaseTrigger(new ConnectionReleaseTrigger() {
+				public void abortConnection() { conn.disconnect(); }
+				public void releaseConnection() { }
+			});
+		}
+		conn.setRequestMethod(req.getMethod());
+		HttpParams params = req.getParams();
+		conn.setConnectTimeout(timeout(connectTimeout,
+				params.getIntParameter(CoreConnectionPNames.CONNECTION_TIMEOUT, 0)));
+		conn.setReadTimeout(timeout(readTimeout,
+				params.getIntParameter(CoreConnectionPNames.SO_TIMEOUT, 0)));
+		conn.setUseCaches(false);
+		for(Header h : req.getAllHeaders()) {
+			conn.addRequestProperty(h.getName(), h.getValue());
+		}
+		writeBody(req, conn);
+		
+		HttpResponse resp = readResponse(conn);
+		HttpEntity entity = resp.getEntity();
+		try {
+			return handler.handleResponse(resp);
+		} finally {
+			if (entity != null) {
+				try {
+					EntityUtils.consume(entity);
+				} catch (IOException e) {
+					conn.disconnect();
+				}
+			}
+		}
+	}
+
+	private void writeBody(HttpUriRequest req, HttpURLConnection conn) 
+			throws IOException {
+		if (!(req instanceof HttpEntityEnclosingRequest)) return;
+		HttpEntity entity = ((HttpEntityEnclosingRequest)req).getEntity();
+		if (entity == null) return;
+		conn.setDoOutput(true);
+		if (entity.getContentType() != null 
+				&& conn.getRequestProperty("Content-Type") == null) {
+			conn.setRequestProperty("Content-Type", entity.getContentType().getValue());
+		}
+		long len = entity.getContentLength();
+		if (len >= 0 && len <= Integer.MAX_VALUE) {
+			conn.setFixedLengthStreamingMode((int)len);
+		} else {
+			conn.setChunkedStreamingMode(0);
+		}
+		OutputStream out = conn.getOutputStream();
+		try {
+			entity.writeTo(out);
+		} finally {
+			out.close();
+		}
+	}
+
+	private HttpResponse readResponse(HttpURLConnection conn) throws IOException {
+		int status = conn.getResponseCode();
+		if (status < 0) {
+			conn.disconnect();
+			throw new ClientProtocolException("invalid HTTP response from " + conn.getURL());
+		}
+		HttpResponse resp = new BasicHttpResponse(HttpVersion.HTTP_1_1, status,
+				conn.getResponseMessage());
+		for(int i = 0; ; i++) {
+			String value = conn.getHeaderField(i);
+			if (value == null) break;
+			String name = conn.getHeaderFieldKey(i);
+			if (name != null) resp.addHeader(name, value);
+		}
+		InputStream in = (status >= 400) ? conn.getErrorStream() : conn.getInputStream();
+		if (in != null) {
+			BasicHttpEntity entity = new BasicHttpEntity();
+			entity.setContent(new ConnectionInputStream(in, conn));
+			entity.setContentLength(conn.getContentLength());
+			entity.setContentType(resp.getFirstHeader("Content-Type"));
+			entity.setContentEncoding(resp.getFirstHeader("Content-Encoding"));
+			resp.setEntity(entity);
+		}
+		return resp;
+	}
+
+	/** The shorter of two timeouts, where zero means none. */
+	private static int timeout(int configured, int requested) {
+		if (requested <= 0) return configured;
+		if (configured <= 0) return requested;
+		return Math.min(configured, requested);
+	}
+
+	/**
+	 * Sets how long to wait for a connection to be established.
+	 * @param connectTimeout timeout in milliseconds, or zero to wait
+	 *   indefinitely (the default)
+	 */
+	public void setConnectTimeout(int connectTimeout) {
+		this.connectTimeout = connectTimeout;
+	}
+
+	public int getConnectTimeout() {
+		return connectTimeout;
+	}
+
+	/**
+	 * Sets how long to wait for data from the server.
+	 * @param readTimeout timeout in milliseconds, or zero to wait
+	 *   indefinitely (the default)
+	 */
+	public void setReadTimeout(int readTimeout) {
+		this.readTimeout = readTimeout;
+	}
+
+	public int getReadTimeout() {
+		return readTimeout;
+	}
+
+	/**
+	 * Response body that returns its connection to the JDK's pool
+	 * when released, or closes it when aborted.
+	 */
+	private static class ConnectionInputStream extends FilterInputStream
+		implements ConnectionReleaseTrigger {
+		private final HttpURLConnection conn;
+		private boolean done;
+
+		ConnectionInputStream(InputStream in, HttpURLConnection conn) {
+			super(in);
+			this.conn = conn;
+		}
+
+		@Override
+		public int read() throws IOException {
+			return done ? -1 : super.read();
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			return done ? -1 : super.read(b, off, len);
+		}
+
+		@Override
+		public void close() throws IOException {
+			releaseConnection();
+		}
+
+		public void releaseConnection() throws IOException {
+			if (done) return;
+			done = true;
+			try {
+				byte[] buf = new byte[4096];
+				while(in.read(buf) != -1) { }
+			} finally {
+				in.close();
+			}
+		}
+
+		public void abortConnection() throws IOException {
+			if (done) return;
+			done = true;
+			conn.disconnect();
+		}
+	}
+}
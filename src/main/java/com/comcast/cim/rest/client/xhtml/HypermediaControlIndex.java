@@ -0,0 +1,148 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.jdom.Document;
+import org.jdom.Element;
+
+/**
+ * Index of the hypermedia controls in a parsed XHTML document, built
+ * with a single traversal of the element tree. Links are indexed by
+ * each of the space-separated link relations in their @rel attribute,
+ * and forms by their @name attribute; both preserve document order.
+ * <p>
+ * The index reflects the document at the time it was built, so the
+ * document should not be modified afterwards.
+ */
+public class HypermediaControlIndex {
+
+	private Map<String, List<Element>> linksByRel = new HashMap<String, List<Element>>();
+	private Map<String, List<Element>> formsByName = new HashMap<String, List<Element>>();
+
+	/**
+	 * Indexes the controls found in the given document.
+	 * @param doc parsed XHTML document
+	 */
+	public HypermediaControlIndex(Document doc) {
+		this(doc.getRootElement());
+	}
+
+	/**
+	 * Indexes the controls found at or below the given element.
+	 * @param root element at which to start indexing
+	 */
+	public HypermediaControlIndex(Element root) {
+		LinkedList<Element> pending = new LinkedList<Element>();
+		pending.add(root);
+		while (!pending.isEmpty()) {
+			Element elt = pending.removeFirst();
+			index(elt);
+			List<?> children = elt.getChildren();
+			for(int i = children.size() - 1; i >= 0; i--) {
+				pending.addFirst((Element)children.get(i));
+			}
+		}
+	}
+
+	private void index(Element elt) {
+		if (!XhtmlParser.XHTML_NS_URI.equals(elt.getNamespaceURI())) return;
+		if ("a".equals(elt.getName())) {
+			String rels = elt.getAttributeValue("rel");
+			if (rels == null) return;
+			for(String rel : rels.trim().split("\\s+")) {
+				if (rel.length() > 0) add(linksByRel, rel, elt);
+			}
+		} else if ("form".equals(elt.getName())) {
+			String name = elt.getAttributeValue("name");
+			if (name != null) add(formsByName, name, elt);
+		}
+	}
+
+	private static void add(Map<String, List<Element>> m, String key, Element elt) {
+		List<Element> elts = m.get(key);
+		if (elts == null) {
+			elts = new ArrayList<Element>(1);
+			m.put(key, elts);
+		} else if (elts.get(elts.size() - 1) == elt) {
+			return;
+		}
+		elts.add(elt);
+	}
+
+	/**
+	 * @param rel link relation
+	 * @return first &lt;a&gt; element with the given relation, or
+	 *   {@code null} if there is none
+	 */
+	public Element getLinkWithRelation(String rel) {
+		return first(linksByRel.get(rel), null);
+	}
+
+	/**
+	 * @param root element whose descendants should be searched
+	 * @param rel link relation
+	 * @return first &lt;a&gt; element below {@code root} with the
+	 *   given relation, or {@code null} if there is none
+	 */
+	public Element getLinkWithRelation(Element root, String rel) {
+		return first(linksByRel.get(rel), root);
+	}
+
+	/**
+	 * @param rel link relation
+	 * @return all &lt;a&gt; elements with the given relation, in
+	 *   document order
+	 */
+	public List<Element> getLinksWithRelation(String rel) {
+		List<Element> links = linksByRel.get(rel);
+		if (links == null) return Collections.emptyList();
+		return Collections.unmodifiableList(links);
+	}
+
+	/**
+	 * @param name form name
+	 * @return first &lt;form&gt; element with the given @name, or
+	 *   {@code null} if there is none
+	 */
+	public Element getFormWithName(String name) {
+		return first(formsByName.get(name), null);
+	}
+
+	/**
+	 * @param root element whose descendants should be searched
+	 * @param name form name
+	 * @return first &lt;form&gt; element below {@code root} with the
+	 *   given @name, or {@code null} if there is none
+	 */
+	public Element getFormWithName(Element root, String name) {
+		return first(formsByName.get(name), root);
+	}
+
+	private static Element first(List<Element> candidates, Element root) {
+		if (candidates == null) return null;
+		for(Element elt : candidates) {
+			if (root == null || root.isAncestor(elt)) return elt;
+		}
+		return null;
+	}
+}
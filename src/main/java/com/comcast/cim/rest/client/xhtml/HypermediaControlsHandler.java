@@ -0,0 +1,126 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+import java.util.LinkedList;
+
+import org.jdom.Document;
+import org.jdom.Element;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * SAX handler that keeps only the hypermedia controls of an XHTML
+ * document: &lt;a&gt;, &lt;form&gt;, &lt;input&gt;, &lt;select&gt;
+ * and &lt;option&gt; elements with their attributes (plus the text
+ * of links and options). Everything else is dropped as it streams
+ * past. The controls are collected into a skeleton {@link Document}
+ * whose root is an XHTML &lt;html&gt; element; each control is
+ * attached to its nearest retained ancestor, so forms still contain
+ * their inputs and document order is preserved. The skeleton can be
+ * searched and submitted with {@link XhtmlParser} and
+ * {@link RequestBuilder} just like a fully parsed document.
+ */
+public class HypermediaControlsHandler extends DefaultHandler {
+
+	private Element root;
+	private LinkedList<Element> open = new LinkedList<Element>();
+	private LinkedList<Boolean> retained = new LinkedList<Boolean>();
+
+	@Override
+	public void startDocument() throws SAXException {
+		root = new Element("html", XhtmlParser.XHTML_NS);
+		open.clear();
+		retained.clear();
+		open.addFirst(root);
+	}
+
+	@Override
+	public void startElement(String uri, String localName, String qName,
+			Attributes atts) throws SAXException {
+		if (!isControl(uri, localName)) {
+			retained.addFirst(Boolean.FALSE);
+			return;
+		}
+		Element elt = new Element(localName, XhtmlParser.XHTML_NS);
+		for(int i = 0; i < atts.getLength(); i++) {
+			if ("".equals(atts.getURI(i))) {
+				elt.setAttribute(atts.getLocalName(i), atts.getValue(i));
+			}
+		}
+		open.getFirst().addContent(elt);
+		open.addFirst(elt);
+		retained.addFirst(Boolean.TRUE);
+		controlStarted(elt);
+	}
+
+	@Override
+	public void endElement(String uri, String localName, String qName)
+			throws SAXException {
+		if (retained.removeFirst().booleanValue()) {
+			Element elt = open.removeFirst();
+			controlEnded(elt);
+		}
+	}
+
+	@Override
+	public void characters(char[] ch, int start, int length)
+			throws SAXException {
+		if (open.size() < 2) return;
+		Element current = open.getFirst();
+		String name = current.getName();
+		if ("a".equals(name) || "option".equals(name)) {
+			current.addContent(new String(ch, start, length));
+		}
+	}
+
+	/**
+	 * Invoked after a control element has been added to the skeleton,
+	 * before any of its content has been seen.
+	 * @param control newly retained element
+	 * @throws SAXException to abort parsing
+	 */
+	protected void controlStarted(Element control) throws SAXException {
+	}
+
+	/**
+	 * Invoked once a control element and all of its content have
+	 * been read.
+	 * @param control completed element
+	 * @throws SAXException to abort parsing
+	 */
+	protected void controlEnded(Element control) throws SAXException {
+	}
+
+	/**
+	 * Returns the skeleton document of controls seen so far.
+	 * @return {@link Document}, or <code>null</code> if parsing has
+	 *   not started
+	 */
+	public Document getDocument() {
+		if (root == null) return null;
+		if (root.getDocument() == null) return new Document(root);
+		return root.getDocument();
+	}
+
+	private static boolean isControl(String uri, String localName) {
+		if (!XhtmlParser.XHTML_NS_URI.equals(uri)) return false;
+		return "a".equals(localName) || "form".equals(localName)
+			|| "input".equals(localName) || "select".equals(localName)
+			|| "option".equals(localName);
+	}
+}
@@ -0,0 +1,59 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+import java.util.Arrays;
+
+/**
+ * Fixed-size window of the most recent latency samples, from which
+ * percentiles can be estimated.
+ */
+class LatencyTracker {
+
+	private final long[] samples;
+	private int next;
+	private int count;
+
+	LatencyTracker(int size) {
+		samples = new long[size];
+	}
+
+	synchronized void record(long millis) {
+		samples[next] = millis;
+		next = (next + 1) % samples.length;
+		if (count < samples.length) count++;
+	}
+
+	synchronized int getCount() {
+		return count;
+	}
+
+	/**
+	 * @param p percentile between 0 and 1
+	 * @return estimated percentile of the recorded samples, or -1 if
+	 *   there are none
+	 */
+	long getPercentile(double p) {
+		long[] sorted;
+		synchronized(this) {
+			if (count == 0) return -1;
+			sorted = Arrays.copyOf(samples, count);
+		}
+		Arrays.sort(sorted);
+		int i = (int)Math.ceil(p * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(i, sorted.length - 1))];
+	}
+}
@@ -0,0 +1,140 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.HttpResponse;
+import org.jdom.Document;
+import org.jdom.JDOMException;
+import org.jdom.input.SAXBuilder;
+
+/**
+ * Application state that holds the raw response body and only parses
+ * it the first time {@link #getDocument()} is called. Callers that
+ * only look at the status line or headers never pay for parsing.
+ * Parsing happens at most once even if several threads ask for the
+ * document concurrently; afterwards the raw body is released.
+ */
+public class LazyXhtmlApplicationState extends XhtmlApplicationState {
+
+	private static final Log logger = 
+		LogFactory.getLog(LazyXhtmlApplicationState.class);
+
+	private SAXBuilderPool builderPool;
+	private ResponseBody body;
+	private final int bodyLength;
+	private volatile boolean materialized;
+	private final Lock parseLock = new ReentrantLock();
+	private Document document;
+
+	/**
+	 * Constructs a new, unparsed application state.
+	 * @param context the URL used to retrieve the response
+	 * @param resp response sent by the server
+	 * @param body the complete response body
+	 * @param builderPool source of parsers for materializing the body
+	 */
+	public LazyXhtmlApplicationState(URL context, HttpResponse resp, byte[] body,
+			SAXBuilderPool builderPool) {
+		this(context, resp, ResponseBody.wrap(body), builderPool);
+	}
+
+	/**
+	 * Constructs a new, unparsed application state.
+	 * @param context the URL used to retrieve the response
+	 * @param resp response sent by the server
+	 * @param body the complete response body
+	 * @param builderPool source of parsers for materializing the body
+	 */
+	public LazyXhtmlApplicationState(URL context, HttpResponse resp, ResponseBody body,
+			SAXBuilderPool builderPool) {
+		super(context, resp, null);
+		this.body = body;
+		this.bodyLength = body.length();
+		this.builderPool = builderPool;
+	}
+
+	/**
+	 * Returns the parsed response body, parsing it if this has not
+	 * happened yet. For invalid XML bodies, will return <code>null</code>.
+	 */
+	@Override
+	public Document getDocument() {
+		if (!materialized) {
+			/* an explicit lock rather than a monitor, so threads waiting
+			 * on a long parse do not pin virtual thread carriers */
+			parseLock.lock();
+			try {
+				if (!materialized) {
+					document = parse(body);
+					body = null;
+					materialized = true;
+				}
+			} finally {
+				parseLock.unlock();
+			}
+		}
+		return document;
+	}
+
+	/**
+	 * @return length in bytes of the raw response body, whether or
+	 *   not it has been parsed yet
+	 */
+	public int getBodyLength() {
+		return bodyLength;
+	}
+
+	/**
+	 * @return {@code true} once the response body has been parsed
+	 */
+	public boolean isMaterialized() {
+		return materialized;
+	}
+
+	private Document parse(ResponseBody body) {
+		SAXBuilder builder = builderPool.borrow();
+		try {
+			return builder.build(new InterruptibleInputStream(body.openStream()));
+		} catch (InterruptedIOException e) {
+			/* leave the body in place so a later call can parse it */
+			throw new CancellationException("parse interrupted");
+		} catch (JDOMException e) {
+			logger.warn("unparseable XML response from " + getContext() + ": " + e.getMessage());
+			if (logger.isDebugEnabled()) {
+				logger.debug("unparseable XML response", e);
+			}
+			return null;
+		} catch (IOException e) {
+			logger.warn("unable to read buffered response", e);
+			return null;
+		} catch (RuntimeException e) {
+			builderPool.discard(builder);
+			builder = null;
+			throw e;
+		} finally {
+			builderPool.release(builder);
+		}
+	}
+}
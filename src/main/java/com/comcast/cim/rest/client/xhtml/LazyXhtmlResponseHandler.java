@@ -0,0 +1,42 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+import java.io.IOException;
+import java.net.URL;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+
+/**
+ * Response handler that reads the response body into memory without
+ * parsing it, producing a {@link LazyXhtmlApplicationState}. If
+ * {@link BodyLimits} with a spill threshold are configured, large
+ * bodies are held in a memory-mapped temporary file instead.
+ */
+public class LazyXhtmlResponseHandler extends XhtmlResponseHandler {
+
+	public LazyXhtmlResponseHandler(URL context, SAXBuilderPool builderPool) {
+		super(context, builderPool);
+	}
+
+	@Override
+	protected XhtmlApplicationState handleEntity(HttpResponse resp, HttpEntity entity)
+			throws IOException {
+		ResponseBody body = readBody(entity);
+		return new LazyXhtmlApplicationState(getContext(), resp, body, getBuilderPool());
+	}
+}
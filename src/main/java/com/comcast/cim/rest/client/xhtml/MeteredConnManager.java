@@ -0,0 +1,67 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.conn.ClientConnectionOperator;
+import org.apache.http.conn.params.ConnPerRoute;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.impl.conn.tsccm.ConnPoolByRoute;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+
+/**
+ * {@link ThreadSafeClientConnManager} that can tell connections leased
+ * to requests apart from idle ones kept alive in the pool, which the
+ * stock manager only reports together.
+ */
+public class MeteredConnManager extends ThreadSafeClientConnManager {
+
+	public MeteredConnManager(SchemeRegistry schemeRegistry) {
+		super(schemeRegistry);
+	}
+
+	@Override
+	protected ConnPoolByRoute createConnectionPool(long connTTL, TimeUnit connTTLTimeUnit) {
+		return new MeteredConnPool(connOperator, connPerRoute, 20, connTTL, connTTLTimeUnit);
+	}
+
+	/**
+	 * @return a consistent snapshot of this manager's pool
+	 */
+	public ConnectionPoolStats getStats() {
+		return ((MeteredConnPool)pool).getStats(getMaxTotal(), getDefaultMaxPerRoute());
+	}
+
+	private static class MeteredConnPool extends ConnPoolByRoute {
+
+		MeteredConnPool(ClientConnectionOperator operator, ConnPerRoute connPerRoute,
+				int maxTotal, long connTTL, TimeUnit connTTLTimeUnit) {
+			super(operator, connPerRoute, maxTotal, connTTL, connTTLTimeUnit);
+		}
+
+		ConnectionPoolStats getStats(int maxTotal, int defaultMaxPerRoute) {
+			getLock().lock();
+			try {
+				return new ConnectionPoolStats(leasedConnections.size(),
+						freeConnections.size(), waitingThreads.size(),
+						maxTotal, defaultMaxPerRoute);
+			} finally {
+				getLock().unlock();
+			}
+		}
+	}
+}
@@ -0,0 +1,40 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+/**
+ * Receives the outcome of an asynchronous navigation step.
+ * @param <T> result type
+ */
+public interface NavigationCallback<T> {
+
+	/**
+	 * Called when the step completed normally.
+	 * @param result outcome of the step
+	 */
+	void completed(T result);
+
+	/**
+	 * Called when the step failed.
+	 * @param cause what went wrong
+	 */
+	void failed(Throwable cause);
+
+	/**
+	 * Called when the step was cancelled before completing.
+	 */
+	void cancelled();
+}
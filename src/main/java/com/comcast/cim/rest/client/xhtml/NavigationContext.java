@@ -0,0 +1,340 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.http.client.methods.AbortableHttpRequest;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.params.CoreConnectionPNames;
+import org.apache.http.params.HttpParams;
+
+/**
+ * Carries an absolute deadline across all the requests of a multi-hop
+ * navigation, and lets the navigation be cancelled from any thread. A
+ * navigator bound to a context (see
+ * {@link XhtmlNavigator#withContext(NavigationContext)}) gives each
+ * request connect and read timeouts no longer than the time left,
+ * aborts any request still in flight when the deadline passes or the
+ * context is cancelled, and reports this as a
+ * {@link DeadlineExceededException} or
+ * {@link NavigationCancelledException} respectively. Aborting a request
+ * closes its connection at once, so it goes back to the pool without
+ * the rest of the response being read. Waits on the way to sending a
+ * request, such as for an identical request already in flight or for
+ * admission to the origin, end at the deadline or on cancellation too.
+ */
+public class NavigationContext {
+
+	private static final long NO_DEADLINE = Long.MAX_VALUE;
+
+	/**
+	 * Request parameter set when a request's timeouts were shortened
+	 * to fit the deadline, so a timeout is the caller's doing rather
+	 * than the origin's.
+	 */
+	static final String DEADLINE_CAPPED = "com.comcast.cim.rest.client.xhtml.deadline-capped";
+
+	/** Request parameter holding the context a request is armed in. */
+	static final String CONTEXT = "com.comcast.cim.rest.client.xhtml.context";
+
+	private final long deadline;
+	private final Set<HttpUriRequest> inFlight =
+		Collections.newSetFromMap(new ConcurrentHashMap<HttpUriRequest, Boolean>());
+	private final Set<Waiter> waiters =
+		Collections.newSetFromMap(new ConcurrentHashMap<Waiter, Boolean>());
+	private volatile boolean cancelled;
+
+	/**
+	 * Constructs a context with no deadline, which only ends if it is
+	 * cancelled.
+	 */
+	public NavigationContext() {
+		this(NO_DEADLINE);
+	}
+
+	/**
+	 * @param deadline absolute deadline, in milliseconds since the epoch
+	 */
+	public NavigationContext(long deadline) {
+		this.deadline = deadline;
+	}
+
+	/**
+	 * @param timeoutMillis time budget for the whole navigation,
+	 *   starting now
+	 * @return context expiring after the given time
+	 */
+	public static NavigationContext withTimeout(long timeoutMillis) {
+		return new NavigationContext(System.currentTimeMillis() + timeoutMillis);
+	}
+
+	/**
+	 * @return absolute deadline, in milliseconds since the epoch
+	 */
+	public long getDeadline() {
+		return deadline;
+	}
+
+	/**
+	 * @return milliseconds left until the deadline; zero or less once
+	 *   it has passed
+	 */
+	public long getRemainingMillis() {
+		return deadline - now();
+	}
+
+	/**
+	 * @return <code>true</code> if the deadline has passed
+	 */
+	public boolean isExpired() {
+		return deadline != NO_DEADLINE && getRemainingMillis() <= 0;
+	}
+
+	/**
+	 * @throws DeadlineExceededException if the deadline has passed
+	 * @throws NavigationCancelledException if the context was cancelled
+	 */
+	public void checkDeadline() throws DeadlineExceededException,
+			NavigationCancelledException {
+		if (cancelled) throw new NavigationCancelledException();
+		if (isExpired()) throw new DeadlineExceededException(deadline);
+	}
+
+	/**
+	 * Cancels the navigation: requests in flight within this context are
+	 * aborted, threads waiting within it are woken, and no further
+	 * requests will be sent.
+	 */
+	public void cancel() {
+		cancelled = true;
+		for(HttpUriRequest req : inFlight) abort(req);
+		for(Waiter waiter : waiters) waiter.wake();
+	}
+
+	/**
+	 * @return <code>true</code> if the context has been cancelled
+	 */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * @return current time in milliseconds
+	 */
+	protected long now() {
+		return System.currentTimeMillis();
+	}
+
+	/**
+	 * Prepares a request to be sent within this context: caps its
+	 * connect and read timeouts at the time left, schedules it to be
+	 * aborted at the deadline and registers it to be aborted if the
+	 * context is cancelled.
+	 * @param req request about to be sent
+	 * @param defaults the client's parameters, whose timeouts are kept
+	 *   if shorter; may be <code>null</code>
+	 * @return handle to disarm once the request has completed
+	 * @throws DeadlineExceededException if the deadline has already passed
+	 * @throws NavigationCancelledException if the context was cancelled
+	 */
+	Armed arm(final HttpUriRequest req, HttpParams defaults)
+			throws DeadlineExceededException, NavigationCancelledException {
+		checkDeadline();
+		ScheduledFuture<?> timer = null;
+		if (deadline != NO_DEADLINE) {
+			long remaining = getRemainingMillis();
+			boolean capped =
+				cap(req.getParams(), defaults, CoreConnectionPNames.CONNECTION_TIMEOUT, remaining);
+			capped |= cap(req.getParams(), defaults, CoreConnectionPNames.SO_TIMEOUT, remaining);
+			if (capped) req.getParams().setBooleanParameter(DEADLINE_CAPPED, true);
+			timer = AsyncExecutors.TIMER.schedule(new Runnable() {
+				public void run() {
+					abort(req);
+				}
+			}, remaining, TimeUnit.MILLISECONDS);
+		}
+		req.getParams().setParameter(CONTEXT, this);
+		inFlight.add(req);
+		if (cancelled) abort(req);
+		return new Armed(req, timer);
+	}
+
+	/**
+	 * @param req a request
+	 * @return the context the request is armed in, or <code>null</code>
+	 */
+	static NavigationContext of(HttpUriRequest req) {
+		Object ctx = req.getParams().getParameter(CONTEXT);
+		return (ctx instanceof NavigationContext) ? (NavigationContext)ctx : null;
+	}
+
+	/** A request sent within this context. */
+	class Armed {
+		private final HttpUriRequest req;
+		private final ScheduledFuture<?> timer;
+
+		Armed(HttpUriRequest req, ScheduledFuture<?> timer) {
+			this.req = req;
+			this.timer = timer;
+		}
+
+		/** Stops watching the request once it has completed. */
+		void disarm() {
+			inFlight.remove(req);
+			req.getParams().removeParameter(CONTEXT);
+			if (timer != null) timer.cancel(false);
+		}
+	}
+
+	/**
+	 * Lets the calling thread block within this context: if the context
+	 * is cancelled before {@link Waiter#finish()}, the thread is
+	 * interrupted.
+	 * @return the waiter, to finish once the wait is over
+	 */
+	Waiter startWaiting() {
+		Waiter waiter = new Waiter(Thread.currentThread());
+		waiters.add(waiter);
+		if (cancelled) waiter.wake();
+		return waiter;
+	}
+
+	/** A thread blocked within this context. */
+	class Waiter {
+		private final Thread thread;
+		private boolean woken;
+		private boolean finished;
+
+		Waiter(Thread thread) {
+			this.thread = thread;
+		}
+
+		synchronized void wake() {
+			if (finished || woken) return;
+			woken = true;
+			thread.interrupt();
+		}
+
+		/**
+		 * Ends the wait, clearing any interrupt raised by cancellation.
+		 * @return <code>true</code> if the wait was cut short by
+		 *   cancellation
+		 */
+		boolean finish() {
+			waiters.remove(this);
+			synchronized(this) {
+				if (!finished && woken) Thread.interrupted();
+				finished = true;
+				return woken;
+			}
+		}
+	}
+
+	/**
+	 * Waits for a result for no longer than the time left, and no
+	 * longer once the context is cancelled.
+	 * @param f the result
+	 * @return its value
+	 * @throws DeadlineExceededException if the deadline passes first
+	 * @throws NavigationCancelledException if the context is cancelled
+	 * @throws InterruptedException if interrupted otherwise
+	 * @throws ExecutionException if the result is a failure
+	 */
+	<T> T await(Future<T> f) throws DeadlineExceededException, NavigationCancelledException,
+			InterruptedException, ExecutionException {
+		Waiter waiter = startWaiting();
+		try {
+			if (deadline == NO_DEADLINE) return f.get();
+			return f.get(Math.max(0, getRemainingMillis()), TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			throw new DeadlineExceededException(deadline);
+		} catch (InterruptedException e) {
+			if (waiter.finish()) throw new NavigationCancelledException();
+			throw e;
+		} finally {
+			waiter.finish();
+		}
+	}
+
+	private static void abort(HttpUriRequest req) {
+		if (req instanceof AbortableHttpRequest) {
+			((AbortableHttpRequest)req).abort();
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if the time left is shorter than the
+	 *   timeout the request would otherwise have had
+	 */
+	private static boolean cap(HttpParams params, HttpParams defaults, String name,
+			long remaining) {
+		int timeout = (int)Math.min(Integer.MAX_VALUE, remaining);
+		int current = params.getIntParameter(name, 0);
+		if (current <= 0 && defaults != null) current = defaults.getIntParameter(name, 0);
+		if (current > 0 && current <= timeout) {
+			params.setIntParameter(name, current);
+			return false;
+		}
+		params.setIntParameter(name, timeout);
+		return true;
+	}
+
+	/**
+	 * Decides whether a request failed because the caller gave up on
+	 * it: it was aborted or interrupted, or it timed out only because
+	 * its timeouts were shortened to fit a context's deadline. Such
+	 * failures say nothing about the origin, and are not shared with
+	 * other callers.
+	 */
+	static boolean isAbandoned(HttpUriRequest req, IOException e) {
+		if (req instanceof HttpRequestBase && ((HttpRequestBase)req).isAborted()) return true;
+		if (!(e instanceof InterruptedIOException)) return false;
+		if (e instanceof SocketTimeoutException || e instanceof ConnectTimeoutException) {
+			return req.getParams().getBooleanParameter(DEADLINE_CAPPED, false);
+		}
+		return true;
+	}
+
+	/**
+	 * Reports a failure, turning it into a
+	 * {@link NavigationCancelledException} if the context was cancelled
+	 * or a {@link DeadlineExceededException} if the deadline has passed.
+	 * @param e failure of a request made within this context
+	 * @return the exception to raise
+	 */
+	IOException translate(IOException e) {
+		if (e instanceof NavigationCancelledException
+				|| e instanceof DeadlineExceededException) {
+			return e;
+		}
+		if (cancelled) return new NavigationCancelledException(e);
+		if (isExpired()) return new DeadlineExceededException(deadline, e);
+		return e;
+	}
+}
@@ -0,0 +1,43 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+/**
+ * This exception is raised when a navigation step fails in a
+ * context that cannot throw checked exceptions, such as an
+ * {@link java.util.Iterator}; the cause is usually an
+ * {@link java.io.IOException}.
+ */
+public class NavigationException extends RuntimeException {
+	
+	private static final long serialVersionUID = 1L;
+
+	public NavigationException() {
+		super();
+	}
+	
+	public NavigationException(String msg) {
+		super(msg);
+	}
+	
+	public NavigationException(Throwable cause) {
+		super(cause);
+	}
+	
+	public NavigationException(String msg, Throwable cause) {
+		super(msg, cause);
+	}
+}
@@ -0,0 +1,160 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Handle on the result of an asynchronous navigation step. In addition
+ * to the {@link Future} methods, callers can register
+ * {@link NavigationCallback}s to be notified on completion instead of
+ * blocking a thread in {@link #get()}. Callbacks run on the thread that
+ * completes the future, or immediately on the registering thread if it
+ * is already done, so they should be quick.
+ * @param <T> result type
+ */
+public class NavigationFuture<T> implements Future<T> {
+
+	private static final int PENDING = 0;
+	private static final int COMPLETED = 1;
+	private static final int FAILED = 2;
+	private static final int CANCELLED = 3;
+
+	private final CountDownLatch done = new CountDownLatch(1);
+	private int status = PENDING;
+	private T result;
+	private Throwable cause;
+	private List<NavigationCallback<? super T>> callbacks =
+		new ArrayList<NavigationCallback<? super T>>();
+
+	/**
+	 * Completes this future with a result.
+	 * @param value the result
+	 * @return {@code true} if this call completed the future
+	 */
+	public boolean set(T value) {
+		List<NavigationCallback<? super T>> toNotify;
+		synchronized(this) {
+			if (status != PENDING) return false;
+			result = value;
+			toNotify = finish(COMPLETED);
+		}
+		for(NavigationCallback<? super T> cb : toNotify) {
+			cb.completed(value);
+		}
+		return true;
+	}
+
+	/**
+	 * Completes this future with a failure.
+	 * @param t the cause
+	 * @return {@code true} if this call completed the future
+	 */
+	public boolean setException(Throwable t) {
+		List<NavigationCallback<? super T>> toNotify;
+		synchronized(this) {
+			if (status != PENDING) return false;
+			cause = t;
+			toNotify = finish(FAILED);
+		}
+		for(NavigationCallback<? super T> cb : toNotify) {
+			cb.failed(t);
+		}
+		return true;
+	}
+
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		List<NavigationCallback<? super T>> toNotify;
+		synchronized(this) {
+			if (status != PENDING) return false;
+			toNotify = finish(CANCELLED);
+		}
+		interruptTask(mayInterruptIfRunning);
+		for(NavigationCallback<? super T> cb : toNotify) {
+			cb.cancelled();
+		}
+		return true;
+	}
+
+	/**
+	 * Hook for stopping the underlying work when the future is
+	 * cancelled, e.g. by aborting an HTTP request. Does nothing
+	 * by default.
+	 * @param mayInterruptIfRunning as passed to {@link #cancel(boolean)}
+	 */
+	protected void interruptTask(boolean mayInterruptIfRunning) {
+	}
+
+	private List<NavigationCallback<? super T>> finish(int newStatus) {
+		status = newStatus;
+		List<NavigationCallback<? super T>> toNotify = callbacks;
+		callbacks = null;
+		done.countDown();
+		return toNotify;
+	}
+
+	/**
+	 * Registers a callback to be told how this future completes.
+	 * @param callback {@link NavigationCallback}
+	 */
+	public void addCallback(NavigationCallback<? super T> callback) {
+		int s;
+		synchronized(this) {
+			s = status;
+			if (s == PENDING) {
+				callbacks.add(callback);
+				return;
+			}
+		}
+		if (s == COMPLETED) callback.completed(result);
+		else if (s == FAILED) callback.failed(cause);
+		else callback.cancelled();
+	}
+
+	public synchronized boolean isCancelled() {
+		return status == CANCELLED;
+	}
+
+	public synchronized boolean isDone() {
+		return status != PENDING;
+	}
+
+	public T get() throws InterruptedException, ExecutionException {
+		done.await();
+		return getResult();
+	}
+
+	public T get(long timeout, TimeUnit unit) throws InterruptedException,
+			ExecutionException, TimeoutException {
+		if (!done.await(timeout, unit)) {
+			throw new TimeoutException();
+		}
+		return getResult();
+	}
+
+	private synchronized T getResult() throws ExecutionException {
+		if (status == CANCELLED) throw new CancellationException();
+		if (status == FAILED) throw new ExecutionException(cause);
+		return result;
+	}
+}
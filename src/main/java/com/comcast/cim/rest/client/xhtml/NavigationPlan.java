@@ -0,0 +1,305 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A fixed sequence of navigation steps, checked and prepared once and
+ * then executed any number of times with
+ * {@link XhtmlNavigator#execute(NavigationPlan, XhtmlApplicationState)}:
+ * <pre>
+ * NavigationPlan plan = new NavigationPlan.Builder()
+ *     .submitForm("search", args)
+ *     .followLink("first")
+ *     .followLink("item")
+ *     .build();
+ * </pre>
+ * Static URLs are parsed when the plan is built, and every hop but
+ * the last only reads its response until the control used by the
+ * following step is found.
+ * <p>
+ * While every request so far in a run has been a <code>GET</code>, the
+ * states reached are remembered for as long as the freshness headers
+ * of all the responses along the way allow, keyed by the URL of the
+ * first request. A later run with the same first request resumes
+ * from the furthest state that is still fresh, skipping the hops
+ * before it; if such a run then fails, the chain is forgotten.
+ * Remembered states are shared between runs and must be treated as
+ * read-only.
+ */
+public class NavigationPlan {
+
+	public static final int DEFAULT_MAX_CHAINS = 64;
+
+	enum Kind { GET, LINK, FORM }
+
+	static final class Step {
+		final Kind kind;
+		final String key;
+		final URI uri;
+		final Map<String, String> args;
+		ControlTarget next;
+
+		Step(Kind kind, String key, URI uri, Map<String, String> args) {
+			this.kind = kind;
+			this.key = key;
+			this.uri = uri;
+			this.args = args;
+		}
+
+		@Override
+		public String toString() {
+			switch(kind) {
+			case GET: return "get " + uri;
+			case LINK: return "followLink " + key;
+			default: return "submitForm " + key;
+			}
+		}
+	}
+
+	static final class Memo {
+		final XhtmlApplicationState state;
+		final long expires;
+
+		Memo(XhtmlApplicationState state, long expires) {
+			this.state = state;
+			this.expires = expires;
+		}
+	}
+
+	/**
+	 * Collects the steps of a {@link NavigationPlan}.
+	 */
+	public static class Builder {
+
+		private final List<Step> steps = new ArrayList<Step>();
+		private int maxChains = DEFAULT_MAX_CHAINS;
+
+		/**
+		 * Adds a <code>GET</code> of a fixed URL, ignoring the state
+		 * reached so far.
+		 * @param url absolute URL
+		 * @return this builder
+		 * @throws IllegalArgumentException if the URL is not absolute
+		 */
+		public Builder get(String url) {
+			URI uri = URI.create(url);
+			if (!uri.isAbsolute()) {
+				throw new IllegalArgumentException("URL must be absolute: " + url);
+			}
+			steps.add(new Step(Kind.GET, null, uri, null));
+			return this;
+		}
+
+		/**
+		 * Adds a step following the first &lt;a&gt; with a link relation.
+		 * @param rel link relation
+		 * @return this builder
+		 */
+		public Builder followLink(String rel) {
+			if (rel == null) throw new IllegalArgumentException("rel may not be null");
+			steps.add(new Step(Kind.LINK, rel, null, null));
+			return this;
+		}
+
+		/**
+		 * Adds a step submitting the form with a given @name.
+		 * @param formName name of the form to submit
+		 * @param args a map of input names to values; copied, so later
+		 *   changes to it do not affect the plan
+		 * @return this builder
+		 */
+		public Builder submitForm(String formName, Map<String, String> args) {
+			if (formName == null) throw new IllegalArgumentException("form name may not be null");
+			Map<String, String> copy = (args == null) ?
+					Collections.<String, String>emptyMap() :
+					Collections.unmodifiableMap(new LinkedHashMap<String, String>(args));
+			steps.add(new Step(Kind.FORM, formName, null, copy));
+			return this;
+		}
+
+		/**
+		 * @param maxChains maximum number of distinct first requests
+		 *   whose states are remembered at once
+		 * @return this builder
+		 */
+		public Builder setMaxChains(int maxChains) {
+			if (maxChains < 1) throw new IllegalArgumentException("maxChains must be positive");
+			this.maxChains = maxChains;
+			return this;
+		}
+
+		/**
+		 * @return the compiled plan
+		 * @throws IllegalStateException if no steps were added
+		 */
+		public NavigationPlan build() {
+			return new NavigationPlan(this);
+		}
+	}
+
+	private final Step[] steps;
+	private final List<Map<String, Memo>> memos;
+	private final int maxChains;
+	private final AtomicLong skippedHops = new AtomicLong();
+
+	protected NavigationPlan(Builder builder) {
+		if (builder.steps.isEmpty()) {
+			throw new IllegalStateException("a plan needs at least one step");
+		}
+		steps = builder.steps.toArray(new Step[builder.steps.size()]);
+		for(int i = 0; i + 1 < steps.length; i++) {
+			Step following = steps[i + 1];
+			steps[i] = new Step(steps[i].kind, steps[i].key, steps[i].uri, steps[i].args);
+			if (following.kind == Kind.LINK) {
+				steps[i].next = ControlTarget.link(following.key);
+			} else if (following.kind == Kind.FORM) {
+				steps[i].next = ControlTarget.form(following.key);
+			}
+		}
+		maxChains = builder.maxChains;
+		memos = new ArrayList<Map<String, Memo>>(steps.length);
+		for(int i = 0; i < steps.length; i++) {
+			memos.add(new LinkedHashMap<String, Memo>(16, 0.75f, true));
+		}
+	}
+
+	/**
+	 * @return number of steps
+	 */
+	public int size() {
+		return steps.length;
+	}
+
+	/**
+	 * @return {@code true} iff the first step is a <code>GET</code> of
+	 *   a fixed URL, so the plan needs no entry state
+	 */
+	public boolean isStatic() {
+		return steps[0].kind == Kind.GET;
+	}
+
+	Step getStep(int i) {
+		return steps[i];
+	}
+
+	/**
+	 * Returns the furthest remembered state for a chain that is still
+	 * fresh, discarding any that have gone stale.
+	 * @return index of the step that reached the state, or -1
+	 */
+	int resume(String chain, Memo[] found) {
+		long now = now();
+		for(int i = steps.length - 1; i >= 0; i--) {
+			Map<String, Memo> m = memos.get(i);
+			synchronized(m) {
+				Memo memo = m.get(chain);
+				if (memo == null) continue;
+				if (memo.expires <= now) {
+					m.remove(chain);
+					continue;
+				}
+				found[0] = memo;
+				skippedHops.addAndGet(i + 1);
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Remembers the state reached by a step of a chain.
+	 * @param expiresBefore when the states before this one go stale
+	 * @param responseDelay how long the hop took, in milliseconds
+	 * @return when this state goes stale, or zero or less if it was
+	 *   not remembered
+	 */
+	long remember(int step, String chain, XhtmlApplicationState state, long expiresBefore,
+			long responseDelay) {
+		if (!state.succeeded()) return 0;
+		long now = now();
+		long ttl = ApplicationStateCache.freshnessLifetime(state.getHttpResponse(), now,
+				responseDelay);
+		if (ttl <= 0) return 0;
+		long expires = Math.min(expiresBefore, now + ttl);
+		Map<String, Memo> m = memos.get(step);
+		synchronized(m) {
+			m.put(chain, new Memo(state, expires));
+			Iterator<Memo> it = m.values().iterator();
+			while(m.size() > maxChains && it.hasNext()) {
+				it.next();
+				it.remove();
+			}
+		}
+		return expires;
+	}
+
+	/**
+	 * Forgets every remembered state of a chain.
+	 * @param chain URL of the chain's first request
+	 */
+	public void invalidate(String chain) {
+		for(Map<String, Memo> m : memos) {
+			synchronized(m) {
+				m.remove(chain);
+			}
+		}
+	}
+
+	/**
+	 * Forgets all remembered states.
+	 */
+	public void clear() {
+		for(Map<String, Memo> m : memos) {
+			synchronized(m) {
+				m.clear();
+			}
+		}
+	}
+
+	/**
+	 * @return total number of hops skipped by resuming from a
+	 *   remembered state
+	 */
+	public long getSkippedHopCount() {
+		return skippedHops.get();
+	}
+
+	/**
+	 * @return current time in milliseconds
+	 */
+	protected long now() {
+		return System.currentTimeMillis();
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder buf = new StringBuilder("NavigationPlan[");
+		for(int i = 0; i < steps.length; i++) {
+			if (i > 0) buf.append(", ");
+			buf.append(steps[i]);
+		}
+		return buf.append("]").toString();
+	}
+}
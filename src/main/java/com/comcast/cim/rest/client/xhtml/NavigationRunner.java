@@ -0,0 +1,182 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs hypermedia workflows -- sequences of blocking
+ * {@link XhtmlNavigator} calls -- concurrently. When the runtime
+ * supports virtual threads each workflow gets its own, so thousands of
+ * workflows can block on I/O without tying up as many platform threads;
+ * otherwise workflows share a fixed pool of platform threads.
+ * <p>
+ * The request and parsing paths of this library only hold monitors
+ * briefly, so they do not pin virtual thread carriers while blocked.
+ * When using {@link HttpClientTransport}, pair this with a pooled
+ * connection manager such as
+ * {@link org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager},
+ * whose waits use explicit locks.
+ */
+public class NavigationRunner {
+
+	public static final int DEFAULT_PLATFORM_THREADS = 256;
+
+	private final ExecutorService executor;
+	private final boolean virtual;
+
+	/**
+	 * Constructs a runner that uses virtual threads if available, and
+	 * a pool of {@link #DEFAULT_PLATFORM_THREADS} platform threads
+	 * otherwise.
+	 */
+	public NavigationRunner() {
+		this(newVirtualThreadExecutor(), DEFAULT_PLATFORM_THREADS);
+	}
+
+	/**
+	 * Constructs a runner on the given executor.
+	 * @param executor runs the workflows
+	 */
+	public NavigationRunner(ExecutorService executor) {
+		this(executor, false);
+	}
+
+	private NavigationRunner(ExecutorService virtualExecutor, int platformThreads) {
+		this(virtualExecutor != null ? virtualExecutor : newPlatformExecutor(platformThreads),
+				virtualExecutor != null);
+	}
+
+	private NavigationRunner(ExecutorService executor, boolean virtual) {
+		this.executor = executor;
+		this.virtual = virtual;
+	}
+
+	/**
+	 * Constructs a runner that always uses a fixed pool of platform
+	 * threads.
+	 * @param threads number of threads
+	 * @return {@link NavigationRunner}
+	 */
+	public static NavigationRunner platform(int threads) {
+		return new NavigationRunner(newPlatformExecutor(threads), false);
+	}
+
+	/**
+	 * Starts a workflow.
+	 * @param workflow the navigation steps to run
+	 * @return handle on the workflow's result; cancelling it
+	 *   interrupts the workflow
+	 */
+	public <T> NavigationFuture<T> submit(final Callable<T> workflow) {
+		final AtomicReference<Future<?>> task = new AtomicReference<Future<?>>();
+		final NavigationFuture<T> result = new NavigationFuture<T>() {
+			@Override
+			protected void interruptTask(boolean mayInterruptIfRunning) {
+				Future<?> f = task.get();
+				if (f != null) f.cancel(mayInterruptIfRunning);
+			}
+		};
+		try {
+			task.set(executor.submit(new Runnable() {
+				public void run() {
+					if (result.isDone()) return;
+					try {
+						result.set(workflow.call());
+					} catch (Exception e) {
+						result.setException(e);
+					}
+				}
+			}));
+		} catch (RejectedExecutionException e) {
+			result.setException(e);
+		}
+		Future<?> f = task.get();
+		if (f != null && result.isCancelled()) {
+			f.cancel(true);
+		}
+		return result;
+	}
+
+	/**
+	 * Starts several workflows.
+	 * @param workflows the workflows to run
+	 * @return handles on their results, in the same order
+	 */
+	public <T> List<NavigationFuture<T>> submitAll(Collection<? extends Callable<T>> workflows) {
+		List<NavigationFuture<T>> results = new ArrayList<NavigationFuture<T>>(workflows.size());
+		for(Callable<T> workflow : workflows) {
+			results.add(submit(workflow));
+		}
+		return results;
+	}
+
+	/**
+	 * @return {@code true} iff workflows run on virtual threads
+	 */
+	public boolean isUsingVirtualThreads() {
+		return virtual;
+	}
+
+	/**
+	 * Stops accepting workflows; those already started run to completion.
+	 */
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	/**
+	 * Waits for started workflows to finish after {@link #shutdown()}.
+	 * @param timeout how long to wait
+	 * @param unit unit of {@code timeout}
+	 * @return {@code true} if all workflows finished in time
+	 * @throws InterruptedException
+	 */
+	public boolean awaitTermination(long timeout, TimeUnit unit) 
+			throws InterruptedException {
+		return executor.awaitTermination(timeout, unit);
+	}
+
+	private static ExecutorService newPlatformExecutor(int threads) {
+		return Executors.newFixedThreadPool(threads,
+				new AsyncExecutors.DaemonThreadFactory("xhtml-navigation-"));
+	}
+
+	/**
+	 * Creates a virtual-thread-per-task executor if the runtime has one.
+	 * Looked up reflectively since this library is built for older
+	 * runtimes.
+	 * @return {@link ExecutorService}, or <code>null</code>
+	 */
+	static ExecutorService newVirtualThreadExecutor() {
+		try {
+			Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService)m.invoke(null);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+}
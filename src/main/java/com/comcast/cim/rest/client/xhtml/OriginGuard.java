@@ -0,0 +1,293 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.methods.HttpUriRequest;
+
+/**
+ * Keeps a misbehaving origin from tying up every thread that talks to
+ * it. Each origin (scheme, host and port) gets a <em>bulkhead</em>,
+ * which limits how many requests may be in flight to it at once, and
+ * a {@link CircuitBreaker}, which stops sending it requests for a while
+ * once too many of them fail or are slow. Refused requests fail
+ * immediately with an {@link OriginUnavailableException}.
+ * <p>
+ * Requests count as failed if they raise an exception or get a 5XX
+ * response, and as slow if they take longer than the slow call
+ * duration. Settings apply to origins first seen after they are made.
+ */
+public class OriginGuard {
+
+	public static final int DEFAULT_MAX_CONCURRENT_CALLS = 32;
+	public static final int DEFAULT_WINDOW_SIZE = 100;
+	public static final int DEFAULT_MINIMUM_CALLS = 20;
+	public static final double DEFAULT_FAILURE_RATE_THRESHOLD = 0.5;
+	public static final double DEFAULT_SLOW_CALL_RATE_THRESHOLD = 1.0;
+	public static final long DEFAULT_SLOW_CALL_MILLIS = 10000;
+	public static final long DEFAULT_OPEN_MILLIS = 30000;
+	public static final int DEFAULT_HALF_OPEN_CALLS = 5;
+
+	private volatile int maxConcurrentCalls = DEFAULT_MAX_CONCURRENT_CALLS;
+	private volatile long maxWaitMillis;
+	private volatile int windowSize = DEFAULT_WINDOW_SIZE;
+	private volatile int minimumCalls = DEFAULT_MINIMUM_CALLS;
+	private volatile double failureRateThreshold = DEFAULT_FAILURE_RATE_THRESHOLD;
+	private volatile double slowCallRateThreshold = DEFAULT_SLOW_CALL_RATE_THRESHOLD;
+	private volatile long slowCallMillis = DEFAULT_SLOW_CALL_MILLIS;
+	private volatile long openMillis = DEFAULT_OPEN_MILLIS;
+	private volatile int halfOpenCalls = DEFAULT_HALF_OPEN_CALLS;
+
+	private final ConcurrentMap<String, Origin> origins =
+		new ConcurrentHashMap<String, Origin>();
+	private final List<CircuitBreakerListener> listeners =
+		new CopyOnWriteArrayList<CircuitBreakerListener>();
+
+	private static class Origin {
+		final Semaphore bulkhead;
+		final CircuitBreaker breaker;
+
+		Origin(Semaphore bulkhead, CircuitBreaker breaker) {
+			this.bulkhead = bulkhead;
+			this.breaker = breaker;
+		}
+	}
+
+	/**
+	 * Sends a request over the given transport if its origin admits it.
+	 * @throws BulkheadFullException if the origin has too many requests
+	 *   in flight
+	 * @throws CircuitOpenException if the origin's circuit breaker is open
+	 */
+	XhtmlApplicationState execute(XhtmlTransport transport,
+			HttpUriRequest req, XhtmlResponseHandler rh) throws IOException {
+		String name = originOf(req.getURI());
+		Origin origin = getOrigin(name);
+		acquire(origin.bulkhead, name);
+		try {
+			long token = origin.breaker.acquire();
+			long start = now();
+			boolean failure = true;
+			boolean abandoned = false;
+			try {
+				XhtmlApplicationState state = transport.execute(req, rh);
+				failure = isFailure(state);
+				return state;
+			} catch (ResponseTooLargeException e) {
+				failure = false;
+				throw e;
+			} catch (IOException e) {
+				abandoned = NavigationContext.isAbandoned(req, e);
+				throw e;
+			} finally {
+				if (abandoned) {
+					origin.breaker.release(token);
+				} else {
+					origin.breaker.record(token, failure, now() - start > slowCallMillis);
+				}
+			}
+		} finally {
+			origin.bulkhead.release();
+		}
+	}
+
+	private void acquire(Semaphore bulkhead, String origin) throws IOException {
+		long wait = maxWaitMillis;
+		boolean acquired;
+		if (wait <= 0) {
+			acquired = bulkhead.tryAcquire();
+		} else {
+			try {
+				acquired = bulkhead.tryAcquire(wait, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("interrupted waiting for " + origin);
+			}
+		}
+		if (!acquired) throw new BulkheadFullException(origin);
+	}
+
+	private Origin getOrigin(String name) {
+		Origin origin = origins.get(name);
+		if (origin != null) return origin;
+		Origin created = new Origin(new Semaphore(maxConcurrentCalls),
+				new CircuitBreaker(name, this));
+		origin = origins.putIfAbsent(name, created);
+		return (origin != null) ? origin : created;
+	}
+
+	/**
+	 * Decides whether a response counts as a failure. By default any
+	 * 5XX response does.
+	 * @param state application state returned by the transport
+	 * @return <code>true</code> if the call failed
+	 */
+	protected boolean isFailure(XhtmlApplicationState state) {
+		return state.getHttpResponse().getStatusLine().getStatusCode() >= 500;
+	}
+
+	/**
+	 * @return current time in milliseconds
+	 */
+	protected long now() {
+		return System.currentTimeMillis();
+	}
+
+	static String originOf(URI uri) {
+		String scheme = (uri.getScheme() == null) ? "http"
+			: uri.getScheme().toLowerCase(Locale.ENGLISH);
+		String host = (uri.getHost() == null) ? ""
+			: uri.getHost().toLowerCase(Locale.ENGLISH);
+		int port = uri.getPort();
+		if (port < 0) port = "https".equals(scheme) ? 443 : 80;
+		return scheme + "://" + host + ":" + port;
+	}
+
+	void fireStateChanged(CircuitBreaker breaker, CircuitBreaker.State from,
+			CircuitBreaker.State to) {
+		for(CircuitBreakerListener l : listeners) {
+			l.stateChanged(breaker, from, to);
+		}
+	}
+
+	/**
+	 * @param listener told whenever any origin's breaker changes state
+	 */
+	public void addListener(CircuitBreakerListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * @param listener listener to stop notifying
+	 */
+	public void removeListener(CircuitBreakerListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * @param uri any URI on the origin
+	 * @return the origin's circuit breaker, or <code>null</code> if no
+	 *   request has been made to it yet
+	 */
+	public CircuitBreaker getCircuitBreaker(URI uri) {
+		Origin origin = origins.get(originOf(uri));
+		return (origin == null) ? null : origin.breaker;
+	}
+
+	/**
+	 * @param uri any URI on the origin
+	 * @return number of further requests the origin's bulkhead would
+	 *   currently admit
+	 */
+	public int getAvailableCalls(URI uri) {
+		Origin origin = origins.get(originOf(uri));
+		return (origin == null) ? maxConcurrentCalls : origin.bulkhead.availablePermits();
+	}
+
+	/**
+	 * @param maxConcurrentCalls requests that may be in flight to one
+	 *   origin at once
+	 */
+	public void setMaxConcurrentCalls(int maxConcurrentCalls) {
+		this.maxConcurrentCalls = maxConcurrentCalls;
+	}
+
+	/**
+	 * @param maxWaitMillis how long a request may wait for room in a
+	 *   full bulkhead before being refused; zero refuses it at once
+	 */
+	public void setMaxWait(long maxWaitMillis) {
+		this.maxWaitMillis = maxWaitMillis;
+	}
+
+	/**
+	 * @param windowSize number of recent calls failure and slow call
+	 *   rates are computed over
+	 */
+	public void setWindowSize(int windowSize) {
+		if (windowSize < 1) {
+			throw new IllegalArgumentException("windowSize must be positive");
+		}
+		this.windowSize = windowSize;
+	}
+
+	/**
+	 * @param minimumCalls calls that must be seen before a closed
+	 *   breaker may open
+	 */
+	public void setMinimumCalls(int minimumCalls) {
+		this.minimumCalls = minimumCalls;
+	}
+
+	/**
+	 * @param failureRateThreshold fraction of failed calls, between
+	 *   0 and 1, at which the breaker opens
+	 */
+	public void setFailureRateThreshold(double failureRateThreshold) {
+		this.failureRateThreshold = failureRateThreshold;
+	}
+
+	/**
+	 * @param slowCallRateThreshold fraction of slow calls, between
+	 *   0 and 1, at which the breaker opens
+	 */
+	public void setSlowCallRateThreshold(double slowCallRateThreshold) {
+		this.slowCallRateThreshold = slowCallRateThreshold;
+	}
+
+	/**
+	 * @param slowCallMillis duration beyond which a call counts as slow
+	 */
+	public void setSlowCallDuration(long slowCallMillis) {
+		this.slowCallMillis = slowCallMillis;
+	}
+
+	/**
+	 * @param openMillis how long an open breaker refuses calls before
+	 *   letting trial calls through
+	 */
+	public void setOpenDuration(long openMillis) {
+		this.openMillis = openMillis;
+	}
+
+	/**
+	 * @param halfOpenCalls number of trial calls a half-open breaker
+	 *   admits and judges before closing or reopening
+	 */
+	public void setHalfOpenCalls(int halfOpenCalls) {
+		if (halfOpenCalls < 1) {
+			throw new IllegalArgumentException("halfOpenCalls must be positive");
+		}
+		this.halfOpenCalls = halfOpenCalls;
+	}
+
+	int getWindowSize() { return windowSize; }
+	int getMinimumCalls() { return minimumCalls; }
+	int getHalfOpenCalls() { return halfOpenCalls; }
+	double getFailureRateThreshold() { return failureRateThreshold; }
+	double getSlowCallRateThreshold() { return slowCallRateThreshold; }
+	long getOpenMillis() { return openMillis; }
+}
@@ -0,0 +1,41 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+import java.io.IOException;
+
+/**
+ * Raised instead of sending a request to an origin that an
+ * {@link OriginGuard} is currently shielding, either because its
+ * circuit breaker is open or because it already has as many requests
+ * in flight as it is allowed.
+ */
+public class OriginUnavailableException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	private String origin;
+
+	public OriginUnavailableException(String origin, String msg) {
+		super(msg);
+		this.origin = origin;
+	}
+
+	/**
+	 * @return the origin (scheme, host and port) the request was for
+	 */
+	public String getOrigin() { return origin; }
+}
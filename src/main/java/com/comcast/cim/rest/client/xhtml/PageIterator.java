@@ -0,0 +1,170 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+
+import org.apache.http.client.methods.HttpUriRequest;
+import org.jdom.Element;
+
+/**
+ * Walks a paged collection by repeatedly following a link relation
+ * (usually <code>next</code>), starting with a given page. Up to a
+ * configurable number of pages are fetched ahead of the caller in the
+ * background, so the next page is usually ready by the time the
+ * current one has been processed. Iteration ends at the first page
+ * without such a link.
+ * <p>
+ * Pages are not retained once returned, so walking a long collection
+ * uses a constant amount of memory. A page that could not be fetched
+ * is reported when the caller reaches it: as a
+ * {@link ServerErrorException} for non-2XX responses, or as a
+ * {@link NavigationException} wrapping the cause otherwise.
+ * Instances are meant to be used by a single thread.
+ */
+public class PageIterator implements Iterator<XhtmlApplicationState> {
+
+	private final XhtmlNavigator navigator;
+	private final XhtmlParser parser;
+	private final RequestBuilder builder;
+	private final String rel;
+	private final int prefetchDepth;
+
+	private final LinkedList<NavigationFuture<XhtmlApplicationState>> buffer =
+		new LinkedList<NavigationFuture<XhtmlApplicationState>>();
+	private NavigationFuture<XhtmlApplicationState> tail;
+	private boolean exhausted;
+	private boolean closed;
+
+	private final NavigationCallback<XhtmlApplicationState> refill =
+		new NavigationCallback<XhtmlApplicationState>() {
+			public void completed(XhtmlApplicationState result) { fill(PageIterator.this.prefetchDepth); }
+			public void failed(Throwable cause) { }
+			public void cancelled() { }
+		};
+
+	PageIterator(XhtmlNavigator navigator, XhtmlParser parser, RequestBuilder builder,
+			XhtmlApplicationState first, String rel, int prefetchDepth) {
+		if (prefetchDepth < 0) {
+			throw new IllegalArgumentException("prefetch depth cannot be negative");
+		}
+		this.navigator = navigator;
+		this.parser = parser;
+		this.builder = builder;
+		this.rel = rel;
+		this.prefetchDepth = prefetchDepth;
+		tail = new NavigationFuture<XhtmlApplicationState>();
+		tail.set(first);
+		buffer.add(tail);
+		fill(prefetchDepth);
+	}
+
+	/**
+	 * Starts fetching pages until {@code limit} are waiting to be
+	 * returned, as far as the pages already fetched allow.
+	 */
+	private synchronized void fill(int limit) {
+		while(!exhausted && !closed && buffer.size() < limit && tail.isDone()) {
+			XhtmlApplicationState page;
+			try {
+				page = tail.get();
+			} catch (Exception e) {
+				exhausted = true;
+				return;
+			}
+			NavigationFuture<XhtmlApplicationState> next;
+			try {
+				Element a = parser.getLinkWithRelation(page, rel);
+				if (a == null) {
+					exhausted = true;
+					return;
+				}
+				HttpUriRequest req = builder.followLink(a, page.getContext());
+				next = navigator.executeAsync(req);
+			} catch (Exception e) {
+				next = new NavigationFuture<XhtmlApplicationState>();
+				next.setException(e);
+				exhausted = true;
+			}
+			tail = next;
+			buffer.add(next);
+			next.addCallback(refill);
+		}
+	}
+
+	public boolean hasNext() {
+		synchronized(this) {
+			if (!buffer.isEmpty()) return true;
+		}
+		fill(Math.max(prefetchDepth, 1));
+		synchronized(this) {
+			return !buffer.isEmpty();
+		}
+	}
+
+	public XhtmlApplicationState next() {
+		if (!hasNext()) throw new NoSuchElementException();
+		NavigationFuture<XhtmlApplicationState> f;
+		synchronized(this) {
+			f = buffer.removeFirst();
+		}
+		XhtmlApplicationState page;
+		try {
+			page = f.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			close();
+			throw new NavigationException("interrupted waiting for page", e);
+		} catch (ExecutionException e) {
+			close();
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+			throw new NavigationException(cause);
+		}
+		fill(prefetchDepth);
+		return page;
+	}
+
+	/**
+	 * @throws UnsupportedOperationException always
+	 */
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Stops iterating and cancels any pages being fetched ahead.
+	 */
+	public synchronized void close() {
+		closed = true;
+		exhausted = true;
+		for(NavigationFuture<XhtmlApplicationState> f : buffer) {
+			f.cancel(true);
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * @return number of pages fetched or being fetched that have
+	 *   not been returned yet
+	 */
+	public synchronized int getBufferedCount() {
+		return buffer.size();
+	}
+}
@@ -0,0 +1,38 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+/**
+ * Determines how much of an XHTML response body is kept when it is
+ * parsed.
+ */
+public enum ParseMode {
+	
+	/** Build a complete JDOM {@link org.jdom.Document} of the body. */
+	FULL_DOCUMENT,
+	
+	/**
+	 * Stream the body through a SAX handler and keep only the links
+	 * and forms; see {@link HypermediaControlsHandler}.
+	 */
+	CONTROLS_ONLY,
+	
+	/**
+	 * Buffer the body and parse it only when the document is first
+	 * asked for; see {@link LazyXhtmlApplicationState}.
+	 */
+	LAZY
+}
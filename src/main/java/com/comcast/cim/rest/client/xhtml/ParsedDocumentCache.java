@@ -0,0 +1,181 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.jdom.Document;
+
+/**
+ * Bounded, least-recently-used cache of parsed response bodies, keyed
+ * by request URL and the validator (<code>ETag</code>, or failing that
+ * <code>Last-Modified</code>) the server sent with them. When a
+ * <code>304 Not Modified</code> carries the same validator, the earlier
+ * {@link Document} can be reused instead of parsing the body again. A
+ * full response (a cache hit or a revalidated entry from a caching
+ * {@link org.apache.http.client.HttpClient}) only reuses it if it carries
+ * the same strong <code>ETag</code>: a weak tag or a modification date
+ * does not promise the body is byte-for-byte the same.
+ * <p>
+ * Cached documents are shared between application states and must be
+ * treated as read-only.
+ */
+public class ParsedDocumentCache {
+
+	public static final int DEFAULT_MAX_ENTRIES = 256;
+
+	private static final String ETAG = "ETag";
+	private static final String LAST_MODIFIED = "Last-Modified";
+
+	private final int maxEntries;
+	private final Map<String, Document> documents;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	public ParsedDocumentCache() {
+		this(DEFAULT_MAX_ENTRIES);
+	}
+
+	/**
+	 * Constructs a cache holding at most the given number of documents.
+	 * @param maxEntries maximum number of cached documents
+	 */
+	public ParsedDocumentCache(int maxEntries) {
+		if (maxEntries < 1) {
+			throw new IllegalArgumentException("maxEntries must be positive");
+		}
+		this.maxEntries = maxEntries;
+		this.documents = new LinkedHashMap<String, Document>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Document> eldest) {
+				return size() > ParsedDocumentCache.this.maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * Looks up the document previously parsed for the same URL and
+	 * validator as the given response, such as a
+	 * <code>304 Not Modified</code>.
+	 * @param context URL used to retrieve the response
+	 * @param resp response from the server
+	 * @return cached {@link Document}, or <code>null</code> if there is
+	 *   none or the response carries no validator
+	 */
+	public Document get(URL context, HttpResponse resp) {
+		String key = getKey(context, resp);
+		if (key == null) return null;
+		Document doc;
+		synchronized (documents) {
+			doc = documents.get(key);
+		}
+		if (doc == null) {
+			misses.incrementAndGet();
+		} else {
+			hits.incrementAndGet();
+		}
+		return doc;
+	}
+
+	/**
+	 * Looks up the document previously parsed for the same URL as the
+	 * given full response, provided both carry the same strong
+	 * <code>ETag</code>.
+	 * @param context URL used to retrieve the response
+	 * @param resp response from the server
+	 * @return cached {@link Document}, or <code>null</code> if there is
+	 *   none or the response carries no strong <code>ETag</code>
+	 */
+	public Document getUnchanged(URL context, HttpResponse resp) {
+		if (!hasStrongETag(resp)) return null;
+		return get(context, resp);
+	}
+
+	/**
+	 * Remembers the document parsed from the given response. Responses
+	 * without a validator are not cached.
+	 * @param context URL used to retrieve the response
+	 * @param resp response from the server
+	 * @param doc parsed response body
+	 */
+	public void put(URL context, HttpResponse resp, Document doc) {
+		String key = getKey(context, resp);
+		if (key == null || doc == null) return;
+		synchronized (documents) {
+			documents.put(key, doc);
+		}
+	}
+
+	/**
+	 * Removes all cached documents.
+	 */
+	public void clear() {
+		synchronized (documents) {
+			documents.clear();
+		}
+	}
+
+	public int size() {
+		synchronized (documents) {
+			return documents.size();
+		}
+	}
+
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	/**
+	 * Returns the validator a response can be recognized by: its
+	 * <code>ETag</code> if present, otherwise its <code>Last-Modified</code>
+	 * date.
+	 * @param resp response from the server
+	 * @return validator, or <code>null</code> if there is none
+	 */
+	static String getValidator(HttpResponse resp) {
+		Header h = resp.getFirstHeader(ETAG);
+		if (h != null && h.getValue() != null) return ETAG + " " + h.getValue();
+		h = resp.getFirstHeader(LAST_MODIFIED);
+		if (h != null && h.getValue() != null) return LAST_MODIFIED + " " + h.getValue();
+		return null;
+	}
+
+	static boolean hasStrongETag(HttpResponse resp) {
+		Header h = resp.getFirstHeader(ETAG);
+		return h != null && h.getValue() != null && !h.getValue().startsWith("W/");
+	}
+
+	private static String getKey(URL context, HttpResponse resp) {
+		if (context == null) return null;
+		String validator = getValidator(resp);
+		if (validator == null) return null;
+		return context.toExternalForm() + '\u0000' + validator;
+	}
+}
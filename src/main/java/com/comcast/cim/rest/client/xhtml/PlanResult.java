@@ -0,0 +1,82 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+/**
+ * Outcome of executing a {@link NavigationPlan}: the final application
+ * state and how long each step took.
+ */
+public class PlanResult {
+
+	private final XhtmlApplicationState state;
+	private final long[] stepNanos;
+	private final int resumedAfter;
+	private final long totalNanos;
+
+	PlanResult(XhtmlApplicationState state, long[] stepNanos, int resumedAfter,
+			long totalNanos) {
+		this.state = state;
+		this.stepNanos = stepNanos;
+		this.resumedAfter = resumedAfter;
+		this.totalNanos = totalNanos;
+	}
+
+	/**
+	 * @return application state reached by the last step
+	 */
+	public XhtmlApplicationState getState() {
+		return state;
+	}
+
+	/**
+	 * @return number of steps in the plan
+	 */
+	public int getStepCount() {
+		return stepNanos.length;
+	}
+
+	/**
+	 * @param step index of a step
+	 * @return time spent on the step, in nanoseconds; zero if it was
+	 *   skipped
+	 */
+	public long getStepNanos(int step) {
+		return stepNanos[step];
+	}
+
+	/**
+	 * @param step index of a step
+	 * @return {@code true} iff the step was not executed because a
+	 *   remembered state from a later step was still fresh
+	 */
+	public boolean isSkipped(int step) {
+		return step <= resumedAfter;
+	}
+
+	/**
+	 * @return number of steps that were skipped
+	 */
+	public int getSkippedCount() {
+		return resumedAfter + 1;
+	}
+
+	/**
+	 * @return time spent executing the whole plan, in nanoseconds
+	 */
+	public long getTotalNanos() {
+		return totalNanos;
+	}
+}
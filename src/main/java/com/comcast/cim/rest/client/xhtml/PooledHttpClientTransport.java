@@ -0,0 +1,119 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.HttpClient;
+import org.apache.http.conn.routing.HttpRoute;
+
+/**
+ * {@link HttpClientTransport} over a pool of persistent connections.
+ * Optionally runs a background thread that closes connections which
+ * have expired or sat idle for too long, so requests are not sent over
+ * connections the server has already dropped. Usually created with an
+ * {@link XhtmlHttpClientBuilder}.
+ */
+public class PooledHttpClientTransport extends HttpClientTransport {
+
+	private final MeteredConnManager connManager;
+	private volatile Thread evictor;
+
+	/**
+	 * Constructs a transport.
+	 * @param httpClient client that uses {@code connManager}
+	 * @param connManager the client's connection pool
+	 */
+	public PooledHttpClientTransport(HttpClient httpClient,
+			MeteredConnManager connManager) {
+		super(httpClient);
+		this.connManager = connManager;
+	}
+
+	/**
+	 * Starts closing expired and idle connections in the background.
+	 * @param intervalMillis how often to check the pool
+	 * @param idleTimeoutMillis how long a connection may sit unused
+	 */
+	public synchronized void startEvictor(final long intervalMillis,
+			final long idleTimeoutMillis) {
+		if (evictor != null) return;
+		Thread t = new Thread("xhtml-connection-evictor") {
+			@Override
+			public void run() {
+				try {
+					while(!isInterrupted()) {
+						Thread.sleep(intervalMillis);
+						evictIdleConnections(idleTimeoutMillis);
+					}
+				} catch (InterruptedException e) {
+					/* shutting down */
+				}
+			}
+		};
+		t.setDaemon(true);
+		t.start();
+		evictor = t;
+	}
+
+	/**
+	 * Closes connections that have expired or have been idle for
+	 * longer than the given time.
+	 * @param idleTimeoutMillis maximum idle time
+	 */
+	public void evictIdleConnections(long idleTimeoutMillis) {
+		connManager.closeExpiredConnections();
+		connManager.closeIdleConnections(idleTimeoutMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @return current pool utilization
+	 */
+	public ConnectionPoolStats getPoolStats() {
+		return connManager.getStats();
+	}
+
+	/**
+	 * @param route a route to a particular origin
+	 * @return number of open connections on that route
+	 */
+	public int getConnectionsInPool(HttpRoute route) {
+		return connManager.getConnectionsInPool(route);
+	}
+
+	public MeteredConnManager getConnectionManager() {
+		return connManager;
+	}
+
+	/**
+	 * @return {@code true} while the background evictor is running
+	 */
+	public boolean isEvictorRunning() {
+		Thread t = evictor;
+		return t != null && t.isAlive();
+	}
+
+	/**
+	 * Stops the evictor and closes all connections.
+	 */
+	public synchronized void shutdown() {
+		if (evictor != null) {
+			evictor.interrupt();
+			evictor = null;
+		}
+		connManager.shutdown();
+	}
+}
@@ -0,0 +1,287 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.client.methods.HttpUriRequest;
+import org.jdom.Element;
+
+/**
+ * Speculatively fetches the links an {@link XhtmlNavigator} is likely
+ * to follow next. Whenever the navigator arrives at a new application
+ * state, the first link with each configured relation is fetched in the
+ * background and kept for a short time; a subsequent
+ * {@link XhtmlNavigator#followLink(XhtmlApplicationState, String)} to
+ * the same URL is then served from that prefetch instead of a new
+ * request. Prefetched states that are never used are counted as wasted.
+ */
+public class PrefetchPolicy {
+
+	public static final long DEFAULT_TTL_MILLIS = 10000;
+	public static final int DEFAULT_MAX_CONCURRENT = 4;
+	public static final int DEFAULT_MAX_ENTRIES = 64;
+
+	private static final String GET = "GET";
+
+	private final List<String> rels;
+	private volatile long ttlMillis = DEFAULT_TTL_MILLIS;
+	private volatile int maxConcurrent = DEFAULT_MAX_CONCURRENT;
+	private volatile int maxEntries = DEFAULT_MAX_ENTRIES;
+
+	private final ConcurrentMap<String, Entry> prefetched = new ConcurrentHashMap<String, Entry>();
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final AtomicLong issued = new AtomicLong();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong wasted = new AtomicLong();
+	private final AtomicLong skipped = new AtomicLong();
+
+	private static class Entry {
+		final NavigationFuture<XhtmlApplicationState> future;
+		final long expires;
+
+		Entry(NavigationFuture<XhtmlApplicationState> future, long expires) {
+			this.future = future;
+			this.expires = expires;
+		}
+	}
+
+	/**
+	 * Constructs a policy that prefetches links with the given
+	 * relations, in order of priority.
+	 * @param rels link relations to prefetch
+	 */
+	public PrefetchPolicy(String... rels) {
+		this.rels = Collections.unmodifiableList(Arrays.asList(rels.clone()));
+	}
+
+	/**
+	 * Starts prefetching the configured links of a newly arrived
+	 * application state, within the concurrency and size limits.
+	 * @param state the state the navigator has arrived at
+	 * @param parser locates links in {@code state}
+	 * @param builder builds requests for those links
+	 * @param client issues the requests
+	 */
+	void prefetch(XhtmlApplicationState state, XhtmlParser parser,
+			RequestBuilder builder, XhtmlHttpClient client) {
+		purgeExpired();
+		for(String rel : rels) {
+			HttpUriRequest req;
+			try {
+				Element a = parser.getLinkWithRelation(state, rel);
+				if (a == null) continue;
+				req = builder.followLink(a, state.getContext());
+			} catch (Exception e) {
+				continue;
+			}
+			String key = req.getURI().toString();
+			if (prefetched.containsKey(key)) continue;
+			if (prefetched.size() >= maxEntries || !acquire()) {
+				skipped.incrementAndGet();
+				continue;
+			}
+			NavigationFuture<XhtmlApplicationState> f;
+			try {
+				f = client.executeAsync(req);
+			} catch (RuntimeException e) {
+				inFlight.decrementAndGet();
+				continue;
+			}
+			issued.incrementAndGet();
+			f.addCallback(new NavigationCallback<XhtmlApplicationState>() {
+				public void completed(XhtmlApplicationState result) { inFlight.decrementAndGet(); }
+				public void failed(Throwable cause) { inFlight.decrementAndGet(); }
+				public void cancelled() { inFlight.decrementAndGet(); }
+			});
+			if (prefetched.putIfAbsent(key, new Entry(f, now() + ttlMillis)) != null) {
+				f.cancel(true);
+				wasted.incrementAndGet();
+			}
+		}
+	}
+
+	private boolean acquire() {
+		while(true) {
+			int n = inFlight.get();
+			if (n >= maxConcurrent) return false;
+			if (inFlight.compareAndSet(n, n + 1)) return true;
+		}
+	}
+
+	/**
+	 * Claims the prefetched state for a request, waiting for the
+	 * prefetch to finish if it is still in progress.
+	 * @param req request about to be executed
+	 * @param ctx context the request will be sent in, which bounds the
+	 *   wait; may be <code>null</code>
+	 * @return the prefetched application state, or <code>null</code>
+	 *   if there is none (or it failed or did not get a 2XX response)
+	 *   and the request should be executed normally
+	 * @throws DeadlineExceededException if the deadline passed while
+	 *   waiting
+	 * @throws NavigationCancelledException if the context was cancelled
+	 *   while waiting
+	 */
+	XhtmlApplicationState take(HttpUriRequest req, NavigationContext ctx)
+			throws DeadlineExceededException, NavigationCancelledException {
+		if (!GET.equals(req.getMethod())) return null;
+		Entry entry = prefetched.remove(req.getURI().toString());
+		if (entry == null) return null;
+		if (entry.expires <= now()) {
+			discard(entry);
+			return null;
+		}
+		try {
+			XhtmlApplicationState state = (ctx == null) ?
+					entry.future.get() : ctx.await(entry.future);
+			if (!state.succeeded()) {
+				wasted.incrementAndGet();
+				return null;
+			}
+			hits.incrementAndGet();
+			return state;
+		} catch (DeadlineExceededException e) {
+			discard(entry);
+			throw e;
+		} catch (NavigationCancelledException e) {
+			discard(entry);
+			throw e;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		} catch (ExecutionException e) {
+			wasted.incrementAndGet();
+			return null;
+		} catch (RuntimeException e) {
+			wasted.incrementAndGet();
+			return null;
+		}
+	}
+
+	private void purgeExpired() {
+		long now = now();
+		Iterator<Entry> it = prefetched.values().iterator();
+		while(it.hasNext()) {
+			Entry entry = it.next();
+			if (entry.expires <= now) {
+				it.remove();
+				discard(entry);
+			}
+		}
+	}
+
+	private void discard(Entry entry) {
+		entry.future.cancel(true);
+		wasted.incrementAndGet();
+	}
+
+	/**
+	 * Drops all prefetched states, cancelling those still in progress.
+	 */
+	public void clear() {
+		Iterator<Entry> it = prefetched.values().iterator();
+		while(it.hasNext()) {
+			Entry entry = it.next();
+			it.remove();
+			discard(entry);
+		}
+	}
+
+	/**
+	 * @return current time in milliseconds
+	 */
+	protected long now() {
+		return System.currentTimeMillis();
+	}
+
+	public List<String> getRelations() {
+		return rels;
+	}
+
+	/**
+	 * @param ttlMillis how long a prefetched state may be used
+	 */
+	public void setTtl(long ttlMillis) {
+		this.ttlMillis = ttlMillis;
+	}
+
+	public long getTtl() {
+		return ttlMillis;
+	}
+
+	/**
+	 * @param maxConcurrent maximum number of prefetches in progress
+	 */
+	public void setMaxConcurrent(int maxConcurrent) {
+		this.maxConcurrent = maxConcurrent;
+	}
+
+	public int getMaxConcurrent() {
+		return maxConcurrent;
+	}
+
+	/**
+	 * @param maxEntries maximum number of prefetched states kept
+	 */
+	public void setMaxEntries(int maxEntries) {
+		this.maxEntries = maxEntries;
+	}
+
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	/**
+	 * @return number of prefetches started
+	 */
+	public long getIssuedCount() { return issued.get(); }
+
+	/**
+	 * @return number of navigations served by a prefetch
+	 */
+	public long getHitCount() { return hits.get(); }
+
+	/**
+	 * @return number of prefetches that expired, failed or were
+	 *   dropped without being used
+	 */
+	public long getWastedCount() { return wasted.get(); }
+
+	/**
+	 * @return number of prefetches not started because of the
+	 *   concurrency or size limits
+	 */
+	public long getSkippedCount() { return skipped.get(); }
+
+	/**
+	 * @return number of prefetches in progress
+	 */
+	public int getInFlightCount() { return inFlight.get(); }
+
+	/**
+	 * @return number of prefetched states waiting to be used
+	 */
+	public int getPrefetchedCount() { return prefetched.size(); }
+}
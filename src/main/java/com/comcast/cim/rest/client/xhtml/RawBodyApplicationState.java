@@ -0,0 +1,54 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+import java.net.URL;
+
+import org.apache.http.HttpResponse;
+
+/**
+ * Application state for a response whose body was kept as raw bytes
+ * rather than parsed (see {@link BodyHandlers}).
+ */
+public class RawBodyApplicationState extends XhtmlApplicationState {
+
+	private byte[] body;
+	private boolean truncated;
+
+	/**
+	 * @param context the URL used to retrieve the response
+	 * @param resp response sent by the server
+	 * @param body captured response body
+	 * @param truncated whether the body was cut short
+	 */
+	public RawBodyApplicationState(URL context, HttpResponse resp, byte[] body,
+			boolean truncated) {
+		super(context, resp, null);
+		this.body = body;
+		this.truncated = truncated;
+	}
+
+	/**
+	 * @return the captured response body
+	 */
+	public byte[] getBody() { return body; }
+
+	/**
+	 * @return {@code true} if the response body was longer than
+	 *   the captured bytes
+	 */
+	public boolean isTruncated() { return truncated; }
+}
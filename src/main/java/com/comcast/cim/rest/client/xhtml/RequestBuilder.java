@@ -33,7 +33,6 @@ import org.apache.http.message.BasicNameValuePair;
 import org.apache.http.util.EntityUtils;
 import org.jdom.Element;
 import org.jdom.JDOMException;
-import org.jdom.xpath.XPath;
 
 /**
  * Used for constructing HTTP requests from hypermedia controls
@@ -41,6 +40,26 @@ import org.jdom.xpath.XPath;
  */
 public class RequestBuilder {
 
+	private static final String NAMED_INPUTS = "//xhtml:input[@name]";
+	private static final String SELECTS = "//xhtml:select";
+	private static final String OPTION_WITH_VALUE = "//xhtml:option[@value=$value]";
+	private static final String SELECTED_OPTION = "//xhtml:option[@selected]";
+	
+	private XPathCache xpaths;
+	
+	public RequestBuilder() {
+		this(XPathCache.getDefault());
+	}
+	
+	/**
+	 * Constructs a request builder that locates form controls using
+	 * the given compiled-expression cache.
+	 * @param xpaths cache of compiled XPath expressions
+	 */
+	public RequestBuilder(XPathCache xpaths) {
+		this.xpaths = xpaths;
+	}
+
     /**
      * Constructs a GET request used to follow a link.
      * @param a The &lt;a&gt; tag in a parsed response body that
@@ -124,8 +143,7 @@ public class RequestBuilder {
 
 	private void marshalInputArguments(Element form, Map<String, String> args,
 			List<NameValuePair> keyvals) throws JDOMException {
-		XPath xpath = XhtmlParser.getXPath("xhtml", "//xhtml:input[@name]");
-		for(Object o : xpath.selectNodes(form)) {
+		for(Object o : xpaths.selectNodes(form, "xhtml", NAMED_INPUTS)) {
 			Element input = (Element)o;
 			String inputName = input.getAttributeValue("name");
 			if (args.containsKey(inputName)) {
@@ -141,8 +159,7 @@ public class RequestBuilder {
 	
 	private void marshalSelectArguments(Element form, Map<String, String> args,
 			List<NameValuePair> keyvals) throws JDOMException {
-		XPath xpath = XhtmlParser.getXPath("xhtml", "//xhtml:select");
-		for(Object o : xpath.selectNodes(form)) {
+		for(Object o : xpaths.selectNodes(form, "xhtml", SELECTS)) {
 			Element select = (Element)o;
 			String selectName = select.getAttributeValue("name");
 			if (selectName != null && args.containsKey(selectName)) {
@@ -157,9 +174,7 @@ public class RequestBuilder {
 			List<NameValuePair> keyvals)
 			throws JDOMException {
 		String selectName = select.getAttributeValue("name");
-		String expr = String.format("//xhtml:option[@value='%s']",chosenValue);
-		XPath optionPath = XhtmlParser.getXPath("xhtml", expr);
-		if (optionPath.selectSingleNode(select) == null) {
+		if (xpaths.selectSingleNode(select, "xhtml", OPTION_WITH_VALUE, "value", chosenValue) == null) {
 			String msg = String.format("value '%s' was not one of the available options for select '%s'",
 										chosenValue, selectName);
 			throw new IllegalArgumentException(msg);
@@ -170,8 +185,7 @@ public class RequestBuilder {
 	private void addDefaultOption(Element select, List<NameValuePair> keyvals) 
 			throws JDOMException {
 		String selectName = select.getAttributeValue("name");
-		XPath defaultPath = XhtmlParser.getXPath("xhtml","//xhtml:option[@selected]");
-		Element defaultOption = (Element)defaultPath.selectSingleNode(select);
+		Element defaultOption = (Element)xpaths.selectSingleNode(select, "xhtml", SELECTED_OPTION);
 		if (defaultOption != null) {
 			keyvals.add(new BasicNameValuePair(selectName, defaultOption.getAttributeValue("value","")));
 		}
@@ -0,0 +1,194 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.Header;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.jdom.Document;
+
+/**
+ * Lets concurrent, identical <code>GET</code> requests share a single
+ * request to the server: the first caller carries out the request and
+ * the others wait for its result. Requests are identical when they have
+ * the same URL, <code>Accept</code> header and, if present,
+ * <code>Authorization</code> header.
+ * <p>
+ * By default all callers receive the same {@link XhtmlApplicationState},
+ * whose document must then be treated as read-only. Alternatively each
+ * waiting caller can be given its own copy of the document.
+ */
+public class RequestCoalescer {
+
+	private static final String GET = "GET";
+
+	private final ConcurrentMap<String, NavigationFuture<XhtmlApplicationState>> inFlight =
+		new ConcurrentHashMap<String, NavigationFuture<XhtmlApplicationState>>();
+	private volatile boolean copyDocuments;
+	private final AtomicLong executed = new AtomicLong();
+	private final AtomicLong coalesced = new AtomicLong();
+
+	/**
+	 * Executes a request, or waits for an identical one already in
+	 * progress. If that request is abandoned by its caller (aborted,
+	 * cancelled or past its caller's deadline), waiting callers do not
+	 * share its failure: one of them sends the request again. A caller
+	 * whose request is armed in a {@link NavigationContext} waits no
+	 * longer than its own deadline, and no longer once its context is
+	 * cancelled.
+	 * @param req the request
+	 * @param loader carries out the request
+	 * @return the resulting application state
+	 * @throws IOException if the shared request failed
+	 */
+	public XhtmlApplicationState execute(HttpUriRequest req,
+			Callable<XhtmlApplicationState> loader) throws IOException {
+		if (!GET.equals(req.getMethod())) {
+			return call(loader);
+		}
+		String key = getKey(req);
+		for(;;) {
+			NavigationFuture<XhtmlApplicationState> mine = 
+				new NavigationFuture<XhtmlApplicationState>();
+			NavigationFuture<XhtmlApplicationState> leader = inFlight.putIfAbsent(key, mine);
+			if (leader != null) {
+				coalesced.incrementAndGet();
+				try {
+					return share(await(leader, NavigationContext.of(req)));
+				} catch (LeaderAbandonedException e) {
+					inFlight.remove(key, leader);
+					continue;
+				}
+			}
+			try {
+				XhtmlApplicationState state = call(loader);
+				mine.set(state);
+				return state;
+			} catch (IOException e) {
+				mine.setException(NavigationContext.isAbandoned(req, e) ?
+						new LeaderAbandonedException(e) : e);
+				throw e;
+			} catch (RuntimeException e) {
+				mine.setException(e);
+				throw e;
+			} catch (Error e) {
+				mine.setException(e);
+				throw e;
+			} finally {
+				inFlight.remove(key, mine);
+			}
+		}
+	}
+
+	/** Tells waiting callers that the request they joined was abandoned. */
+	private static class LeaderAbandonedException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		LeaderAbandonedException(IOException cause) {
+			super(cause.getMessage());
+			initCause(cause);
+		}
+	}
+
+	private XhtmlApplicationState call(Callable<XhtmlApplicationState> loader)
+			throws IOException {
+		executed.incrementAndGet();
+		try {
+			return loader.call();
+		} catch (IOException e) {
+			throw e;
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static XhtmlApplicationState await(NavigationFuture<XhtmlApplicationState> leader,
+			NavigationContext ctx) throws IOException {
+		try {
+			return (ctx == null) ? leader.get() : ctx.await(leader);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted waiting for shared request");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) throw (IOException)cause;
+			if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+			if (cause instanceof Error) throw (Error)cause;
+			throw new RuntimeException(cause);
+		}
+	}
+
+	private XhtmlApplicationState share(XhtmlApplicationState state) {
+		if (!copyDocuments) return state;
+		Document doc = state.getDocument();
+		if (doc == null) return state;
+		return new XhtmlApplicationState(state.getContext(), state.getHttpResponse(),
+				(Document)doc.clone(), state.isPartial());
+	}
+
+	private static String getKey(HttpUriRequest req) {
+		StringBuilder key = new StringBuilder(req.getURI().toString());
+		key.append('\u0000');
+		Header accept = req.getFirstHeader("Accept");
+		if (accept != null) key.append(accept.getValue());
+		Header auth = req.getFirstHeader("Authorization");
+		if (auth != null) key.append('\u0000').append(auth.getValue());
+		return key.toString();
+	}
+
+	/**
+	 * Chooses whether callers that joined another caller's request
+	 * get their own copy of its document. Off by default.
+	 * @param copyDocuments {@code true} to copy
+	 */
+	public void setCopyDocuments(boolean copyDocuments) {
+		this.copyDocuments = copyDocuments;
+	}
+
+	public boolean isCopyDocuments() {
+		return copyDocuments;
+	}
+
+	/**
+	 * @return number of requests actually carried out
+	 */
+	public long getExecutedCount() {
+		return executed.get();
+	}
+
+	/**
+	 * @return number of requests that joined one already in progress
+	 */
+	public long getCoalescedCount() {
+		return coalesced.get();
+	}
+
+	/**
+	 * @return number of distinct requests currently in progress
+	 */
+	public int getInFlightCount() {
+		return inFlight.size();
+	}
+}
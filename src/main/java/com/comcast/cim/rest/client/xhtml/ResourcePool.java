@@ -0,0 +1,129 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of reusable helper objects that are expensive to
+ * construct but not safe for concurrent use (parsers, compiled
+ * expressions, and the like). Borrowing never blocks: if no idle
+ * instance is available a new one is created, and at most
+ * {@link #getMaxIdle()} instances are retained when they are
+ * released.
+ * @param <T> type of pooled object
+ */
+public abstract class ResourcePool<T> {
+
+	public static final int DEFAULT_MAX_IDLE = 64;
+
+	private final Queue<T> idle = new ConcurrentLinkedQueue<T>();
+	private final AtomicInteger idleCount = new AtomicInteger();
+	private final int maxIdle;
+
+	private final AtomicLong created = new AtomicLong();
+	private final AtomicLong reused = new AtomicLong();
+	private final AtomicLong discarded = new AtomicLong();
+
+	protected ResourcePool() {
+		this(DEFAULT_MAX_IDLE);
+	}
+
+	protected ResourcePool(int maxIdle) {
+		if (maxIdle < 0) {
+			throw new IllegalArgumentException("maxIdle must be non-negative");
+		}
+		this.maxIdle = maxIdle;
+	}
+
+	/**
+	 * Constructs a new, fully-configured instance for the pool.
+	 * @return new pooled object
+	 */
+	protected abstract T create();
+
+	/**
+	 * Prepares an instance that has been used for reuse by the next
+	 * borrower. The default implementation does nothing.
+	 * @param t instance being returned to the pool
+	 * @return {@code true} if the instance may be reused; {@code false}
+	 *   if it should be dropped instead
+	 */
+	protected boolean reset(T t) {
+		return true;
+	}
+
+	/**
+	 * Obtains an instance for exclusive use by the caller, who must
+	 * hand it back via {@link #release(Object)} or {@link #discard(Object)}.
+	 * @return pooled or newly created instance
+	 */
+	public T borrow() {
+		T t = idle.poll();
+		if (t != null) {
+			idleCount.decrementAndGet();
+			reused.incrementAndGet();
+			return t;
+		}
+		created.incrementAndGet();
+		return create();
+	}
+
+	/**
+	 * Returns a borrowed instance to the pool so it can be reused.
+	 * @param t instance previously obtained from {@link #borrow()}
+	 */
+	public void release(T t) {
+		if (t == null) return;
+		if (!reset(t)) {
+			discard(t);
+			return;
+		}
+		if (idleCount.incrementAndGet() > maxIdle) {
+			idleCount.decrementAndGet();
+			discarded.incrementAndGet();
+			return;
+		}
+		idle.offer(t);
+	}
+
+	/**
+	 * Drops a borrowed instance that may have been left in an
+	 * inconsistent state, so that it is never handed out again.
+	 * @param t instance previously obtained from {@link #borrow()}
+	 */
+	public void discard(T t) {
+		if (t != null) discarded.incrementAndGet();
+	}
+
+	/** @return maximum number of idle instances retained */
+	public int getMaxIdle() { return maxIdle; }
+
+	/** @return number of instances currently idle in the pool */
+	public int getIdleCount() { return idleCount.get(); }
+
+	/** @return number of instances constructed by this pool */
+	public long getCreatedCount() { return created.get(); }
+
+	/** @return number of borrows satisfied by an idle instance */
+	public long getReusedCount() { return reused.get(); }
+
+	/** @return number of instances dropped rather than retained */
+	public long getDiscardedCount() { return discarded.get(); }
+}
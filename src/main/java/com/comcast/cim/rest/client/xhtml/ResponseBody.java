@@ -0,0 +1,164 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A fully read response body, held either on the heap or, for bodies
+ * over the {@linkplain BodyLimits#getSpillThreshold() spill threshold},
+ * in a memory-mapped temporary file. The temporary file is unlinked
+ * as soon as it has been mapped, so nothing is left behind on disk
+ * once the mapping is garbage collected.
+ */
+public class ResponseBody {
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private final byte[] bytes;
+	private final ByteBuffer mapped;
+
+	private ResponseBody(byte[] bytes, ByteBuffer mapped) {
+		this.bytes = bytes;
+		this.mapped = mapped;
+	}
+
+	/**
+	 * @param bytes body contents
+	 * @return heap-backed body
+	 */
+	public static ResponseBody wrap(byte[] bytes) {
+		return new ResponseBody(bytes, null);
+	}
+
+	/**
+	 * Reads a stream to its end, spilling to a temporary file if it
+	 * exceeds the spill threshold. Without a spill threshold the body
+	 * is kept on the heap. The stream is not closed.
+	 * @param in body contents
+	 * @param limits size limits to apply
+	 * @return {@link ResponseBody}
+	 * @throws ResponseTooLargeException if the stream is longer than
+	 *   the maximum body size
+	 * @throws IOException
+	 */
+	public static ResponseBody read(InputStream in, BodyLimits limits) throws IOException {
+		InputStream src = new BoundedInputStream(in, limits.getMaxBodySize());
+		int threshold = limits.isBuffering() ? limits.getSpillThreshold() : Integer.MAX_VALUE;
+		ByteArrayOutputStream heap = new ByteArrayOutputStream(Math.min(threshold, BUFFER_SIZE - 1) + 1);
+		byte[] buf = new byte[BUFFER_SIZE];
+		int n;
+		while((n = src.read(buf)) != -1) {
+			heap.write(buf, 0, n);
+			if (heap.size() > threshold) {
+				return spill(heap, src, buf, limits.getTempDirectory());
+			}
+		}
+		return wrap(heap.toByteArray());
+	}
+
+	private static ResponseBody spill(ByteArrayOutputStream head, InputStream rest,
+			byte[] buf, File tempDirectory) throws IOException {
+		File file = File.createTempFile("xhtml-body", ".tmp", tempDirectory);
+		try {
+			OutputStream out = new FileOutputStream(file);
+			try {
+				head.writeTo(out);
+				int n;
+				while((n = rest.read(buf)) != -1) {
+					out.write(buf, 0, n);
+				}
+			} finally {
+				out.close();
+			}
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				FileChannel channel = raf.getChannel();
+				return new ResponseBody(null, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+			} finally {
+				raf.close();
+			}
+		} finally {
+			if (!file.delete()) file.deleteOnExit();
+		}
+	}
+
+	/**
+	 * @return body length in bytes
+	 */
+	public int length() {
+		return (bytes != null) ? bytes.length : mapped.capacity();
+	}
+
+	/**
+	 * @return {@code true} if the body was spilled to a temporary file
+	 */
+	public boolean isSpilled() {
+		return mapped != null;
+	}
+
+	/**
+	 * Opens a new stream over the body; may be called repeatedly.
+	 * @return {@link InputStream}
+	 */
+	public InputStream openStream() {
+		if (bytes != null) return new ByteArrayInputStream(bytes);
+		return new ByteBufferInputStream(mapped.duplicate());
+	}
+
+	private static class ByteBufferInputStream extends InputStream {
+		private final ByteBuffer buf;
+
+		ByteBufferInputStream(ByteBuffer buf) {
+			this.buf = buf;
+		}
+
+		@Override
+		public int read() {
+			return buf.hasRemaining() ? (buf.get() & 0xff) : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (len == 0) return 0;
+			if (!buf.hasRemaining()) return -1;
+			int n = Math.min(len, buf.remaining());
+			buf.get(b, off, n);
+			return n;
+		}
+
+		@Override
+		public long skip(long n) {
+			int skipped = (int)Math.max(0, Math.min(n, buf.remaining()));
+			buf.position(buf.position() + skipped);
+			return skipped;
+		}
+
+		@Override
+		public int available() {
+			return buf.remaining();
+		}
+	}
+}
@@ -0,0 +1,187 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+
+/**
+ * Registry that chooses a {@link BodyHandler} for each response based
+ * on its media type and, optionally, its status class (2 for 2XX,
+ * 4 for 4XX, and so on). Registrations may name an exact media type
+ * (&quot;application/json&quot;), a whole type (&quot;image/*&quot;),
+ * a structured syntax suffix (&quot;*&#47;*+xml&quot;) or anything
+ * (&quot;*&#47;*&quot;). The most specific match wins, and a match
+ * for the response's status class beats one for any status.
+ * Responses without a Content-Type header are matched under the
+ * empty string.
+ * <p>
+ * The dispatcher counts how many responses of each media type were
+ * parsed and how many were routed elsewhere, so the amount of
+ * parsing avoided can be monitored.
+ */
+public class ResponseDispatcher {
+
+	private static final int ANY_STATUS = 0;
+
+	private final Map<String, BodyHandler> handlers = new ConcurrentHashMap<String, BodyHandler>();
+	private final ConcurrentMap<String, AtomicLong> parsed = new ConcurrentHashMap<String, AtomicLong>();
+	private final ConcurrentMap<String, AtomicLong> skipped = new ConcurrentHashMap<String, AtomicLong>();
+
+	/**
+	 * Constructs a dispatcher with a single catch-all registration of
+	 * <code>*&#47;*</code> to {@link BodyHandlers#PARSE}, so every
+	 * response is parsed until more specific handlers are registered
+	 * or the catch-all is replaced.
+	 */
+	public ResponseDispatcher() {
+		register("*/*", BodyHandlers.PARSE);
+	}
+
+	/**
+	 * Returns a dispatcher that parses XHTML, XML and HTML responses
+	 * (as well as responses with no declared media type) and discards
+	 * the bodies of everything else.
+	 * @return new {@link ResponseDispatcher}
+	 */
+	public static ResponseDispatcher xhtmlOnly() {
+		ResponseDispatcher d = new ResponseDispatcher();
+		d.register("*/*", BodyHandlers.DISCARD);
+		d.register("", BodyHandlers.PARSE);
+		d.register("application/xhtml+xml", BodyHandlers.PARSE);
+		d.register("application/xml", BodyHandlers.PARSE);
+		d.register("text/xml", BodyHandlers.PARSE);
+		d.register("text/html", BodyHandlers.PARSE);
+		d.register("*/*+xml", BodyHandlers.PARSE);
+		return d;
+	}
+
+	/**
+	 * Routes responses of the given media type to a handler,
+	 * regardless of status code.
+	 * @param mediaType media type pattern
+	 * @param handler handler for matching responses
+	 */
+	public void register(String mediaType, BodyHandler handler) {
+		register(ANY_STATUS, mediaType, handler);
+	}
+
+	/**
+	 * Routes responses of the given status class and media type to
+	 * a handler.
+	 * @param statusClass leading digit of the status code (1-5)
+	 * @param mediaType media type pattern
+	 * @param handler handler for matching responses
+	 */
+	public void register(int statusClass, String mediaType, BodyHandler handler) {
+		if (statusClass < ANY_STATUS || statusClass > 5) {
+			throw new IllegalArgumentException("status class must be between 1 and 5");
+		}
+		handlers.put(key(statusClass, normalize(mediaType)), handler);
+	}
+
+	/**
+	 * Chooses the handler for a response and records the choice.
+	 * @param resp response with a body
+	 * @return registered {@link BodyHandler}; {@link BodyHandlers#PARSE}
+	 *   if nothing matches
+	 */
+	public BodyHandler select(HttpResponse resp) {
+		String mediaType = getMediaType(resp);
+		int statusClass = resp.getStatusLine().getStatusCode() / 100;
+		BodyHandler handler = lookup(statusClass, mediaType);
+		if (handler == null) handler = lookup(ANY_STATUS, mediaType);
+		if (handler == null) handler = BodyHandlers.PARSE;
+		count(handler == BodyHandlers.PARSE ? parsed : skipped, mediaType);
+		return handler;
+	}
+
+	private BodyHandler lookup(int statusClass, String mediaType) {
+		BodyHandler h = handlers.get(key(statusClass, mediaType));
+		if (h != null || "".equals(mediaType)) return h;
+		int plus = mediaType.lastIndexOf('+');
+		if (plus >= 0) {
+			h = handlers.get(key(statusClass, "*/*" + mediaType.substring(plus)));
+			if (h != null) return h;
+		}
+		int slash = mediaType.indexOf('/');
+		if (slash >= 0) {
+			h = handlers.get(key(statusClass, mediaType.substring(0, slash) + "/*"));
+			if (h != null) return h;
+		}
+		return handlers.get(key(statusClass, "*/*"));
+	}
+
+	/**
+	 * @return number of responses parsed, by media type
+	 */
+	public Map<String, Long> getParsedCounts() {
+		return snapshot(parsed);
+	}
+
+	/**
+	 * @return number of responses routed to a handler other than
+	 *   {@link BodyHandlers#PARSE}, by media type
+	 */
+	public Map<String, Long> getSkippedCounts() {
+		return snapshot(skipped);
+	}
+
+	static String getMediaType(HttpResponse resp) {
+		Header h = resp.getFirstHeader("Content-Type");
+		if (h == null) {
+			HttpEntity entity = resp.getEntity();
+			if (entity != null) h = entity.getContentType();
+		}
+		return (h == null) ? "" : normalize(h.getValue());
+	}
+
+	private static String normalize(String mediaType) {
+		int semi = mediaType.indexOf(';');
+		if (semi >= 0) mediaType = mediaType.substring(0, semi);
+		return mediaType.trim().toLowerCase(Locale.ENGLISH);
+	}
+
+	private static String key(int statusClass, String mediaType) {
+		return statusClass + " " + mediaType;
+	}
+
+	private static void count(ConcurrentMap<String, AtomicLong> counts, String mediaType) {
+		AtomicLong n = counts.get(mediaType);
+		if (n == null) {
+			AtomicLong created = new AtomicLong();
+			n = counts.putIfAbsent(mediaType, created);
+			if (n == null) n = created;
+		}
+		n.incrementAndGet();
+	}
+
+	private static Map<String, Long> snapshot(Map<String, AtomicLong> counts) {
+		Map<String, Long> out = new HashMap<String, Long>();
+		for(Map.Entry<String, AtomicLong> e : counts.entrySet()) {
+			out.put(e.getKey(), e.getValue().get());
+		}
+		return out;
+	}
+}
@@ -0,0 +1,40 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+import java.io.IOException;
+
+/**
+ * Raised when a response body exceeds the configured maximum size
+ * (see {@link BodyLimits}). The connection the body was being read
+ * from has already been aborted.
+ */
+public class ResponseTooLargeException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+	
+	private long limit;
+
+	public ResponseTooLargeException(long limit) {
+		super("response body exceeded " + limit + " bytes");
+		this.limit = limit;
+	}
+
+	/**
+	 * @return the maximum body size, in bytes, that was exceeded
+	 */
+	public long getLimit() { return limit; }
+}
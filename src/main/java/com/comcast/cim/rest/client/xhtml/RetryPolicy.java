@@ -0,0 +1,116 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Decides whether and when an idempotent request is tried again after
+ * a server error (5XX) or an I/O failure. Delays grow exponentially
+ * from a base delay up to a maximum, with "full jitter": each delay is
+ * chosen uniformly between zero and the exponential bound, so clients
+ * that failed together do not retry together.
+ */
+public class RetryPolicy {
+
+	public static final int DEFAULT_MAX_ATTEMPTS = 3;
+	public static final long DEFAULT_BASE_DELAY_MILLIS = 100;
+	public static final long DEFAULT_MAX_DELAY_MILLIS = 5000;
+
+	private final int maxAttempts;
+	private final long baseDelayMillis;
+	private final long maxDelayMillis;
+	private final Random random = new Random();
+
+	public RetryPolicy() {
+		this(DEFAULT_MAX_ATTEMPTS, DEFAULT_BASE_DELAY_MILLIS, DEFAULT_MAX_DELAY_MILLIS);
+	}
+
+	/**
+	 * Constructs a retry policy.
+	 * @param maxAttempts total number of attempts, including the first
+	 * @param baseDelayMillis bound on the delay before the first retry
+	 * @param maxDelayMillis bound on the delay before any retry
+	 */
+	public RetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis) {
+		if (maxAttempts < 1) {
+			throw new IllegalArgumentException("maxAttempts must be positive");
+		}
+		this.maxAttempts = maxAttempts;
+		this.baseDelayMillis = baseDelayMillis;
+		this.maxDelayMillis = maxDelayMillis;
+	}
+
+	/**
+	 * @param state outcome of an attempt
+	 * @return {@code true} if the response warrants another attempt
+	 */
+	public boolean isRetryable(XhtmlApplicationState state) {
+		int status = state.getHttpResponse().getStatusLine().getStatusCode();
+		return status >= 500 && status <= 599;
+	}
+
+	/**
+	 * @param e failure of an attempt
+	 * @return {@code true} if the failure warrants another attempt;
+	 *   requests refused by an open {@link CircuitBreaker}, or cut off
+	 *   by a navigation deadline or cancellation, are not retried
+	 */
+	public boolean isRetryable(IOException e) {
+		return !(e instanceof CircuitOpenException
+				|| e instanceof DeadlineExceededException
+				|| e instanceof NavigationCancelledException);
+	}
+
+	/**
+	 * Computes how long to wait before the next attempt.
+	 * @param attempt number of attempts made so far (1 or more)
+	 * @return delay in milliseconds
+	 */
+	public long getBackoffMillis(int attempt) {
+		long bound = baseDelayMillis;
+		for(int i = 1; i < attempt && bound < maxDelayMillis; i++) {
+			bound *= 2;
+		}
+		bound = Math.min(bound, maxDelayMillis);
+		if (bound <= 0) return 0;
+		synchronized(random) {
+			return (long)(random.nextDouble() * (bound + 1));
+		}
+	}
+
+	/**
+	 * Waits before the next attempt.
+	 * @param millis how long to wait
+	 * @throws InterruptedException
+	 */
+	protected void sleep(long millis) throws InterruptedException {
+		if (millis > 0) Thread.sleep(millis);
+	}
+
+	public int getMaxAttempts() {
+		return maxAttempts;
+	}
+
+	public long getBaseDelayMillis() {
+		return baseDelayMillis;
+	}
+
+	public long getMaxDelayMillis() {
+		return maxDelayMillis;
+	}
+}
@@ -0,0 +1,43 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+import org.jdom.input.SAXBuilder;
+
+/**
+ * Pool of {@link SAXBuilder}s configured for parsing XHTML response
+ * bodies. Each builder keeps its underlying SAX parser between
+ * uses, so the JAXP parser factory lookup and feature configuration
+ * only happen when the pool has to grow.
+ */
+public class SAXBuilderPool extends ResourcePool<SAXBuilder> {
+
+	public SAXBuilderPool() {
+		super();
+	}
+
+	public SAXBuilderPool(int maxIdle) {
+		super(maxIdle);
+	}
+
+	@Override
+	protected SAXBuilder create() {
+		SAXBuilder builder = XhtmlResponseHandler.getBuilder();
+		builder.setReuseParser(true);
+		return builder;
+	}
+
+}
@@ -0,0 +1,56 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+/**
+ * Token bucket: holds up to <code>burst</code> tokens and gains
+ * <code>ratePerSecond</code> tokens per second; each request spends one.
+ */
+class TokenBucket {
+
+	private final double ratePerMilli;
+	private final double capacity;
+	private double tokens;
+	private long last;
+
+	TokenBucket(double ratePerSecond, int burst, long now) {
+		if (ratePerSecond <= 0 || burst < 1) {
+			throw new IllegalArgumentException("rate and burst must be positive");
+		}
+		this.ratePerMilli = ratePerSecond / 1000.0;
+		this.capacity = burst;
+		this.tokens = burst;
+		this.last = now;
+	}
+
+	/**
+	 * Takes a token if one is available.
+	 * @param now current time in milliseconds
+	 * @return zero if a token was taken, otherwise how many milliseconds
+	 *   until one will be available
+	 */
+	synchronized long tryAcquire(long now) {
+		if (now > last) {
+			tokens = Math.min(capacity, tokens + (now - last) * ratePerMilli);
+			last = now;
+		}
+		if (tokens >= 1.0) {
+			tokens -= 1.0;
+			return 0;
+		}
+		return Math.max(1, (long)Math.ceil((1.0 - tokens) / ratePerMilli));
+	}
+}
@@ -0,0 +1,148 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+/**
+ * Compact, thread-safe set of URLs, for remembering which resources a
+ * crawl has already reached. Only a 64-bit hash of each URL is kept,
+ * in open-addressed tables of <code>long</code>s, so a million URLs take
+ * roughly 16 to 32MB regardless of their length. Two distinct URLs
+ * collide with probability about 2<sup>-64</sup>, so across
+ * <i>n</i> URLs the chance of any collision is around
+ * <i>n</i><sup>2</sup>/2<sup>65</sup>: negligible even for hundreds of
+ * millions. The set is split into independently locked segments so
+ * concurrent crawl workers rarely contend.
+ */
+public class VisitedUrlSet {
+
+	private static final int SEGMENT_BITS = 4;
+	private static final int MIN_CAPACITY = 64;
+
+	private final Segment[] segments;
+
+	public VisitedUrlSet() {
+		this(1024);
+	}
+
+	/**
+	 * @param expectedSize number of URLs the set is expected to hold;
+	 *   the set grows beyond this as needed
+	 */
+	public VisitedUrlSet(int expectedSize) {
+		int n = 1 << SEGMENT_BITS;
+		int perSegment = Math.max(MIN_CAPACITY, Integer.highestOneBit(
+				Math.max(1, expectedSize / n) * 2 - 1) * 2);
+		segments = new Segment[n];
+		for(int i = 0; i < n; i++) segments[i] = new Segment(perSegment);
+	}
+
+	/**
+	 * Adds a URL to the set.
+	 * @param url URL
+	 * @return <code>true</code> if the URL was not already present
+	 */
+	public boolean add(String url) {
+		long h = hash(url);
+		return segmentFor(h).add(h);
+	}
+
+	/**
+	 * @param url URL
+	 * @return <code>true</code> if the URL has been added
+	 */
+	public boolean contains(String url) {
+		long h = hash(url);
+		return segmentFor(h).contains(h);
+	}
+
+	/**
+	 * @return number of URLs in the set
+	 */
+	public long size() {
+		long size = 0;
+		for(Segment s : segments) size += s.size();
+		return size;
+	}
+
+	private Segment segmentFor(long h) {
+		return segments[(int)(h >>> (64 - SEGMENT_BITS))];
+	}
+
+	/**
+	 * 64-bit FNV-1a hash of the characters, finished with the MurmurHash3
+	 * mixing function so that every bit depends on every input bit.
+	 * Never returns zero, which marks empty table slots.
+	 */
+	static long hash(CharSequence s) {
+		long h = 0xcbf29ce484222325L;
+		for(int i = 0; i < s.length(); i++) {
+			h ^= s.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return (h == 0) ? 1 : h;
+	}
+
+	private static class Segment {
+		private long[] table;
+		private int size;
+
+		Segment(int capacity) {
+			table = new long[capacity];
+		}
+
+		synchronized boolean add(long h) {
+			if (!insert(table, h)) return false;
+			if (++size * 4 > table.length * 3) resize();
+			return true;
+		}
+
+		synchronized boolean contains(long h) {
+			int mask = table.length - 1;
+			for(int i = (int)h & mask; table[i] != 0; i = (i + 1) & mask) {
+				if (table[i] == h) return true;
+			}
+			return false;
+		}
+
+		synchronized int size() {
+			return size;
+		}
+
+		private void resize() {
+			long[] bigger = new long[table.length * 2];
+			for(long h : table) {
+				if (h != 0) insert(bigger, h);
+			}
+			table = bigger;
+		}
+
+		private static boolean insert(long[] table, long h) {
+			int mask = table.length - 1;
+			int i = (int)h & mask;
+			while(table[i] != 0) {
+				if (table[i] == h) return false;
+				i = (i + 1) & mask;
+			}
+			table[i] = h;
+			return true;
+		}
+	}
+}
@@ -0,0 +1,80 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Pool of namespace-aware, non-validating SAX {@link XMLReader}s
+ * configured the same way as the parsers used to build full
+ * documents (see {@link XhtmlResponseHandler#getBuilder()}).
+ */
+public class XMLReaderPool extends ResourcePool<XMLReader> {
+
+	private static final String VALIDATION_FEATURE = 
+		"http://xml.org/sax/features/validation";
+	private static final String LOAD_EXTERNAL_DTD_FEATURE = 
+		"http://apache.org/xml/features/nonvalidating/load-external-dtd";
+	
+	private static final DefaultHandler NO_OP_HANDLER = new DefaultHandler();
+
+	private final SAXParserFactory factory;
+
+	public XMLReaderPool() {
+		this(DEFAULT_MAX_IDLE);
+	}
+
+	public XMLReaderPool(int maxIdle) {
+		super(maxIdle);
+		factory = SAXParserFactory.newInstance();
+		factory.setNamespaceAware(true);
+		factory.setValidating(false);
+	}
+
+	@Override
+	protected XMLReader create() {
+		try {
+			XMLReader reader;
+			synchronized(factory) {
+				reader = factory.newSAXParser().getXMLReader();
+			}
+			reader.setFeature(VALIDATION_FEATURE, false);
+			try {
+				reader.setFeature(LOAD_EXTERNAL_DTD_FEATURE, false);
+			} catch (SAXException unsupported) {
+				// not a Xerces-derived parser; nothing to turn off
+			}
+			return reader;
+		} catch (ParserConfigurationException e) {
+			throw new IllegalStateException("unable to configure SAX parser", e);
+		} catch (SAXException e) {
+			throw new IllegalStateException("unable to configure SAX parser", e);
+		}
+	}
+
+	@Override
+	protected boolean reset(XMLReader reader) {
+		reader.setContentHandler(NO_OP_HANDLER);
+		reader.setErrorHandler(NO_OP_HANDLER);
+		return true;
+	}
+
+}
@@ -0,0 +1,195 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.jdom.JDOMException;
+import org.jdom.xpath.XPath;
+
+/**
+ * Cache of compiled XPath expressions against XHTML documents, keyed
+ * by namespace prefix and expression text. Compiled {@link XPath}s
+ * are not safe for concurrent use, so each key has its own small
+ * pool of instances; in steady state a lookup compiles nothing.
+ * <p>
+ * Expressions should refer to caller-supplied values through XPath
+ * variables (e.g. <code>.//xhtml:a[@rel=$rel]</code>) rather than
+ * by formatting them into the expression text, which keeps the set
+ * of cached expressions small and avoids quoting problems.
+ */
+public class XPathCache {
+
+	private static final XPathCache defaultInstance = new XPathCache();
+	private static final int MAX_IDLE_PER_EXPRESSION = 16;
+
+	private final ConcurrentMap<String, ExpressionPool> pools =
+		new ConcurrentHashMap<String, ExpressionPool>();
+
+	/**
+	 * @return cache shared by default-constructed parsers and
+	 *   request builders
+	 */
+	public static XPathCache getDefault() {
+		return defaultInstance;
+	}
+
+	/**
+	 * Evaluates an expression and returns the first matching node.
+	 * @param context node to evaluate the expression against
+	 * @param xhtmlPrefix prefix bound to the XHTML namespace
+	 * @param expression XPath expression
+	 * @return first matching node, or {@code null}
+	 * @throws JDOMException if the expression is invalid
+	 */
+	public Object selectSingleNode(Object context, String xhtmlPrefix,
+			String expression) throws JDOMException {
+		return selectSingleNode(context, xhtmlPrefix, expression, null, null);
+	}
+
+	/**
+	 * Evaluates an expression with one variable binding and returns
+	 * the first matching node.
+	 * @param context node to evaluate the expression against
+	 * @param xhtmlPrefix prefix bound to the XHTML namespace
+	 * @param expression XPath expression
+	 * @param variable name of the variable referenced in the
+	 *   expression (without the leading &quot;$&quot;)
+	 * @param value value to bind to the variable
+	 * @return first matching node, or {@code null}
+	 * @throws JDOMException if the expression is invalid
+	 */
+	public Object selectSingleNode(Object context, String xhtmlPrefix,
+			String expression, String variable, Object value) throws JDOMException {
+		ExpressionPool pool = getPool(xhtmlPrefix, expression);
+		XPath xpath = pool.borrowCompiled();
+		try {
+			if (variable != null) xpath.setVariable(variable, value);
+			return xpath.selectSingleNode(context);
+		} finally {
+			pool.release(xpath);
+		}
+	}
+
+	/**
+	 * Evaluates an expression and returns all matching nodes.
+	 * @param context node to evaluate the expression against
+	 * @param xhtmlPrefix prefix bound to the XHTML namespace
+	 * @param expression XPath expression
+	 * @return matching nodes in document order
+	 * @throws JDOMException if the expression is invalid
+	 */
+	public List<?> selectNodes(Object context, String xhtmlPrefix,
+			String expression) throws JDOMException {
+		return selectNodes(context, xhtmlPrefix, expression, null, null);
+	}
+
+	/**
+	 * Evaluates an expression with one variable binding and returns
+	 * all matching nodes.
+	 * @param context node to evaluate the expression against
+	 * @param xhtmlPrefix prefix bound to the XHTML namespace
+	 * @param expression XPath expression
+	 * @param variable name of the variable referenced in the
+	 *   expression (without the leading &quot;$&quot;)
+	 * @param value value to bind to the variable
+	 * @return matching nodes in document order
+	 * @throws JDOMException if the expression is invalid
+	 */
+	public List<?> selectNodes(Object context, String xhtmlPrefix,
+			String expression, String variable, Object value) throws JDOMException {
+		ExpressionPool pool = getPool(xhtmlPrefix, expression);
+		XPath xpath = pool.borrowCompiled();
+		try {
+			if (variable != null) xpath.setVariable(variable, value);
+			return xpath.selectNodes(context);
+		} finally {
+			pool.release(xpath);
+		}
+	}
+
+	/**
+	 * @return number of distinct (prefix, expression) pairs cached
+	 */
+	public int size() {
+		return pools.size();
+	}
+
+	/**
+	 * @param xhtmlPrefix prefix bound to the XHTML namespace
+	 * @param expression XPath expression
+	 * @return number of times the given expression has been compiled
+	 */
+	public long getCompilationCount(String xhtmlPrefix, String expression) {
+		ExpressionPool pool = pools.get(key(xhtmlPrefix, expression));
+		return (pool == null) ? 0 : pool.getCreatedCount();
+	}
+
+	private ExpressionPool getPool(String xhtmlPrefix, String expression)
+			throws JDOMException {
+		String key = key(xhtmlPrefix, expression);
+		ExpressionPool pool = pools.get(key);
+		if (pool != null) return pool;
+		ExpressionPool created = new ExpressionPool(xhtmlPrefix, expression);
+		created.release(created.borrowCompiled());
+		pool = pools.putIfAbsent(key, created);
+		return (pool != null) ? pool : created;
+	}
+
+	private static String key(String xhtmlPrefix, String expression) {
+		return xhtmlPrefix + '\u0000' + expression;
+	}
+
+	private static class ExpressionPool extends ResourcePool<XPath> {
+		private final String xhtmlPrefix;
+		private final String expression;
+
+		ExpressionPool(String xhtmlPrefix, String expression) {
+			super(MAX_IDLE_PER_EXPRESSION);
+			this.xhtmlPrefix = xhtmlPrefix;
+			this.expression = expression;
+		}
+
+		XPath borrowCompiled() throws JDOMException {
+			try {
+				return borrow();
+			} catch (CompilationFailure e) {
+				throw e.cause;
+			}
+		}
+
+		@Override
+		protected XPath create() {
+			try {
+				return XhtmlParser.getXPath(xhtmlPrefix, expression);
+			} catch (JDOMException e) {
+				throw new CompilationFailure(e);
+			}
+		}
+	}
+
+	private static class CompilationFailure extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+		private final JDOMException cause;
+
+		CompilationFailure(JDOMException cause) {
+			super(cause);
+			this.cause = cause;
+		}
+	}
+}
@@ -29,6 +29,8 @@ public class XhtmlApplicationState {
 	private URL context;
 	private HttpResponse httpResponse;
 	private Document document;
+	private boolean partial;
+	private volatile HypermediaControlIndex controlIndex;
 	
 	/**
 	 * Constructs a new application state.
@@ -43,6 +45,20 @@ public class XhtmlApplicationState {
 		this.document = doc;
 	}
 	
+	/**
+	 * Constructs a new application state whose document may only
+	 * reflect part of the response body.
+	 * @param context the URL used to retrieve the response
+	 * @param resp response sent by the server
+	 * @param doc parsed response body
+	 * @param partial whether reading of the body stopped early
+	 */
+	public XhtmlApplicationState(URL context, HttpResponse resp, Document doc,
+			boolean partial) {
+		this(context, resp, doc);
+		this.partial = partial;
+	}
+	
 	/**
 	 * Returns the URL that was accessed to return this response. Any
 	 * relative links in the returned document should be interpreted
@@ -58,6 +74,23 @@ public class XhtmlApplicationState {
 	 * parsed; <code>null</code> otherwise.
 	 */
 	public Document getDocument() { return document; }
+
+	/**
+	 * Returns an index of the links and forms in the parsed response
+	 * body, building it on first use.
+	 * @return {@link HypermediaControlIndex}, or <code>null</code> if
+	 *   there is no parsed document
+	 */
+	public HypermediaControlIndex getControlIndex() {
+		HypermediaControlIndex index = controlIndex;
+		if (index == null) {
+			Document doc = getDocument();
+			if (doc == null || !doc.hasRootElement()) return null;
+			index = new HypermediaControlIndex(doc);
+			controlIndex = index;
+		}
+		return index;
+	}
 	
 	/** 
 	 * Returns the consumed {@link HttpResponse} whose body we
@@ -68,6 +101,15 @@ public class XhtmlApplicationState {
 	 */
 	public HttpResponse getHttpResponse() { return httpResponse; }
 
+	/**
+	 * Indicates whether the response body was only read until a
+	 * particular control was found (see {@link ControlScanningResponseHandler}).
+	 * The document then contains the controls up to and including
+	 * that one, and nothing after it.
+	 * @return {@code true} iff the document is incomplete
+	 */
+	public boolean isPartial() { return partial; }
+
 	/** 
 	 * @return {@code true} iff the response had a 2XX status code
 	 */
@@ -17,42 +17,399 @@ package com.comcast.cim.rest.client.xhtml;
 
 import java.io.IOException;
 import java.net.URL;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.AbortableHttpRequest;
 import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.impl.client.cache.CacheConfig;
+import org.apache.http.impl.client.cache.CachingHttpClient;
 
 /**
- * Convenience wrapper around {@link HttpClient} that asks for and parses
- * XHTML responses from the server.
+ * Convenience wrapper around {@link HttpClient}, or another
+ * {@link XhtmlTransport}, that asks for and parses XHTML responses
+ * from the server.
  */
 public class XhtmlHttpClient {
 	
 	private static final String ACCEPT_HEADER = "application/xhtml+xml,*/*;q=0.9";
 	
-	private HttpClient httpClient;
+	private XhtmlTransport transport;
 	private XhtmlResponseHandlerFactory xhtmlResponseHandlerFactory;
+	private ApplicationStateCache stateCache;
+	private RequestCoalescer coalescer;
+	private OriginGuard originGuard;
+	private AdmissionController admissionController;
+	private Executor ioExecutor;
+	private Executor parseExecutor;
 
 	public XhtmlHttpClient(HttpClient hc, XhtmlResponseHandlerFactory xrhf) {
-		this.httpClient = hc;
+		this(new HttpClientTransport(hc), xrhf);
+	}
+
+	/**
+	 * Constructs a client that sends its requests over the given
+	 * transport.
+	 * @param transport {@link XhtmlTransport}
+	 * @param xrhf response handler factory
+	 */
+	public XhtmlHttpClient(XhtmlTransport transport, XhtmlResponseHandlerFactory xrhf) {
+		this.transport = transport;
 		this.xhtmlResponseHandlerFactory = xrhf;
 	}
 
+	/**
+	 * Constructs a client that keeps an HTTP cache in front of the
+	 * given one, honoring <code>Cache-Control</code> and revalidating
+	 * stale entries with conditional requests. Responses revalidated
+	 * with a <code>304</code>, or served from the cache with a strong
+	 * <code>ETag</code>, reuse the document parsed the first time round
+	 * instead of being parsed again; a {@link ParsedDocumentCache} is
+	 * installed on the handler factory for this if it does not already
+	 * have one.
+	 * @param backend client used for requests the cache cannot answer
+	 * @param config HTTP cache configuration
+	 * @param xrhf response handler factory
+	 * @return caching {@link XhtmlHttpClient}
+	 */
+	public static XhtmlHttpClient caching(HttpClient backend, CacheConfig config,
+			XhtmlResponseHandlerFactory xrhf) {
+		if (xrhf.getDocumentCache() == null) {
+			xrhf.setDocumentCache(new ParsedDocumentCache(config.getMaxCacheEntries()));
+		}
+		return new XhtmlHttpClient(new CachingHttpClient(backend, config), xrhf);
+	}
+
+	/**
+	 * @return the underlying {@link HttpClient}, or <code>null</code> if
+	 *   requests go over some other {@link XhtmlTransport}; for clients
+	 *   created with
+	 *   {@link #caching(HttpClient, CacheConfig, XhtmlResponseHandlerFactory)}
+	 *   this is a {@link CachingHttpClient}
+	 */
+	public HttpClient getHttpClient() {
+		if (transport instanceof HttpClientTransport) {
+			return ((HttpClientTransport)transport).getHttpClient();
+		}
+		return null;
+	}
+
+	/**
+	 * @return the transport requests are sent over
+	 */
+	public XhtmlTransport getTransport() {
+		return transport;
+	}
+
 	/**
 	 * Executes the given HTTP request and returns the next
 	 * application state.
 	 * @param req HTTP request to execute
 	 * @return new application state
+	 * @throws ResponseTooLargeException if the response body exceeds
+	 *   the {@link BodyLimits} configured on the response handler factory
 	 * @throws ClientProtocolException
 	 * @throws IOException
 	 */
-	public XhtmlApplicationState execute(HttpUriRequest req) 
+	public XhtmlApplicationState execute(final HttpUriRequest req) 
 			throws ClientProtocolException, IOException {
 		req.setHeader("Accept",ACCEPT_HEADER);
-		URL context = new URL(req.getURI().toString());
+		final URL context = new URL(req.getURI().toString());
+		XhtmlApplicationState cached = lookup(req);
+		if (cached != null) return cached;
+		if (coalescer == null) {
+			return load(req, context);
+		}
+		return coalescer.execute(req, new Callable<XhtmlApplicationState>() {
+			public XhtmlApplicationState call() throws IOException {
+				return load(req, context);
+			}
+		});
+	}
+
+	private XhtmlApplicationState load(HttpUriRequest req, URL context)
+			throws ClientProtocolException, IOException {
 		XhtmlResponseHandler rh = xhtmlResponseHandlerFactory.get(context);
-		XhtmlApplicationState state = httpClient.execute(req, rh);
+		return sendAndCache(req, rh);
+	}
+
+	private XhtmlApplicationState sendAndCache(HttpUriRequest req, XhtmlResponseHandler rh)
+			throws ClientProtocolException, IOException {
+		ApplicationStateCache cache = stateCache;
+		if (cache == null) return send(req, rh);
+		long requested = cache.now();
+		XhtmlApplicationState state = send(req, rh);
+		cache.update(req, state, requested);
 		return state;
 	}
 
+	private XhtmlApplicationState send(HttpUriRequest req, XhtmlResponseHandler rh)
+			throws ClientProtocolException, IOException {
+		AdmissionController admission = admissionController;
+		if (admission == null) return guard(req, rh);
+		AdmissionController.Permit permit = admission.acquire(req);
+		XhtmlApplicationState state = null;
+		try {
+			state = guard(req, rh);
+			return state;
+		} finally {
+			permit.release(state);
+		}
+	}
+
+	private XhtmlApplicationState guard(HttpUriRequest req, XhtmlResponseHandler rh)
+			throws ClientProtocolException, IOException {
+		OriginGuard guard = originGuard;
+		return (guard == null) ? transport.execute(req, rh) : guard.execute(transport, req, rh);
+	}
+
+	/**
+	 * Shields callers from slow or failing origins with per-origin
+	 * bulkheads and circuit breakers. Requests refused by the guard
+	 * fail at once with an {@link OriginUnavailableException}.
+	 * @param originGuard {@link OriginGuard}, or <code>null</code> to
+	 *   send every request
+	 */
+	public void setOriginGuard(OriginGuard originGuard) {
+		this.originGuard = originGuard;
+	}
+
+	/**
+	 * @return origin guard, or <code>null</code>
+	 */
+	public OriginGuard getOriginGuard() {
+		return originGuard;
+	}
+
+	/**
+	 * Holds requests back until their origin can take them, according
+	 * to per-origin rate limits, adaptive concurrency limits and
+	 * <code>Retry-After</code> responses. Admission is decided before
+	 * any {@link OriginGuard} is consulted.
+	 * @param admissionController {@link AdmissionController}, or
+	 *   <code>null</code> to send requests immediately
+	 */
+	public void setAdmissionController(AdmissionController admissionController) {
+		this.admissionController = admissionController;
+	}
+
+	/**
+	 * @return admission controller, or <code>null</code>
+	 */
+	public AdmissionController getAdmissionController() {
+		return admissionController;
+	}
+
+	/**
+	 * Lets concurrent identical <code>GET</code>s made with
+	 * {@link #execute(HttpUriRequest)} share one request and one
+	 * parsed application state.
+	 * @param coalescer {@link RequestCoalescer}, or <code>null</code>
+	 *   to always execute requests separately
+	 */
+	public void setCoalescer(RequestCoalescer coalescer) {
+		this.coalescer = coalescer;
+	}
+
+	/**
+	 * @return request coalescer, or <code>null</code>
+	 */
+	public RequestCoalescer getCoalescer() {
+		return coalescer;
+	}
+
+	/**
+	 * Executes the given HTTP request, reading the response body
+	 * only until the given control is found. The rest of the body
+	 * is not downloaded, and the returned state is
+	 * {@linkplain XhtmlApplicationState#isPartial() partial}.
+	 * @param req HTTP request to execute
+	 * @param target the control in the response that will be used next
+	 * @return new application state
+	 * @throws ClientProtocolException
+	 * @throws IOException
+	 */
+	public XhtmlApplicationState execute(HttpUriRequest req, ControlTarget target)
+			throws ClientProtocolException, IOException {
+		req.setHeader("Accept",ACCEPT_HEADER);
+		URL context = new URL(req.getURI().toString());
+		XhtmlApplicationState cached = lookup(req);
+		if (cached != null) return cached;
+		XhtmlResponseHandler rh = xhtmlResponseHandlerFactory.get(context, target);
+		return sendAndCache(req, rh);
+	}
+
+	/**
+	 * Executes the given HTTP request without blocking the calling
+	 * thread. The request is carried out on the I/O executor, which
+	 * only reads the response body; the body is then parsed on the
+	 * parse executor, so I/O threads never run the XML parser. If the
+	 * parse executor is saturated the unparsed state is delivered
+	 * as-is and parses on first access to its document.
+	 * @param req HTTP request to execute
+	 * @return handle on the new application state; cancelling it
+	 *   aborts the request, and with interruption also stops a parse
+	 *   that is under way
+	 */
+	public NavigationFuture<XhtmlApplicationState> executeAsync(final HttpUriRequest req) {
+		req.setHeader("Accept",ACCEPT_HEADER);
+		final Worker worker = new Worker();
+		final NavigationFuture<XhtmlApplicationState> future =
+			new NavigationFuture<XhtmlApplicationState>() {
+				@Override
+				protected void interruptTask(boolean mayInterruptIfRunning) {
+					if (req instanceof AbortableHttpRequest) {
+						((AbortableHttpRequest)req).abort();
+					}
+					if (mayInterruptIfRunning) worker.interrupt();
+				}
+			};
+		XhtmlApplicationState cached = lookup(req);
+		if (cached != null) {
+			future.set(cached);
+			return future;
+		}
+		final XhtmlResponseHandler rh;
+		try {
+			URL context = new URL(req.getURI().toString());
+			rh = xhtmlResponseHandlerFactory.getDeferred(context);
+		} catch (IOException e) {
+			future.setException(e);
+			return future;
+		}
+		Runnable io = new Runnable() {
+			public void run() {
+				if (future.isDone() || !worker.enter()) return;
+				XhtmlApplicationState state;
+				try {
+					state = sendAndCache(req, rh);
+				} catch (IOException e) {
+					future.setException(e);
+					return;
+				} catch (RuntimeException e) {
+					future.setException(e);
+					return;
+				} finally {
+					worker.exit();
+				}
+				parse(state, future, worker);
+			}
+		};
+		try {
+			getIoExecutor().execute(io);
+		} catch (RejectedExecutionException e) {
+			future.setException(e);
+		}
+		return future;
+	}
+
+	private void parse(final XhtmlApplicationState state,
+			final NavigationFuture<XhtmlApplicationState> future, final Worker worker) {
+		if (!(state instanceof LazyXhtmlApplicationState)) {
+			future.set(state);
+			return;
+		}
+		Runnable parse = new Runnable() {
+			public void run() {
+				if (future.isDone() || !worker.enter()) return;
+				try {
+					state.getControlIndex();
+					future.set(state);
+				} catch (RuntimeException e) {
+					future.setException(e);
+				} finally {
+					worker.exit();
+				}
+			}
+		};
+		try {
+			getParseExecutor().execute(parse);
+		} catch (RejectedExecutionException e) {
+			future.set(state);
+		}
+	}
+
+	/**
+	 * Tracks the pooled thread currently working on an asynchronous
+	 * request, so that cancelling the request can interrupt it, e.g.
+	 * in the middle of a parse.
+	 */
+	private static class Worker {
+		private Thread thread;
+		private boolean interrupted;
+
+		synchronized boolean enter() {
+			if (interrupted) return false;
+			thread = Thread.currentThread();
+			return true;
+		}
+
+		synchronized void exit() {
+			thread = null;
+			/* don't let an interrupt meant for this request leak into
+			 * the pool thread's next task */
+			Thread.interrupted();
+		}
+
+		synchronized void interrupt() {
+			interrupted = true;
+			if (thread != null) thread.interrupt();
+		}
+	}
+
+	/**
+	 * Sets the executor that performs request I/O for
+	 * {@link #executeAsync(HttpUriRequest)}. Since the underlying
+	 * {@link XhtmlTransport} blocks, this bounds the number of asynchronous
+	 * requests in flight. Defaults to a shared, unbounded pool of daemon
+	 * threads.
+	 * @param ioExecutor {@link Executor}
+	 */
+	public void setIoExecutor(Executor ioExecutor) {
+		this.ioExecutor = ioExecutor;
+	}
+
+	/**
+	 * Sets the executor that parses response bodies for
+	 * {@link #executeAsync(HttpUriRequest)}. Defaults to a shared pool
+	 * with one daemon thread per processor and a bounded queue.
+	 * @param parseExecutor {@link Executor}
+	 */
+	public void setParseExecutor(Executor parseExecutor) {
+		this.parseExecutor = parseExecutor;
+	}
+
+	private Executor getIoExecutor() {
+		return (ioExecutor != null) ? ioExecutor : AsyncExecutors.IO;
+	}
+
+	private Executor getParseExecutor() {
+		return (parseExecutor != null) ? parseExecutor : AsyncExecutors.PARSE;
+	}
+
+	private XhtmlApplicationState lookup(HttpUriRequest req) {
+		return (stateCache == null) ? null : stateCache.get(req);
+	}
+
+	/**
+	 * Serves repeated <code>GET</code>s from the given cache of
+	 * application states while they are fresh. A cached, complete state
+	 * also satisfies a request made with a {@link ControlTarget}.
+	 * @param stateCache {@link ApplicationStateCache}, or <code>null</code>
+	 *   to always execute requests
+	 */
+	public void setStateCache(ApplicationStateCache stateCache) {
+		this.stateCache = stateCache;
+	}
+
+	/**
+	 * @return cache of application states, or <code>null</code>
+	 */
+	public ApplicationStateCache getStateCache() {
+		return stateCache;
+	}
+
 }
@@ -0,0 +1,212 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+import org.apache.http.HeaderElement;
+import org.apache.http.HeaderElementIterator;
+import org.apache.http.HttpResponse;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.SchemeRegistryFactory;
+import org.apache.http.message.BasicHeaderElementIterator;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Assembles an {@link XhtmlHttpClient} over a pool of persistent
+ * connections, with defaults suited to many concurrent navigations:
+ * <pre>
+ * XhtmlHttpClient client = new XhtmlHttpClientBuilder()
+ *     .setMaxTotal(400)
+ *     .setMaxPerRoute(50)
+ *     .build();
+ * </pre>
+ * The resulting client's transport is a {@link PooledHttpClientTransport},
+ * which reports pool utilization and must be
+ * {@linkplain PooledHttpClientTransport#shutdown() shut down} when the
+ * client is no longer needed.
+ */
+public class XhtmlHttpClientBuilder {
+
+	public static final int DEFAULT_MAX_TOTAL = 200;
+	public static final int DEFAULT_MAX_PER_ROUTE = 20;
+	public static final long DEFAULT_KEEP_ALIVE_MILLIS = 30000;
+	public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 60000;
+	public static final long DEFAULT_EVICTION_INTERVAL_MILLIS = 5000;
+	public static final int DEFAULT_SOCKET_BUFFER_SIZE = 8192;
+	public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 10000;
+	public static final int DEFAULT_SOCKET_TIMEOUT_MILLIS = 30000;
+
+	private int maxTotal = DEFAULT_MAX_TOTAL;
+	private int maxPerRoute = DEFAULT_MAX_PER_ROUTE;
+	private long keepAliveMillis = DEFAULT_KEEP_ALIVE_MILLIS;
+	private long idleTimeoutMillis = DEFAULT_IDLE_TIMEOUT_MILLIS;
+	private long evictionIntervalMillis = DEFAULT_EVICTION_INTERVAL_MILLIS;
+	private int socketBufferSize = DEFAULT_SOCKET_BUFFER_SIZE;
+	private int connectTimeoutMillis = DEFAULT_CONNECT_TIMEOUT_MILLIS;
+	private int socketTimeoutMillis = DEFAULT_SOCKET_TIMEOUT_MILLIS;
+	private XhtmlResponseHandlerFactory responseHandlerFactory;
+
+	/**
+	 * @param maxTotal maximum number of open connections overall
+	 * @return this builder
+	 */
+	public XhtmlHttpClientBuilder setMaxTotal(int maxTotal) {
+		this.maxTotal = maxTotal;
+		return this;
+	}
+
+	/**
+	 * @param maxPerRoute maximum number of open connections to one origin
+	 * @return this builder
+	 */
+	public XhtmlHttpClientBuilder setMaxPerRoute(int maxPerRoute) {
+		this.maxPerRoute = maxPerRoute;
+		return this;
+	}
+
+	/**
+	 * Sets how long an idle connection is kept open for reuse. A
+	 * shorter timeout announced by the server in a
+	 * <code>Keep-Alive</code> header takes precedence.
+	 * @param keepAliveMillis keep-alive duration in milliseconds
+	 * @return this builder
+	 */
+	public XhtmlHttpClientBuilder setKeepAlive(long keepAliveMillis) {
+		this.keepAliveMillis = keepAliveMillis;
+		return this;
+	}
+
+	/**
+	 * Configures the background thread that closes stale connections.
+	 * @param intervalMillis how often to check, or zero to not run the
+	 *   thread at all (each request then checks its connection instead)
+	 * @param idleTimeoutMillis how long a connection may sit unused
+	 * @return this builder
+	 */
+	public XhtmlHttpClientBuilder setIdleEviction(long intervalMillis, long idleTimeoutMillis) {
+		this.evictionIntervalMillis = intervalMillis;
+		this.idleTimeoutMillis = idleTimeoutMillis;
+		return this;
+	}
+
+	/**
+	 * @param socketBufferSize size in bytes of the socket I/O buffers
+	 * @return this builder
+	 */
+	public XhtmlHttpClientBuilder setSocketBufferSize(int socketBufferSize) {
+		this.socketBufferSize = socketBufferSize;
+		return this;
+	}
+
+	/**
+	 * @param connectTimeoutMillis how long to wait to establish a
+	 *   connection, or zero to wait indefinitely
+	 * @return this builder
+	 */
+	public XhtmlHttpClientBuilder setConnectTimeout(int connectTimeoutMillis) {
+		this.connectTimeoutMillis = connectTimeoutMillis;
+		return this;
+	}
+
+	/**
+	 * @param socketTimeoutMillis how long to wait for data from the
+	 *   server, or zero to wait indefinitely
+	 * @return this builder
+	 */
+	public XhtmlHttpClientBuilder setSocketTimeout(int socketTimeoutMillis) {
+		this.socketTimeoutMillis = socketTimeoutMillis;
+		return this;
+	}
+
+	/**
+	 * @param factory response handler factory to use; by default a
+	 *   new {@link XhtmlResponseHandlerFactory}
+	 * @return this builder
+	 */
+	public XhtmlHttpClientBuilder setResponseHandlerFactory(XhtmlResponseHandlerFactory factory) {
+		this.responseHandlerFactory = factory;
+		return this;
+	}
+
+	/**
+	 * @return a new client with its own connection pool
+	 */
+	public XhtmlHttpClient build() {
+		XhtmlResponseHandlerFactory factory = (responseHandlerFactory != null) ?
+				responseHandlerFactory : new XhtmlResponseHandlerFactory();
+		return new XhtmlHttpClient(buildTransport(), factory);
+	}
+
+	/**
+	 * @return a new pooled transport, for use with
+	 *   {@link XhtmlHttpClient#XhtmlHttpClient(XhtmlTransport, XhtmlResponseHandlerFactory)}
+	 */
+	public PooledHttpClientTransport buildTransport() {
+		MeteredConnManager cm = 
+			new MeteredConnManager(SchemeRegistryFactory.createDefault());
+		cm.setMaxTotal(maxTotal);
+		cm.setDefaultMaxPerRoute(maxPerRoute);
+		
+		HttpParams params = new BasicHttpParams();
+		HttpConnectionParams.setSocketBufferSize(params, socketBufferSize);
+		HttpConnectionParams.setConnectionTimeout(params, connectTimeoutMillis);
+		HttpConnectionParams.setSoTimeout(params, socketTimeoutMillis);
+		HttpConnectionParams.setTcpNoDelay(params, true);
+		HttpConnectionParams.setStaleCheckingEnabled(params, evictionIntervalMillis <= 0);
+		
+		DefaultHttpClient hc = new DefaultHttpClient(cm, params);
+		hc.setKeepAliveStrategy(new BoundedKeepAliveStrategy(keepAliveMillis));
+		
+		PooledHttpClientTransport transport = new PooledHttpClientTransport(hc, cm);
+		if (evictionIntervalMillis > 0) {
+			transport.startEvictor(evictionIntervalMillis, idleTimeoutMillis);
+		}
+		return transport;
+	}
+
+	/**
+	 * Keeps connections alive for as long as the server's
+	 * <code>Keep-Alive: timeout</code> allows, but never longer
+	 * than a configured maximum.
+	 */
+	static class BoundedKeepAliveStrategy implements ConnectionKeepAliveStrategy {
+		private final long maxMillis;
+
+		BoundedKeepAliveStrategy(long maxMillis) {
+			this.maxMillis = maxMillis;
+		}
+
+		public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+			HeaderElementIterator it = new BasicHeaderElementIterator(
+					response.headerIterator(HTTP.CONN_KEEP_ALIVE));
+			while(it.hasNext()) {
+				HeaderElement he = it.nextElement();
+				if ("timeout".equalsIgnoreCase(he.getName()) && he.getValue() != null) {
+					try {
+						return Math.min(Long.parseLong(he.getValue().trim()) * 1000L, maxMillis);
+					} catch (NumberFormatException e) {
+						/* use the maximum */
+					}
+				}
+			}
+			return maxMillis;
+		}
+	}
+}
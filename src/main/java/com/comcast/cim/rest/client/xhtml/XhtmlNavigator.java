@@ -16,12 +16,27 @@
 package com.comcast.cim.rest.client.xhtml;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.apache.http.ParseException;
 import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.params.HttpParams;
 import org.jdom.Element;
 import org.jdom.JDOMException;
 
@@ -33,6 +48,10 @@ public class XhtmlNavigator {
 	private XhtmlParser parser;
 	private RequestBuilder builder;
 	private XhtmlHttpClient client;
+	private PrefetchPolicy prefetchPolicy;
+	private RetryPolicy retryPolicy;
+	private HedgingPolicy hedgingPolicy;
+	private NavigationContext context;
 	
 	public XhtmlNavigator(XhtmlParser xp, RequestBuilder rb, XhtmlHttpClient xhc) {
 		this.parser = xp;
@@ -40,6 +59,32 @@ public class XhtmlNavigator {
 		this.client = xhc;
 	}
 
+	/**
+	 * Returns a navigator with the same configuration whose requests
+	 * all fall within the given context's deadline: each gets connect
+	 * and read timeouts no longer than the time left, and is aborted
+	 * if still in flight when the deadline passes. Navigation past the
+	 * deadline fails with a {@link DeadlineExceededException}.
+	 * @param context {@link NavigationContext}
+	 * @return navigator bound to the context
+	 */
+	public XhtmlNavigator withContext(NavigationContext context) {
+		XhtmlNavigator nav = new XhtmlNavigator(parser, builder, client);
+		nav.prefetchPolicy = prefetchPolicy;
+		nav.retryPolicy = retryPolicy;
+		nav.hedgingPolicy = hedgingPolicy;
+		nav.context = context;
+		return nav;
+	}
+
+	/**
+	 * @return the context this navigator is bound to, or
+	 *   <code>null</code> if it has no deadline
+	 */
+	public NavigationContext getContext() {
+		return context;
+	}
+
 	/**
 	 * Follow an &lt;a&gt; tag with the given link relation.
 	 * @param state current application state
@@ -52,7 +97,7 @@ public class XhtmlNavigator {
 	 */
 	public XhtmlApplicationState followLink(XhtmlApplicationState state, String rel)
 	    throws JDOMException, ClientProtocolException, IOException {
-		Element a = parser.getLinkWithRelation(state.getDocument(), rel);
+		Element a = parser.getLinkWithRelation(state, rel);
 		return traverseAnchor(state, rel, a);
 	}
 
@@ -72,25 +117,815 @@ public class XhtmlNavigator {
 	public XhtmlApplicationState followLink(XhtmlApplicationState state, Element root,
 			String rel) throws JDOMException, ClientProtocolException,
 			IOException {
-		Element a = parser.getLinkWithRelation(root, rel);
+		Element a = parser.getLinkWithRelation(state, root, rel);
 		return traverseAnchor(state, rel, a);
 	
 	}
+
+	/**
+	 * Follow an &lt;a&gt; tag with the given link relation when only
+	 * one control of the resulting page will be used. The response
+	 * body is read only until that control is found, after which the
+	 * connection is closed; the returned state is then
+	 * {@linkplain XhtmlApplicationState#isPartial() partial}.
+	 * @param state current application state
+	 * @param rel link relation that must appear in the @rel
+	 *   attribute of a link
+	 * @param next the link or form in the next state that will be
+	 *   used afterwards
+	 * @return next application state
+	 * @throws JDOMException
+	 * @throws ClientProtocolException
+	 * @throws IOException
+	 */
+	public XhtmlApplicationState followLink(XhtmlApplicationState state, String rel,
+			ControlTarget next) throws JDOMException, ClientProtocolException,
+			IOException {
+		Element a = parser.getLinkWithRelation(state, rel);
+		return traverseAnchor(state, rel, a, next);
+	}
+
+	/**
+	 * Follow a chain of link relations, one hop per relation. Every
+	 * intermediate page is only read until the link for the following
+	 * hop is found; the final page is parsed normally.
+	 * @param state current application state
+	 * @param rels link relations to follow, in order
+	 * @return application state reached by the last link
+	 * @throws JDOMException
+	 * @throws ClientProtocolException
+	 * @throws IOException
+	 */
+	public XhtmlApplicationState followLinks(XhtmlApplicationState state, String... rels)
+	    throws JDOMException, ClientProtocolException, IOException {
+		XhtmlApplicationState curr = state;
+		for(int i = 0; i < rels.length; i++) {
+			ControlTarget next = (i + 1 < rels.length) ? ControlTarget.link(rels[i+1]) : null;
+			curr = followLink(curr, rels[i], next);
+		}
+		return curr;
+	}
+	
+	/**
+	 * Follow an &lt;a&gt; tag with the given link relation without
+	 * blocking the calling thread.
+	 * @param state current application state
+	 * @param rel link relation that must appear in the @rel
+	 *   attribute of a link
+	 * @return handle on the next application state; fails with a
+	 *   {@link ServerErrorException} if the server does not respond
+	 *   with a 2XX status
+	 * @throws RelationNotFoundException if there is no such link
+	 * @throws JDOMException
+	 * @throws MalformedURLException
+	 */
+	public NavigationFuture<XhtmlApplicationState> followLinkAsync(
+			XhtmlApplicationState state, String rel)
+		throws JDOMException, MalformedURLException {
+		Element a = parser.getLinkWithRelation(state, rel);
+		if (a == null) {
+			throw new RelationNotFoundException("no link with relation \"" + rel + "\" found");
+		}
+		return executeAsync(builder.followLink(a, state.getContext()));
+	}
+
+	/**
+	 * Submits a form with the given @name without blocking the
+	 * calling thread.
+	 * @param state current application state
+	 * @param formName name of the form to submit
+	 * @param args a map of input names to values to provide for those
+	 *   inputs when submitting the form
+	 * @return handle on the next application state; fails with a
+	 *   {@link ServerErrorException} if the server does not respond
+	 *   with a 2XX status
+	 * @throws RelationNotFoundException if there is no such form
+	 * @throws JDOMException
+	 * @throws ParseException
+	 * @throws IOException
+	 */
+	public NavigationFuture<XhtmlApplicationState> submitFormAsync(
+			XhtmlApplicationState state, String formName, Map<String, String> args)
+		throws JDOMException, ParseException, IOException {
+		Element form = parser.getFormWithName(state, formName);
+		if (form == null) {
+			throw new RelationNotFoundException("no form with name \"" + formName + "\" found");
+		}
+		return executeAsync(builder.submitForm(form, state.getContext(), args));
+	}
+
+	/**
+	 * Iterate over a paged collection by following <code>rel="next"</code>
+	 * links, fetching one page ahead.
+	 * @param state first page of the collection
+	 * @return {@link PageIterator} that returns {@code state} first
+	 */
+	public PageIterator paginate(XhtmlApplicationState state) {
+		return paginate(state, "next", 1);
+	}
+
+	/**
+	 * Iterate over a paged collection by following links with the
+	 * given relation from each page to the next.
+	 * @param state first page of the collection
+	 * @param rel link relation leading to the following page
+	 * @param prefetchDepth how many pages to fetch ahead of the caller;
+	 *   zero fetches each page only when it is asked for
+	 * @return {@link PageIterator} that returns {@code state} first
+	 */
+	public PageIterator paginate(XhtmlApplicationState state, String rel, int prefetchDepth) {
+		return new PageIterator(this, parser, builder, state, rel, prefetchDepth);
+	}
+
+	NavigationFuture<XhtmlApplicationState> executeAsync(HttpUriRequest req) {
+		RetryPolicy retry = retryPolicy;
+		HedgingPolicy hedging = hedgingPolicy;
+		if ("GET".equals(req.getMethod()) && (retry != null || hedging != null)) {
+			return new ResilientCall(req, retry, hedging).start();
+		}
+		final NavigationContext ctx = context;
+		final NavigationFuture<XhtmlApplicationState> inner;
+		try {
+			inner = sendAsync(req);
+		} catch (IOException e) {
+			NavigationFuture<XhtmlApplicationState> failed = new NavigationFuture<XhtmlApplicationState>();
+			failed.setException(e);
+			return failed;
+		}
+		final NavigationFuture<XhtmlApplicationState> outer =
+			new NavigationFuture<XhtmlApplicationState>() {
+				@Override
+				protected void interruptTask(boolean mayInterruptIfRunning) {
+					inner.cancel(mayInterruptIfRunning);
+				}
+			};
+		inner.addCallback(new NavigationCallback<XhtmlApplicationState>() {
+			public void completed(XhtmlApplicationState result) {
+				complete(outer, result);
+			}
+			public void failed(Throwable cause) {
+				outer.setException(translate(ctx, cause));
+			}
+			public void cancelled() {
+				outer.cancel(false);
+			}
+		});
+		return outer;
+	}
+
+	private static void complete(NavigationFuture<XhtmlApplicationState> f,
+			XhtmlApplicationState result) {
+		if (result.succeeded()) {
+			f.set(result);
+		} else {
+			f.setException(new ServerErrorException(result.getHttpResponse()));
+		}
+	}
+
+	private static Throwable translate(NavigationContext ctx, Throwable cause) {
+		if (ctx != null && cause instanceof IOException) {
+			return ctx.translate((IOException)cause);
+		}
+		return cause;
+	}
+
+	/**
+	 * A GET sent asynchronously under the retry and hedging policies.
+	 * It behaves as blocking navigation does, except that
+	 * hedges and backoff delays are scheduled on a timer rather than
+	 * waited out on a thread.
+	 */
+	private class ResilientCall {
+		private final HttpUriRequest req;
+		private final RetryPolicy retry;
+		private final HedgingPolicy hedging;
+		private final NavigationContext ctx = context;
+		private final NavigationFuture<XhtmlApplicationState> result;
+		private int attempts;
+		private Attempt current;
+		private Future<?> backoff;
+
+		ResilientCall(HttpUriRequest req, RetryPolicy retry, HedgingPolicy hedging) {
+			this.req = req;
+			this.retry = retry;
+			this.hedging = hedging;
+			this.result = new NavigationFuture<XhtmlApplicationState>() {
+				@Override
+				protected void interruptTask(boolean mayInterruptIfRunning) {
+					stop(mayInterruptIfRunning);
+				}
+			};
+		}
+
+		NavigationFuture<XhtmlApplicationState> start() {
+			attempt(req);
+			return result;
+		}
+
+		private void attempt(HttpUriRequest curr) {
+			Attempt a;
+			synchronized(this) {
+				if (result.isDone()) return;
+				attempts++;
+				a = new Attempt(curr);
+				current = a;
+			}
+			a.start();
+		}
+
+		private synchronized void stop(boolean mayInterruptIfRunning) {
+			if (backoff != null) backoff.cancel(false);
+			if (current != null) current.settle(mayInterruptIfRunning);
+		}
+
+		/** Called once per attempt, with its response or its failure. */
+		private void finished(XhtmlApplicationState state, Throwable cause) {
+			cause = translate(ctx, cause);
+			synchronized(this) {
+				if (result.isDone()) return;
+				if (shouldRetry(state, cause)) {
+					long delay = retry.getBackoffMillis(attempts);
+					if (ctx == null || delay < ctx.getRemainingMillis()) {
+						final HttpUriRequest next = copy(req);
+						backoff = AsyncExecutors.TIMER.schedule(new Runnable() {
+							public void run() { attempt(next); }
+						}, delay, TimeUnit.MILLISECONDS);
+						return;
+					}
+				}
+			}
+			if (cause != null) {
+				result.setException(cause);
+			} else {
+				complete(result, state);
+			}
+		}
+
+		private boolean shouldRetry(XhtmlApplicationState state, Throwable cause) {
+			if (retry == null || attempts >= retry.getMaxAttempts()) return false;
+			if (cause == null) return retry.isRetryable(state);
+			return (cause instanceof IOException) && retry.isRetryable((IOException)cause);
+		}
+
+		/**
+		 * One attempt: the request and, if it is slow, a hedge; the
+		 * first response wins, and a failure only counts once every
+		 * copy sent has failed.
+		 */
+		private class Attempt {
+			private final HttpUriRequest req;
+			private final long start = System.nanoTime();
+			private final List<NavigationFuture<XhtmlApplicationState>> sent =
+				new ArrayList<NavigationFuture<XhtmlApplicationState>>(2);
+			private int launched;
+			private int failures;
+			private boolean settled;
+			private Future<?> hedge;
+
+			Attempt(HttpUriRequest req) {
+				this.req = req;
+			}
+
+			void start() {
+				send(req, 0);
+				if (hedging == null) return;
+				synchronized(ResilientCall.this) {
+					if (settled) return;
+					hedge = AsyncExecutors.TIMER.schedule(new Runnable() {
+						public void run() { sendHedge(); }
+					}, hedging.getHedgeDelayMillis(), TimeUnit.MILLISECONDS);
+				}
+			}
+
+			private void sendHedge() {
+				synchronized(ResilientCall.this) {
+					if (settled) return;
+					hedging.recordHedge();
+				}
+				send(copy(req), 1);
+			}
+
+			private void send(HttpUriRequest r, final int position) {
+				synchronized(ResilientCall.this) {
+					if (settled) return;
+					launched++;
+				}
+				NavigationFuture<XhtmlApplicationState> f;
+				try {
+					f = sendAsync(r);
+				} catch (IOException e) {
+					failed(e);
+					return;
+				}
+				synchronized(ResilientCall.this) {
+					sent.add(f);
+					if (settled) f.cancel(true);
+				}
+				f.addCallback(new NavigationCallback<XhtmlApplicationState>() {
+					public void completed(XhtmlApplicationState state) {
+						succeeded(state, position);
+					}
+					public void failed(Throwable cause) {
+						Attempt.this.failed(cause);
+					}
+					public void cancelled() {
+						Attempt.this.failed(new CancellationException());
+					}
+				});
+			}
+
+			private void succeeded(XhtmlApplicationState state, int position) {
+				synchronized(ResilientCall.this) {
+					if (settled) return;
+					settle(true);
+					if (hedging != null) {
+						if (position == 1) hedging.recordHedgeWin();
+						hedging.recordLatency(elapsedMillis(start));
+					}
+				}
+				finished(state, null);
+			}
+
+			private void failed(Throwable cause) {
+				synchronized(ResilientCall.this) {
+					if (settled || ++failures < launched) return;
+					settle(true);
+				}
+				finished(null, cause);
+			}
+
+			/** Stops the hedge timer and cancels copies still in flight. */
+			void settle(boolean mayInterruptIfRunning) {
+				settled = true;
+				if (hedge != null) hedge.cancel(false);
+				for(NavigationFuture<XhtmlApplicationState> f : sent) {
+					f.cancel(mayInterruptIfRunning);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Sends a request asynchronously, within this navigator's deadline
+	 * if it has one.
+	 */
+	private NavigationFuture<XhtmlApplicationState> sendAsync(HttpUriRequest req)
+			throws IOException {
+		NavigationContext ctx = context;
+		if (ctx == null) return client.executeAsync(req);
+		NavigationContext.Armed armed = ctx.arm(req, getDefaultParams());
+		NavigationFuture<XhtmlApplicationState> f = client.executeAsync(req);
+		f.addCallback(new Disarm(armed));
+		return f;
+	}
+
+	private HttpParams getDefaultParams() {
+		HttpClient hc = client.getHttpClient();
+		return (hc == null) ? null : hc.getParams();
+	}
+
+	/** Stops watching a request once it has finished. */
+	private static class Disarm implements NavigationCallback<Object> {
+		private final NavigationContext.Armed armed;
+
+		Disarm(NavigationContext.Armed armed) {
+			this.armed = armed;
+		}
+
+		public void completed(Object result) { armed.disarm(); }
+		public void failed(Throwable cause) { armed.disarm(); }
+		public void cancelled() { armed.disarm(); }
+	}
+	
+	/**
+	 * Follow every &lt;a&gt; tag with the given link relation, fetching
+	 * up to {@code parallelism} of them at once. Links with the same
+	 * resolved URL are only fetched once. Results are in document order.
+	 * @param state current application state
+	 * @param rel link relation that must appear in the @rel
+	 *   attribute of the links
+	 * @param parallelism maximum number of requests in flight
+	 * @return the application states reached; empty if there are no
+	 *   such links
+	 * @throws ServerErrorException if any request does not succeed;
+	 *   outstanding requests are then cancelled
+	 * @throws JDOMException
+	 * @throws IOException
+	 */
+	public List<XhtmlApplicationState> followAllLinks(XhtmlApplicationState state,
+			String rel, int parallelism) throws JDOMException, IOException {
+		return followAllLinks(state, rel, parallelism, ResultOrder.DOCUMENT);
+	}
+
+	/**
+	 * Follow every &lt;a&gt; tag with the given link relation, fetching
+	 * up to {@code parallelism} of them at once. Links with the same
+	 * resolved URL are only fetched once.
+	 * @param state current application state
+	 * @param rel link relation that must appear in the @rel
+	 *   attribute of the links
+	 * @param parallelism maximum number of requests in flight
+	 * @param order whether to return results in document order or
+	 *   as they arrive
+	 * @return the application states reached; empty if there are no
+	 *   such links
+	 * @throws ServerErrorException if any request does not succeed;
+	 *   outstanding requests are then cancelled
+	 * @throws JDOMException
+	 * @throws IOException
+	 */
+	public List<XhtmlApplicationState> followAllLinks(XhtmlApplicationState state,
+			String rel, int parallelism, ResultOrder order)
+		throws JDOMException, IOException {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("parallelism must be positive");
+		}
+		Map<String, HttpUriRequest> unique = new LinkedHashMap<String, HttpUriRequest>();
+		for(Element a : parser.getLinksWithRelation(state, rel)) {
+			HttpUriRequest req = builder.followLink(a, state.getContext());
+			String uri = req.getURI().toString();
+			if (!unique.containsKey(uri)) unique.put(uri, req);
+		}
+		List<HttpUriRequest> reqs = new ArrayList<HttpUriRequest>(unique.values());
+		int n = reqs.size();
+		List<NavigationFuture<XhtmlApplicationState>> futures =
+			new ArrayList<NavigationFuture<XhtmlApplicationState>>(n);
+		XhtmlApplicationState[] byPosition = new XhtmlApplicationState[n];
+		List<XhtmlApplicationState> byCompletion = new ArrayList<XhtmlApplicationState>(n);
+		BlockingQueue<Integer> completed = new LinkedBlockingQueue<Integer>();
+		boolean finished = false;
+		try {
+			int done = 0;
+			while(done < n) {
+				while(futures.size() < n && futures.size() - done < parallelism) {
+					int i = futures.size();
+					NavigationFuture<XhtmlApplicationState> f = executeAsync(reqs.get(i));
+					futures.add(f);
+					f.addCallback(new CompletionSignal(completed, i));
+				}
+				int i = completed.take();
+				done++;
+				XhtmlApplicationState result = getResult(futures.get(i));
+				byPosition[i] = result;
+				byCompletion.add(result);
+			}
+			finished = true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while following links");
+		} finally {
+			if (!finished) {
+				for(NavigationFuture<XhtmlApplicationState> f : futures) f.cancel(true);
+			}
+		}
+		return (order == ResultOrder.COMPLETION) ? byCompletion : Arrays.asList(byPosition);
+	}
+
+	private static XhtmlApplicationState getResult(NavigationFuture<XhtmlApplicationState> f)
+			throws IOException, InterruptedException {
+		try {
+			return f.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) throw (IOException)cause;
+			if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+			if (cause instanceof Error) throw (Error)cause;
+			throw new RuntimeException(cause);
+		}
+	}
+
+	/** Reports the position of a finished request, however it finished. */
+	private static class CompletionSignal implements NavigationCallback<XhtmlApplicationState> {
+		private final BlockingQueue<Integer> queue;
+		private final Integer position;
+
+		CompletionSignal(BlockingQueue<Integer> queue, int position) {
+			this.queue = queue;
+			this.position = position;
+		}
+
+		public void completed(XhtmlApplicationState result) { queue.add(position); }
+		public void failed(Throwable cause) { queue.add(position); }
+		public void cancelled() { queue.add(position); }
+	}
 	
 	private XhtmlApplicationState traverseAnchor(XhtmlApplicationState state,
 			String rel, Element a)
+	    throws MalformedURLException, ClientProtocolException, IOException {
+		return traverseAnchor(state, rel, a, null);
+	}
+	
+	private XhtmlApplicationState traverseAnchor(XhtmlApplicationState state,
+			String rel, Element a, ControlTarget next)
 	    throws MalformedURLException, ClientProtocolException, IOException {
 		if (a == null) {
 			throw new RelationNotFoundException("no link with relation \"" + rel + "\" found");
 		}
 		HttpUriRequest req = builder.followLink(a, state.getContext());
-		XhtmlApplicationState result = client.execute(req);
+		return execute(req, next);
+	}
+	
+	private XhtmlApplicationState execute(HttpUriRequest req, ControlTarget next)
+			throws ClientProtocolException, IOException {
+		PrefetchPolicy policy = prefetchPolicy;
+		XhtmlApplicationState result = (policy == null) ? null : policy.take(req, context);
+		if (result == null) {
+			result = send(req, next);
+		}
 		if (!result.succeeded()) {
 			throw new ServerErrorException(result.getHttpResponse());
 		}
+		if (policy != null) policy.prefetch(result, parser, builder, client);
 		return result;
 	}
 
+	private XhtmlApplicationState send(HttpUriRequest req, ControlTarget next)
+			throws ClientProtocolException, IOException {
+		RetryPolicy retry = retryPolicy;
+		HedgingPolicy hedging = hedgingPolicy;
+		if (!"GET".equals(req.getMethod()) || (retry == null && hedging == null)) {
+			return attempt(req, next, null);
+		}
+		NavigationContext ctx = context;
+		int maxAttempts = (retry == null) ? 1 : retry.getMaxAttempts();
+		HttpUriRequest curr = req;
+		for(int attempt = 1; ; attempt++) {
+			XhtmlApplicationState result = null;
+			IOException failure = null;
+			try {
+				result = attempt(curr, next, hedging);
+				if (attempt >= maxAttempts || !retry.isRetryable(result)) return result;
+			} catch (IOException e) {
+				if (attempt >= maxAttempts || !retry.isRetryable(e)) throw e;
+				failure = e;
+			}
+			long delay = retry.getBackoffMillis(attempt);
+			if (ctx != null && delay >= ctx.getRemainingMillis()) {
+				if (failure != null) throw failure;
+				return result;
+			}
+			NavigationContext.Waiter waiter = (ctx == null) ? null : ctx.startWaiting();
+			try {
+				retry.sleep(delay);
+			} catch (InterruptedException e) {
+				if (waiter != null && waiter.finish()) throw new NavigationCancelledException();
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("interrupted while backing off");
+			} finally {
+				if (waiter != null) waiter.finish();
+			}
+			curr = copy(req);
+		}
+	}
+
+	private XhtmlApplicationState attempt(HttpUriRequest req, ControlTarget next,
+			HedgingPolicy hedging) throws ClientProtocolException, IOException {
+		if (next == null && hedging != null) return hedge(req, hedging);
+		NavigationContext ctx = context;
+		if (ctx == null) {
+			return (next == null) ? client.execute(req) : client.execute(req, next);
+		}
+		NavigationContext.Armed armed = ctx.arm(req, getDefaultParams());
+		try {
+			return (next == null) ? client.execute(req) : client.execute(req, next);
+		} catch (IOException e) {
+			throw ctx.translate(e);
+		} finally {
+			armed.disarm();
+		}
+	}
+
+	/**
+	 * Sends the request and, if it has not completed within the hedging
+	 * delay, a copy of it; the first to complete wins and the other is
+	 * cancelled. If the first to complete failed, the other is awaited.
+	 * The latency recorded is that of the request as a whole, from when
+	 * the original was sent, so slow originals are sampled even when a
+	 * hedge wins.
+	 */
+	private XhtmlApplicationState hedge(HttpUriRequest req, HedgingPolicy hedging)
+			throws IOException {
+		BlockingQueue<Integer> completed = new LinkedBlockingQueue<Integer>();
+		List<NavigationFuture<XhtmlApplicationState>> sent =
+			new ArrayList<NavigationFuture<XhtmlApplicationState>>(2);
+		long start = System.nanoTime();
+		try {
+			sent.add(signalling(req, completed, 0));
+			XhtmlApplicationState result;
+			try {
+				result = getResult(sent.get(0), hedging.getHedgeDelayMillis());
+				hedging.recordLatency(elapsedMillis(start));
+				return result;
+			} catch (TimeoutException e) {
+				hedging.recordHedge();
+				sent.add(signalling(copy(req), completed, 1));
+			}
+			int first = completed.take();
+			try {
+				result = getResult(sent.get(first));
+				if (first == 1) hedging.recordHedgeWin();
+			} catch (IOException e) {
+				result = getResult(sent.get(1 - first));
+			} catch (RuntimeException e) {
+				result = getResult(sent.get(1 - first));
+			}
+			hedging.recordLatency(elapsedMillis(start));
+			return result;
+		} catch (IOException e) {
+			throw (context == null) ? e : context.translate(e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while awaiting response");
+		} finally {
+			for(NavigationFuture<XhtmlApplicationState> f : sent) f.cancel(true);
+		}
+	}
+
+	private static long elapsedMillis(long startNanos) {
+		return (System.nanoTime() - startNanos) / 1000000L;
+	}
+
+	private NavigationFuture<XhtmlApplicationState> signalling(HttpUriRequest req,
+			BlockingQueue<Integer> completed, int position) throws IOException {
+		NavigationFuture<XhtmlApplicationState> f = sendAsync(req);
+		f.addCallback(new CompletionSignal(completed, position));
+		return f;
+	}
+
+	private static XhtmlApplicationState getResult(NavigationFuture<XhtmlApplicationState> f,
+			long timeoutMillis) throws IOException, InterruptedException, TimeoutException {
+		try {
+			return f.get(timeoutMillis, TimeUnit.MILLISECONDS);
+		} catch (ExecutionException e) {
+			return getResult(f);
+		}
+	}
+
+	private static HttpUriRequest copy(HttpUriRequest req) {
+		HttpGet get = new HttpGet(req.getURI());
+		get.setHeaders(req.getAllHeaders());
+		return get;
+	}
+
+	/**
+	 * Retries GET requests that fail with a 5XX status or an I/O error,
+	 * whether sent blocking or asynchronously (as by
+	 * {@link #followLinkAsync}, {@link #followAllLinks} and
+	 * {@link #paginate}). Only the final outcome is reported.
+	 * @param retryPolicy {@link RetryPolicy}, or <code>null</code> to
+	 *   make a single attempt
+	 */
+	public void setRetryPolicy(RetryPolicy retryPolicy) {
+		this.retryPolicy = retryPolicy;
+	}
+
+	/**
+	 * @return retry policy, or <code>null</code>
+	 */
+	public RetryPolicy getRetryPolicy() {
+		return retryPolicy;
+	}
+
+	/**
+	 * Sends a second copy of slow GET requests and uses whichever
+	 * response arrives first, whether they are sent blocking or
+	 * asynchronously. Requests that only read up to a
+	 * {@link ControlTarget} are not hedged.
+	 * @param hedgingPolicy {@link HedgingPolicy}, or <code>null</code>
+	 *   to never hedge
+	 */
+	public void setHedgingPolicy(HedgingPolicy hedgingPolicy) {
+		this.hedgingPolicy = hedgingPolicy;
+	}
+
+	/**
+	 * @return hedging policy, or <code>null</code>
+	 */
+	public HedgingPolicy getHedgingPolicy() {
+		return hedgingPolicy;
+	}
+
+	/**
+	 * Starts prefetching the links in the given state that the
+	 * configured {@link PrefetchPolicy} expects to be followed next.
+	 * States reached through this navigator are prefetched from
+	 * automatically; this is for states obtained some other way, such
+	 * as the entry point.
+	 * @param state application state
+	 */
+	public void prefetch(XhtmlApplicationState state) {
+		PrefetchPolicy policy = prefetchPolicy;
+		if (policy != null) policy.prefetch(state, parser, builder, client);
+	}
+
+	/**
+	 * Speculatively fetches likely next hops after each navigation.
+	 * @param prefetchPolicy {@link PrefetchPolicy}, or <code>null</code>
+	 *   to only fetch what is asked for
+	 */
+	public void setPrefetchPolicy(PrefetchPolicy prefetchPolicy) {
+		this.prefetchPolicy = prefetchPolicy;
+	}
+
+	/**
+	 * @return prefetch policy, or <code>null</code>
+	 */
+	public PrefetchPolicy getPrefetchPolicy() {
+		return prefetchPolicy;
+	}
+
+	/**
+	 * Executes a plan that starts with a <code>GET</code> of a fixed URL.
+	 * @param plan {@link NavigationPlan}
+	 * @return the final state, with per-step timings
+	 * @throws IllegalArgumentException if the plan does not start with
+	 *   a fixed URL
+	 * @throws JDOMException
+	 * @throws IOException
+	 */
+	public PlanResult execute(NavigationPlan plan) throws JDOMException, IOException {
+		if (!plan.isStatic()) {
+			throw new IllegalArgumentException("plan needs an entry state: " + plan);
+		}
+		return execute(plan, null);
+	}
+
+	/**
+	 * Executes each step of a plan in turn, starting from the given
+	 * state. If states from an earlier run of the plan with the same
+	 * first request are still fresh, execution resumes from the
+	 * furthest of them.
+	 * @param plan {@link NavigationPlan}
+	 * @param entry state the first step applies to
+	 * @return the final state, with per-step timings
+	 * @throws ServerErrorException if a step does not get a 2XX response
+	 * @throws RelationNotFoundException if a step's link or form is missing
+	 * @throws JDOMException
+	 * @throws IOException
+	 */
+	public PlanResult execute(NavigationPlan plan, XhtmlApplicationState entry)
+			throws JDOMException, IOException {
+		long start = System.nanoTime();
+		long[] nanos = new long[plan.size()];
+		HttpUriRequest first = request(plan.getStep(0), entry);
+		String chain = "GET".equals(first.getMethod()) ? first.getURI().toString() : null;
+		XhtmlApplicationState curr = entry;
+		int resumedAfter = -1;
+		long expires = Long.MAX_VALUE;
+		if (chain != null) {
+			NavigationPlan.Memo[] found = new NavigationPlan.Memo[1];
+			resumedAfter = plan.resume(chain, found);
+			if (found[0] != null) {
+				curr = found[0].state;
+				expires = found[0].expires;
+			}
+		}
+		String resumed = (resumedAfter >= 0) ? chain : null;
+		boolean completed = false;
+		try {
+			long stepStart = (resumed == null) ? start : System.nanoTime();
+			for(int i = resumedAfter + 1; i < plan.size(); i++) {
+				NavigationPlan.Step step = plan.getStep(i);
+				HttpUriRequest req = (i == 0) ? first : request(step, curr);
+				if (!"GET".equals(req.getMethod())) chain = null;
+				long sent = System.nanoTime();
+				curr = execute(req, step.next);
+				long end = System.nanoTime();
+				if (chain != null) {
+					long delay = (end - sent) / 1000000L;
+					expires = plan.remember(i, chain, curr, expires, delay);
+					if (expires <= 0) chain = null;
+				}
+				nanos[i] = end - stepStart;
+				stepStart = end;
+			}
+			completed = true;
+		} finally {
+			if (!completed && resumed != null) plan.invalidate(resumed);
+		}
+		return new PlanResult(curr, nanos, resumedAfter, System.nanoTime() - start);
+	}
+
+	private HttpUriRequest request(NavigationPlan.Step step, XhtmlApplicationState state)
+			throws JDOMException, IOException {
+		switch(step.kind) {
+		case GET:
+			return new HttpGet(step.uri);
+		case LINK:
+			Element a = parser.getLinkWithRelation(state, step.key);
+			if (a == null) {
+				throw new RelationNotFoundException("no link with relation \"" + step.key + "\" found");
+			}
+			return builder.followLink(a, state.getContext());
+		default:
+			Element form = parser.getFormWithName(state, step.key);
+			if (form == null) {
+				throw new RelationNotFoundException("no form with name \"" + step.key + "\" found");
+			}
+			return builder.submitForm(form, state.getContext(), step.args);
+		}
+	}
+
 	/**
 	 * Submits a form with the given @name, using the provided arguments.
 	 * @param state current application state
@@ -105,16 +940,33 @@ public class XhtmlNavigator {
 	public XhtmlApplicationState submitForm(XhtmlApplicationState state, String formName,
 			Map<String, String> args)
 	    throws JDOMException, ParseException, IOException {
-		Element form = parser.getFormWithName(state.getDocument(), formName);
+		return submitForm(state, formName, args, null);
+	}
+
+	/**
+	 * Submits a form with the given @name when only one control of
+	 * the resulting page will be used. The response body is read only
+	 * until that control is found.
+	 * @param state current application state
+	 * @param formName name of the form to submit
+	 * @param args a map of input names to values to provide for those
+	 *   inputs when submitting the form
+	 * @param next the link or form in the next state that will be
+	 *   used afterwards, or {@code null} to read the whole response
+	 * @return next application state
+	 * @throws JDOMException
+	 * @throws ParseException
+	 * @throws IOException
+	 */
+	public XhtmlApplicationState submitForm(XhtmlApplicationState state, String formName,
+			Map<String, String> args, ControlTarget next)
+	    throws JDOMException, ParseException, IOException {
+		Element form = parser.getFormWithName(state, formName);
 		if (form == null) {
 			throw new RelationNotFoundException("no form with name \"" + formName + "\" found");
 		}
 		HttpUriRequest req = builder.submitForm(form, state.getContext(), args);
-		XhtmlApplicationState result = client.execute(req);
-		if (!result.succeeded()) {
-			throw new ServerErrorException(result.getHttpResponse());
-		}
-		return result;
+		return execute(req, next);
 	}
 
 
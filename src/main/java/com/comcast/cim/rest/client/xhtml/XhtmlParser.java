@@ -15,6 +15,10 @@
 */
 package com.comcast.cim.rest.client.xhtml;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 import org.jdom.Document;
 import org.jdom.Element;
 import org.jdom.JDOMException;
@@ -30,9 +34,29 @@ public class XhtmlParser {
 	public static final String XHTML_NS_URI = "http://www.w3.org/1999/xhtml";
 	public static final Namespace XHTML_NS = Namespace.getNamespace(XHTML_NS_URI);
 
+	private static final String LINK_WITH_REL =
+		".//xhtml:a[contains(concat(' ', normalize-space(@rel), ' '), concat(' ', $rel, ' '))]";
+	private static final String FORM_WITH_NAME = ".//xhtml:form[@name=$name]";
+	
+	private XPathCache xpaths;
+	
+	public XhtmlParser() {
+		this(XPathCache.getDefault());
+	}
+	
+	/**
+	 * Constructs a parser that evaluates its searches using the
+	 * given compiled-expression cache.
+	 * @param xpaths cache of compiled XPath expressions
+	 */
+	public XhtmlParser(XPathCache xpaths) {
+		this.xpaths = xpaths;
+	}
+
 	/**
 	 * Generate an XPath search against an XHTML document (using the proper
-	 * XHTML namespace).
+	 * XHTML namespace). This compiles the expression on every call; hot
+	 * paths should evaluate through an {@link XPathCache} instead.
 	 * @param xhtmlPrefix This is the prefix to use when describing elements
 	 *   in the XHTML XML namespace. For example, provide &quot;xhtml&quot;
 	 *   here if you are going to refer to &quot;xhtml:a&quot; in your 
@@ -50,7 +74,8 @@ public class XhtmlParser {
 
 	/**
 	 * Find a descendant of the given element that is an &lt;a&gt;
-	 * tag with the given link relation in its @rel attribute. 
+	 * tag with the given link relation among the space-separated
+	 * relations in its @rel attribute.
 	 * @param elt root element of the search
 	 * @param rel link relation to find
 	 * @return desired &lt;a&gt; element, or {@code null} if no
@@ -58,8 +83,7 @@ public class XhtmlParser {
 	 * @throws JDOMException
 	 */
 	public Element getLinkWithRelation(Element elt, String rel) throws JDOMException {
-		XPath xpath = getXPath("xhtml", String.format(".//xhtml:a[@rel='%s']", rel));
-		return (Element)xpath.selectSingleNode(elt);
+		return (Element)xpaths.selectSingleNode(elt, "xhtml", LINK_WITH_REL, "rel", rel);
 	}
 
 	/**
@@ -75,6 +99,78 @@ public class XhtmlParser {
 		return getLinkWithRelation(doc.getRootElement(), rel);
 	}
 
+	/**
+	 * Find in the given application state an &lt;a&gt; tag with
+	 * the given link relation, using the state's control index.
+	 * @param state application state to search
+	 * @param rel link relation to find
+	 * @return desired &lt;a&gt; element, or {@code null} if no
+	 *   such element exists
+	 * @throws JDOMException
+	 */
+	public Element getLinkWithRelation(XhtmlApplicationState state, String rel)
+			throws JDOMException {
+		HypermediaControlIndex index = state.getControlIndex();
+		return (index == null) ? null : index.getLinkWithRelation(rel);
+	}
+
+	/**
+	 * Find an &lt;a&gt; tag with the given link relation that is
+	 * a descendant of the given element within an application state,
+	 * using the state's control index. If {@code elt} is not part of
+	 * the state's document, its subtree is searched directly instead.
+	 * @param state application state containing {@code elt}
+	 * @param elt root element of the search
+	 * @param rel link relation to find
+	 * @return desired &lt;a&gt; element, or {@code null} if no
+	 *   such element exists
+	 * @throws JDOMException
+	 */
+	public Element getLinkWithRelation(XhtmlApplicationState state, Element elt,
+			String rel) throws JDOMException {
+		Document doc = state.getDocument();
+		if (doc == null || elt.getDocument() != doc) {
+			return getLinkWithRelation(elt, rel);
+		}
+		HypermediaControlIndex index = state.getControlIndex();
+		return (index == null) ? null : index.getLinkWithRelation(elt, rel);
+	}
+
+	/**
+	 * Find all descendants of the given element that are &lt;a&gt;
+	 * tags with the given link relation among the space-separated
+	 * relations in their @rel attribute.
+	 * @param elt root element of the search
+	 * @param rel link relation to find
+	 * @return matching &lt;a&gt; elements in document order; empty
+	 *   if there are none
+	 * @throws JDOMException
+	 */
+	public List<Element> getLinksWithRelation(Element elt, String rel) throws JDOMException {
+		List<?> nodes = xpaths.selectNodes(elt, "xhtml", LINK_WITH_REL, "rel", rel);
+		List<Element> links = new ArrayList<Element>(nodes.size());
+		for(Object o : nodes) {
+			links.add((Element)o);
+		}
+		return links;
+	}
+
+	/**
+	 * Find in the given application state all &lt;a&gt; tags with
+	 * the given link relation, using the state's control index.
+	 * @param state application state to search
+	 * @param rel link relation to find
+	 * @return matching &lt;a&gt; elements in document order; empty
+	 *   if there are none
+	 * @throws JDOMException
+	 */
+	public List<Element> getLinksWithRelation(XhtmlApplicationState state, String rel)
+			throws JDOMException {
+		HypermediaControlIndex index = state.getControlIndex();
+		if (index == null) return Collections.emptyList();
+		return index.getLinksWithRelation(rel);
+	}
+
     /**
      * Find a descendant of the given element that is a &lt;form&gt;
      * tag with the given @name attribute. 
@@ -85,8 +181,7 @@ public class XhtmlParser {
      * @throws JDOMException
      */
 	public Element getFormWithName(Element elt, String formName) throws JDOMException {
-		XPath xpath = getXPath("xhtml", String.format(".//xhtml:form[@name='%s']", formName));
-		return (Element)xpath.selectSingleNode(elt);
+		return (Element)xpaths.selectSingleNode(elt, "xhtml", FORM_WITH_NAME, "name", formName);
 	}
 
     /**
@@ -102,4 +197,19 @@ public class XhtmlParser {
 		return getFormWithName(doc.getRootElement(), formName);
 	}	
 
+    /**
+     * Find in the given application state a &lt;form&gt; tag with
+     * the given @name attribute, using the state's control index.
+     * @param state application state to search
+     * @param formName @name attribute value to look for
+     * @return desired &lt;form&gt; element, or {@code null} if no
+     *   such element exists
+     * @throws JDOMException
+     */
+	public Element getFormWithName(XhtmlApplicationState state, String formName)
+			throws JDOMException {
+		HypermediaControlIndex index = state.getControlIndex();
+		return (index == null) ? null : index.getFormWithName(formName);
+	}
+
 }
\ No newline at end of file
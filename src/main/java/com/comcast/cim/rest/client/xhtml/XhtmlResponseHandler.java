@@ -16,14 +16,19 @@
 package com.comcast.cim.rest.client.xhtml;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
 import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.ResponseHandler;
+import org.apache.http.conn.ConnectionReleaseTrigger;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.entity.InputStreamEntity;
 import org.apache.http.util.EntityUtils;
 import org.jdom.Document;
 import org.jdom.JDOMException;
@@ -45,29 +50,264 @@ public class XhtmlResponseHandler implements ResponseHandler<XhtmlApplicationSta
 	private static final String LOAD_EXTERNAL_DTD_FEATURE = 
 		"http://apache.org/xml/features/nonvalidating/load-external-dtd";
 	
+	private static final SAXBuilderPool defaultBuilderPool = new SAXBuilderPool();
+	
 	private URL context;
+	private SAXBuilderPool builderPool;
+	private ResponseDispatcher dispatcher;
+	private BodyLimits bodyLimits;
+	private ParsedDocumentCache documentCache;
 	
 	public XhtmlResponseHandler(URL context) {
+		this(context, defaultBuilderPool);
+	}
+	
+	/**
+	 * Constructs a response handler that borrows its parsers from
+	 * the given pool.
+	 * @param context URL used to retrieve the response
+	 * @param builderPool source of configured {@link SAXBuilder}s
+	 */
+	public XhtmlResponseHandler(URL context, SAXBuilderPool builderPool) {
 		this.context = context;
+		this.builderPool = builderPool;
 	}
 	
 	public XhtmlApplicationState handleResponse(HttpResponse resp) 
 		throws ClientProtocolException, IOException {
-		SAXBuilder builder = getBuilder();
-		
-		HttpEntity entity = null;
-		try {
-			entity = resp.getEntity();
+		HttpEntity entity = resp.getEntity();
+		if (entity == null) {
 			Document doc = null;
-			if (entity != null) { 
-				doc = builder.build(entity.getContent());
+			if (documentCache != null && isNotModified(resp)) {
+				doc = documentCache.get(context, resp);
+			}
+			return createState(resp, doc);
+		}
+		if (dispatcher != null) {
+			BodyHandler handler = dispatcher.select(resp);
+			if (handler != BodyHandlers.PARSE) {
+				return dispatch(handler, resp, entity);
+			}
+		}
+		return handleEntity(resp, entity);
+	}
+
+	/**
+	 * Hands a body that is not to be parsed to another handler, holding
+	 * it to the configured {@link BodyLimits} like a parsed one.
+	 */
+	private XhtmlApplicationState dispatch(BodyHandler handler, HttpResponse resp,
+			HttpEntity entity) throws IOException {
+		try {
+			if (bodyLimits != null) {
+				long max = bodyLimits.getMaxBodySize();
+				if (entity.getContentLength() > max) {
+					throw new ResponseTooLargeException(max);
+				}
+				resp.setEntity(new BoundedEntity(entity, max));
+			}
+			return handler.handleBody(context, resp);
+		} catch (IOException e) {
+			abortConnection(entity);
+			throw e;
+		}
+	}
+
+	/**
+	 * Handles a response body that is to be treated as XHTML. Reading
+	 * stops if the thread is interrupted.
+	 * @param resp response from the server
+	 * @param entity response body
+	 * @return new application state
+	 * @throws IOException if the body cannot be read, or the thread was
+	 *   interrupted; the connection will have been aborted rather than
+	 *   drained
+	 */
+	protected XhtmlApplicationState handleEntity(HttpResponse resp, HttpEntity entity)
+		throws IOException {
+		boolean cacheable = documentCache != null && isOk(resp);
+		if (cacheable) {
+			Document cached = documentCache.getUnchanged(context, resp);
+			if (cached != null) {
 				EntityUtils.consume(entity);
+				return createState(resp, cached);
 			}
-			return new XhtmlApplicationState(context, resp, doc);
+		}
+		try {
+			Document doc = parseEntity(new InterruptibleEntity(applyLimits(entity)));
+			EntityUtils.consume(entity);
+			if (cacheable) documentCache.put(context, resp, doc);
+			return createState(resp, doc);
+		} catch (IOException e) {
+			abortConnection(entity);
+			throw e;
 		} catch (JDOMException e) {
-			logger.warn("unparseable XML response",e);
+			logger.warn("unparseable XML response from " + context + ": " + e.getMessage());
+			if (logger.isDebugEnabled()) {
+				logger.debug("unparseable XML response", e);
+			}
 			EntityUtils.consume(entity);
-			return new XhtmlApplicationState(context, resp, null);
+			return createState(resp, null);
+		}
+	}
+
+	private static boolean isOk(HttpResponse resp) {
+		return resp.getStatusLine().getStatusCode() == HttpStatus.SC_OK;
+	}
+
+	private static boolean isNotModified(HttpResponse resp) {
+		return resp.getStatusLine().getStatusCode() == HttpStatus.SC_NOT_MODIFIED;
+	}
+
+	/**
+	 * Constructs the application state for a handled response.
+	 * @param resp response from the server
+	 * @param doc parsed response body, or <code>null</code>
+	 * @return new application state
+	 */
+	protected XhtmlApplicationState createState(HttpResponse resp, Document doc) {
+		return new XhtmlApplicationState(context, resp, doc);
+	}
+
+	/**
+	 * Applies the configured {@link BodyLimits}, if any, to a response
+	 * body that is about to be parsed: either by buffering it (possibly
+	 * to a temporary file) or by capping how much of it can be read.
+	 * @param entity response body
+	 * @return entity to parse in place of {@code entity}
+	 * @throws ResponseTooLargeException if the body is known to exceed
+	 *   the maximum size
+	 * @throws IOException
+	 */
+	protected HttpEntity applyLimits(HttpEntity entity) throws IOException {
+		if (bodyLimits == null) return entity;
+		long max = bodyLimits.getMaxBodySize();
+		if (entity.getContentLength() > max) {
+			throw new ResponseTooLargeException(max);
+		}
+		if (bodyLimits.isBuffering()) {
+			ResponseBody body = ResponseBody.read(entity.getContent(), bodyLimits);
+			return new InputStreamEntity(body.openStream(), body.length());
+		}
+		return new BoundedEntity(entity, max);
+	}
+
+	/**
+	 * Reads a complete response body into memory, or into a memory-mapped
+	 * temporary file if the configured {@link BodyLimits} call for it.
+	 * @param entity response body
+	 * @return {@link ResponseBody}
+	 * @throws ResponseTooLargeException if the body exceeds the maximum
+	 *   size; the connection will have been aborted
+	 * @throws IOException if the body cannot be read, or the thread was
+	 *   interrupted; the connection will have been aborted
+	 */
+	protected ResponseBody readBody(HttpEntity entity) throws IOException {
+		try {
+			if (bodyLimits == null) {
+				return ResponseBody.wrap(EntityUtils.toByteArray(new InterruptibleEntity(entity)));
+			}
+			long max = bodyLimits.getMaxBodySize();
+			if (entity.getContentLength() > max) {
+				throw new ResponseTooLargeException(max);
+			}
+			InputStream in = new InterruptibleInputStream(entity.getContent());
+			ResponseBody body = ResponseBody.read(in, bodyLimits);
+			EntityUtils.consume(entity);
+			return body;
+		} catch (IOException e) {
+			abortConnection(entity);
+			throw e;
+		}
+	}
+
+	/**
+	 * Parses a response body. The caller is responsible for
+	 * consuming the entity afterwards.
+	 * @param entity response body
+	 * @return parsed document
+	 * @throws JDOMException if the body is not well-formed XML
+	 * @throws IOException if the body cannot be read
+	 */
+	protected Document parseEntity(HttpEntity entity) 
+		throws JDOMException, IOException {
+		SAXBuilder builder = builderPool.borrow();
+		try {
+			return builder.build(entity.getContent());
+		} catch (RuntimeException e) {
+			builderPool.discard(builder);
+			builder = null;
+			throw e;
+		} finally {
+			builderPool.release(builder);
+		}
+	}
+
+	/**
+	 * Closes the connection a response body is being read from without
+	 * reading the remainder of the body, so it is not returned to the
+	 * connection pool in an unknown state.
+	 * @param entity partially read response body
+	 * @throws IOException
+	 */
+	protected static void abortConnection(HttpEntity entity) throws IOException {
+		if (entity instanceof ConnectionReleaseTrigger) {
+			((ConnectionReleaseTrigger)entity).abortConnection();
+			return;
+		}
+		InputStream in = entity.getContent();
+		if (in instanceof ConnectionReleaseTrigger) {
+			((ConnectionReleaseTrigger)in).abortConnection();
+		} else if (in != null) {
+			in.close();
+		}
+	}
+
+	/**
+	 * Response body whose content stops being readable once the reading
+	 * thread is interrupted, so an interrupted parse ends promptly.
+	 */
+	private static class InterruptibleEntity extends HttpEntityWrapper
+		implements ConnectionReleaseTrigger {
+
+		InterruptibleEntity(HttpEntity wrapped) {
+			super(wrapped);
+		}
+
+		@Override
+		public InputStream getContent() throws IOException {
+			return new InterruptibleInputStream(wrappedEntity.getContent());
+		}
+
+		public void abortConnection() throws IOException {
+			XhtmlResponseHandler.abortConnection(wrappedEntity);
+		}
+
+		public void releaseConnection() throws IOException {
+			EntityUtils.consume(wrappedEntity);
+		}
+	}
+
+	private static class BoundedEntity extends HttpEntityWrapper
+		implements ConnectionReleaseTrigger {
+		private long limit;
+
+		BoundedEntity(HttpEntity wrapped, long limit) {
+			super(wrapped);
+			this.limit = limit;
+		}
+
+		@Override
+		public InputStream getContent() throws IOException {
+			return new BoundedInputStream(wrappedEntity.getContent(), limit);
+		}
+
+		public void abortConnection() throws IOException {
+			XhtmlResponseHandler.abortConnection(wrappedEntity);
+		}
+
+		public void releaseConnection() throws IOException {
+			EntityUtils.consume(wrappedEntity);
 		}
 	}
 
@@ -85,4 +325,50 @@ public class XhtmlResponseHandler implements ResponseHandler<XhtmlApplicationSta
 	protected URL getContext() {
 		return context;
 	}
-}
\ No newline at end of file
+
+	protected SAXBuilderPool getBuilderPool() {
+		return builderPool;
+	}
+
+	/**
+	 * Routes response bodies through the given dispatcher before
+	 * attempting to parse them, so bodies that are not XHTML can be
+	 * handled more cheaply.
+	 * @param dispatcher {@link ResponseDispatcher}, or <code>null</code>
+	 *   to parse every body
+	 */
+	protected void setDispatcher(ResponseDispatcher dispatcher) {
+		this.dispatcher = dispatcher;
+	}
+
+	protected ResponseDispatcher getDispatcher() {
+		return dispatcher;
+	}
+
+	/**
+	 * Limits how large a response body this handler will read.
+	 * @param bodyLimits {@link BodyLimits}, or <code>null</code> for
+	 *   no limits
+	 */
+	protected void setBodyLimits(BodyLimits bodyLimits) {
+		this.bodyLimits = bodyLimits;
+	}
+
+	protected BodyLimits getBodyLimits() {
+		return bodyLimits;
+	}
+
+	/**
+	 * Reuses documents parsed from earlier responses with the same
+	 * URL and validator instead of parsing the body again.
+	 * @param documentCache {@link ParsedDocumentCache}, or <code>null</code>
+	 *   to parse every body
+	 */
+	protected void setDocumentCache(ParsedDocumentCache documentCache) {
+		this.documentCache = documentCache;
+	}
+
+	protected ParsedDocumentCache getDocumentCache() {
+		return documentCache;
+	}
+}
@@ -20,8 +20,142 @@ import java.net.URL;
 
 public class XhtmlResponseHandlerFactory {
 
+	private SAXBuilderPool builderPool;
+	private XMLReaderPool readerPool = new XMLReaderPool();
+	private ParseMode parseMode = ParseMode.FULL_DOCUMENT;
+	private ResponseDispatcher dispatcher = ResponseDispatcher.xhtmlOnly();
+	private BodyLimits bodyLimits;
+	private ParsedDocumentCache documentCache;
+	
+	public XhtmlResponseHandlerFactory() {
+		this(new SAXBuilderPool());
+	}
+	
+	/**
+	 * Constructs a factory whose handlers all share the given
+	 * parser pool.
+	 * @param builderPool pool of configured parsers
+	 */
+	public XhtmlResponseHandlerFactory(SAXBuilderPool builderPool) {
+		this.builderPool = builderPool;
+	}
+
 	public XhtmlResponseHandler get(URL context) {
-		return new XhtmlResponseHandler(context);
+		XhtmlResponseHandler handler;
+		if (parseMode == ParseMode.CONTROLS_ONLY) {
+			handler = new ControlsOnlyResponseHandler(context, readerPool);
+		} else if (parseMode == ParseMode.LAZY) {
+			handler = new LazyXhtmlResponseHandler(context, builderPool);
+		} else {
+			handler = new XhtmlResponseHandler(context, builderPool);
+			handler.setDocumentCache(documentCache);
+		}
+		return configure(handler);
+	}
+	
+	/**
+	 * Creates a handler that only reads the response body until
+	 * the given control is found.
+	 * @param context URL used to retrieve the response
+	 * @param target the control that will be used next
+	 * @return {@link ControlScanningResponseHandler}
+	 */
+	public XhtmlResponseHandler get(URL context, ControlTarget target) {
+		return configure(new ControlScanningResponseHandler(context, readerPool, target));
+	}
+	
+	/**
+	 * Creates a handler that only reads the response body, whatever
+	 * the parse mode, leaving it to be parsed later on another thread.
+	 * @param context URL used to retrieve the response
+	 * @return {@link LazyXhtmlResponseHandler}
+	 */
+	public XhtmlResponseHandler getDeferred(URL context) {
+		return configure(new LazyXhtmlResponseHandler(context, builderPool));
+	}
+	
+	private XhtmlResponseHandler configure(XhtmlResponseHandler handler) {
+		handler.setDispatcher(dispatcher);
+		handler.setBodyLimits(bodyLimits);
+		return handler;
+	}
+	
+	/**
+	 * Selects how response bodies are parsed by handlers created
+	 * after this call. Defaults to {@link ParseMode#FULL_DOCUMENT}.
+	 * @param parseMode {@link ParseMode}
+	 */
+	public void setParseMode(ParseMode parseMode) {
+		this.parseMode = parseMode;
+	}
+	
+	/**
+	 * @return how handlers from this factory parse response bodies
+	 */
+	public ParseMode getParseMode() {
+		return parseMode;
+	}
+	
+	/**
+	 * Sets the registry used by handlers created after this call to
+	 * decide which response bodies are worth parsing. Defaults to
+	 * {@link ResponseDispatcher#xhtmlOnly()}.
+	 * @param dispatcher {@link ResponseDispatcher}, or <code>null</code>
+	 *   to attempt to parse every response body
+	 */
+	public void setDispatcher(ResponseDispatcher dispatcher) {
+		this.dispatcher = dispatcher;
+	}
+	
+	/**
+	 * @return the registry shared by handlers from this factory
+	 */
+	public ResponseDispatcher getDispatcher() {
+		return dispatcher;
+	}
+	
+	/**
+	 * Limits the size of response bodies read by handlers created
+	 * after this call. By default there is no limit.
+	 * @param bodyLimits {@link BodyLimits}, or <code>null</code> for
+	 *   no limits
+	 */
+	public void setBodyLimits(BodyLimits bodyLimits) {
+		this.bodyLimits = bodyLimits;
+	}
+	
+	/**
+	 * @return size limits applied by handlers from this factory, or
+	 *   <code>null</code>
+	 */
+	public BodyLimits getBodyLimits() {
+		return bodyLimits;
+	}
+	
+	/**
+	 * Lets {@link ParseMode#FULL_DOCUMENT} handlers created after this
+	 * call reuse documents parsed from earlier responses that carried
+	 * the same validator. Disabled by default.
+	 * @param documentCache {@link ParsedDocumentCache}, or <code>null</code>
+	 *   to parse every body
+	 */
+	public void setDocumentCache(ParsedDocumentCache documentCache) {
+		this.documentCache = documentCache;
+	}
+	
+	/**
+	 * @return parsed documents shared by handlers from this factory, or
+	 *   <code>null</code>
+	 */
+	public ParsedDocumentCache getDocumentCache() {
+		return documentCache;
+	}
+	
+	/**
+	 * @return the parser pool shared by handlers from this factory
+	 */
+	public SAXBuilderPool getBuilderPool() {
+		return builderPool;
 	}
 
 }
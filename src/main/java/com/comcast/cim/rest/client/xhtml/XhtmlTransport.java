@@ -0,0 +1,44 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+import java.io.IOException;
+
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpUriRequest;
+
+/**
+ * Carries out HTTP requests on behalf of an {@link XhtmlHttpClient}.
+ * Requests and responses are expressed with the HttpComponents types
+ * so that the same response handlers work with any transport.
+ * Implementations must be safe for use by multiple threads.
+ */
+public interface XhtmlTransport {
+
+	/**
+	 * Executes a request and hands the response to the given handler.
+	 * The response body is released once the handler returns, whether
+	 * or not it read the whole body.
+	 * @param req HTTP request to execute
+	 * @param handler response handler
+	 * @return the value returned by the handler
+	 * @throws ClientProtocolException
+	 * @throws IOException
+	 */
+	<T> T execute(HttpUriRequest req, ResponseHandler<? extends T> handler)
+		throws ClientProtocolException, IOException;
+}
@@ -0,0 +1,50 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.http.conn.ConnectionReleaseTrigger;
+import org.apache.http.entity.InputStreamEntity;
+
+public class AbortableHttpEntity extends InputStreamEntity
+	implements ConnectionReleaseTrigger {
+	
+	private boolean aborted = false;
+	private boolean released = false;
+	
+	public AbortableHttpEntity(InputStream in, long length) {
+		super(in, length);
+	}
+
+	public void abortConnection() throws IOException {
+		aborted = true;
+		getContent().close();
+	}
+
+	public void releaseConnection() throws IOException {
+		released = true;
+	}
+	
+	public boolean aborted() {
+		return aborted;
+	}
+	
+	public boolean released() {
+		return released;
+	}
+}
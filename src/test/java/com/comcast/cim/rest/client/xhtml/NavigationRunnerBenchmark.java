@@ -0,0 +1,123 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.methods.HttpGet;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Compares workflow throughput of the default {@link NavigationRunner}
+ * (virtual threads where the runtime has them) against a fixed pool of
+ * platform threads, against a local stub server that adds a fixed
+ * latency to every response. Not run as part of the test suite; run
+ * with
+ * <pre>java NavigationRunnerBenchmark [workflows] [poolSize] [latencyMillis]</pre>
+ */
+public class NavigationRunnerBenchmark {
+
+	private static final String START =
+		"<html xmlns=\"http://www.w3.org/1999/xhtml\"><head/><body>" +
+		"<a rel=\"item\" href=\"/item\">item</a></body></html>";
+	private static final String ITEM =
+		"<html xmlns=\"http://www.w3.org/1999/xhtml\"><head/><body>" +
+		"<p>item</p></body></html>";
+
+	public static void main(String[] args) throws Exception {
+		int workflows = (args.length > 0) ? Integer.parseInt(args[0]) : 10000;
+		int poolSize = (args.length > 1) ? Integer.parseInt(args[1]) : 200;
+		final long latency = (args.length > 2) ? Long.parseLong(args[2]) : 20;
+
+		HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+		ExecutorService serverThreads = Executors.newCachedThreadPool();
+		server.setExecutor(serverThreads);
+		server.createContext("/", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					Thread.sleep(latency);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				String path = exchange.getRequestURI().getPath();
+				byte[] body = (path.equals("/item") ? ITEM : START).getBytes("UTF-8");
+				exchange.getResponseHeaders().set("Content-Type", "application/xhtml+xml");
+				exchange.sendResponseHeaders(200, body.length);
+				OutputStream out = exchange.getResponseBody();
+				out.write(body);
+				out.close();
+			}
+		});
+		server.start();
+		String start = "http://127.0.0.1:" + server.getAddress().getPort() + "/start";
+
+		XhtmlHttpClient client = new XhtmlHttpClient(new HttpURLConnectionTransport(),
+				new XhtmlResponseHandlerFactory());
+		XhtmlNavigator navigator = new XhtmlNavigator(new XhtmlParser(),
+				new RequestBuilder(), client);
+		try {
+			NavigationRunner runner = new NavigationRunner();
+			run(runner.isUsingVirtualThreads() ? "virtual threads" : "default platform pool",
+					runner, client, navigator, start, workflows);
+			run("fixed pool of " + poolSize, NavigationRunner.platform(poolSize),
+					client, navigator, start, workflows);
+		} finally {
+			server.stop(0);
+			serverThreads.shutdown();
+		}
+	}
+
+	private static void run(String label, NavigationRunner runner,
+			final XhtmlHttpClient client, final XhtmlNavigator navigator, final String start, int workflows)
+			throws Exception {
+		List<Callable<XhtmlApplicationState>> tasks = 
+			new ArrayList<Callable<XhtmlApplicationState>>();
+		for(int i = 0; i < workflows; i++) {
+			tasks.add(new Callable<XhtmlApplicationState>() {
+				public XhtmlApplicationState call() throws Exception {
+					XhtmlApplicationState entry = client.execute(new HttpGet(start));
+					return navigator.followLink(entry, "item");
+				}
+			});
+		}
+		long began = System.nanoTime();
+		int failures = 0;
+		for(NavigationFuture<XhtmlApplicationState> result : runner.submitAll(tasks)) {
+			try {
+				result.get();
+			} catch (Exception e) {
+				failures++;
+			}
+		}
+		long elapsed = System.nanoTime() - began;
+		runner.shutdown();
+		runner.awaitTermination(1, TimeUnit.MINUTES);
+		double seconds = elapsed / 1e9;
+		System.out.printf("%s: %d workflows in %.2fs (%.0f/s), %d failed%n",
+				label, workflows, seconds, workflows / seconds, failures);
+	}
+}
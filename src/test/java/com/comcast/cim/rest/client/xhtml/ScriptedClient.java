@@ -0,0 +1,160 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.apache.http.client.methods.HttpUriRequest;
+
+/**
+ * Stands in for an {@link XhtmlHttpClient} without a transport. Each
+ * request is answered by {@link #respond(HttpUriRequest, int)} with the
+ * next scripted status, 200 once the script runs out, or fails with an
+ * {@link IOException} where the script says {@code -1}. Asynchronous
+ * requests can be left pending until the test completes them.
+ */
+public class ScriptedClient extends XhtmlHttpClient {
+
+	private final LinkedList<Integer> statuses = new LinkedList<Integer>();
+	private final List<HttpUriRequest> executed = new ArrayList<HttpUriRequest>();
+	private final List<ControlTarget> targets = new ArrayList<ControlTarget>();
+	private final List<HttpUriRequest> sent = new ArrayList<HttpUriRequest>();
+	private final List<NavigationFuture<XhtmlApplicationState>> futures =
+		new ArrayList<NavigationFuture<XhtmlApplicationState>>();
+	private int immediate = Integer.MAX_VALUE;
+
+	public ScriptedClient() {
+		super((XhtmlTransport)null, null);
+	}
+
+	/** Builds the page served for a request; an empty page by default. */
+	protected XhtmlApplicationState respond(HttpUriRequest req, int status)
+			throws IOException {
+		return XhtmlTestCase.page(req.getURI().toString(), status);
+	}
+
+	/** Queues statuses for the next requests; -1 fails the request. */
+	public synchronized void script(int... next) {
+		for(int status : next) statuses.add(status);
+	}
+
+	/** Answers only the first {@code n} asynchronous requests at once. */
+	public synchronized void deferAfter(int n) {
+		immediate = n;
+	}
+
+	@Override
+	public XhtmlApplicationState execute(HttpUriRequest req) throws IOException {
+		return execute(req, null);
+	}
+
+	@Override
+	public XhtmlApplicationState execute(HttpUriRequest req, ControlTarget target)
+			throws IOException {
+		synchronized(this) {
+			executed.add(req);
+			targets.add(target);
+		}
+		return answer(req);
+	}
+
+	@Override
+	public NavigationFuture<XhtmlApplicationState> executeAsync(HttpUriRequest req) {
+		NavigationFuture<XhtmlApplicationState> f = new NavigationFuture<XhtmlApplicationState>();
+		boolean answer;
+		synchronized(this) {
+			sent.add(req);
+			futures.add(f);
+			answer = futures.size() <= immediate;
+			notifyAll();
+		}
+		if (answer) complete(req, f);
+		return f;
+	}
+
+	private XhtmlApplicationState answer(HttpUriRequest req) throws IOException {
+		Integer status;
+		synchronized(this) {
+			status = statuses.poll();
+		}
+		if (status == null) status = 200;
+		if (status < 0) throw new IOException("connection reset");
+		return respond(req, status);
+	}
+
+	private void complete(HttpUriRequest req, NavigationFuture<XhtmlApplicationState> f) {
+		try {
+			f.set(answer(req));
+		} catch (IOException e) {
+			f.setException(e);
+		}
+	}
+
+	/** Answers the {@code i}th asynchronous request if still pending. */
+	public void complete(int i) {
+		HttpUriRequest req;
+		NavigationFuture<XhtmlApplicationState> f;
+		synchronized(this) {
+			req = sent.get(i);
+			f = futures.get(i);
+		}
+		if (!f.isDone()) complete(req, f);
+	}
+
+	/** Answers every pending request, including ones sent meanwhile. */
+	public void completeAll() {
+		for(int i = 0; i < sent().size(); i++) complete(i);
+	}
+
+	/** Waits for the {@code n}th asynchronous request and returns its future. */
+	public synchronized NavigationFuture<XhtmlApplicationState> awaitSent(int n)
+			throws InterruptedException {
+		while(futures.size() < n) wait();
+		return futures.get(n - 1);
+	}
+
+	public synchronized NavigationFuture<XhtmlApplicationState> future(int i) {
+		return futures.get(i);
+	}
+
+	public synchronized List<HttpUriRequest> executed() {
+		return new ArrayList<HttpUriRequest>(executed);
+	}
+
+	public synchronized List<ControlTarget> targets() {
+		return new ArrayList<ControlTarget>(targets);
+	}
+
+	public synchronized List<HttpUriRequest> sent() {
+		return new ArrayList<HttpUriRequest>(sent);
+	}
+
+	/** Forgets the blocking requests seen so far. */
+	public synchronized void clear() {
+		executed.clear();
+		targets.clear();
+	}
+
+	/** The URIs of the given requests, in order. */
+	public static List<String> uris(List<HttpUriRequest> reqs) {
+		List<String> out = new ArrayList<String>();
+		for(HttpUriRequest req : reqs) out.add(req.getURI().toString());
+		return out;
+	}
+}
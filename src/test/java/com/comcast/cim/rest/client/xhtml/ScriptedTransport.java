@@ -0,0 +1,119 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.message.BasicHttpResponse;
+import org.jdom.Document;
+import org.jdom.Element;
+
+/**
+ * Transport that answers with scripted responses or errors in order
+ * (a 200 when none is left) and keeps its own clock, which advances
+ * by the configured latency on every call.
+ */
+public class ScriptedTransport implements XhtmlTransport {
+
+	private final LinkedList<Object> script = new LinkedList<Object>();
+	private final List<Long> sentAt = new ArrayList<Long>();
+	private volatile long now;
+	private volatile long latency;
+	private CountDownLatch entered;
+	private CountDownLatch release;
+
+	public ScriptedTransport(long now) {
+		this.now = now;
+	}
+
+	public static HttpResponse response(int status) {
+		return new BasicHttpResponse(HttpVersion.HTTP_1_1, status, "Status");
+	}
+
+	@SuppressWarnings("unchecked")
+	public <T> T execute(HttpUriRequest req, ResponseHandler<? extends T> handler)
+			throws IOException {
+		Object next;
+		synchronized (this) {
+			sentAt.add(now);
+			next = script.isEmpty() ? response(200) : script.removeFirst();
+		}
+		if (entered != null) {
+			entered.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				throw new IOException("interrupted");
+			}
+		}
+		now += latency;
+		if (next instanceof IOException) throw (IOException)next;
+		Element html = new Element("html", XhtmlParser.XHTML_NS);
+		html.addContent(new Element("body", XhtmlParser.XHTML_NS));
+		return (T)new XhtmlApplicationState(new URL(req.getURI().toString()),
+				(HttpResponse)next, new Document(html));
+	}
+
+	public synchronized void respond(HttpResponse resp) {
+		script.add(resp);
+	}
+
+	public void respond(int status) {
+		respond(response(status));
+	}
+
+	public synchronized void fail(IOException e) {
+		script.add(e);
+	}
+
+	/**
+	 * Holds every call until {@code release} is counted down, counting
+	 * down {@code entered} as each one arrives.
+	 */
+	public void hold(CountDownLatch entered, CountDownLatch release) {
+		this.entered = entered;
+		this.release = release;
+	}
+
+	public long now() {
+		return now;
+	}
+
+	public void advance(long millis) {
+		now += millis;
+	}
+
+	public void setLatency(long latency) {
+		this.latency = latency;
+	}
+
+	public synchronized int calls() {
+		return sentAt.size();
+	}
+
+	public synchronized List<Long> sentAt() {
+		return new ArrayList<Long>(sentAt);
+	}
+}
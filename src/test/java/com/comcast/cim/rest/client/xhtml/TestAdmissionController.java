@@ -0,0 +1,288 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.cookie.DateUtils;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestAdmissionController {
+
+	private static final String BASE = "http://foo.example.com/";
+	private static final URI ORIGIN = URI.create(BASE);
+
+	private List<Long> sleeps;
+	private ScriptedTransport transport;
+	private AdmissionController admission;
+	private XhtmlHttpClient client;
+
+	@Before
+	public void setUp() {
+		sleeps = new ArrayList<Long>();
+		transport = new ScriptedTransport(1000000L);
+		admission = new AdmissionController() {
+			@Override
+			protected long now() { return transport.now(); }
+			@Override
+			protected void sleep(long millis) {
+				sleeps.add(millis);
+				transport.advance(millis);
+			}
+		};
+		client = new XhtmlHttpClient(transport, new XhtmlResponseHandlerFactory());
+		client.setAdmissionController(admission);
+	}
+
+	private int get() throws IOException {
+		XhtmlApplicationState state = client.execute(new HttpGet(BASE + "resource"));
+		return state.getHttpResponse().getStatusLine().getStatusCode();
+	}
+
+	@Test
+	public void testParsesRetryAfterSecondsAndDates() {
+		Assert.assertEquals(120000, AdmissionController.parseRetryAfter(" 120 ", 0));
+		long now = 1300000000000L;
+		String date = DateUtils.formatDate(new Date(now + 30000));
+		Assert.assertEquals(30000, AdmissionController.parseRetryAfter(date, now));
+		Assert.assertEquals(-1, AdmissionController.parseRetryAfter("soon", now));
+	}
+
+	@Test
+	public void testTokenBucketSpacesRequestsAfterBurst() throws Exception {
+		admission.setRateLimit(10, 2);
+		for(int i = 0; i < 4; i++) get();
+		List<Long> sentAt = transport.sentAt();
+		Assert.assertEquals(4, sentAt.size());
+		Assert.assertEquals(sentAt.get(0), sentAt.get(1));
+		Assert.assertEquals(100, sentAt.get(2) - sentAt.get(1));
+		Assert.assertEquals(100, sentAt.get(3) - sentAt.get(2));
+	}
+
+	@Test
+	public void testPerOriginRateLimitOverride() throws Exception {
+		admission.setRateLimit(ORIGIN, 1, 1);
+		get();
+		admission.setMaxWait(500);
+		try {
+			get();
+			Assert.fail();
+		} catch (AdmissionRejectedException expected) {
+			Assert.assertEquals(1000, expected.getRetryAfterMillis());
+		}
+		client.execute(new HttpGet("http://bar.example.com/"));
+		Assert.assertEquals(2, transport.calls());
+	}
+
+	@Test
+	public void testHonorsRetryAfter() throws Exception {
+		HttpResponse throttled = ScriptedTransport.response(429);
+		throttled.setHeader("Retry-After", "2");
+		transport.respond(throttled);
+		Assert.assertEquals(429, get());
+		Assert.assertEquals(2000, admission.getHoldMillis(ORIGIN));
+		Assert.assertEquals(200, get());
+		List<Long> sentAt = transport.sentAt();
+		Assert.assertEquals(2000, sentAt.get(1) - sentAt.get(0));
+		Assert.assertEquals(0, admission.getHoldMillis(ORIGIN));
+	}
+
+	@Test
+	public void testRejectsWhenRetryAfterExceedsMaxWait() throws Exception {
+		admission.setMaxWait(1000);
+		HttpResponse unavailable = ScriptedTransport.response(503);
+		unavailable.setHeader("Retry-After", "60");
+		transport.respond(unavailable);
+		get();
+		try {
+			get();
+			Assert.fail();
+		} catch (AdmissionRejectedException expected) {
+			Assert.assertEquals(60000, expected.getRetryAfterMillis());
+		}
+		Assert.assertEquals(1, transport.calls());
+	}
+
+	@Test
+	public void testThrottlingShrinksLimit() throws Exception {
+		admission.setLimits(10, 2, 100);
+		for(int i = 0; i < 100; i++) transport.respond(429);
+		for(int i = 0; i < 100; i++) get();
+		Assert.assertEquals(2, admission.getLimit(ORIGIN));
+		Assert.assertEquals(0, admission.getInFlight(ORIGIN));
+	}
+
+	@Test
+	public void testThrottlingBacksOffOncePerWindow() throws Exception {
+		admission.setLimits(10, 2, 100);
+		for(int i = 0; i < 9; i++) transport.respond(503);
+		for(int i = 0; i < 9; i++) get();
+		Assert.assertEquals(9, admission.getLimit(ORIGIN));
+	}
+
+	@Test
+	public void testLatencyGradientShrinksLimit() throws Exception {
+		admission.setLimits(10, 1, 100);
+		transport.setLatency(10);
+		for(int i = 0; i < 20; i++) get();
+		Assert.assertEquals(10, admission.getLimit(ORIGIN));
+		transport.setLatency(50);
+		for(int i = 0; i < 20; i++) get();
+		Assert.assertEquals(7, admission.getLimit(ORIGIN));
+	}
+
+	@Test
+	public void testSingleSlowResponseDoesNotShrinkLimit() throws Exception {
+		admission.setLimits(10, 1, 100);
+		transport.setLatency(10);
+		for(int i = 0; i < 20; i++) get();
+		transport.setLatency(50);
+		get();
+		transport.setLatency(10);
+		for(int i = 0; i < 20; i++) get();
+		Assert.assertEquals(10, admission.getLimit(ORIGIN));
+	}
+
+	@Test
+	public void testOccasionalFastResponsesDoNotSetBaseline() throws Exception {
+		admission.setLimits(10, 1, 100);
+		for(int i = 0; i < 100; i++) {
+			transport.setLatency((i % 4 == 0) ? 1 : 20);
+			get();
+		}
+		Assert.assertEquals(10, admission.getLimit(ORIGIN));
+	}
+
+	@Test
+	public void testBurstOfSlowResponsesBacksOffOncePerWindow() throws Exception {
+		admission.setLimits(20, 1, 100);
+		transport.setLatency(10);
+		for(int i = 0; i < 20; i++) get();
+		transport.setLatency(100);
+		for(int i = 0; i < 20; i++) get();
+		Assert.assertTrue(admission.getLimit(ORIGIN) >= 16);
+	}
+
+	@Test
+	public void testLimitOnlyGrowsWhenInUse() throws Exception {
+		admission.setLimits(1, 1, 100);
+		for(int i = 0; i < 10; i++) get();
+		Assert.assertTrue(admission.getLimit(ORIGIN) > 1);
+		admission.setLimits(10, 1, 100);
+		for(int i = 0; i < 10; i++) client.execute(new HttpGet("http://bar.example.com/"));
+		Assert.assertEquals(10, admission.getLimit(URI.create("http://bar.example.com/")));
+	}
+
+	@Test
+	public void testRejectsBeyondConcurrencyLimit() throws Exception {
+		admission.setLimits(1, 1, 1);
+		admission.setMaxWait(0);
+		CountDownLatch entered = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		transport.hold(entered, release);
+		Thread t = new Thread() {
+			public void run() {
+				try {
+					get();
+				} catch (IOException e) {
+				}
+			}
+		};
+		t.start();
+		entered.await();
+		Assert.assertEquals(1, admission.getInFlight(ORIGIN));
+		try {
+			get();
+			Assert.fail();
+		} catch (AdmissionRejectedException expected) {
+		} finally {
+			release.countDown();
+			t.join();
+		}
+		Assert.assertEquals(0, admission.getInFlight(ORIGIN));
+	}
+
+	@Test
+	public void testWaitIsBoundedByRequestDeadline() throws Exception {
+		admission.setRateLimit(ORIGIN, 1, 1);
+		get();
+		NavigationContext ctx = NavigationContext.withTimeout(200);
+		HttpGet req = new HttpGet(BASE + "resource");
+		ctx.arm(req, null);
+		try {
+			client.execute(req);
+			Assert.fail();
+		} catch (DeadlineExceededException expected) {
+			Assert.assertEquals(ctx.getDeadline(), expected.getDeadline());
+		}
+		Assert.assertTrue(sleeps.isEmpty());
+		Assert.assertEquals(1, transport.calls());
+	}
+
+	@Test
+	public void testCancelWakesRequestWaitingForAdmission() throws Exception {
+		admission.setLimits(1, 1, 1);
+		CountDownLatch entered = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		transport.hold(entered, release);
+		Thread t = new Thread() {
+			public void run() {
+				try {
+					get();
+				} catch (IOException e) {
+				}
+			}
+		};
+		t.start();
+		entered.await();
+		final NavigationContext ctx = new NavigationContext();
+		Thread canceller = new Thread() {
+			public void run() {
+				try {
+					Thread.sleep(100);
+				} catch (InterruptedException e) {
+				}
+				ctx.cancel();
+			}
+		};
+		HttpGet req = new HttpGet(BASE + "resource");
+		ctx.arm(req, null);
+		canceller.start();
+		long start = System.currentTimeMillis();
+		try {
+			client.execute(req);
+			Assert.fail();
+		} catch (NavigationCancelledException expected) {
+		} finally {
+			release.countDown();
+			t.join();
+			canceller.join();
+		}
+		long waited = System.currentTimeMillis() - start;
+		Assert.assertTrue(waited < AdmissionController.DEFAULT_MAX_WAIT_MILLIS);
+		Assert.assertFalse(Thread.currentThread().isInterrupted());
+		Assert.assertEquals(0, admission.getInFlight(ORIGIN));
+	}
+}
@@ -0,0 +1,259 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+import java.net.URL;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.message.BasicHttpResponse;
+import org.jdom.Document;
+import org.jdom.Element;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestApplicationStateCache {
+
+	private static final String URL_A = "http://foo.example.com/a";
+	private static final String URL_B = "http://foo.example.com/b";
+	private static final String URL_C = "http://foo.example.com/c";
+	
+	private long now;
+	private ApplicationStateCache impl;
+	
+	@Before
+	public void setUp() {
+		now = 1000000L;
+		impl = newCache(10, 100000);
+	}
+	
+	private ApplicationStateCache newCache(int maxEntries, long maxWeight) {
+		return new ApplicationStateCache(maxEntries, maxWeight) {
+			@Override
+			protected long now() { return now; }
+		};
+	}
+	
+	private XhtmlApplicationState state(String url, int status, String cacheControl,
+			int length) throws Exception {
+		HttpResponse resp = new BasicHttpResponse(HttpVersion.HTTP_1_1, status, "");
+		if (cacheControl != null) resp.setHeader("Cache-Control", cacheControl);
+		resp.setHeader("Content-Length", "" + length);
+		return new XhtmlApplicationState(new URL(url), resp,
+				new Document(new Element("html")));
+	}
+	
+	private XhtmlApplicationState fresh(String url) throws Exception {
+		return state(url, HttpStatus.SC_OK, "max-age=60", 100);
+	}
+	
+	@Test
+	public void testServesFreshGetFromCache() throws Exception {
+		XhtmlApplicationState state = fresh(URL_A);
+		impl.update(new HttpGet(URL_A), state);
+		Assert.assertSame(state, impl.get(new HttpGet(URL_A)));
+		Assert.assertEquals(1, impl.getHitCount());
+	}
+	
+	@Test
+	public void testMissesForOtherUrl() throws Exception {
+		impl.update(new HttpGet(URL_A), fresh(URL_A));
+		Assert.assertNull(impl.get(new HttpGet(URL_B)));
+		Assert.assertEquals(1, impl.getMissCount());
+	}
+	
+	@Test
+	public void testNeverServesNonGetFromCache() throws Exception {
+		impl.update(new HttpGet(URL_A), fresh(URL_A));
+		Assert.assertNull(impl.get(new HttpPost(URL_A)));
+	}
+	
+	@Test
+	public void testExpiresAfterMaxAge() throws Exception {
+		impl.update(new HttpGet(URL_A), fresh(URL_A));
+		now += 60000L;
+		Assert.assertNull(impl.get(new HttpGet(URL_A)));
+		Assert.assertEquals(0, impl.size());
+		Assert.assertEquals(0, impl.getWeight());
+	}
+	
+	@Test
+	public void testUsesExpiresRelativeToDate() throws Exception {
+		XhtmlApplicationState state = state(URL_A, HttpStatus.SC_OK, null, 100);
+		state.getHttpResponse().setHeader("Date", "Sat, 01 Jan 2011 00:00:00 GMT");
+		state.getHttpResponse().setHeader("Expires", "Sat, 01 Jan 2011 00:00:30 GMT");
+		impl.update(new HttpGet(URL_A), state);
+		now += 29000L;
+		Assert.assertSame(state, impl.get(new HttpGet(URL_A)));
+		now += 1000L;
+		Assert.assertNull(impl.get(new HttpGet(URL_A)));
+	}
+	
+	@Test
+	public void testSubtractsAgeFromFreshnessLifetime() throws Exception {
+		XhtmlApplicationState state = fresh(URL_A);
+		state.getHttpResponse().setHeader("Age", "50");
+		impl.update(new HttpGet(URL_A), state);
+		now += 9000L;
+		Assert.assertSame(state, impl.get(new HttpGet(URL_A)));
+		now += 1000L;
+		Assert.assertNull(impl.get(new HttpGet(URL_A)));
+	}
+	
+	@Test
+	public void testCountsResponseDelayTowardsAge() throws Exception {
+		XhtmlApplicationState state = fresh(URL_A);
+		state.getHttpResponse().setHeader("Age", "50");
+		long requested = now;
+		now += 5000L;
+		impl.update(new HttpGet(URL_A), state, requested);
+		now += 4000L;
+		Assert.assertSame(state, impl.get(new HttpGet(URL_A)));
+		now += 1000L;
+		Assert.assertNull(impl.get(new HttpGet(URL_A)));
+	}
+	
+	@Test
+	public void testDoesNotCacheResponsesAlreadyStale() throws Exception {
+		XhtmlApplicationState state = fresh(URL_A);
+		state.getHttpResponse().setHeader("Age", "60");
+		impl.update(new HttpGet(URL_A), state);
+		Assert.assertEquals(0, impl.size());
+	}
+	
+	@Test
+	public void testDoesNotCacheWithoutFreshnessInformation() throws Exception {
+		impl.update(new HttpGet(URL_A), state(URL_A, HttpStatus.SC_OK, null, 100));
+		Assert.assertEquals(0, impl.size());
+	}
+	
+	@Test
+	public void testDoesNotCacheNoStore() throws Exception {
+		impl.update(new HttpGet(URL_A), state(URL_A, HttpStatus.SC_OK, 
+				"no-store, max-age=60", 100));
+		Assert.assertEquals(0, impl.size());
+	}
+	
+	@Test
+	public void testDoesNotCachePartialStates() throws Exception {
+		HttpResponse resp = fresh(URL_A).getHttpResponse();
+		impl.update(new HttpGet(URL_A), new XhtmlApplicationState(new URL(URL_A),
+				resp, null, true));
+		Assert.assertEquals(0, impl.size());
+	}
+	
+	@Test
+	public void testPostInvalidatesSameUrl() throws Exception {
+		impl.update(new HttpGet(URL_A), fresh(URL_A));
+		HttpUriRequest post = new HttpPost(URL_A);
+		impl.update(post, state(URL_A, HttpStatus.SC_SEE_OTHER, null, 0));
+		Assert.assertNull(impl.get(new HttpGet(URL_A)));
+		Assert.assertEquals(1, impl.getInvalidationCount());
+	}
+	
+	@Test
+	public void testErrorResponseInvalidatesSameUrl() throws Exception {
+		impl.update(new HttpGet(URL_A), fresh(URL_A));
+		impl.update(new HttpGet(URL_A), state(URL_A, 
+				HttpStatus.SC_SERVICE_UNAVAILABLE, null, 0));
+		Assert.assertNull(impl.get(new HttpGet(URL_A)));
+	}
+	
+	@Test
+	public void testEvictsLeastRecentlyUsedOverEntryLimit() throws Exception {
+		impl = newCache(2, 100000);
+		impl.update(new HttpGet(URL_A), fresh(URL_A));
+		impl.update(new HttpGet(URL_B), fresh(URL_B));
+		impl.get(new HttpGet(URL_A));
+		impl.update(new HttpGet(URL_C), fresh(URL_C));
+		Assert.assertNotNull(impl.get(new HttpGet(URL_A)));
+		Assert.assertNull(impl.get(new HttpGet(URL_B)));
+		Assert.assertEquals(1, impl.getEvictionCount());
+	}
+	
+	@Test
+	public void testEvictsOverWeightLimit() throws Exception {
+		impl = newCache(10, 250);
+		impl.update(new HttpGet(URL_A), fresh(URL_A));
+		impl.update(new HttpGet(URL_B), fresh(URL_B));
+		impl.update(new HttpGet(URL_C), fresh(URL_C));
+		Assert.assertEquals(2, impl.size());
+		Assert.assertEquals(200, impl.getWeight());
+		Assert.assertNull(impl.get(new HttpGet(URL_A)));
+	}
+	
+	@Test
+	public void testDoesNotCacheStatesHeavierThanLimit() throws Exception {
+		impl = newCache(10, 50);
+		impl.update(new HttpGet(URL_A), fresh(URL_A));
+		Assert.assertEquals(0, impl.size());
+	}
+	
+	@Test
+	public void testEstimatesWeightFromDocumentWithoutContentLength() throws Exception {
+		HttpResponse resp = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK");
+		Element root = new Element("html");
+		root.setText("0123456789");
+		XhtmlApplicationState state = new XhtmlApplicationState(new URL(URL_A),
+				resp, new Document(root));
+		Assert.assertTrue(impl.weigh(state) > 10);
+	}
+	
+	private LazyXhtmlApplicationState lazy(String url, int padding) throws Exception {
+		HttpResponse resp = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK");
+		resp.setHeader("Cache-Control", "max-age=60");
+		StringBuilder xhtml = new StringBuilder("<html xmlns=\"http://www.w3.org/1999/xhtml\"><!--");
+		for(int i = 0; i < padding; i++) xhtml.append(' ');
+		xhtml.append("--><body/></html>");
+		return new LazyXhtmlApplicationState(new URL(url), resp,
+				xhtml.toString().getBytes("UTF-8"), new SAXBuilderPool());
+	}
+	
+	@Test
+	public void testWeighsUnparsedLazyStateByBodyLength() throws Exception {
+		impl = newCache(10, 8000);
+		LazyXhtmlApplicationState a = lazy(URL_A, 5000);
+		impl.update(new HttpGet(URL_A), a);
+		Assert.assertEquals(a.getBodyLength(), impl.getWeight());
+		impl.update(new HttpGet(URL_B), lazy(URL_B, 5000));
+		Assert.assertEquals(1, impl.size());
+		Assert.assertNull(impl.get(new HttpGet(URL_A)));
+	}
+	
+	@Test
+	public void testReweighsLazyStateOnceParsed() throws Exception {
+		LazyXhtmlApplicationState a = lazy(URL_A, 5000);
+		impl.update(new HttpGet(URL_A), a);
+		Assert.assertNotNull(a.getDocument());
+		Assert.assertSame(a, impl.get(new HttpGet(URL_A)));
+		Assert.assertEquals(impl.weigh(a), impl.getWeight());
+		Assert.assertTrue(impl.getWeight() < 5000);
+	}
+	
+	@Test
+	public void testReweighsParsedLazyStatesOnUpdate() throws Exception {
+		LazyXhtmlApplicationState a = lazy(URL_A, 5000);
+		impl.update(new HttpGet(URL_A), a);
+		a.getDocument();
+		impl.update(new HttpGet(URL_B), fresh(URL_B));
+		Assert.assertEquals(impl.weigh(a) + 100, impl.getWeight());
+	}
+}
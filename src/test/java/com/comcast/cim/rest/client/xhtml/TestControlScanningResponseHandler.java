@@ -0,0 +1,133 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+
+import org.apache.commons.logging.impl.NoOpLog;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestControlScanningResponseHandler extends XhtmlTestCase {
+
+	private URL context;
+	private XMLReaderPool pool;
+	private CountingInputStream counter;
+	private AbortableHttpEntity entity;
+	private int bodyLength;
+	
+	@Before
+	public void setUp() throws Exception {
+		context = new URL("http://foo.example.com/");
+		pool = new XMLReaderPool();
+	}
+	
+	private HttpResponse response(String content) {
+		HttpResponse resp = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK");
+		byte[] bytes = buildXhtml(content).getBytes();
+		bodyLength = bytes.length;
+		counter = new CountingInputStream(new ByteArrayInputStream(bytes));
+		entity = new AbortableHttpEntity(counter, bytes.length);
+		resp.setEntity(entity);
+		return resp;
+	}
+	
+	private String largeTail() {
+		StringBuilder buf = new StringBuilder();
+		for(int i=0; i<20000; i++) {
+			buf.append("<p><a rel=\"item\" href=\"/item/").append(i).append("\">Item</a></p>");
+		}
+		return buf.toString();
+	}
+	
+	private ControlScanningResponseHandler handlerFor(ControlTarget target) {
+		ControlScanningResponseHandler impl = new ControlScanningResponseHandler(context, pool, target);
+		impl.setLogger(new NoOpLog());
+		return impl;
+	}
+	
+	@Test
+	public void testStopsReadingOnceLinkIsFound() throws Exception {
+		HttpResponse resp = response("<a rel=\"next\" href=\"/2\">Next</a>" + largeTail());
+		XhtmlApplicationState result = handlerFor(ControlTarget.link("next")).handleResponse(resp);
+		
+		assertTrue(result.isPartial());
+		assertTrue(entity.aborted());
+		assertTrue(counter.count < bodyLength / 10);
+		assertEquals("/2", new XhtmlParser().getLinkWithRelation(result, "next")
+				.getAttributeValue("href"));
+	}
+	
+	@Test
+	public void testStopsReadingOnceFormIsFound() throws Exception {
+		HttpResponse resp = response("<form name=\"search\" method=\"GET\" action=\"/s\">" +
+				"<input name=\"q\"/></form>" + largeTail());
+		XhtmlApplicationState result = handlerFor(ControlTarget.form("search")).handleResponse(resp);
+		
+		assertTrue(result.isPartial());
+		assertTrue(counter.count < bodyLength / 10);
+		assertEquals(1, new XhtmlParser().getFormWithName(result, "search").getChildren().size());
+	}
+	
+	@Test
+	public void testReadsWholeBodyIfTargetIsMissing() throws Exception {
+		HttpResponse resp = response("<a rel=\"first\" href=\"/1\">1</a><a rel=\"last\" href=\"/9\">9</a>");
+		XhtmlApplicationState result = handlerFor(ControlTarget.link("next")).handleResponse(resp);
+		
+		assertFalse(result.isPartial());
+		assertFalse(entity.aborted());
+		assertNotNull(new XhtmlParser().getLinkWithRelation(result, "last"));
+	}
+	
+	@Test
+	public void testMatchesOneOfSeveralRelations() throws Exception {
+		HttpResponse resp = response("<a rel=\"item next\" href=\"/2\">Next</a>" + largeTail());
+		XhtmlApplicationState result = handlerFor(ControlTarget.link("next")).handleResponse(resp);
+		assertTrue(result.isPartial());
+	}
+
+	private static class CountingInputStream extends FilterInputStream {
+		int count;
+		
+		CountingInputStream(InputStream in) {
+			super(in);
+		}
+		
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b != -1) count++;
+			return b;
+		}
+		
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if (n > 0) count += n;
+			return n;
+		}
+	}
+}
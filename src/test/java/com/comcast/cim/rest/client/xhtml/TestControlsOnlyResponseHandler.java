@@ -0,0 +1,125 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.logging.impl.NoOpLog;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.util.EntityUtils;
+import org.jdom.Element;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestControlsOnlyResponseHandler extends XhtmlTestCase {
+
+	private ControlsOnlyResponseHandler impl;
+	private XMLReaderPool pool;
+	private URL context;
+	
+	@Before
+	public void setUp() throws Exception {
+		context = new URL("http://foo.example.com/");
+		pool = new XMLReaderPool(1);
+		impl = new ControlsOnlyResponseHandler(context, pool);
+		impl.setLogger(new NoOpLog());
+	}
+	
+	private HttpResponse xhtmlResponse(String content) {
+		HttpResponse resp = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK");
+		resp.setHeader("Content-Type","application/xhtml+xml;charset=utf-8");
+		resp.setEntity(new ByteArrayEntity(buildXhtml(content).getBytes()));
+		return resp;
+	}
+	
+	@Test
+	public void testKeepsOnlyHypermediaControls() throws Exception {
+		XhtmlApplicationState result = impl.handleResponse(xhtmlResponse(
+				"<h1>Title</h1><div><p>Text <a rel=\"next\" href=\"/2\">Next</a></p></div>" +
+				"<table><tr><td><form name=\"f\" method=\"GET\" action=\"/s\">" +
+				"<input name=\"q\"/></form></td></tr></table>"));
+		Element root = result.getDocument().getRootElement();
+		assertEquals("html", root.getName());
+		assertEquals(2, root.getChildren().size());
+		Element a = (Element)root.getChildren().get(0);
+		assertEquals("a", a.getName());
+		assertEquals("/2", a.getAttributeValue("href"));
+		assertEquals("Next", a.getText());
+		Element form = (Element)root.getChildren().get(1);
+		assertEquals("form", form.getName());
+		assertEquals(1, form.getChildren().size());
+	}
+	
+	@Test
+	public void testControlsCanBeLocatedAndFollowed() throws Exception {
+		XhtmlApplicationState result = impl.handleResponse(xhtmlResponse(
+				"<div><a rel=\"item next\" href=\"/2\">Next</a></div>"));
+		Element a = new XhtmlParser().getLinkWithRelation(result, "next");
+		HttpUriRequest req = new RequestBuilder().followLink(a, context);
+		assertEquals("http://foo.example.com/2", req.getURI().toString());
+	}
+	
+	@Test
+	public void testFormsCanBeSubmitted() throws Exception {
+		XhtmlApplicationState result = impl.handleResponse(xhtmlResponse(
+				"<form name=\"f\" method=\"POST\" action=\"/s\"><p>" +
+				"<select name=\"color\"><option value=\"red\">Red</option>" +
+				"<option value=\"blue\" selected=\"selected\">Blue</option></select>" +
+				"<input type=\"hidden\" name=\"h\" value=\"1\"/></p></form>"));
+		Element form = new XhtmlParser().getFormWithName(result, "f");
+		Map<String,String> args = new HashMap<String,String>();
+		HttpUriRequest req = new RequestBuilder().submitForm(form, context, args);
+		HttpEntity entity = ((HttpPost)req).getEntity();
+		assertEquals("h=1&color=blue", EntityUtils.toString(entity));
+	}
+	
+	@Test
+	public void testReturnsNullDocumentForInvalidXhtml() throws Exception {
+		XhtmlApplicationState result = impl.handleResponse(xhtmlResponse("<p>"));
+		assertNull(result.getDocument());
+	}
+	
+	@Test
+	public void testReusesReaderAfterIOException() throws Exception {
+		HttpResponse resp = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK");
+		byte[] bytes = buildXhtml("<p/>").substring(0, 150).getBytes();
+		InterruptedInputStream iis = new InterruptedInputStream(new ByteArrayInputStream(bytes));
+		resp.setEntity(new InputStreamEntity(iis, bytes.length + 6));
+		try {
+			impl.handleResponse(resp);
+			fail("should have thrown IOException");
+		} catch (IOException expected) {
+		}
+		
+		XhtmlApplicationState result = impl.handleResponse(xhtmlResponse("<a rel=\"r\" href=\"/\">A</a>"));
+		assertNotNull(new XhtmlParser().getLinkWithRelation(result, "r"));
+		assertEquals(1, pool.getCreatedCount());
+	}
+}
@@ -0,0 +1,240 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.jdom.Element;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestCrawler extends XhtmlTestCase {
+
+	private static final String BASE = "http://foo.example.com/";
+	private static final int SIZE = 500;
+
+	/**
+	 * Serves a binary tree of pages: page i has "child" links to pages
+	 * 2i+1 and 2i+2, an "up" link to its parent and a "self" link.
+	 * Pages listed in {@code broken} answer 500.
+	 */
+	private class TreeClient extends ScriptedClient {
+		Set<Integer> broken = new HashSet<Integer>();
+		List<Long> fooTimes = Collections.synchronizedList(new ArrayList<Long>());
+
+		@Override
+		public XhtmlApplicationState execute(HttpUriRequest req) throws IOException {
+			if (req.getURI().toString().startsWith(BASE)) fooTimes.add(System.currentTimeMillis());
+			return super.execute(req);
+		}
+
+		@Override
+		protected XhtmlApplicationState respond(HttpUriRequest req, int status) {
+			String uri = req.getURI().toString();
+			int i = Integer.parseInt(uri.substring(uri.lastIndexOf('/') + 1));
+			return tree(uri, i, broken.contains(i) ? 500 : status);
+		}
+
+		Map<String, Integer> fetches() {
+			Map<String, Integer> fetches = new HashMap<String, Integer>();
+			for(String uri : uris(executed())) {
+				Integer n = fetches.get(uri);
+				fetches.put(uri, (n == null) ? 1 : n + 1);
+			}
+			return fetches;
+		}
+	}
+
+	private TreeClient client;
+	private Crawler impl;
+	private Map<String, Integer> visited;
+	private List<URI> failed;
+	private CrawlCallback callback;
+
+	@Before
+	public void setUp() {
+		client = new TreeClient();
+		impl = new Crawler(new XhtmlParser(), new RequestBuilder(), client, "child", "up", "self");
+		impl.setParallelism(4);
+		visited = new ConcurrentHashMap<String, Integer>();
+		failed = Collections.synchronizedList(new ArrayList<URI>());
+		callback = new CrawlCallback() {
+			public void visited(XhtmlApplicationState state, int depth) {
+				visited.put(state.getContext().toString(), depth);
+			}
+			public void failed(URI uri, int depth, Throwable cause) {
+				Assert.assertTrue(cause instanceof ServerErrorException);
+				failed.add(uri);
+			}
+		};
+	}
+
+	private XhtmlApplicationState tree(String url, int i, int status) {
+		String base = url.substring(0, url.lastIndexOf('/') + 1);
+		List<Element> links = new ArrayList<Element>();
+		for(int c = 2 * i + 1; c <= 2 * i + 2 && c < SIZE; c++) {
+			links.add(link("child", base + c + "#frag"));
+		}
+		if (i > 0) links.add(link("up", base + ((i - 1) / 2)));
+		links.add(link("self", url));
+		links.add(link("ignored", base + "999999"));
+		return page(url, status, links.toArray(new Element[links.size()]));
+	}
+
+	private XhtmlApplicationState entry() {
+		return tree(BASE + "0", 0, HttpStatus.SC_OK);
+	}
+
+	@Test
+	public void testVisitsEveryReachableResourceOnce() throws Exception {
+		long n = impl.crawl(entry(), callback);
+		Assert.assertEquals(SIZE, n);
+		Assert.assertEquals(SIZE, visited.size());
+		Map<String, Integer> fetches = client.fetches();
+		Assert.assertEquals(SIZE - 1, fetches.size());
+		for(Integer count : fetches.values()) {
+			Assert.assertEquals(1, count.intValue());
+		}
+		Assert.assertFalse(fetches.containsKey(BASE + "0"));
+		Assert.assertEquals(Integer.valueOf(0), visited.get(BASE + "0"));
+		Assert.assertEquals(Integer.valueOf(1), visited.get(BASE + "2"));
+		Assert.assertEquals(Integer.valueOf(2), visited.get(BASE + "6"));
+		Assert.assertTrue(impl.getDuplicateCount() > 0);
+		Assert.assertEquals(0, impl.getPendingCount());
+	}
+
+	@Test
+	public void testStopsAtMaxDepth() throws Exception {
+		impl.setMaxDepth(2);
+		impl.crawl(entry(), callback);
+		Assert.assertEquals(7, visited.size());
+		for(Integer depth : visited.values()) Assert.assertTrue(depth <= 2);
+	}
+
+	@Test
+	public void testVisitsResourcesAtTheirShortestDepth() throws Exception {
+		/* a -> {q, p}, p -> r -> t, q -> t, t -> u */
+		final Map<String, String[]> graph = new HashMap<String, String[]>();
+		graph.put("a", new String[] { "q", "p" });
+		graph.put("p", new String[] { "r" });
+		graph.put("r", new String[] { "t" });
+		graph.put("q", new String[] { "t" });
+		graph.put("t", new String[] { "u" });
+		graph.put("u", new String[0]);
+		XhtmlHttpClient graphClient = new ScriptedClient() {
+			@Override
+			protected XhtmlApplicationState respond(HttpUriRequest req, int status) {
+				String uri = req.getURI().toString();
+				return node(uri, graph.get(uri.substring(BASE.length())));
+			}
+		};
+		impl = new Crawler(new XhtmlParser(), new RequestBuilder(), graphClient, "child");
+		impl.setParallelism(1);
+		impl.setMaxDepth(3);
+		impl.crawl(node(BASE + "a", graph.get("a")), callback);
+		Assert.assertEquals(Integer.valueOf(1), visited.get(BASE + "q"));
+		Assert.assertEquals(Integer.valueOf(2), visited.get(BASE + "t"));
+		Assert.assertEquals(Integer.valueOf(3), visited.get(BASE + "u"));
+		Assert.assertEquals(6, visited.size());
+	}
+
+	private XhtmlApplicationState node(String url, String[] children) {
+		Element[] links = new Element[children.length];
+		for(int i = 0; i < children.length; i++) links[i] = link("child", BASE + children[i]);
+		return page(url, HttpStatus.SC_OK, links);
+	}
+
+	@Test
+	public void testFollowsOnlyConfiguredRelations() throws Exception {
+		impl = new Crawler(new XhtmlParser(), new RequestBuilder(), client, "self", "up");
+		Assert.assertEquals(1, impl.crawl(entry(), callback));
+	}
+
+	@Test
+	public void testReportsFailuresAndDoesNotExpandThem() throws Exception {
+		client.broken.add(1);
+		impl.crawl(entry(), callback);
+		Assert.assertEquals(1, failed.size());
+		Assert.assertEquals(URI.create(BASE + "1"), failed.get(0));
+		Assert.assertEquals(1, impl.getFailedCount());
+		Assert.assertFalse(visited.containsKey(BASE + "3"));
+		Assert.assertTrue(visited.containsKey(BASE + "2"));
+	}
+
+	@Test
+	public void testCapsNumberOfResources() throws Exception {
+		impl.setMaxResources(50);
+		Assert.assertEquals(50, impl.crawl(entry(), callback));
+	}
+
+	@Test
+	public void testFilterHook() throws Exception {
+		impl = new Crawler(new XhtmlParser(), new RequestBuilder(), client, "child") {
+			@Override
+			protected boolean shouldFollow(URI uri, String rel, int depth) {
+				return !uri.getPath().equals("/2");
+			}
+		};
+		impl.crawl(entry(), callback);
+		Assert.assertFalse(visited.containsKey(BASE + "2"));
+		Assert.assertFalse(visited.containsKey(BASE + "5"));
+		Assert.assertTrue(visited.containsKey(BASE + "4"));
+	}
+
+	@Test
+	public void testSpacesRequestsToOneOrigin() throws Exception {
+		impl.setMaxDepth(2);
+		impl.setPolitenessDelay(20);
+		long start = System.currentTimeMillis();
+		impl.crawl(entry(), callback);
+		List<Long> times = new ArrayList<Long>(client.fooTimes);
+		Collections.sort(times);
+		Assert.assertEquals(6, times.size());
+		/* a request may start late, but never before its slot */
+		for(int i = 1; i < times.size(); i++) {
+			Assert.assertTrue(times.get(i) - start >= 20 * i - 1);
+		}
+	}
+
+	@Test
+	public void testCallbackExceptionStopsCrawl() throws Exception {
+		final RuntimeException boom = new RuntimeException("boom");
+		try {
+			impl.crawl(entry(), new CrawlCallback() {
+				public void visited(XhtmlApplicationState state, int depth) {
+					if (depth == 2) throw boom;
+				}
+				public void failed(URI uri, int depth, Throwable cause) { }
+			});
+			Assert.fail();
+		} catch (RuntimeException e) {
+			Assert.assertSame(boom, e);
+		}
+		Assert.assertTrue(impl.getVisitedCount() < SIZE);
+	}
+}
@@ -0,0 +1,164 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpStatus;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestHedgingPolicy extends XhtmlTestCase {
+
+	private static final String BASE = "http://foo.example.com/";
+
+	private ScriptedClient client;
+	private HedgingPolicy policy;
+	private List<Long> latencies;
+	private XhtmlNavigator navigator;
+	private XhtmlApplicationState start;
+
+	@Before
+	public void setUp() {
+		client = new ScriptedClient();
+		client.deferAfter(0);
+		latencies = new ArrayList<Long>();
+		policy = new HedgingPolicy() {
+			@Override
+			public void recordLatency(long millis) {
+				latencies.add(millis);
+				super.recordLatency(millis);
+			}
+		};
+		policy.setInitialDelay(20);
+		navigator = new XhtmlNavigator(new XhtmlParser(), new RequestBuilder(), client);
+		navigator.setHedgingPolicy(policy);
+		start = state(BASE + "start");
+	}
+
+	private XhtmlApplicationState state(String url) {
+		return page(url, HttpStatus.SC_OK, link("next", url + "/next"));
+	}
+
+	@Test
+	public void testUsesInitialDelayUntilEnoughSamples() {
+		Assert.assertEquals(20, policy.getHedgeDelayMillis());
+		for(int i = 1; i <= 100; i++) policy.recordLatency(i);
+		Assert.assertEquals(95, policy.getHedgeDelayMillis());
+	}
+
+	@Test
+	public void testDelayIsNoLessThanMinimum() {
+		policy.setMinDelay(50);
+		for(int i = 0; i < 100; i++) policy.recordLatency(1);
+		Assert.assertEquals(50, policy.getHedgeDelayMillis());
+	}
+
+	@Test
+	public void testFastResponseIsNotHedged() throws Exception {
+		client.deferAfter(1);
+		XhtmlApplicationState result = navigator.followLink(start, "next");
+		Assert.assertEquals(BASE + "start/next", result.getContext().toString());
+		Assert.assertEquals(1, client.sent().size());
+		Assert.assertEquals(0, policy.getHedgedCount());
+		Assert.assertEquals(1, latencies.size());
+	}
+
+	@Test
+	public void testHedgeWinsAndPrimaryIsCancelled() throws Exception {
+		Thread t = new Thread() {
+			public void run() {
+				try {
+					client.awaitSent(2).set(state(BASE + "start/next"));
+				} catch (InterruptedException e) {
+				}
+			}
+		};
+		t.start();
+		XhtmlApplicationState result = navigator.followLink(start, "next");
+		t.join();
+		Assert.assertEquals(BASE + "start/next", result.getContext().toString());
+		Assert.assertTrue(client.future(0).isCancelled());
+		Assert.assertEquals(1, policy.getHedgedCount());
+		Assert.assertEquals(1, policy.getHedgeWinCount());
+		Assert.assertNotSame(client.sent().get(0), client.sent().get(1));
+	}
+
+	@Test
+	public void testHedgedRequestRecordsLatencyFromOriginalSend() throws Exception {
+		Thread t = new Thread() {
+			public void run() {
+				try {
+					client.awaitSent(2).set(state(BASE + "start/next"));
+				} catch (InterruptedException e) {
+				}
+			}
+		};
+		t.start();
+		navigator.followLink(start, "next");
+		t.join();
+		Assert.assertEquals(1, latencies.size());
+		Assert.assertTrue(latencies.get(0) >= 20);
+	}
+
+	@Test
+	public void testFallsBackToOtherCopyWhenFirstFails() throws Exception {
+		Thread t = new Thread() {
+			public void run() {
+				try {
+					NavigationFuture<XhtmlApplicationState> hedge = client.awaitSent(2);
+					hedge.setException(new IOException("connection reset"));
+					client.future(0).set(state(BASE + "start/next"));
+				} catch (InterruptedException e) {
+				}
+			}
+		};
+		t.start();
+		XhtmlApplicationState result = navigator.followLink(start, "next");
+		t.join();
+		Assert.assertEquals(BASE + "start/next", result.getContext().toString());
+		Assert.assertEquals(0, policy.getHedgeWinCount());
+	}
+
+	@Test
+	public void testHedgesAsynchronousGet() throws Exception {
+		NavigationFuture<XhtmlApplicationState> result = navigator.followLinkAsync(start, "next");
+		client.awaitSent(2).set(state(BASE + "start/next"));
+		Assert.assertEquals(BASE + "start/next",
+				result.get(5, TimeUnit.SECONDS).getContext().toString());
+		Assert.assertTrue(client.future(0).isCancelled());
+		Assert.assertEquals(1, policy.getHedgedCount());
+		Assert.assertEquals(1, policy.getHedgeWinCount());
+	}
+
+	@Test
+	public void testCancellingAsynchronousGetCancelsCopies() throws Exception {
+		NavigationFuture<XhtmlApplicationState> result = navigator.followLinkAsync(start, "next");
+		client.awaitSent(2);
+		result.cancel(true);
+		Assert.assertTrue(client.future(0).isCancelled());
+		/* the hedge may still be on its way out of the timer thread */
+		long deadline = System.currentTimeMillis() + 5000;
+		while(!client.future(1).isCancelled() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+		Assert.assertTrue(client.future(1).isCancelled());
+	}
+}
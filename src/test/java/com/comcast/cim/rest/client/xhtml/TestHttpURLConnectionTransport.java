@@ -0,0 +1,140 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.StringEntity;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class TestHttpURLConnectionTransport {
+
+	private static final String XHTML = 
+		"<html xmlns=\"http://www.w3.org/1999/xhtml\"><head/><body>" +
+		"<a rel=\"next\" href=\"/next\">next</a></body></html>";
+	
+	private HttpServer server;
+	private String base;
+	private List<String> requests;
+	private Map<String,String> bodies;
+	private HttpURLConnectionTransport impl;
+	
+	@Before
+	public void setUp() throws Exception {
+		requests = new ArrayList<String>();
+		bodies = new HashMap<String,String>();
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				String path = exchange.getRequestURI().getPath();
+				requests.add(exchange.getRequestMethod() + " " + path + " " 
+						+ exchange.getRequestHeaders().getFirst("Accept"));
+				bodies.put(path, read(exchange.getRequestBody()));
+				int status = path.equals("/missing") ? 404 : 200;
+				byte[] body = XHTML.getBytes("UTF-8");
+				exchange.getResponseHeaders().set("Content-Type", "application/xhtml+xml");
+				exchange.getResponseHeaders().set("X-Test", "yes");
+				exchange.sendResponseHeaders(status, body.length);
+				OutputStream out = exchange.getResponseBody();
+				out.write(body);
+				out.close();
+			}
+		});
+		server.start();
+		base = "http://127.0.0.1:" + server.getAddress().getPort();
+		impl = new HttpURLConnectionTransport();
+	}
+	
+	@After
+	public void tearDown() {
+		server.stop(0);
+	}
+	
+	private static String read(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buf = new byte[1024];
+		int n;
+		while((n = in.read(buf)) != -1) out.write(buf, 0, n);
+		return out.toString("UTF-8");
+	}
+	
+	@Test
+	public void testParsesResponseWithStandardHandler() throws Exception {
+		HttpGet get = new HttpGet(base + "/start");
+		get.setHeader("Accept", "application/xhtml+xml");
+		XhtmlApplicationState state = impl.execute(get, 
+				new XhtmlResponseHandler(new URL(base + "/start")));
+		Assert.assertTrue(state.succeeded());
+		Assert.assertEquals("yes", state.getHttpResponse().getFirstHeader("X-Test").getValue());
+		Assert.assertNotNull(state.getControlIndex().getLinkWithRelation("next"));
+		Assert.assertEquals("GET /start application/xhtml+xml", requests.get(0));
+	}
+	
+	@Test
+	public void testSendsRequestBody() throws Exception {
+		HttpPost post = new HttpPost(base + "/form");
+		post.setEntity(new StringEntity("a=b"));
+		impl.execute(post, new XhtmlResponseHandler(new URL(base + "/form")));
+		Assert.assertEquals("a=b", bodies.get("/form"));
+		Assert.assertTrue(requests.get(0).startsWith("POST /form"));
+	}
+	
+	@Test
+	public void testReturnsErrorResponsesWithBody() throws Exception {
+		XhtmlApplicationState state = impl.execute(new HttpGet(base + "/missing"),
+				new XhtmlResponseHandler(new URL(base + "/missing")));
+		Assert.assertFalse(state.succeeded());
+		Assert.assertEquals(404, state.getHttpResponse().getStatusLine().getStatusCode());
+		Assert.assertNotNull(state.getDocument());
+	}
+	
+	@Test
+	public void testWorksWithScanningHandler() throws Exception {
+		XhtmlResponseHandlerFactory factory = new XhtmlResponseHandlerFactory();
+		XhtmlHttpClient client = new XhtmlHttpClient(impl, factory);
+		XhtmlApplicationState state = client.execute(new HttpGet(base + "/start"),
+				ControlTarget.link("next"));
+		Assert.assertTrue(state.isPartial());
+		Assert.assertNotNull(state.getControlIndex().getLinkWithRelation("next"));
+	}
+	
+	@Test
+	public void testReleasesConnectionsBetweenSequentialRequests() throws Exception {
+		XhtmlHttpClient client = new XhtmlHttpClient(impl, new XhtmlResponseHandlerFactory());
+		for(int i = 0; i < 3; i++) {
+			Assert.assertTrue(client.execute(new HttpGet(base + "/start")).succeeded());
+		}
+		Assert.assertEquals(3, requests.size());
+	}
+}
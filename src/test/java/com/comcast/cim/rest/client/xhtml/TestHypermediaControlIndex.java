@@ -0,0 +1,112 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.jdom.Document;
+import org.jdom.Element;
+import org.junit.Test;
+
+public class TestHypermediaControlIndex extends XhtmlTestCase {
+
+	@Test
+	public void testIndexesLinksByEachRelation() throws Exception {
+		Document doc = getDocument(buildXhtml("<p><a rel=\" next  item\" href=\"/2\">2</a></p>"));
+		HypermediaControlIndex impl = new HypermediaControlIndex(doc);
+		assertNotNull(impl.getLinkWithRelation("next"));
+		assertSame(impl.getLinkWithRelation("next"), impl.getLinkWithRelation("item"));
+		assertNull(impl.getLinkWithRelation("next item"));
+	}
+	
+	@Test
+	public void testPreservesDocumentOrder() throws Exception {
+		Document doc = getDocument(buildXhtml("<div><p><a rel=\"item\" href=\"/1\">1</a></p></div>" +
+				"<a rel=\"item\" href=\"/2\">2</a><p><a rel=\"item\" href=\"/3\">3</a></p>"));
+		HypermediaControlIndex impl = new HypermediaControlIndex(doc);
+		List<Element> links = impl.getLinksWithRelation("item");
+		assertEquals(3, links.size());
+		assertEquals("1", links.get(0).getText());
+		assertEquals("2", links.get(1).getText());
+		assertEquals("3", links.get(2).getText());
+		assertEquals("1", impl.getLinkWithRelation("item").getText());
+	}
+	
+	@Test
+	public void testListsNothingForMissingRelation() throws Exception {
+		Document doc = getDocument(buildXhtml("<p/>"));
+		HypermediaControlIndex impl = new HypermediaControlIndex(doc);
+		assertTrue(impl.getLinksWithRelation("item").isEmpty());
+	}
+	
+	@Test
+	public void testIndexesFormsByName() throws Exception {
+		Document doc = getDocument(buildXhtml("<form name=\"search\">Form 1</form>" +
+				"<form name=\"search\">Form 2</form>"));
+		HypermediaControlIndex impl = new HypermediaControlIndex(doc);
+		assertEquals("Form 1", impl.getFormWithName("search").getText());
+		assertNull(impl.getFormWithName("other"));
+	}
+	
+	@Test
+	public void testScopesLookupsToSubtree() throws Exception {
+		final String rel = "relation";
+		Element outer = new Element("div", XhtmlParser.XHTML_NS);
+		Element wrong = new Element("a", XhtmlParser.XHTML_NS);
+		wrong.setAttribute("rel",rel);
+		outer.addContent(wrong);
+		Element inner = new Element("div", XhtmlParser.XHTML_NS);
+		Element right = new Element("a", XhtmlParser.XHTML_NS);
+		right.setAttribute("rel",rel);
+		inner.addContent(right);
+		Element form = new Element("form", XhtmlParser.XHTML_NS);
+		form.setAttribute("name", "f");
+		inner.addContent(form);
+		outer.addContent(inner);
+		HypermediaControlIndex impl = new HypermediaControlIndex(getDocument(outer));
+		
+		assertSame(wrong, impl.getLinkWithRelation(rel));
+		assertSame(right, impl.getLinkWithRelation(inner, rel));
+		assertNull(impl.getLinkWithRelation(right, rel));
+		assertSame(form, impl.getFormWithName(inner, "f"));
+		assertNull(impl.getFormWithName(wrong, "f"));
+	}
+	
+	@Test
+	public void testIgnoresElementsOutsideXhtmlNamespace() throws Exception {
+		Element a = new Element("a");
+		a.setAttribute("rel", "relation");
+		HypermediaControlIndex impl = new HypermediaControlIndex(getDocument(a));
+		assertNull(impl.getLinkWithRelation("relation"));
+	}
+	
+	@Test
+	public void testApplicationStateBuildsIndexOnce() throws Exception {
+		Document doc = getDocument(buildXhtml("<a rel=\"item\" href=\"/1\">1</a>"));
+		XhtmlApplicationState state = new XhtmlApplicationState(null, null, doc);
+		HypermediaControlIndex index = state.getControlIndex();
+		assertNotNull(index.getLinkWithRelation("item"));
+		assertSame(index, state.getControlIndex());
+	}
+	
+	@Test
+	public void testApplicationStateHasNoIndexWithoutDocument() {
+		XhtmlApplicationState state = new XhtmlApplicationState(null, null, null);
+		assertNull(state.getControlIndex());
+	}
+}
@@ -0,0 +1,155 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+import static org.junit.Assert.*;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.jdom.Document;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestLazyXhtmlResponseHandler extends XhtmlTestCase {
+
+	private LazyXhtmlResponseHandler impl;
+	private SAXBuilderPool pool;
+	private URL context;
+	
+	@Before
+	public void setUp() throws Exception {
+		context = new URL("http://foo.example.com/");
+		pool = new SAXBuilderPool();
+		impl = new LazyXhtmlResponseHandler(context, pool);
+	}
+	
+	private HttpResponse response(int status, String body) {
+		HttpResponse resp = new BasicHttpResponse(HttpVersion.HTTP_1_1, status, "Status");
+		resp.setEntity(new ByteArrayEntity(body.getBytes()));
+		return resp;
+	}
+	
+	@Test
+	public void testDoesNotParseUntilDocumentIsRequested() throws Exception {
+		XhtmlApplicationState result = impl.handleResponse(
+				response(HttpStatus.SC_INTERNAL_SERVER_ERROR, buildXhtml("<p/>")));
+		assertFalse(result.succeeded());
+		assertFalse(((LazyXhtmlApplicationState)result).isMaterialized());
+		assertEquals(0, pool.getCreatedCount());
+	}
+	
+	@Test
+	public void testParsesOnFirstRequestOnly() throws Exception {
+		XhtmlApplicationState result = impl.handleResponse(
+				response(HttpStatus.SC_OK, buildXhtml("<a rel=\"next\" href=\"/2\">2</a>")));
+		Document doc = result.getDocument();
+		assertNotNull(doc);
+		assertSame(doc, result.getDocument());
+		assertTrue(((LazyXhtmlApplicationState)result).isMaterialized());
+		assertNotNull(new XhtmlParser().getLinkWithRelation(result, "next"));
+		assertEquals(1, pool.getCreatedCount());
+		assertEquals(0, pool.getReusedCount());
+	}
+	
+	@Test
+	public void testReturnsNullDocumentForInvalidXhtml() throws Exception {
+		XhtmlApplicationState result = impl.handleResponse(
+				response(HttpStatus.SC_OK, buildXhtml("<p>")));
+		assertNull(result.getDocument());
+		assertNull(result.getDocument());
+	}
+	
+	@Test
+	public void testReturnsNullDocumentWithNoBody() throws Exception {
+		HttpResponse resp = new BasicHttpResponse(HttpVersion.HTTP_1_1, 
+				HttpStatus.SC_TEMPORARY_REDIRECT, "Temporary Redirect");
+		XhtmlApplicationState result = impl.handleResponse(resp);
+		assertNull(result.getDocument());
+		assertSame(context, result.getContext());
+	}
+	
+	@Test
+	public void testConcurrentCallersShareOneDocument() throws Exception {
+		final XhtmlApplicationState result = impl.handleResponse(
+				response(HttpStatus.SC_OK, buildXhtml("<p/>")));
+		final CountDownLatch start = new CountDownLatch(1);
+		final List<Document> seen = new ArrayList<Document>();
+		List<Thread> threads = new ArrayList<Thread>();
+		for(int i=0; i<8; i++) {
+			Thread t = new Thread() {
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					Document doc = result.getDocument();
+					synchronized(seen) { seen.add(doc); }
+				}
+			};
+			t.start();
+			threads.add(t);
+		}
+		start.countDown();
+		for(Thread t : threads) t.join();
+		assertEquals(8, seen.size());
+		for(Document doc : seen) assertSame(seen.get(0), doc);
+		assertEquals(1, pool.getCreatedCount());
+	}
+
+	@Test
+	public void testSpillsLargeBodiesWhenConfigured() throws Exception {
+		impl.setBodyLimits(BodyLimits.spilling(16, 100000));
+		XhtmlApplicationState result = impl.handleResponse(
+				response(HttpStatus.SC_OK, buildXhtml("<a rel=\"next\" href=\"/2\">2</a>")));
+		assertNotNull(new XhtmlParser().getLinkWithRelation(result, "next"));
+	}
+	
+	@Test
+	public void testRejectsBodiesOverLimit() throws Exception {
+		impl.setBodyLimits(BodyLimits.capped(16));
+		try {
+			impl.handleResponse(response(HttpStatus.SC_OK, buildXhtml("<p/>")));
+			fail("should have thrown ResponseTooLargeException");
+		} catch (ResponseTooLargeException expected) {
+		}
+	}
+	
+	@Test
+	public void testInterruptedParseCanBeRetried() throws Exception {
+		XhtmlApplicationState result = impl.handleResponse(
+				response(HttpStatus.SC_OK, buildXhtml("<a rel=\"next\" href=\"/2\">2</a>")));
+		Thread.currentThread().interrupt();
+		try {
+			result.getDocument();
+			fail("should have thrown CancellationException");
+		} catch (CancellationException expected) {
+		} finally {
+			assertTrue(Thread.interrupted());
+		}
+		assertFalse(((LazyXhtmlApplicationState)result).isMaterialized());
+		assertNotNull(result.getDocument());
+	}
+}
@@ -0,0 +1,342 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class TestNavigationContext extends XhtmlTestCase {
+
+	private static final String XHTML = 
+		"<html xmlns=\"http://www.w3.org/1999/xhtml\"><head/><body>" +
+		"<a rel=\"slow\" href=\"/slow\">slow</a>" +
+		"<a rel=\"fast\" href=\"/fast\">fast</a></body></html>";
+
+	private HttpServer server;
+	private ExecutorService serverExecutor;
+	private CountDownLatch unblock;
+	private String base;
+	private XhtmlHttpClient client;
+	private XhtmlNavigator navigator;
+
+	@Before
+	public void setUp() throws Exception {
+		unblock = new CountDownLatch(1);
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				byte[] body = XHTML.getBytes("UTF-8");
+				exchange.getResponseHeaders().set("Content-Type", "application/xhtml+xml");
+				exchange.sendResponseHeaders(200, body.length);
+				OutputStream out = exchange.getResponseBody();
+				if (exchange.getRequestURI().getPath().equals("/slow")) {
+					out.write(body, 0, 10);
+					out.flush();
+					try {
+						unblock.await(10, TimeUnit.SECONDS);
+					} catch (InterruptedException e) {
+					}
+				}
+				try {
+					out.write(body);
+					out.close();
+				} catch (IOException e) {
+					// client went away
+				}
+			}
+		});
+		serverExecutor = Executors.newCachedThreadPool();
+		server.setExecutor(serverExecutor);
+		server.start();
+		base = "http://127.0.0.1:" + server.getAddress().getPort();
+		client = new XhtmlHttpClient(new DefaultHttpClient(),
+				new XhtmlResponseHandlerFactory());
+		navigator = new XhtmlNavigator(new XhtmlParser(), new RequestBuilder(), client);
+	}
+
+	@After
+	public void tearDown() {
+		unblock.countDown();
+		server.stop(0);
+		serverExecutor.shutdownNow();
+	}
+
+	private XhtmlApplicationState start() {
+		return page(base + "/start", HttpStatus.SC_OK, link("slow", "/slow"), link("fast", "/fast"));
+	}
+
+	@Test
+	public void testCapsTimeoutsAtRemainingBudget() throws Exception {
+		NavigationContext ctx = NavigationContext.withTimeout(5000);
+		HttpGet get = new HttpGet(base + "/fast");
+		HttpParams defaults = new BasicHttpParams();
+		HttpConnectionParams.setConnectionTimeout(defaults, 1000);
+		ctx.arm(get, defaults).disarm();
+		Assert.assertEquals(1000, HttpConnectionParams.getConnectionTimeout(get.getParams()));
+		int so = HttpConnectionParams.getSoTimeout(get.getParams());
+		Assert.assertTrue(so > 4000 && so <= 5000);
+	}
+
+	@Test
+	public void testMarksRequestsWhoseTimeoutsWereShortened() throws Exception {
+		NavigationContext ctx = NavigationContext.withTimeout(5000);
+		HttpGet capped = new HttpGet(base + "/fast");
+		ctx.arm(capped, null).disarm();
+		Assert.assertTrue(capped.getParams().getBooleanParameter(
+				NavigationContext.DEADLINE_CAPPED, false));
+		HttpGet shorter = new HttpGet(base + "/fast");
+		HttpParams defaults = new BasicHttpParams();
+		HttpConnectionParams.setConnectionTimeout(defaults, 1000);
+		HttpConnectionParams.setSoTimeout(defaults, 1000);
+		ctx.arm(shorter, defaults).disarm();
+		Assert.assertFalse(shorter.getParams().getBooleanParameter(
+				NavigationContext.DEADLINE_CAPPED, false));
+	}
+
+	@Test
+	public void testAbortsRequestAtDeadline() throws Exception {
+		HttpUriRequest get = new HttpGet(base + "/fast");
+		new NavigationContext(System.currentTimeMillis() + 20).arm(get, null);
+		long end = System.currentTimeMillis() + 5000;
+		while(!get.isAborted() && System.currentTimeMillis() < end) Thread.sleep(5);
+		Assert.assertTrue(get.isAborted());
+	}
+
+	@Test
+	public void testFailsFastOnceExpired() throws Exception {
+		NavigationContext ctx = new NavigationContext(System.currentTimeMillis() - 1);
+		Assert.assertTrue(ctx.isExpired());
+		try {
+			navigator.withContext(ctx).followLink(start(), "fast");
+			Assert.fail();
+		} catch (DeadlineExceededException expected) {
+			Assert.assertEquals(ctx.getDeadline(), expected.getDeadline());
+		}
+	}
+
+	@Test
+	public void testNavigatesWithinDeadline() throws Exception {
+		XhtmlNavigator nav = navigator.withContext(NavigationContext.withTimeout(10000));
+		XhtmlApplicationState fast = nav.followLink(start(), "fast");
+		Assert.assertTrue(fast.succeeded());
+		Assert.assertTrue(nav.followLink(fast, "fast").succeeded());
+	}
+
+	@Test
+	public void testSlowHopExceedsDeadline() throws Exception {
+		XhtmlNavigator nav = navigator.withContext(NavigationContext.withTimeout(300));
+		long start = System.currentTimeMillis();
+		try {
+			nav.followLink(start(), "slow");
+			Assert.fail();
+		} catch (DeadlineExceededException expected) {
+		}
+		Assert.assertTrue(System.currentTimeMillis() - start < 5000);
+	}
+
+	@Test
+	public void testAsyncHopExceedsDeadline() throws Exception {
+		XhtmlNavigator nav = navigator.withContext(NavigationContext.withTimeout(300));
+		NavigationFuture<XhtmlApplicationState> f = nav.followLinkAsync(start(), "slow");
+		try {
+			f.get(5, TimeUnit.SECONDS);
+			Assert.fail();
+		} catch (ExecutionException expected) {
+			Assert.assertTrue(expected.getCause() instanceof DeadlineExceededException);
+		}
+	}
+
+	@Test
+	public void testRetriesStopAtDeadline() {
+		Assert.assertFalse(new RetryPolicy().isRetryable(new DeadlineExceededException(0)));
+	}
+
+	@Test
+	public void testCancelAbortsInFlightHop() throws Exception {
+		final NavigationContext ctx = new NavigationContext();
+		XhtmlNavigator nav = navigator.withContext(ctx);
+		Thread canceller = new Thread() {
+			public void run() {
+				try {
+					Thread.sleep(200);
+				} catch (InterruptedException e) {
+				}
+				ctx.cancel();
+			}
+		};
+		canceller.start();
+		long start = System.currentTimeMillis();
+		try {
+			nav.followLink(start(), "slow");
+			Assert.fail();
+		} catch (NavigationCancelledException expected) {
+		}
+		canceller.join();
+		Assert.assertTrue(System.currentTimeMillis() - start < 5000);
+		Assert.assertTrue(ctx.isCancelled());
+		Assert.assertFalse(ctx.isExpired());
+	}
+
+	@Test
+	public void testNoFurtherHopsAfterCancel() throws Exception {
+		NavigationContext ctx = new NavigationContext();
+		ctx.cancel();
+		try {
+			navigator.withContext(ctx).followLink(start(), "fast");
+			Assert.fail();
+		} catch (NavigationCancelledException expected) {
+		}
+		Assert.assertFalse(new RetryPolicy().isRetryable(new NavigationCancelledException()));
+	}
+
+	@Test
+	public void testContextWithoutDeadlineLeavesTimeoutsAlone() throws Exception {
+		HttpGet get = new HttpGet(base + "/fast");
+		new NavigationContext().arm(get, null).disarm();
+		Assert.assertEquals(0, HttpConnectionParams.getSoTimeout(get.getParams()));
+		Assert.assertFalse(get.isAborted());
+	}
+
+	/** Starts a request for the slow page that no context bounds. */
+	private void startUnboundedSlowHop() {
+		serverExecutor.execute(new Runnable() {
+			public void run() {
+				try {
+					navigator.followLink(start(), "slow");
+				} catch (Exception e) {
+					// released at tear down
+				}
+			}
+		});
+	}
+
+	private RequestCoalescer coalesceSlowHop() throws InterruptedException {
+		RequestCoalescer coalescer = new RequestCoalescer();
+		client.setCoalescer(coalescer);
+		startUnboundedSlowHop();
+		long end = System.currentTimeMillis() + 5000;
+		while(coalescer.getInFlightCount() == 0 && System.currentTimeMillis() < end) {
+			Thread.sleep(5);
+		}
+		return coalescer;
+	}
+
+	@Test
+	public void testCoalescedJoinerGivesUpAtDeadline() throws Exception {
+		RequestCoalescer coalescer = coalesceSlowHop();
+		XhtmlNavigator nav = navigator.withContext(NavigationContext.withTimeout(200));
+		long start = System.currentTimeMillis();
+		try {
+			nav.followLink(start(), "slow");
+			Assert.fail();
+		} catch (DeadlineExceededException expected) {
+		}
+		Assert.assertTrue(System.currentTimeMillis() - start < 5000);
+		Assert.assertEquals(1, coalescer.getCoalescedCount());
+	}
+
+	@Test
+	public void testCancelWakesCoalescedJoiner() throws Exception {
+		final RequestCoalescer coalescer = coalesceSlowHop();
+		final NavigationContext ctx = new NavigationContext();
+		Thread canceller = new Thread() {
+			public void run() {
+				long end = System.currentTimeMillis() + 5000;
+				try {
+					while(coalescer.getCoalescedCount() == 0 && System.currentTimeMillis() < end) {
+						Thread.sleep(5);
+					}
+				} catch (InterruptedException e) {
+				}
+				ctx.cancel();
+			}
+		};
+		canceller.start();
+		long start = System.currentTimeMillis();
+		try {
+			navigator.withContext(ctx).followLink(start(), "slow");
+			Assert.fail();
+		} catch (NavigationCancelledException expected) {
+		}
+		canceller.join();
+		Assert.assertTrue(System.currentTimeMillis() - start < 5000);
+		Assert.assertFalse(Thread.currentThread().isInterrupted());
+	}
+
+	@Test
+	public void testPendingPrefetchIsBoundedByDeadline() throws Exception {
+		PrefetchPolicy policy = new PrefetchPolicy("slow");
+		navigator.setPrefetchPolicy(policy);
+		navigator.prefetch(start());
+		Assert.assertEquals(1, policy.getInFlightCount());
+		XhtmlNavigator nav = navigator.withContext(NavigationContext.withTimeout(200));
+		long start = System.currentTimeMillis();
+		try {
+			nav.followLink(start(), "slow");
+			Assert.fail();
+		} catch (DeadlineExceededException expected) {
+		}
+		Assert.assertTrue(System.currentTimeMillis() - start < 5000);
+		Assert.assertEquals(0, policy.getHitCount());
+		Assert.assertEquals(1, policy.getWastedCount());
+	}
+
+	@Test
+	public void testCancelWakesCallerWaitingForPrefetch() throws Exception {
+		navigator.setPrefetchPolicy(new PrefetchPolicy("slow"));
+		navigator.prefetch(start());
+		final NavigationContext ctx = new NavigationContext();
+		Thread canceller = new Thread() {
+			public void run() {
+				try {
+					Thread.sleep(200);
+				} catch (InterruptedException e) {
+				}
+				ctx.cancel();
+			}
+		};
+		canceller.start();
+		try {
+			navigator.withContext(ctx).followLink(start(), "slow");
+			Assert.fail();
+		} catch (NavigationCancelledException expected) {
+		}
+		canceller.join();
+		Assert.assertFalse(Thread.currentThread().isInterrupted());
+	}
+}
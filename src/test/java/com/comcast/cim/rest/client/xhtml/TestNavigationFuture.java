@@ -0,0 +1,129 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestNavigationFuture {
+
+	private NavigationFuture<String> impl;
+	private List<String> events;
+	private boolean interrupted;
+	
+	@Before
+	public void setUp() {
+		events = new ArrayList<String>();
+		impl = new NavigationFuture<String>() {
+			@Override
+			protected void interruptTask(boolean mayInterruptIfRunning) {
+				interrupted = true;
+			}
+		};
+	}
+	
+	private NavigationCallback<String> recorder() {
+		return new NavigationCallback<String>() {
+			public void completed(String result) { events.add("completed " + result); }
+			public void failed(Throwable cause) { events.add("failed " + cause.getMessage()); }
+			public void cancelled() { events.add("cancelled"); }
+		};
+	}
+	
+	@Test
+	public void testReturnsResultOnceSet() throws Exception {
+		Assert.assertFalse(impl.isDone());
+		Assert.assertTrue(impl.set("foo"));
+		Assert.assertTrue(impl.isDone());
+		Assert.assertEquals("foo", impl.get());
+	}
+	
+	@Test
+	public void testOnlyFirstCompletionCounts() throws Exception {
+		impl.set("foo");
+		Assert.assertFalse(impl.set("bar"));
+		Assert.assertFalse(impl.setException(new RuntimeException()));
+		Assert.assertFalse(impl.cancel(true));
+		Assert.assertEquals("foo", impl.get());
+	}
+	
+	@Test
+	public void testWrapsFailureInExecutionException() throws Exception {
+		RuntimeException cause = new RuntimeException("boom");
+		impl.setException(cause);
+		try {
+			impl.get();
+			Assert.fail("should have thrown ExecutionException");
+		} catch (ExecutionException expected) {
+			Assert.assertSame(cause, expected.getCause());
+		}
+	}
+	
+	@Test
+	public void testCancelRunsInterruptHook() throws Exception {
+		Assert.assertTrue(impl.cancel(true));
+		Assert.assertTrue(interrupted);
+		Assert.assertTrue(impl.isCancelled());
+		try {
+			impl.get();
+			Assert.fail("should have thrown CancellationException");
+		} catch (CancellationException expected) {
+		}
+	}
+	
+	@Test(expected=TimeoutException.class)
+	public void testTimesOutWhilePending() throws Exception {
+		impl.get(1, TimeUnit.MILLISECONDS);
+	}
+	
+	@Test
+	public void testNotifiesCallbacksRegisteredBeforeCompletion() {
+		impl.addCallback(recorder());
+		impl.set("foo");
+		Assert.assertEquals(1, events.size());
+		Assert.assertEquals("completed foo", events.get(0));
+	}
+	
+	@Test
+	public void testNotifiesCallbacksRegisteredAfterCompletion() {
+		impl.setException(new RuntimeException("boom"));
+		impl.addCallback(recorder());
+		Assert.assertEquals("failed boom", events.get(0));
+	}
+	
+	@Test
+	public void testNotifiesCallbacksOfCancellation() {
+		impl.addCallback(recorder());
+		impl.cancel(false);
+		Assert.assertEquals("cancelled", events.get(0));
+	}
+	
+	@Test
+	public void testCompletionFromAnotherThreadWakesWaiter() throws Exception {
+		new Thread() {
+			public void run() { impl.set("foo"); }
+		}.start();
+		Assert.assertEquals("foo", impl.get(5, TimeUnit.SECONDS));
+	}
+}
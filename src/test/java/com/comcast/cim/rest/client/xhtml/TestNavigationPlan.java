@@ -0,0 +1,284 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.http.client.methods.HttpUriRequest;
+import org.jdom.Element;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestNavigationPlan extends XhtmlTestCase {
+
+	private static final String BASE = "http://foo.example.com/";
+
+	private class SiteClient extends ScriptedClient {
+		Map<String, String> cacheControl = new HashMap<String, String>();
+		Map<String, String> age = new HashMap<String, String>();
+		Set<String> broken = new HashSet<String>();
+
+		@Override
+		protected XhtmlApplicationState respond(HttpUriRequest req, int status) {
+			String uri = req.getURI().toString();
+			String path = uri.substring(BASE.length());
+			if (broken.contains(path)) status = 500;
+			XhtmlApplicationState state = page(uri, cacheControl.get(path), status);
+			if (age.containsKey(path)) state.getHttpResponse().setHeader("Age", age.get(path));
+			return state;
+		}
+
+		List<String> fetched() {
+			List<String> fetched = new ArrayList<String>();
+			for(HttpUriRequest req : executed()) fetched.add(req.getMethod() + " " + req.getURI());
+			return fetched;
+		}
+	}
+
+	private SiteClient client;
+	private XhtmlNavigator impl;
+	private long clock;
+	private Map<String, String> args;
+
+	@Before
+	public void setUp() {
+		client = new SiteClient();
+		impl = new XhtmlNavigator(new XhtmlParser(), new RequestBuilder(), client);
+		clock = 1000000L;
+		args = new HashMap<String, String>();
+		args.put("q", "x");
+		for(String path : new String[] { "", "search?q=x", "results/1", "item/7", "order" }) {
+			client.cacheControl.put(path, "max-age=60");
+		}
+	}
+
+	private NavigationPlan compile(NavigationPlan.Builder builder) {
+		return new NavigationPlan(builder) {
+			@Override
+			protected long now() {
+				return clock;
+			}
+		};
+	}
+
+	private NavigationPlan.Builder searchPlan() {
+		return new NavigationPlan.Builder()
+			.submitForm("search", args)
+			.followLink("first")
+			.followLink("item");
+	}
+
+	private XhtmlApplicationState page(String url, String cacheControl, int status) {
+		XhtmlApplicationState state;
+		if (url.equals(BASE)) {
+			state = page(url, status, form("search", "GET", "/search"),
+					form("order", "POST", "/order"), link("home", "/"));
+		} else if (url.startsWith(BASE + "search")) {
+			state = page(url, status, link("first", "/results/1"));
+		} else if (url.equals(BASE + "results/1") || url.equals(BASE + "order")) {
+			state = page(url, status, link("item", "/item/7"));
+		} else {
+			state = page(url, status);
+		}
+		if (cacheControl != null) state.getHttpResponse().setHeader("Cache-Control", cacheControl);
+		return state;
+	}
+
+	private Element form(String name, String method, String action) {
+		Element form = new Element("form", XhtmlParser.XHTML_NS);
+		form.setAttribute("name", name);
+		form.setAttribute("method", method);
+		form.setAttribute("action", action);
+		if (!"search".equals(name)) return form;
+		Element input = new Element("input", XhtmlParser.XHTML_NS);
+		input.setAttribute("name", "q");
+		input.setAttribute("type", "text");
+		form.addContent(input);
+		return form;
+	}
+
+	private XhtmlApplicationState entry() {
+		return page(BASE, null, 200);
+	}
+
+	@Test
+	public void testExecutesStepsInOrder() throws Exception {
+		PlanResult result = impl.execute(compile(searchPlan()), entry());
+		Assert.assertEquals(BASE + "item/7", result.getState().getContext().toString());
+		Assert.assertEquals(3, client.fetched().size());
+		Assert.assertEquals("GET " + BASE + "search?q=x", client.fetched().get(0));
+		Assert.assertEquals("GET " + BASE + "results/1", client.fetched().get(1));
+		Assert.assertEquals("GET " + BASE + "item/7", client.fetched().get(2));
+		Assert.assertEquals(3, result.getStepCount());
+		Assert.assertEquals(0, result.getSkippedCount());
+		long sum = 0;
+		for(int i = 0; i < 3; i++) {
+			Assert.assertFalse(result.isSkipped(i));
+			Assert.assertTrue(result.getStepNanos(i) >= 0);
+			sum += result.getStepNanos(i);
+		}
+		Assert.assertTrue(result.getTotalNanos() >= sum);
+	}
+
+	@Test
+	public void testIntermediateHopsOnlyReadUpToNextControl() throws Exception {
+		impl.execute(compile(searchPlan()), entry());
+		Assert.assertEquals(ControlTarget.link("first"), client.targets().get(0));
+		Assert.assertEquals(ControlTarget.link("item"), client.targets().get(1));
+		Assert.assertNull(client.targets().get(2));
+	}
+
+	@Test
+	public void testRepeatedRunSkipsFreshHops() throws Exception {
+		NavigationPlan plan = compile(searchPlan());
+		XhtmlApplicationState first = impl.execute(plan, entry()).getState();
+		client.clear();
+		PlanResult result = impl.execute(plan, entry());
+		Assert.assertTrue(client.fetched().isEmpty());
+		Assert.assertSame(first, result.getState());
+		Assert.assertEquals(3, result.getSkippedCount());
+		Assert.assertEquals(0, result.getStepNanos(2));
+		Assert.assertEquals(3, plan.getSkippedHopCount());
+	}
+
+	@Test
+	public void testResumesFromFurthestFreshState() throws Exception {
+		client.cacheControl.put("item/7", "no-cache");
+		NavigationPlan plan = compile(searchPlan());
+		impl.execute(plan, entry());
+		client.clear();
+		PlanResult result = impl.execute(plan, entry());
+		Assert.assertEquals(1, client.fetched().size());
+		Assert.assertEquals("GET " + BASE + "item/7", client.fetched().get(0));
+		Assert.assertTrue(result.isSkipped(0));
+		Assert.assertTrue(result.isSkipped(1));
+		Assert.assertFalse(result.isSkipped(2));
+	}
+
+	@Test
+	public void testChainGoesStaleWithEarliestResponse() throws Exception {
+		client.cacheControl.put("search?q=x", "max-age=10");
+		NavigationPlan plan = compile(searchPlan());
+		impl.execute(plan, entry());
+		clock += 9000;
+		client.clear();
+		impl.execute(plan, entry());
+		Assert.assertTrue(client.fetched().isEmpty());
+		clock += 2000;
+		impl.execute(plan, entry());
+		Assert.assertEquals(3, client.fetched().size());
+	}
+
+	@Test
+	public void testChainFreshnessAccountsForAge() throws Exception {
+		client.age.put("results/1", "50");
+		NavigationPlan plan = compile(searchPlan());
+		impl.execute(plan, entry());
+		clock += 9000;
+		client.clear();
+		impl.execute(plan, entry());
+		Assert.assertTrue(client.fetched().isEmpty());
+		clock += 2000;
+		impl.execute(plan, entry());
+		Assert.assertEquals(2, client.fetched().size());
+		Assert.assertEquals("GET " + BASE + "results/1", client.fetched().get(0));
+	}
+
+	@Test
+	public void testStatesAfterPostAreNotRemembered() throws Exception {
+		NavigationPlan plan = compile(new NavigationPlan.Builder()
+			.submitForm("order", args)
+			.followLink("item"));
+		impl.execute(plan, entry());
+		client.clear();
+		impl.execute(plan, entry());
+		Assert.assertEquals(2, client.fetched().size());
+		Assert.assertEquals("POST " + BASE + "order", client.fetched().get(0));
+	}
+
+	@Test
+	public void testChainsAreKeyedByFirstRequest() throws Exception {
+		NavigationPlan plan = compile(searchPlan());
+		impl.execute(plan, entry());
+		args.put("q", "y");
+		plan = compile(searchPlan());
+		impl.execute(plan, entry());
+		client.clear();
+		Map<String, String> other = new HashMap<String, String>();
+		other.put("q", "z");
+		impl.execute(compile(new NavigationPlan.Builder()
+			.submitForm("search", other).followLink("first")), entry());
+		Assert.assertEquals("GET " + BASE + "search?q=z", client.fetched().get(0));
+	}
+
+	@Test
+	public void testFailedResumedRunForgetsChain() throws Exception {
+		client.cacheControl.put("item/7", "no-cache");
+		NavigationPlan plan = compile(searchPlan());
+		impl.execute(plan, entry());
+		client.broken.add("item/7");
+		try {
+			impl.execute(plan, entry());
+			Assert.fail();
+		} catch (ServerErrorException e) {
+			/* expected */
+		}
+		client.broken.clear();
+		client.clear();
+		impl.execute(plan, entry());
+		Assert.assertEquals(3, client.fetched().size());
+	}
+
+	@Test
+	public void testStaticPlanNeedsNoEntry() throws Exception {
+		NavigationPlan plan = compile(new NavigationPlan.Builder()
+			.get(BASE)
+			.followLink("home"));
+		Assert.assertTrue(plan.isStatic());
+		PlanResult result = impl.execute(plan);
+		Assert.assertEquals(BASE, result.getState().getContext().toString());
+		Assert.assertEquals(ControlTarget.link("home"), client.targets().get(0));
+		client.clear();
+		impl.execute(plan);
+		Assert.assertTrue(client.fetched().isEmpty());
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testPlanWithoutStaticStartNeedsEntry() throws Exception {
+		impl.execute(compile(searchPlan()));
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testStaticUrlMustBeAbsolute() {
+		new NavigationPlan.Builder().get("/relative");
+	}
+
+	@Test(expected=IllegalStateException.class)
+	public void testEmptyPlanIsRejected() {
+		new NavigationPlan.Builder().build();
+	}
+
+	@Test(expected=RelationNotFoundException.class)
+	public void testMissingLinkIsReported() throws Exception {
+		impl.execute(compile(new NavigationPlan.Builder().followLink("missing")), entry());
+	}
+}
@@ -0,0 +1,131 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestNavigationRunner {
+
+	private NavigationRunner impl;
+	
+	@After
+	public void tearDown() {
+		if (impl != null) impl.shutdown();
+	}
+	
+	private static Callable<String> returning(final String s) {
+		return new Callable<String>() {
+			public String call() { return s; }
+		};
+	}
+	
+	@Test
+	public void testRunsWorkflowAndReturnsResult() throws Exception {
+		impl = NavigationRunner.platform(2);
+		Assert.assertEquals("foo", impl.submit(returning("foo")).get(5, TimeUnit.SECONDS));
+		Assert.assertFalse(impl.isUsingVirtualThreads());
+	}
+	
+	@Test
+	public void testPassesWorkflowFailureThroughFuture() throws Exception {
+		impl = NavigationRunner.platform(1);
+		final RelationNotFoundException failure = new RelationNotFoundException("nope");
+		NavigationFuture<String> result = impl.submit(new Callable<String>() {
+			public String call() { throw failure; }
+		});
+		try {
+			result.get(5, TimeUnit.SECONDS);
+			Assert.fail("should have thrown ExecutionException");
+		} catch (ExecutionException expected) {
+			Assert.assertSame(failure, expected.getCause());
+		}
+	}
+	
+	@Test
+	public void testSubmitAllPreservesOrder() throws Exception {
+		impl = NavigationRunner.platform(4);
+		List<Callable<String>> workflows = new ArrayList<Callable<String>>();
+		for(int i = 0; i < 20; i++) workflows.add(returning("w" + i));
+		List<NavigationFuture<String>> results = impl.submitAll(workflows);
+		for(int i = 0; i < 20; i++) {
+			Assert.assertEquals("w" + i, results.get(i).get(5, TimeUnit.SECONDS));
+		}
+	}
+	
+	@Test
+	public void testRunsWorkflowsConcurrently() throws Exception {
+		impl = NavigationRunner.platform(3);
+		final CountDownLatch allStarted = new CountDownLatch(3);
+		List<NavigationFuture<Boolean>> results = new ArrayList<NavigationFuture<Boolean>>();
+		for(int i = 0; i < 3; i++) {
+			results.add(impl.submit(new Callable<Boolean>() {
+				public Boolean call() throws Exception {
+					allStarted.countDown();
+					return allStarted.await(5, TimeUnit.SECONDS);
+				}
+			}));
+		}
+		for(NavigationFuture<Boolean> result : results) {
+			Assert.assertTrue(result.get(10, TimeUnit.SECONDS));
+		}
+	}
+	
+	@Test
+	public void testCancellingInterruptsWorkflow() throws Exception {
+		impl = NavigationRunner.platform(1);
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch interrupted = new CountDownLatch(1);
+		NavigationFuture<String> result = impl.submit(new Callable<String>() {
+			public String call() throws Exception {
+				started.countDown();
+				try {
+					Thread.sleep(10000);
+				} catch (InterruptedException e) {
+					interrupted.countDown();
+				}
+				return "done";
+			}
+		});
+		Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+		Assert.assertTrue(result.cancel(true));
+		Assert.assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+		Assert.assertTrue(result.isCancelled());
+	}
+	
+	@Test
+	public void testDefaultRunnerMatchesRuntimeSupport() throws Exception {
+		impl = new NavigationRunner();
+		boolean supported = (NavigationRunner.newVirtualThreadExecutor() != null);
+		Assert.assertEquals(supported, impl.isUsingVirtualThreads());
+		Assert.assertEquals("foo", impl.submit(returning("foo")).get(5, TimeUnit.SECONDS));
+	}
+	
+	@Test
+	public void testUsesSuppliedExecutor() throws Exception {
+		impl = new NavigationRunner(Executors.newSingleThreadExecutor());
+		Assert.assertEquals("foo", impl.submit(returning("foo")).get(5, TimeUnit.SECONDS));
+	}
+}
@@ -0,0 +1,256 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestOriginGuard {
+
+	private static final String BASE = "http://foo.example.com/";
+
+	private ScriptedTransport transport;
+	private OriginGuard guard;
+	private XhtmlHttpClient client;
+	private List<String> transitions;
+
+	@Before
+	public void setUp() {
+		transport = new ScriptedTransport(1000000L);
+		guard = new OriginGuard() {
+			@Override
+			protected long now() { return transport.now(); }
+		};
+		guard.setWindowSize(10);
+		guard.setMinimumCalls(4);
+		guard.setHalfOpenCalls(2);
+		guard.setOpenDuration(1000);
+		guard.setSlowCallDuration(500);
+		guard.setSlowCallRateThreshold(0.5);
+		transitions = new ArrayList<String>();
+		guard.addListener(new CircuitBreakerListener() {
+			public void stateChanged(CircuitBreaker breaker, CircuitBreaker.State from,
+					CircuitBreaker.State to) {
+				transitions.add(from + "->" + to);
+			}
+		});
+		client = new XhtmlHttpClient(transport, new XhtmlResponseHandlerFactory());
+		client.setOriginGuard(guard);
+	}
+
+	private int get(String path) throws IOException {
+		XhtmlApplicationState state = client.execute(new HttpGet(BASE + path));
+		return state.getHttpResponse().getStatusLine().getStatusCode();
+	}
+
+	private void failTimes(int n) throws IOException {
+		for(int i = 0; i < n; i++) {
+			transport.respond(503);
+			get("fail");
+		}
+	}
+
+	private CircuitBreaker breaker() {
+		return guard.getCircuitBreaker(URI.create(BASE));
+	}
+
+	@Test
+	public void testOriginIgnoresPathAndDefaultPort() {
+		Assert.assertEquals("http://foo.example.com:80",
+				OriginGuard.originOf(URI.create("http://Foo.example.com/a/b")));
+		Assert.assertEquals("https://foo.example.com:443",
+				OriginGuard.originOf(URI.create("https://foo.example.com/")));
+		Assert.assertEquals("http://foo.example.com:8080",
+				OriginGuard.originOf(URI.create("http://foo.example.com:8080/")));
+	}
+
+	@Test
+	public void testStaysClosedBelowMinimumCalls() throws Exception {
+		failTimes(3);
+		Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker().getState());
+		Assert.assertEquals(1.0, breaker().getFailureRate(), 0.0);
+	}
+
+	@Test
+	public void testOpensOnFailureRateAndFailsFast() throws Exception {
+		get("ok");
+		get("ok");
+		failTimes(2);
+		Assert.assertEquals(CircuitBreaker.State.OPEN, breaker().getState());
+		Assert.assertEquals(1, transitions.size());
+		Assert.assertEquals("CLOSED->OPEN", transitions.get(0));
+		int calls = transport.calls();
+		try {
+			get("ok");
+			Assert.fail();
+		} catch (CircuitOpenException expected) {
+			Assert.assertEquals("http://foo.example.com:80", expected.getOrigin());
+			Assert.assertEquals(1000, expected.getRetryAfterMillis());
+		}
+		Assert.assertEquals(calls, transport.calls());
+	}
+
+	@Test
+	public void testCountsExceptionsAsFailures() throws Exception {
+		for(int i = 0; i < 4; i++) {
+			transport.fail(new IOException("connection reset"));
+			try {
+				get("fail");
+				Assert.fail();
+			} catch (CircuitOpenException e) {
+				throw e;
+			} catch (IOException expected) {
+			}
+		}
+		Assert.assertEquals(CircuitBreaker.State.OPEN, breaker().getState());
+	}
+
+	private void failWith(HttpUriRequest req, IOException error) throws IOException {
+		transport.fail(error);
+		try {
+			client.execute(req);
+			Assert.fail();
+		} catch (CircuitOpenException e) {
+			throw e;
+		} catch (IOException expected) {
+		}
+	}
+
+	@Test
+	public void testDoesNotCountAbandonedCallsAsFailures() throws Exception {
+		HttpGet aborted = new HttpGet(BASE + "aborted");
+		aborted.abort();
+		failWith(aborted, new IOException("Request aborted"));
+		failWith(new HttpGet(BASE + "cancelled"),
+				new NavigationCancelledException(new IOException("Request aborted")));
+		failWith(new HttpGet(BASE + "late"), new DeadlineExceededException(transport.now(), null));
+		failWith(new HttpGet(BASE + "interrupted"), new InterruptedIOException());
+		HttpGet capped = new HttpGet(BASE + "capped");
+		capped.getParams().setBooleanParameter(NavigationContext.DEADLINE_CAPPED, true);
+		failWith(capped, new SocketTimeoutException("Read timed out"));
+		Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker().getState());
+		Assert.assertEquals(0.0, breaker().getFailureRate(), 0.0);
+		Assert.assertEquals(5, transport.calls());
+	}
+
+	@Test
+	public void testCountsOriginTimeoutsAsFailures() throws Exception {
+		for(int i = 0; i < 4; i++) {
+			failWith(new HttpGet(BASE + "slow"), new SocketTimeoutException("Read timed out"));
+		}
+		Assert.assertEquals(CircuitBreaker.State.OPEN, breaker().getState());
+	}
+
+	@Test
+	public void testAbandonedTrialFreesItsSlot() throws Exception {
+		failTimes(4);
+		transport.advance(1000);
+		failWith(new HttpGet(BASE + "cancelled"),
+				new NavigationCancelledException(new IOException("Request aborted")));
+		Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, breaker().getState());
+		Assert.assertEquals(200, get("ok"));
+		Assert.assertEquals(200, get("ok"));
+		Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker().getState());
+	}
+
+	@Test
+	public void testOpensOnSlowCallRate() throws Exception {
+		transport.setLatency(600);
+		for(int i = 0; i < 4; i++) get("slow");
+		Assert.assertEquals(CircuitBreaker.State.OPEN, breaker().getState());
+		Assert.assertEquals(0.0, breaker().getFailureRate(), 0.0);
+	}
+
+	@Test
+	public void testHalfOpenTrialsCloseBreaker() throws Exception {
+		failTimes(4);
+		transport.advance(1000);
+		Assert.assertEquals(200, get("ok"));
+		Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, breaker().getState());
+		Assert.assertEquals(200, get("ok"));
+		Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker().getState());
+		Assert.assertEquals("[CLOSED->OPEN, OPEN->HALF_OPEN, HALF_OPEN->CLOSED]",
+				transitions.toString());
+	}
+
+	@Test
+	public void testFailedTrialsReopenBreaker() throws Exception {
+		failTimes(4);
+		transport.advance(1000);
+		failTimes(2);
+		Assert.assertEquals(CircuitBreaker.State.OPEN, breaker().getState());
+		Assert.assertEquals("[CLOSED->OPEN, OPEN->HALF_OPEN, HALF_OPEN->OPEN]",
+				transitions.toString());
+	}
+
+	@Test
+	public void testOtherOriginsAreUnaffected() throws Exception {
+		failTimes(4);
+		XhtmlApplicationState other = client.execute(new HttpGet("http://bar.example.com/"));
+		Assert.assertTrue(other.succeeded());
+	}
+
+	@Test
+	public void testBulkheadRefusesExcessConcurrentCalls() throws Exception {
+		guard.setMaxConcurrentCalls(1);
+		CountDownLatch entered = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		transport.hold(entered, release);
+		final List<Throwable> errors = new ArrayList<Throwable>();
+		Thread t = new Thread() {
+			public void run() {
+				try {
+					get("blocked");
+				} catch (Throwable e) {
+					errors.add(e);
+				}
+			}
+		};
+		t.start();
+		entered.await();
+		Assert.assertEquals(0, guard.getAvailableCalls(URI.create(BASE)));
+		try {
+			get("refused");
+			Assert.fail();
+		} catch (BulkheadFullException expected) {
+		} finally {
+			release.countDown();
+			t.join();
+		}
+		Assert.assertTrue(errors.isEmpty());
+		Assert.assertEquals(1, guard.getAvailableCalls(URI.create(BASE)));
+		Assert.assertEquals(1, transport.calls());
+	}
+
+	@Test
+	public void testRetryPolicyDoesNotRetryOpenCircuit() {
+		RetryPolicy retry = new RetryPolicy();
+		Assert.assertFalse(retry.isRetryable(new CircuitOpenException("http://foo.example.com:80", 1)));
+		Assert.assertTrue(retry.isRetryable(new BulkheadFullException("http://foo.example.com:80")));
+		Assert.assertTrue(retry.isRetryable(new IOException()));
+	}
+}
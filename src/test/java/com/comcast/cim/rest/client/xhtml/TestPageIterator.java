@@ -0,0 +1,137 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestPageIterator extends XhtmlTestCase {
+
+	private static final String BASE = "http://foo.example.com/page/";
+	
+	private int lastPage;
+	private ScriptedClient client;
+	private XhtmlNavigator navigator;
+	
+	@Before
+	public void setUp() {
+		lastPage = 5;
+		client = new ScriptedClient() {
+			@Override
+			protected XhtmlApplicationState respond(HttpUriRequest req, int status) {
+				return page(Integer.parseInt(req.getURI().toString().substring(BASE.length())));
+			}
+		};
+		navigator = new XhtmlNavigator(new XhtmlParser(), new RequestBuilder(), client);
+	}
+	
+	/** Serves pages 1..lastPage, each linking to the next. */
+	private XhtmlApplicationState page(int n) {
+		if (n >= lastPage) return page(BASE + n, HttpStatus.SC_OK);
+		return page(BASE + n, HttpStatus.SC_OK, link("next", "/page/" + (n + 1)));
+	}
+	
+	private static String id(XhtmlApplicationState state) {
+		return state.getContext().toString().substring(BASE.length());
+	}
+	
+	private int requested() {
+		return client.sent().size();
+	}
+	
+	@Test
+	public void testWalksAllPagesInOrder() throws Exception {
+		PageIterator it = navigator.paginate(page(1));
+		List<String> ids = new ArrayList<String>();
+		while(it.hasNext()) ids.add(id(it.next()));
+		Assert.assertEquals("[1, 2, 3, 4, 5]", ids.toString());
+		Assert.assertEquals(4, requested());
+	}
+	
+	@Test(expected=NoSuchElementException.class)
+	public void testThrowsWhenExhausted() throws Exception {
+		lastPage = 1;
+		PageIterator it = navigator.paginate(page(1));
+		it.next();
+		Assert.assertFalse(it.hasNext());
+		it.next();
+	}
+	
+	@Test
+	public void testPrefetchesUpToDepthAhead() throws Exception {
+		lastPage = 100;
+		client.deferAfter(0);
+		PageIterator it = navigator.paginate(page(1), "next", 3);
+		Assert.assertEquals("1", id(it.next()));
+		Assert.assertEquals(1, requested());
+		client.completeAll();
+		client.completeAll();
+		client.completeAll();
+		Assert.assertEquals(3, requested());
+		Assert.assertEquals(3, it.getBufferedCount());
+		Assert.assertEquals("2", id(it.next()));
+		client.completeAll();
+		Assert.assertEquals(4, requested());
+	}
+	
+	@Test
+	public void testWithoutPrefetchFetchesOnlyOnDemand() throws Exception {
+		PageIterator it = navigator.paginate(page(1), "next", 0);
+		it.next();
+		Assert.assertEquals(0, requested());
+		Assert.assertTrue(it.hasNext());
+		Assert.assertEquals(1, requested());
+		Assert.assertEquals("2", id(it.next()));
+		Assert.assertEquals(1, requested());
+	}
+	
+	@Test
+	public void testReportsFailedPageWhenReached() throws Exception {
+		client.deferAfter(0);
+		PageIterator it = navigator.paginate(page(1), "next", 1);
+		it.next();
+		HttpResponse error = new BasicHttpResponse(HttpVersion.HTTP_1_1,
+				HttpStatus.SC_SERVICE_UNAVAILABLE, "Service Unavailable");
+		client.future(0).set(new XhtmlApplicationState(new URL(BASE + 2), error, null));
+		try {
+			it.next();
+			Assert.fail("should have thrown ServerErrorException");
+		} catch (ServerErrorException expected) {
+		}
+		Assert.assertFalse(it.hasNext());
+	}
+	
+	@Test
+	public void testCloseCancelsPrefetchedPages() throws Exception {
+		client.deferAfter(0);
+		PageIterator it = navigator.paginate(page(1), "next", 1);
+		it.next();
+		it.close();
+		Assert.assertTrue(client.future(0).isCancelled());
+		Assert.assertFalse(it.hasNext());
+	}
+}
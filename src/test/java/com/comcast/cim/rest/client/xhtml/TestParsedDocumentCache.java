@@ -0,0 +1,115 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+import java.net.URL;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.message.BasicHttpResponse;
+import org.jdom.Document;
+import org.jdom.Element;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestParsedDocumentCache {
+
+	private ParsedDocumentCache impl;
+	private URL context;
+	
+	@Before
+	public void setUp() throws Exception {
+		impl = new ParsedDocumentCache(2);
+		context = new URL("http://foo.example.com/");
+	}
+	
+	private HttpResponse response(String header, String value) {
+		HttpResponse resp = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK");
+		if (header != null) resp.setHeader(header, value);
+		return resp;
+	}
+	
+	@Test
+	public void testReturnsDocumentForSameUrlAndETag() {
+		Document doc = new Document(new Element("html"));
+		impl.put(context, response("ETag", "\"a\""), doc);
+		Assert.assertSame(doc, impl.get(context, response("ETag", "\"a\"")));
+		Assert.assertEquals(1, impl.getHitCount());
+	}
+	
+	@Test
+	public void testMissesForDifferentETag() {
+		impl.put(context, response("ETag", "\"a\""), new Document(new Element("html")));
+		Assert.assertNull(impl.get(context, response("ETag", "\"b\"")));
+		Assert.assertEquals(1, impl.getMissCount());
+	}
+	
+	@Test
+	public void testMissesForDifferentUrl() throws Exception {
+		impl.put(context, response("ETag", "\"a\""), new Document(new Element("html")));
+		URL other = new URL("http://foo.example.com/other");
+		Assert.assertNull(impl.get(other, response("ETag", "\"a\"")));
+	}
+	
+	@Test
+	public void testFallsBackToLastModified() {
+		String date = "Sat, 01 Jan 2011 00:00:00 GMT";
+		Document doc = new Document(new Element("html"));
+		impl.put(context, response("Last-Modified", date), doc);
+		Assert.assertSame(doc, impl.get(context, response("Last-Modified", date)));
+	}
+	
+	@Test
+	public void testFullResponseReusesOnlyStrongETag() {
+		Document doc = new Document(new Element("html"));
+		impl.put(context, response("ETag", "\"a\""), doc);
+		Assert.assertSame(doc, impl.getUnchanged(context, response("ETag", "\"a\"")));
+	}
+	
+	@Test
+	public void testFullResponseIgnoresWeakETag() {
+		impl.put(context, response("ETag", "W/\"a\""), new Document(new Element("html")));
+		Assert.assertNull(impl.getUnchanged(context, response("ETag", "W/\"a\"")));
+	}
+	
+	@Test
+	public void testFullResponseIgnoresLastModified() {
+		String date = "Sat, 01 Jan 2011 00:00:00 GMT";
+		impl.put(context, response("Last-Modified", date), new Document(new Element("html")));
+		Assert.assertNull(impl.getUnchanged(context, response("Last-Modified", date)));
+	}
+	
+	@Test
+	public void testDoesNotCacheResponsesWithoutValidator() {
+		impl.put(context, response(null, null), new Document(new Element("html")));
+		Assert.assertEquals(0, impl.size());
+		Assert.assertNull(impl.get(context, response(null, null)));
+	}
+	
+	@Test
+	public void testEvictsLeastRecentlyUsed() {
+		Document a = new Document(new Element("html"));
+		impl.put(context, response("ETag", "\"a\""), a);
+		impl.put(context, response("ETag", "\"b\""), new Document(new Element("html")));
+		impl.get(context, response("ETag", "\"a\""));
+		impl.put(context, response("ETag", "\"c\""), new Document(new Element("html")));
+		Assert.assertEquals(2, impl.size());
+		Assert.assertSame(a, impl.get(context, response("ETag", "\"a\"")));
+		Assert.assertNull(impl.get(context, response("ETag", "\"b\"")));
+	}
+}
@@ -0,0 +1,157 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.List;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestPrefetchPolicy extends XhtmlTestCase {
+
+	private static final String BASE = "http://foo.example.com/";
+	
+	private long now;
+	private ScriptedClient client;
+	private PrefetchPolicy policy;
+	private XhtmlNavigator navigator;
+	private XhtmlApplicationState start;
+	
+	@Before
+	public void setUp() throws Exception {
+		now = 1000000L;
+		client = new ScriptedClient() {
+			@Override
+			protected XhtmlApplicationState respond(HttpUriRequest req, int status) {
+				return state(req.getURI().toString());
+			}
+		};
+		policy = new PrefetchPolicy("details", "self") {
+			@Override
+			protected long now() { return now; }
+		};
+		navigator = new XhtmlNavigator(new XhtmlParser(), new RequestBuilder(), client);
+		navigator.setPrefetchPolicy(policy);
+		start = state(BASE + "start");
+	}
+	
+	private static XhtmlApplicationState state(String url) {
+		return page(url, HttpStatus.SC_OK, link("self", url),
+				link("details", url + "/details"), link("other", url + "/other"));
+	}
+	
+	private List<String> prefetched() {
+		return ScriptedClient.uris(client.sent());
+	}
+	
+	@Test
+	public void testPrefetchesConfiguredRelations() {
+		navigator.prefetch(start);
+		Assert.assertEquals(2, prefetched().size());
+		Assert.assertTrue(prefetched().contains(BASE + "start/details"));
+		Assert.assertTrue(prefetched().contains(BASE + "start"));
+		Assert.assertEquals(2, policy.getIssuedCount());
+	}
+	
+	@Test
+	public void testServesFollowLinkFromPrefetch() throws Exception {
+		navigator.prefetch(start);
+		XhtmlApplicationState details = navigator.followLink(start, "details");
+		Assert.assertEquals(BASE + "start/details", details.getContext().toString());
+		Assert.assertTrue(client.executed().isEmpty());
+		Assert.assertEquals(1, policy.getHitCount());
+	}
+	
+	@Test
+	public void testPrefetchesFromStatesReachedByNavigation() throws Exception {
+		navigator.prefetch(start);
+		navigator.followLink(start, "details");
+		Assert.assertTrue(prefetched().contains(BASE + "start/details/details"));
+	}
+	
+	@Test
+	public void testExecutesNormallyWhenNothingPrefetched() throws Exception {
+		navigator.followLink(start, "other");
+		Assert.assertEquals(1, client.executed().size());
+		Assert.assertEquals(0, policy.getHitCount());
+	}
+	
+	@Test
+	public void testExpiredPrefetchesAreWasted() throws Exception {
+		navigator.prefetch(start);
+		now += PrefetchPolicy.DEFAULT_TTL_MILLIS;
+		navigator.followLink(start, "details");
+		Assert.assertEquals(1, client.executed().size());
+		Assert.assertEquals(2, policy.getWastedCount());
+	}
+	
+	@Test
+	public void testLimitsConcurrentPrefetches() {
+		client.deferAfter(0);
+		policy.setMaxConcurrent(1);
+		navigator.prefetch(start);
+		Assert.assertEquals(1, prefetched().size());
+		Assert.assertEquals(1, policy.getSkippedCount());
+		Assert.assertEquals(1, policy.getInFlightCount());
+		client.future(0).set(state(BASE + "start/details"));
+		Assert.assertEquals(0, policy.getInFlightCount());
+	}
+	
+	@Test
+	public void testFallsBackWhenPrefetchFailed() throws Exception {
+		client.deferAfter(0);
+		navigator.prefetch(start);
+		client.future(0).setException(new IOException("boom"));
+		navigator.followLink(start, "details");
+		Assert.assertEquals(1, client.executed().size());
+		Assert.assertEquals(1, policy.getWastedCount());
+	}
+	
+	@Test
+	public void testFallsBackWhenPrefetchGotErrorResponse() throws Exception {
+		client.deferAfter(0);
+		navigator.prefetch(start);
+		for(int i = 0; i < client.sent().size(); i++) {
+			HttpResponse unavailable = new BasicHttpResponse(HttpVersion.HTTP_1_1,
+					HttpStatus.SC_SERVICE_UNAVAILABLE, "Service Unavailable");
+			client.future(i).set(new XhtmlApplicationState(new URL(BASE + "start/details"),
+					unavailable, null));
+		}
+		XhtmlApplicationState details = navigator.followLink(start, "details");
+		Assert.assertTrue(details.succeeded());
+		Assert.assertEquals(1, client.executed().size());
+		Assert.assertEquals(0, policy.getHitCount());
+		Assert.assertEquals(1, policy.getWastedCount());
+	}
+	
+	@Test
+	public void testClearCancelsPrefetches() {
+		client.deferAfter(0);
+		navigator.prefetch(start);
+		policy.clear();
+		Assert.assertTrue(client.future(0).isCancelled());
+		Assert.assertEquals(0, policy.getPrefetchedCount());
+		Assert.assertEquals(2, policy.getWastedCount());
+	}
+}
@@ -371,4 +371,25 @@ public class TestRequestBuilder extends XhtmlTestCase {
 		} catch (IllegalArgumentException expected) {
 		}
 	}
+	
+	@Test
+	public void testCanSelectAnOptionWhoseValueContainsQuotes() throws Exception {
+		Element form = new Element("form", XhtmlParser.XHTML_NS_URI);
+		form.setAttribute("method", "POST");
+		form.setAttribute("action", "http://foo.example.com/");
+		Element select = new Element("select", XhtmlParser.XHTML_NS_URI);
+		select.setAttribute("name","arg0");
+		Element option = new Element("option", XhtmlParser.XHTML_NS_URI);
+		option.setAttribute("value","it's");
+		option.setText("Description of it's");
+		select.addContent(option);
+		form.addContent(select);
+		buildDocument(form);
+		URL context = new URL("http://www.example.com/foo/bar");
+		args.put("arg0","it's");
+		
+		HttpUriRequest result = impl.submitForm(form, context, args);
+		HttpEntity entity = ((HttpPost)result).getEntity();
+		Assert.assertEquals("arg0=it%27s", EntityUtils.toString(entity));
+	}
 }
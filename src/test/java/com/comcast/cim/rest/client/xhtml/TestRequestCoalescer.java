@@ -0,0 +1,241 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.message.BasicHttpResponse;
+import org.jdom.Document;
+import org.jdom.Element;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestRequestCoalescer {
+
+	private static final String URL_A = "http://foo.example.com/a";
+	
+	private RequestCoalescer impl;
+	private ExecutorService executor;
+	private AtomicInteger loads;
+	private CountDownLatch release;
+	
+	@Before
+	public void setUp() {
+		impl = new RequestCoalescer();
+		executor = Executors.newCachedThreadPool();
+		loads = new AtomicInteger();
+		release = new CountDownLatch(1);
+	}
+	
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+	
+	private Callable<XhtmlApplicationState> blockingLoader(final String url) {
+		return new Callable<XhtmlApplicationState>() {
+			public XhtmlApplicationState call() throws Exception {
+				loads.incrementAndGet();
+				release.await(5, TimeUnit.SECONDS);
+				return new XhtmlApplicationState(new URL(url),
+						new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK"),
+						new Document(new Element("html")));
+			}
+		};
+	}
+	
+	private Future<XhtmlApplicationState> start(final HttpUriRequest req,
+			final Callable<XhtmlApplicationState> loader) {
+		return executor.submit(new Callable<XhtmlApplicationState>() {
+			public XhtmlApplicationState call() throws Exception {
+				return impl.execute(req, loader);
+			}
+		});
+	}
+	
+	private void awaitJoiners(int n) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while(impl.getCoalescedCount() < n && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+	}
+	
+	@Test
+	public void testConcurrentIdenticalGetsShareOneRequest() throws Exception {
+		List<Future<XhtmlApplicationState>> results = new ArrayList<Future<XhtmlApplicationState>>();
+		for(int i = 0; i < 5; i++) {
+			results.add(start(new HttpGet(URL_A), blockingLoader(URL_A)));
+		}
+		awaitJoiners(4);
+		release.countDown();
+		XhtmlApplicationState first = results.get(0).get(5, TimeUnit.SECONDS);
+		for(Future<XhtmlApplicationState> result : results) {
+			Assert.assertSame(first, result.get(5, TimeUnit.SECONDS));
+		}
+		Assert.assertEquals(1, loads.get());
+		Assert.assertEquals(1, impl.getExecutedCount());
+		Assert.assertEquals(4, impl.getCoalescedCount());
+		Assert.assertEquals(0, impl.getInFlightCount());
+	}
+	
+	@Test
+	public void testDifferentAcceptHeadersAreNotCoalesced() throws Exception {
+		HttpGet xhtml = new HttpGet(URL_A);
+		xhtml.setHeader("Accept", "application/xhtml+xml");
+		HttpGet json = new HttpGet(URL_A);
+		json.setHeader("Accept", "application/json");
+		Future<XhtmlApplicationState> r1 = start(xhtml, blockingLoader(URL_A));
+		Future<XhtmlApplicationState> r2 = start(json, blockingLoader(URL_A));
+		release.countDown();
+		Assert.assertNotSame(r1.get(5, TimeUnit.SECONDS), r2.get(5, TimeUnit.SECONDS));
+		Assert.assertEquals(2, loads.get());
+	}
+	
+	@Test
+	public void testPostsAreNeverCoalesced() throws Exception {
+		release.countDown();
+		impl.execute(new HttpPost(URL_A), blockingLoader(URL_A));
+		impl.execute(new HttpPost(URL_A), blockingLoader(URL_A));
+		Assert.assertEquals(2, loads.get());
+		Assert.assertEquals(0, impl.getCoalescedCount());
+	}
+	
+	@Test
+	public void testSequentialGetsEachExecute() throws Exception {
+		release.countDown();
+		impl.execute(new HttpGet(URL_A), blockingLoader(URL_A));
+		impl.execute(new HttpGet(URL_A), blockingLoader(URL_A));
+		Assert.assertEquals(2, loads.get());
+	}
+	
+	@Test
+	public void testFailureIsSharedWithJoiners() throws Exception {
+		final IOException failure = new IOException("boom");
+		Callable<XhtmlApplicationState> failing = new Callable<XhtmlApplicationState>() {
+			public XhtmlApplicationState call() throws Exception {
+				loads.incrementAndGet();
+				release.await(5, TimeUnit.SECONDS);
+				throw failure;
+			}
+		};
+		Future<XhtmlApplicationState> r1 = start(new HttpGet(URL_A), failing);
+		Future<XhtmlApplicationState> r2 = start(new HttpGet(URL_A), failing);
+		awaitJoiners(1);
+		release.countDown();
+		List<Future<XhtmlApplicationState>> results = new ArrayList<Future<XhtmlApplicationState>>();
+		results.add(r1);
+		results.add(r2);
+		for(Future<XhtmlApplicationState> r : results) {
+			try {
+				r.get(5, TimeUnit.SECONDS);
+				Assert.fail("should have thrown");
+			} catch (ExecutionException expected) {
+				Assert.assertSame(failure, expected.getCause());
+			}
+		}
+		Assert.assertEquals(1, loads.get());
+	}
+	
+	@Test
+	public void testJoinersCanGetTheirOwnDocument() throws Exception {
+		impl.setCopyDocuments(true);
+		Future<XhtmlApplicationState> r1 = start(new HttpGet(URL_A), blockingLoader(URL_A));
+		Future<XhtmlApplicationState> r2 = start(new HttpGet(URL_A), blockingLoader(URL_A));
+		awaitJoiners(1);
+		release.countDown();
+		XhtmlApplicationState s1 = r1.get(5, TimeUnit.SECONDS);
+		XhtmlApplicationState s2 = r2.get(5, TimeUnit.SECONDS);
+		Assert.assertNotSame(s1.getDocument(), s2.getDocument());
+		Assert.assertSame(s1.getHttpResponse(), s2.getHttpResponse());
+		Assert.assertEquals(1, loads.get());
+	}
+	
+	@Test
+	public void testJoinersRetryWhenLeaderIsAbandoned() throws Exception {
+		final HttpGet leaderReq = new HttpGet(URL_A);
+		Callable<XhtmlApplicationState> aborted = new Callable<XhtmlApplicationState>() {
+			public XhtmlApplicationState call() throws Exception {
+				loads.incrementAndGet();
+				release.await(5, TimeUnit.SECONDS);
+				leaderReq.abort();
+				throw new IOException("Request aborted");
+			}
+		};
+		Future<XhtmlApplicationState> r1 = start(leaderReq, aborted);
+		awaitLoads(1);
+		Future<XhtmlApplicationState> r2 = start(new HttpGet(URL_A), blockingLoader(URL_A));
+		awaitJoiners(1);
+		release.countDown();
+		try {
+			r1.get(5, TimeUnit.SECONDS);
+			Assert.fail("should have thrown");
+		} catch (ExecutionException expected) {
+			Assert.assertEquals("Request aborted", expected.getCause().getMessage());
+		}
+		Assert.assertNotNull(r2.get(5, TimeUnit.SECONDS).getDocument());
+		Assert.assertEquals(2, loads.get());
+		Assert.assertEquals(2, impl.getExecutedCount());
+	}
+	
+	@Test
+	public void testJoinersRetryWhenLeaderIsCancelled() throws Exception {
+		Callable<XhtmlApplicationState> cancelled = new Callable<XhtmlApplicationState>() {
+			public XhtmlApplicationState call() throws Exception {
+				loads.incrementAndGet();
+				release.await(5, TimeUnit.SECONDS);
+				throw new NavigationCancelledException(new IOException("Request aborted"));
+			}
+		};
+		Future<XhtmlApplicationState> r1 = start(new HttpGet(URL_A), cancelled);
+		awaitLoads(1);
+		Future<XhtmlApplicationState> r2 = start(new HttpGet(URL_A), blockingLoader(URL_A));
+		awaitJoiners(1);
+		release.countDown();
+		try {
+			r1.get(5, TimeUnit.SECONDS);
+			Assert.fail("should have thrown");
+		} catch (ExecutionException expected) {
+			Assert.assertTrue(expected.getCause() instanceof NavigationCancelledException);
+		}
+		Assert.assertNotNull(r2.get(5, TimeUnit.SECONDS));
+		Assert.assertEquals(2, loads.get());
+	}
+	
+	private void awaitLoads(int n) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while(loads.get() < n && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+	}
+}
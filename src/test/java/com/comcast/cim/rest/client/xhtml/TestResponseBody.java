@@ -0,0 +1,91 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestResponseBody {
+
+	private File tempDir;
+	private byte[] bytes;
+	
+	@Before
+	public void setUp() throws Exception {
+		tempDir = File.createTempFile("spill", "dir");
+		tempDir.delete();
+		tempDir.mkdir();
+		tempDir.deleteOnExit();
+		bytes = new byte[100000];
+		for(int i=0; i<bytes.length; i++) bytes[i] = (byte)(i % 251);
+	}
+	
+	private byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buf = new byte[1000];
+		int n;
+		while((n = in.read(buf)) != -1) out.write(buf, 0, n);
+		return out.toByteArray();
+	}
+	
+	@Test
+	public void testKeepsSmallBodiesOnHeap() throws Exception {
+		BodyLimits limits = new BodyLimits(bytes.length, bytes.length, tempDir);
+		ResponseBody body = ResponseBody.read(new ByteArrayInputStream(bytes), limits);
+		assertFalse(body.isSpilled());
+		assertEquals(bytes.length, body.length());
+		assertArrayEquals(bytes, readAll(body.openStream()));
+	}
+	
+	@Test
+	public void testSpillsLargeBodiesToMappedFile() throws Exception {
+		BodyLimits limits = new BodyLimits(bytes.length, 1024, tempDir);
+		ResponseBody body = ResponseBody.read(new ByteArrayInputStream(bytes), limits);
+		assertTrue(body.isSpilled());
+		assertEquals(bytes.length, body.length());
+		assertArrayEquals(bytes, readAll(body.openStream()));
+		assertArrayEquals(bytes, readAll(body.openStream()));
+		assertEquals(0, tempDir.listFiles().length);
+	}
+	
+	@Test
+	public void testKeepsBodyOnHeapWithoutSpillThreshold() throws Exception {
+		ResponseBody body = ResponseBody.read(new ByteArrayInputStream(bytes), 
+				BodyLimits.capped(bytes.length));
+		assertFalse(body.isSpilled());
+		assertArrayEquals(bytes, readAll(body.openStream()));
+	}
+	
+	@Test
+	public void testRejectsBodiesOverMaximumSize() throws Exception {
+		BodyLimits limits = new BodyLimits(bytes.length - 1, 1024, tempDir);
+		try {
+			ResponseBody.read(new ByteArrayInputStream(bytes), limits);
+			fail("should have thrown ResponseTooLargeException");
+		} catch (ResponseTooLargeException expected) {
+			assertEquals(bytes.length - 1, expected.getLimit());
+		}
+		assertEquals(0, tempDir.listFiles().length);
+	}
+}
@@ -0,0 +1,168 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.net.URL;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestResponseDispatcher {
+
+	private ResponseDispatcher impl;
+	private URL context;
+	
+	@Before
+	public void setUp() throws Exception {
+		impl = ResponseDispatcher.xhtmlOnly();
+		context = new URL("http://foo.example.com/");
+	}
+	
+	private HttpResponse response(int status, String contentType, String body) {
+		HttpResponse resp = new BasicHttpResponse(HttpVersion.HTTP_1_1, status, "Status");
+		if (contentType != null) resp.setHeader("Content-Type", contentType);
+		resp.setEntity(new MockHttpEntity(body.getBytes()));
+		return resp;
+	}
+	
+	@Test
+	public void testParsesXhtml() {
+		HttpResponse resp = response(HttpStatus.SC_OK, "application/xhtml+xml;charset=utf-8", "");
+		assertSame(BodyHandlers.PARSE, impl.select(resp));
+	}
+	
+	@Test
+	public void testParsesResponsesWithoutMediaType() {
+		assertSame(BodyHandlers.PARSE, impl.select(response(HttpStatus.SC_OK, null, "")));
+	}
+	
+	@Test
+	public void testParsesXmlSuffixTypes() {
+		HttpResponse resp = response(HttpStatus.SC_OK, "application/atom+xml", "");
+		assertSame(BodyHandlers.PARSE, impl.select(resp));
+	}
+	
+	@Test
+	public void testDiscardsOtherMediaTypes() {
+		assertSame(BodyHandlers.DISCARD, impl.select(response(HttpStatus.SC_OK, "image/png", "")));
+		assertSame(BodyHandlers.DISCARD, impl.select(response(HttpStatus.SC_OK, "application/json", "")));
+	}
+	
+	@Test
+	public void testPrefersMostSpecificMediaType() {
+		impl.register("image/*", BodyHandlers.RAW_BYTES);
+		impl.register("image/svg+xml", BodyHandlers.PARSE);
+		assertSame(BodyHandlers.RAW_BYTES, impl.select(response(HttpStatus.SC_OK, "image/png", "")));
+		assertSame(BodyHandlers.PARSE, impl.select(response(HttpStatus.SC_OK, "Image/SVG+XML", "")));
+	}
+	
+	@Test
+	public void testPrefersStatusClassRegistrations() {
+		BodyHandler capture = BodyHandlers.boundedCapture(10);
+		impl.register(5, "text/plain", capture);
+		assertSame(capture, impl.select(response(HttpStatus.SC_BAD_GATEWAY, "text/plain", "")));
+		assertSame(BodyHandlers.DISCARD, impl.select(response(HttpStatus.SC_OK, "text/plain", "")));
+	}
+	
+	@Test
+	public void testCountsParsedAndSkippedResponses() {
+		impl.select(response(HttpStatus.SC_OK, "application/xhtml+xml", ""));
+		impl.select(response(HttpStatus.SC_OK, "image/png", ""));
+		impl.select(response(HttpStatus.SC_OK, "image/png", ""));
+		assertEquals(Long.valueOf(1), impl.getParsedCounts().get("application/xhtml+xml"));
+		assertEquals(Long.valueOf(2), impl.getSkippedCounts().get("image/png"));
+		assertNull(impl.getParsedCounts().get("image/png"));
+	}
+	
+	@Test
+	public void testDiscardKeepsNoBody() throws Exception {
+		HttpResponse resp = response(HttpStatus.SC_OK, "image/png", "abc");
+		XhtmlApplicationState result = BodyHandlers.DISCARD.handleBody(context, resp);
+		assertNull(result.getDocument());
+		assertFalse(result instanceof RawBodyApplicationState);
+		assertSame(resp, result.getHttpResponse());
+	}
+	
+	@Test
+	public void testRawBytesKeepsWholeBody() throws Exception {
+		HttpResponse resp = response(HttpStatus.SC_OK, "application/json", "{\"a\":1}");
+		RawBodyApplicationState result = 
+			(RawBodyApplicationState)BodyHandlers.RAW_BYTES.handleBody(context, resp);
+		assertEquals("{\"a\":1}", new String(result.getBody()));
+		assertFalse(result.isTruncated());
+	}
+	
+	@Test
+	public void testBoundedCaptureTruncatesBody() throws Exception {
+		HttpResponse resp = response(HttpStatus.SC_INTERNAL_SERVER_ERROR, "text/plain", "0123456789");
+		RawBodyApplicationState result = 
+			(RawBodyApplicationState)BodyHandlers.boundedCapture(4).handleBody(context, resp);
+		assertEquals("0123", new String(result.getBody()));
+		assertTrue(result.isTruncated());
+		assertSame(context, result.getContext());
+	}
+	
+	@Test
+	public void testDiscardDrainsSmallBodies() throws Exception {
+		HttpResponse resp = response(HttpStatus.SC_OK, "image/png", "");
+		AbortableHttpEntity entity = new AbortableHttpEntity(new ByteArrayInputStream(new byte[100]), -1);
+		resp.setEntity(entity);
+		BodyHandlers.DISCARD.handleBody(context, resp);
+		assertFalse(entity.aborted());
+	}
+	
+	@Test
+	public void testDiscardClosesConnectionRatherThanDrainLargeBodies() throws Exception {
+		HttpResponse resp = response(HttpStatus.SC_OK, "image/png", "");
+		int size = (int)BodyHandlers.MAX_DRAIN_BYTES + 1;
+		AbortableHttpEntity entity = new AbortableHttpEntity(new ByteArrayInputStream(new byte[size]), -1);
+		resp.setEntity(entity);
+		BodyHandlers.DISCARD.handleBody(context, resp);
+		assertTrue(entity.aborted());
+	}
+	
+	@Test
+	public void testBoundedCaptureClosesConnectionWhenTruncating() throws Exception {
+		HttpResponse resp = response(HttpStatus.SC_INTERNAL_SERVER_ERROR, "text/plain", "");
+		AbortableHttpEntity entity = new AbortableHttpEntity(
+				new ByteArrayInputStream("0123456789".getBytes()), -1);
+		resp.setEntity(entity);
+		RawBodyApplicationState result = 
+			(RawBodyApplicationState)BodyHandlers.boundedCapture(4).handleBody(context, resp);
+		assertEquals("0123", new String(result.getBody()));
+		assertTrue(entity.aborted());
+	}
+	
+	@Test
+	public void testBoundedCaptureKeepsShortBodies() throws Exception {
+		HttpResponse resp = response(HttpStatus.SC_INTERNAL_SERVER_ERROR, "text/plain", "");
+		AbortableHttpEntity entity = new AbortableHttpEntity(
+				new ByteArrayInputStream("0123".getBytes()), -1);
+		resp.setEntity(entity);
+		RawBodyApplicationState result = 
+			(RawBodyApplicationState)BodyHandlers.boundedCapture(4).handleBody(context, resp);
+		assertEquals("0123", new String(result.getBody()));
+		assertFalse(result.isTruncated());
+		assertFalse(entity.aborted());
+	}
+}
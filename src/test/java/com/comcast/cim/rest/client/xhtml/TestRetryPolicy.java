@@ -0,0 +1,139 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.methods.HttpUriRequest;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestRetryPolicy extends XhtmlTestCase {
+
+	private static final String BASE = "http://foo.example.com/";
+
+	private ScriptedClient client;
+	private List<Long> sleeps;
+	private RetryPolicy policy;
+	private XhtmlNavigator navigator;
+	private XhtmlApplicationState start;
+
+	@Before
+	public void setUp() {
+		client = new ScriptedClient();
+		sleeps = new ArrayList<Long>();
+		policy = new RetryPolicy(3, 100, 1000) {
+			@Override
+			protected void sleep(long millis) { sleeps.add(millis); }
+		};
+		navigator = new XhtmlNavigator(new XhtmlParser(), new RequestBuilder(), client);
+		navigator.setRetryPolicy(policy);
+		start = page(BASE + "start", 200, link("next", BASE + "start/next"));
+	}
+
+	@Test
+	public void testBackoffStaysWithinExponentialBound() {
+		for(int i = 0; i < 100; i++) {
+			Assert.assertTrue(policy.getBackoffMillis(1) <= 100);
+			Assert.assertTrue(policy.getBackoffMillis(2) <= 200);
+			Assert.assertTrue(policy.getBackoffMillis(3) <= 400);
+			Assert.assertTrue(policy.getBackoffMillis(10) <= 1000);
+			Assert.assertTrue(policy.getBackoffMillis(100) >= 0);
+		}
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testRejectsZeroAttempts() {
+		new RetryPolicy(0, 100, 1000);
+	}
+
+	@Test
+	public void testRetriesServerErrorUntilSuccess() throws Exception {
+		client.script(503, 200);
+		XhtmlApplicationState result = navigator.followLink(start, "next");
+		Assert.assertTrue(result.succeeded());
+		List<HttpUriRequest> requests = client.executed();
+		Assert.assertEquals(2, requests.size());
+		Assert.assertEquals(1, sleeps.size());
+		Assert.assertNotSame(requests.get(0), requests.get(1));
+		Assert.assertEquals(requests.get(0).getURI(), requests.get(1).getURI());
+	}
+
+	@Test
+	public void testRetriesIOException() throws Exception {
+		client.script(-1, -1, 200);
+		Assert.assertTrue(navigator.followLink(start, "next").succeeded());
+		Assert.assertEquals(3, client.executed().size());
+		Assert.assertEquals(2, sleeps.size());
+	}
+
+	@Test(expected=ServerErrorException.class)
+	public void testGivesUpAfterMaxAttempts() throws Exception {
+		client.script(500, 502, 504);
+		try {
+			navigator.followLink(start, "next");
+		} finally {
+			Assert.assertEquals(3, client.executed().size());
+		}
+	}
+
+	@Test(expected=IOException.class)
+	public void testRethrowsLastIOException() throws Exception {
+		client.script(-1, -1, -1);
+		navigator.followLink(start, "next");
+	}
+
+	@Test
+	public void testDoesNotRetryClientError() throws Exception {
+		client.script(404);
+		try {
+			navigator.followLink(start, "next");
+			Assert.fail();
+		} catch (ServerErrorException expected) {
+		}
+		Assert.assertEquals(1, client.executed().size());
+		Assert.assertTrue(sleeps.isEmpty());
+	}
+
+	@Test
+	public void testRetriesAsynchronousGet() throws Exception {
+		client.script(503, -1, 200);
+		XhtmlApplicationState result = navigator.followLinkAsync(start, "next")
+			.get(5, TimeUnit.SECONDS);
+		Assert.assertTrue(result.succeeded());
+		List<HttpUriRequest> requests = client.sent();
+		Assert.assertEquals(3, requests.size());
+		Assert.assertNotSame(requests.get(0), requests.get(1));
+		Assert.assertTrue(sleeps.isEmpty());
+	}
+
+	@Test
+	public void testAsynchronousGetGivesUpAfterMaxAttempts() throws Exception {
+		client.script(500, 502, 504);
+		try {
+			navigator.followLinkAsync(start, "next").get(5, TimeUnit.SECONDS);
+			Assert.fail();
+		} catch (ExecutionException expected) {
+			Assert.assertTrue(expected.getCause() instanceof ServerErrorException);
+		}
+		Assert.assertEquals(3, client.sent().size());
+	}
+}
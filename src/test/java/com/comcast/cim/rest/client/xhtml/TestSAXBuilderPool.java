@@ -0,0 +1,100 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import org.jdom.Document;
+import org.jdom.JDOMException;
+import org.jdom.input.SAXBuilder;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestSAXBuilderPool extends XhtmlTestCase {
+
+	private SAXBuilderPool impl;
+	
+	@Before
+	public void setUp() throws Exception {
+		impl = new SAXBuilderPool(2);
+	}
+	
+	@Test
+	public void testReusesReleasedBuilder() {
+		SAXBuilder first = impl.borrow();
+		impl.release(first);
+		SAXBuilder second = impl.borrow();
+		assertSame(first, second);
+		assertEquals(1, impl.getCreatedCount());
+		assertEquals(1, impl.getReusedCount());
+	}
+	
+	@Test
+	public void testCreatesNewBuilderWhenNoneIdle() {
+		SAXBuilder first = impl.borrow();
+		SAXBuilder second = impl.borrow();
+		assertNotSame(first, second);
+		assertEquals(2, impl.getCreatedCount());
+	}
+	
+	@Test
+	public void testRetainsAtMostMaxIdleBuilders() {
+		SAXBuilder b1 = impl.borrow();
+		SAXBuilder b2 = impl.borrow();
+		SAXBuilder b3 = impl.borrow();
+		impl.release(b1);
+		impl.release(b2);
+		impl.release(b3);
+		assertEquals(2, impl.getIdleCount());
+		assertEquals(1, impl.getDiscardedCount());
+	}
+	
+	@Test
+	public void testDiscardedBuilderIsNotHandedOutAgain() {
+		SAXBuilder first = impl.borrow();
+		impl.discard(first);
+		assertEquals(0, impl.getIdleCount());
+		assertNotSame(first, impl.borrow());
+	}
+	
+	@Test
+	public void testBuilderParsesAfterMalformedDocument() throws Exception {
+		SAXBuilder builder = impl.borrow();
+		try {
+			builder.build(new ByteArrayInputStream(buildXhtml("<p>").getBytes()));
+			fail("should have thrown JDOMException");
+		} catch (JDOMException expected) {
+		}
+		Document doc = builder.build(new ByteArrayInputStream(buildXhtml("<p/>").getBytes()));
+		assertEquals("html", doc.getRootElement().getName());
+	}
+	
+	@Test
+	public void testBuilderParsesAfterInterruptedStream() throws Exception {
+		SAXBuilder builder = impl.borrow();
+		byte[] truncated = buildXhtml("<p/>").substring(0, 200).getBytes();
+		try {
+			builder.build(new InterruptedInputStream(new ByteArrayInputStream(truncated)));
+			fail("should have thrown IOException");
+		} catch (IOException expected) {
+		}
+		Document doc = builder.build(new ByteArrayInputStream(buildXhtml("<p/>").getBytes()));
+		assertEquals("html", doc.getRootElement().getName());
+	}
+}
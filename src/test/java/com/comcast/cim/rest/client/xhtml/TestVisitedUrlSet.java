@@ -0,0 +1,77 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestVisitedUrlSet {
+
+	@Test
+	public void testAddsEachUrlOnce() {
+		VisitedUrlSet impl = new VisitedUrlSet();
+		Assert.assertTrue(impl.add("http://foo.example.com/a"));
+		Assert.assertFalse(impl.add("http://foo.example.com/a"));
+		Assert.assertTrue(impl.add("http://foo.example.com/b"));
+		Assert.assertTrue(impl.contains("http://foo.example.com/a"));
+		Assert.assertFalse(impl.contains("http://foo.example.com/c"));
+		Assert.assertEquals(2, impl.size());
+	}
+
+	@Test
+	public void testGrowsBeyondExpectedSize() {
+		VisitedUrlSet impl = new VisitedUrlSet(16);
+		for(int i = 0; i < 100000; i++) {
+			Assert.assertTrue(impl.add("http://foo.example.com/item/" + i));
+		}
+		Assert.assertEquals(100000, impl.size());
+		for(int i = 0; i < 100000; i++) {
+			Assert.assertTrue(impl.contains("http://foo.example.com/item/" + i));
+		}
+		Assert.assertFalse(impl.contains("http://foo.example.com/item/100000"));
+	}
+
+	@Test
+	public void testHashIsNeverZero() {
+		Assert.assertTrue(VisitedUrlSet.hash("") != 0);
+		Assert.assertTrue(VisitedUrlSet.hash("a") != VisitedUrlSet.hash("b"));
+	}
+
+	@Test
+	public void testConcurrentAddsAdmitEachUrlOnce() throws Exception {
+		final VisitedUrlSet impl = new VisitedUrlSet();
+		final AtomicInteger added = new AtomicInteger();
+		List<Thread> threads = new ArrayList<Thread>();
+		for(int t = 0; t < 8; t++) {
+			Thread thread = new Thread() {
+				public void run() {
+					for(int i = 0; i < 10000; i++) {
+						if (impl.add("http://foo.example.com/" + i)) added.incrementAndGet();
+					}
+				}
+			};
+			threads.add(thread);
+			thread.start();
+		}
+		for(Thread t : threads) t.join();
+		Assert.assertEquals(10000, added.get());
+		Assert.assertEquals(10000, impl.size());
+	}
+}
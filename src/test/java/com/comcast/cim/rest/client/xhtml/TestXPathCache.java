@@ -0,0 +1,77 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+import static org.junit.Assert.*;
+
+import org.jdom.Document;
+import org.jdom.Element;
+import org.jdom.JDOMException;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestXPathCache extends XhtmlTestCase {
+
+	private static final String LINK = ".//xhtml:a[@rel=$rel]";
+	
+	private XPathCache impl;
+	private Document doc;
+	
+	@Before
+	public void setUp() throws Exception {
+		impl = new XPathCache();
+		doc = getDocument(buildXhtml("<p><a rel=\"one\" href=\"/1\">1</a>" +
+				"<a rel=\"two\" href=\"/2\">2</a></p>"));
+	}
+	
+	@Test
+	public void testCompilesExpressionOnlyOnce() throws Exception {
+		for(int i=0; i<10; i++) {
+			impl.selectSingleNode(doc.getRootElement(), "xhtml", LINK, "rel", "one");
+		}
+		assertEquals(1, impl.getCompilationCount("xhtml", LINK));
+	}
+	
+	@Test
+	public void testBindsVariablesPerEvaluation() throws Exception {
+		Element one = (Element)impl.selectSingleNode(doc.getRootElement(), "xhtml", LINK, "rel", "one");
+		Element two = (Element)impl.selectSingleNode(doc.getRootElement(), "xhtml", LINK, "rel", "two");
+		assertEquals("/1", one.getAttributeValue("href"));
+		assertEquals("/2", two.getAttributeValue("href"));
+	}
+	
+	@Test
+	public void testKeysExpressionsByPrefix() throws Exception {
+		impl.selectNodes(doc.getRootElement(), "xhtml", "//xhtml:a");
+		impl.selectNodes(doc.getRootElement(), "h", "//h:a");
+		assertEquals(2, impl.size());
+	}
+	
+	@Test
+	public void testSelectsAllMatchingNodes() throws Exception {
+		assertEquals(2, impl.selectNodes(doc.getRootElement(), "xhtml", "//xhtml:a").size());
+	}
+	
+	@Test
+	public void testReportsInvalidExpressions() throws Exception {
+		try {
+			impl.selectSingleNode(doc.getRootElement(), "xhtml", "//xhtml:a[");
+			fail("should have thrown JDOMException");
+		} catch (JDOMException expected) {
+		}
+		assertEquals(0, impl.size());
+	}
+}
@@ -15,18 +15,37 @@
 */
 package com.comcast.cim.rest.client.xhtml;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 
 import junit.framework.Assert;
 
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.client.cache.CacheConfig;
+import org.apache.http.message.BasicHttpResponse;
+import org.jdom.Document;
 import org.easymock.Capture;
 import org.easymock.classextension.EasyMock;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
 import com.comcast.cim.rest.client.xhtml.XhtmlApplicationState;
 import com.comcast.cim.rest.client.xhtml.XhtmlHttpClient;
 import com.comcast.cim.rest.client.xhtml.XhtmlResponseHandler;
@@ -117,5 +136,259 @@ public class TestXhtmlHttpClient {
 		Assert.assertEquals("application/xhtml+xml,*/*;q=0.9",
 				captured.getFirstHeader("Accept").getValue());
 	}
+
+	@Test
+	public void testUsesScanningHandlerForControlTarget() throws Exception {
+		XhtmlApplicationState state = new XhtmlApplicationState(null,null,null);
+		HttpGet get = new HttpGet("http://foo.example.com/");
+		URL context = new URL("http://foo.example.com/");
+		ControlTarget target = ControlTarget.link("next");
+		XhtmlResponseHandler rh = new XhtmlResponseHandler(context);
+		
+		EasyMock.expect(mockFactory.get(context, target)).andReturn(rh);
+		EasyMock.expect(mockHttpClient.execute(get, rh)).andReturn(state);
+		
+		replayMocks();
+		XhtmlApplicationState result = impl.execute(get, target);
+		verifyMocks();
+		Assert.assertSame(state, result);
+	}
+	
+	private static class ETagHandler implements HttpHandler {
+		private String cacheControl;
+		private List<String> conditions = new ArrayList<String>();
+		
+		ETagHandler(String cacheControl) {
+			this.cacheControl = cacheControl;
+		}
+		
+		public void handle(HttpExchange exchange) throws IOException {
+			String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+			conditions.add(ifNoneMatch);
+			exchange.getResponseHeaders().set("ETag", "\"v1\"");
+			exchange.getResponseHeaders().set("Cache-Control", cacheControl);
+			if ("\"v1\"".equals(ifNoneMatch)) {
+				exchange.sendResponseHeaders(304, -1);
+				exchange.close();
+				return;
+			}
+			byte[] body = ("<html xmlns=\"http://www.w3.org/1999/xhtml\">" +
+					"<head/><body/></html>").getBytes("UTF-8");
+			exchange.getResponseHeaders().set("Content-Type", "application/xhtml+xml");
+			exchange.sendResponseHeaders(200, body.length);
+			OutputStream out = exchange.getResponseBody();
+			out.write(body);
+			out.close();
+		}
+	}
+	
+	private List<String> fetchTwice(String cacheControl,
+			XhtmlApplicationState[] states) throws Exception {
+		HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		ETagHandler handler = new ETagHandler(cacheControl);
+		server.createContext("/", handler);
+		server.start();
+		DefaultHttpClient backend = new DefaultHttpClient();
+		try {
+			impl = XhtmlHttpClient.caching(backend, new CacheConfig(),
+					new XhtmlResponseHandlerFactory());
+			String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+			states[0] = impl.execute(new HttpGet(url));
+			states[1] = impl.execute(new HttpGet(url));
+		} finally {
+			backend.getConnectionManager().shutdown();
+			server.stop(0);
+		}
+		return handler.conditions;
+	}
+	
+	@Test
+	public void testCachingClientReusesDocumentForFreshResponse() throws Exception {
+		XhtmlApplicationState[] states = new XhtmlApplicationState[2];
+		List<String> requests = fetchTwice("max-age=3600", states);
+		Assert.assertEquals(1, requests.size());
+		Assert.assertNotNull(states[0].getDocument());
+		Assert.assertSame(states[0].getDocument(), states[1].getDocument());
+	}
+	
+	@Test
+	public void testCachingClientRevalidatesAndReusesDocument() throws Exception {
+		XhtmlApplicationState[] states = new XhtmlApplicationState[2];
+		List<String> requests = fetchTwice("max-age=0", states);
+		Assert.assertEquals(2, requests.size());
+		Assert.assertEquals("\"v1\"", requests.get(1));
+		Assert.assertTrue(states[1].succeeded());
+		Assert.assertNotNull(states[0].getDocument());
+		Assert.assertSame(states[0].getDocument(), states[1].getDocument());
+	}
 	
+	@Test
+	public void testServesRepeatedGetFromStateCache() throws Exception {
+		HttpResponse resp = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK");
+		resp.setHeader("Cache-Control", "max-age=60");
+		URL context = new URL("http://foo.example.com/");
+		XhtmlApplicationState state = new XhtmlApplicationState(context, resp, null);
+		XhtmlResponseHandler rh = new XhtmlResponseHandler(context);
+		impl.setStateCache(new ApplicationStateCache());
+		
+		EasyMock.expect(mockFactory.get(context)).andReturn(rh);
+		EasyMock.expect(mockHttpClient.execute(EasyMock.isA(HttpGet.class), EasyMock.same(rh)))
+			.andReturn(state);
+		
+		replayMocks();
+		XhtmlApplicationState first = impl.execute(new HttpGet("http://foo.example.com/"));
+		XhtmlApplicationState second = impl.execute(new HttpGet("http://foo.example.com/"));
+		verifyMocks();
+		Assert.assertSame(state, first);
+		Assert.assertSame(state, second);
+	}
+	
+	private static class RecordingExecutor implements Executor {
+		int executed;
+		public void execute(Runnable r) {
+			executed++;
+			r.run();
+		}
+	}
+	
+	@Test
+	public void testExecutesAsyncRequestsAndParsesOnParseExecutor() throws Exception {
+		HttpResponse resp = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK");
+		URL context = new URL("http://foo.example.com/");
+		String xhtml = "<html xmlns=\"http://www.w3.org/1999/xhtml\"><body/></html>";
+		LazyXhtmlApplicationState state = new LazyXhtmlApplicationState(context, resp,
+				xhtml.getBytes("UTF-8"), new SAXBuilderPool());
+		HttpGet get = new HttpGet("http://foo.example.com/");
+		XhtmlResponseHandler rh = new LazyXhtmlResponseHandler(context, new SAXBuilderPool());
+		RecordingExecutor io = new RecordingExecutor();
+		RecordingExecutor parse = new RecordingExecutor();
+		impl.setIoExecutor(io);
+		impl.setParseExecutor(parse);
+		
+		EasyMock.expect(mockFactory.getDeferred(context)).andReturn(rh);
+		EasyMock.expect(mockHttpClient.execute(get, rh)).andReturn(state);
+		
+		replayMocks();
+		NavigationFuture<XhtmlApplicationState> result = impl.executeAsync(get);
+		verifyMocks();
+		Assert.assertSame(state, result.get());
+		Assert.assertTrue(state.isMaterialized());
+		Assert.assertEquals(1, io.executed);
+		Assert.assertEquals(1, parse.executed);
+	}
+	
+	@Test
+	public void testAsyncRequestFailureCompletesFutureExceptionally() throws Exception {
+		HttpGet get = new HttpGet("http://foo.example.com/");
+		URL context = new URL("http://foo.example.com/");
+		XhtmlResponseHandler rh = new LazyXhtmlResponseHandler(context, new SAXBuilderPool());
+		IOException failure = new IOException("boom");
+		impl.setIoExecutor(new RecordingExecutor());
+		
+		EasyMock.expect(mockFactory.getDeferred(context)).andReturn(rh);
+		EasyMock.expect(mockHttpClient.execute(get, rh)).andThrow(failure);
+		
+		replayMocks();
+		NavigationFuture<XhtmlApplicationState> result = impl.executeAsync(get);
+		verifyMocks();
+		try {
+			result.get();
+			Assert.fail("should have thrown ExecutionException");
+		} catch (ExecutionException expected) {
+			Assert.assertSame(failure, expected.getCause());
+		}
+	}
+	
+	@Test
+	public void testCancellingAsyncRequestAbortsIt() throws Exception {
+		HttpGet get = new HttpGet("http://foo.example.com/");
+		URL context = new URL("http://foo.example.com/");
+		XhtmlResponseHandler rh = new LazyXhtmlResponseHandler(context, new SAXBuilderPool());
+		impl.setIoExecutor(new Executor() {
+			public void execute(Runnable r) { }
+		});
+		
+		EasyMock.expect(mockFactory.getDeferred(context)).andReturn(rh);
+		
+		replayMocks();
+		NavigationFuture<XhtmlApplicationState> result = impl.executeAsync(get);
+		Assert.assertTrue(result.cancel(true));
+		verifyMocks();
+		Assert.assertTrue(get.isAborted());
+	}
+	
+	@Test
+	public void testCancellingAsyncRequestSkipsPendingParse() throws Exception {
+		HttpResponse resp = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK");
+		URL context = new URL("http://foo.example.com/");
+		String xhtml = "<html xmlns=\"http://www.w3.org/1999/xhtml\"><body/></html>";
+		LazyXhtmlApplicationState state = new LazyXhtmlApplicationState(context, resp,
+				xhtml.getBytes("UTF-8"), new SAXBuilderPool());
+		HttpGet get = new HttpGet("http://foo.example.com/");
+		XhtmlResponseHandler rh = new LazyXhtmlResponseHandler(context, new SAXBuilderPool());
+		final List<Runnable> parses = new ArrayList<Runnable>();
+		impl.setIoExecutor(new RecordingExecutor());
+		impl.setParseExecutor(new Executor() {
+			public void execute(Runnable r) { parses.add(r); }
+		});
+		
+		EasyMock.expect(mockFactory.getDeferred(context)).andReturn(rh);
+		EasyMock.expect(mockHttpClient.execute(get, rh)).andReturn(state);
+		
+		replayMocks();
+		NavigationFuture<XhtmlApplicationState> result = impl.executeAsync(get);
+		Assert.assertTrue(result.cancel(true));
+		parses.get(0).run();
+		verifyMocks();
+		Assert.assertFalse(state.isMaterialized());
+		Assert.assertFalse(Thread.currentThread().isInterrupted());
+	}
+	
+	@Test
+	public void testCancellingAsyncRequestInterruptsRunningParse() throws Exception {
+		HttpResponse resp = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK");
+		URL context = new URL("http://foo.example.com/");
+		String xhtml = "<html xmlns=\"http://www.w3.org/1999/xhtml\"><body/></html>";
+		final CountDownLatch parsing = new CountDownLatch(1);
+		final boolean[] interrupted = new boolean[1];
+		final LazyXhtmlApplicationState state = new LazyXhtmlApplicationState(context, resp,
+				xhtml.getBytes("UTF-8"), new SAXBuilderPool()) {
+			@Override
+			public Document getDocument() {
+				parsing.countDown();
+				try {
+					Thread.sleep(10000);
+				} catch (InterruptedException e) {
+					interrupted[0] = true;
+					Thread.currentThread().interrupt();
+				}
+				return super.getDocument();
+			}
+		};
+		HttpGet get = new HttpGet("http://foo.example.com/");
+		XhtmlResponseHandler rh = new LazyXhtmlResponseHandler(context, new SAXBuilderPool());
+		final List<Thread> parsers = new ArrayList<Thread>();
+		impl.setIoExecutor(new RecordingExecutor());
+		impl.setParseExecutor(new Executor() {
+			public void execute(Runnable r) {
+				Thread t = new Thread(r);
+				parsers.add(t);
+				t.start();
+			}
+		});
+		
+		EasyMock.expect(mockFactory.getDeferred(context)).andReturn(rh);
+		EasyMock.expect(mockHttpClient.execute(get, rh)).andReturn(state);
+		
+		replayMocks();
+		NavigationFuture<XhtmlApplicationState> result = impl.executeAsync(get);
+		parsing.await();
+		Assert.assertTrue(result.cancel(true));
+		parsers.get(0).join(5000);
+		verifyMocks();
+		Assert.assertTrue(interrupted[0]);
+		Assert.assertFalse(state.isMaterialized());
+		Assert.assertTrue(result.isCancelled());
+	}
+
 }
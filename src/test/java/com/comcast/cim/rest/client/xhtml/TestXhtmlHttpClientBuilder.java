@@ -0,0 +1,135 @@
+/*
+   Copyright (C) 2011 Comcast Interactive Media, LLC ("Licensor").
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.comcast.cim.rest.client.xhtml;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class TestXhtmlHttpClientBuilder {
+
+	private PooledHttpClientTransport transport;
+	
+	@After
+	public void tearDown() {
+		if (transport != null) transport.shutdown();
+	}
+	
+	@Test
+	public void testAppliesPoolLimits() {
+		transport = new XhtmlHttpClientBuilder()
+			.setMaxTotal(40).setMaxPerRoute(7).setIdleEviction(0, 0)
+			.buildTransport();
+		ConnectionPoolStats stats = transport.getPoolStats();
+		Assert.assertEquals(40, stats.getMaxTotal());
+		Assert.assertEquals(7, stats.getDefaultMaxPerRoute());
+		Assert.assertEquals(0, stats.getConnectionsInPool());
+		Assert.assertEquals(0, stats.getPending());
+		Assert.assertEquals(0.0, stats.getUtilization(), 0.0);
+	}
+	
+	@Test
+	public void testAppliesSocketParameters() {
+		transport = new XhtmlHttpClientBuilder()
+			.setSocketBufferSize(16384).setConnectTimeout(1234).setSocketTimeout(5678)
+			.setIdleEviction(0, 0).buildTransport();
+		HttpParams params = transport.getHttpClient().getParams();
+		Assert.assertEquals(16384, HttpConnectionParams.getSocketBufferSize(params));
+		Assert.assertEquals(1234, HttpConnectionParams.getConnectionTimeout(params));
+		Assert.assertEquals(5678, HttpConnectionParams.getSoTimeout(params));
+		Assert.assertTrue(HttpConnectionParams.isStaleCheckingEnabled(params));
+	}
+	
+	@Test
+	public void testRunsEvictorUntilShutdown() throws Exception {
+		transport = new XhtmlHttpClientBuilder().setIdleEviction(10, 100).buildTransport();
+		Assert.assertTrue(transport.isEvictorRunning());
+		Assert.assertFalse(HttpConnectionParams.isStaleCheckingEnabled(
+				transport.getHttpClient().getParams()));
+		transport.shutdown();
+		Thread.sleep(50);
+		Assert.assertFalse(transport.isEvictorRunning());
+	}
+	
+	@Test
+	public void testKeepAliveHonorsShorterServerTimeout() {
+		XhtmlHttpClientBuilder.BoundedKeepAliveStrategy strategy =
+			new XhtmlHttpClientBuilder.BoundedKeepAliveStrategy(30000);
+		HttpResponse resp = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK");
+		Assert.assertEquals(30000, strategy.getKeepAliveDuration(resp, null));
+		resp.setHeader("Keep-Alive", "timeout=5, max=100");
+		Assert.assertEquals(5000, strategy.getKeepAliveDuration(resp, null));
+		resp.setHeader("Keep-Alive", "timeout=600");
+		Assert.assertEquals(30000, strategy.getKeepAliveDuration(resp, null));
+	}
+	
+	@Test
+	public void testBuiltClientReusesPooledConnection() throws Exception {
+		HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				byte[] body = "<html xmlns=\"http://www.w3.org/1999/xhtml\"/>".getBytes("UTF-8");
+				exchange.getResponseHeaders().set("Content-Type", "application/xhtml+xml");
+				exchange.sendResponseHeaders(200, body.length);
+				OutputStream out = exchange.getResponseBody();
+				out.write(body);
+				out.close();
+			}
+		});
+		server.start();
+		try {
+			XhtmlHttpClient client = new XhtmlHttpClientBuilder().setIdleEviction(0, 0).build();
+			transport = (PooledHttpClientTransport)client.getTransport();
+			String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+			for(int i = 0; i < 3; i++) {
+				Assert.assertNotNull(client.execute(new HttpGet(url)).getDocument());
+			}
+			ConnectionPoolStats stats = transport.getPoolStats();
+			Assert.assertEquals(1, stats.getConnectionsInPool());
+			Assert.assertEquals(0, stats.getLeased());
+			Assert.assertEquals(1, stats.getAvailable());
+			Assert.assertEquals(0.0, stats.getUtilization(), 0.0);
+			
+			HttpResponse held = transport.getHttpClient().execute(new HttpGet(url));
+			stats = transport.getPoolStats();
+			Assert.assertEquals(1, stats.getLeased());
+			Assert.assertEquals(0, stats.getAvailable());
+			Assert.assertEquals(1.0 / stats.getMaxTotal(), stats.getUtilization(), 0.0);
+			EntityUtils.consume(held.getEntity());
+			Assert.assertEquals(0, transport.getPoolStats().getLeased());
+			transport.evictIdleConnections(0);
+			Assert.assertEquals(0, transport.getPoolStats().getConnectionsInPool());
+		} finally {
+			server.stop(0);
+		}
+	}
+}
@@ -20,8 +20,11 @@ import static org.junit.Assert.*;
 import static org.easymock.classextension.EasyMock.*;
 
 import java.net.URL;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
 
 import junit.framework.Assert;
 
@@ -83,7 +86,7 @@ public class TestXhtmlNavigator {
 	public void testCanFollowLink() throws Exception {
 		String rel = "relation";
 		Element a = new Element("a");
-		expect(mockParser.getLinkWithRelation(doc, rel))
+		expect(mockParser.getLinkWithRelation(initState, rel))
 			.andReturn(a);
 		HttpGet req = new HttpGet("http://foo.example.com/");
 		expect(mockBuilder.followLink(a, context))
@@ -113,8 +116,9 @@ public class TestXhtmlNavigator {
 		right.setText("Good Link");
 		inner.addContent(right);
 		outer.addContent(inner);
+		doc.setRootElement(outer);
 		
-		expect(mockParser.getLinkWithRelation(inner, rel))
+		expect(mockParser.getLinkWithRelation(initState, inner, rel))
 			.andReturn(right);
 		HttpGet req = new HttpGet("http://foo.example.com/");
 		expect(mockBuilder.followLink(right, context))
@@ -131,7 +135,7 @@ public class TestXhtmlNavigator {
 	@Test
 	public void testThrowsRelationNotFoundExceptionIfLinkNotPresent() throws Exception {
 		String rel = "relation";
-		expect(mockParser.getLinkWithRelation(doc, rel))
+		expect(mockParser.getLinkWithRelation(initState, rel))
 			.andReturn(null);
 		
 		replayMocks();
@@ -147,7 +151,7 @@ public class TestXhtmlNavigator {
 	public void testCanSubmitForm() throws Exception {
 		String name = "formName";
 		Element form = new Element("form");
-		expect(mockParser.getFormWithName(doc, name))
+		expect(mockParser.getFormWithName(initState, name))
 			.andReturn(form);
 		HttpPost req = new HttpPost("http://foo.example.com/");
 		Map<String,String> args = new HashMap<String, String>();
@@ -165,7 +169,7 @@ public class TestXhtmlNavigator {
 	@Test
 	public void testThrowsRelationNotFoundExceptionIfFormNotPresent() throws Exception {
 		String formName = "formName";
-		expect(mockParser.getFormWithName(doc, formName))
+		expect(mockParser.getFormWithName(initState, formName))
 			.andReturn(null);
 		
 		replayMocks();
@@ -177,4 +181,227 @@ public class TestXhtmlNavigator {
 		verifyMocks();
 	}
 
+	@Test
+	public void testScansNextStateForTargetWhenAsked() throws Exception {
+		String rel = "relation";
+		Element a = new Element("a");
+		expect(mockParser.getLinkWithRelation(initState, rel))
+			.andReturn(a);
+		HttpGet req = new HttpGet("http://foo.example.com/");
+		expect(mockBuilder.followLink(a, context))
+			.andReturn(req);
+		ControlTarget next = ControlTarget.link("next");
+		expect(mockClient.execute(req, next))
+			.andReturn(newState);
+		
+		replayMocks();
+		XhtmlApplicationState result = impl.followLink(initState, rel, next);
+		verifyMocks();
+		assertSame(newState, result);
+	}
+	
+	@Test
+	public void testFollowsChainOfRelations() throws Exception {
+		Element a1 = new Element("a");
+		Element a2 = new Element("a");
+		XhtmlApplicationState midState = new XhtmlApplicationState(context, success, null);
+		expect(mockParser.getLinkWithRelation(initState, "first")).andReturn(a1);
+		HttpGet req1 = new HttpGet("http://foo.example.com/1");
+		expect(mockBuilder.followLink(a1, context)).andReturn(req1);
+		expect(mockClient.execute(req1, ControlTarget.link("second"))).andReturn(midState);
+		expect(mockParser.getLinkWithRelation(midState, "second")).andReturn(a2);
+		HttpGet req2 = new HttpGet("http://foo.example.com/2");
+		expect(mockBuilder.followLink(a2, context)).andReturn(req2);
+		expect(mockClient.execute(req2)).andReturn(newState);
+		
+		replayMocks();
+		XhtmlApplicationState result = impl.followLinks(initState, "first", "second");
+		verifyMocks();
+		assertSame(newState, result);
+	}
+	
+	private NavigationFuture<XhtmlApplicationState> completed(XhtmlApplicationState state) {
+		NavigationFuture<XhtmlApplicationState> future = 
+			new NavigationFuture<XhtmlApplicationState>();
+		future.set(state);
+		return future;
+	}
+	
+	@Test
+	public void testCanFollowLinkAsynchronously() throws Exception {
+		String rel = "relation";
+		Element a = new Element("a");
+		expect(mockParser.getLinkWithRelation(initState, rel))
+			.andReturn(a);
+		HttpGet req = new HttpGet("http://foo.example.com/");
+		expect(mockBuilder.followLink(a, context))
+			.andReturn(req);
+		expect(mockClient.executeAsync(req))
+			.andReturn(completed(newState));
+		
+		replayMocks();
+		NavigationFuture<XhtmlApplicationState> result = impl.followLinkAsync(initState, rel);
+		verifyMocks();
+		assertSame(newState, result.get());
+	}
+	
+	@Test
+	public void testAsyncNavigationFailsOnServerError() throws Exception {
+		String rel = "relation";
+		Element a = new Element("a");
+		expect(mockParser.getLinkWithRelation(initState, rel))
+			.andReturn(a);
+		HttpGet req = new HttpGet("http://foo.example.com/");
+		expect(mockBuilder.followLink(a, context))
+			.andReturn(req);
+		HttpResponse error = new BasicHttpResponse(HttpVersion.HTTP_1_1, 
+				HttpStatus.SC_INTERNAL_SERVER_ERROR, "Internal Server Error");
+		expect(mockClient.executeAsync(req))
+			.andReturn(completed(new XhtmlApplicationState(null, error, null)));
+		
+		replayMocks();
+		NavigationFuture<XhtmlApplicationState> result = impl.followLinkAsync(initState, rel);
+		verifyMocks();
+		try {
+			result.get();
+			fail("should have thrown ExecutionException");
+		} catch (ExecutionException expected) {
+			assertTrue(expected.getCause() instanceof ServerErrorException);
+		}
+	}
+	
+	@Test
+	public void testCanSubmitFormAsynchronously() throws Exception {
+		Element form = new Element("form");
+		Map<String,String> args = new HashMap<String,String>();
+		expect(mockParser.getFormWithName(initState, "foo"))
+			.andReturn(form);
+		HttpPost req = new HttpPost("http://foo.example.com/");
+		expect(mockBuilder.submitForm(form, context, args))
+			.andReturn(req);
+		expect(mockClient.executeAsync(req))
+			.andReturn(completed(newState));
+		
+		replayMocks();
+		NavigationFuture<XhtmlApplicationState> result = 
+			impl.submitFormAsync(initState, "foo", args);
+		verifyMocks();
+		assertSame(newState, result.get());
+	}
+	
+	private Element anchor(String href) {
+		Element a = new Element("a", XhtmlParser.XHTML_NS);
+		a.setAttribute("rel", "item");
+		a.setAttribute("href", href);
+		return a;
+	}
+	
+	@Test
+	public void testFollowsAllLinksOnceEachInDocumentOrder() throws Exception {
+		Element a1 = anchor("/1");
+		Element a2 = anchor("/2");
+		Element dup = anchor("/1");
+		expect(mockParser.getLinksWithRelation(initState, "item"))
+			.andReturn(Arrays.asList(a1, a2, dup));
+		HttpGet req1 = new HttpGet("http://foo.example.com/1");
+		HttpGet req2 = new HttpGet("http://foo.example.com/2");
+		expect(mockBuilder.followLink(a1, context)).andReturn(req1);
+		expect(mockBuilder.followLink(a2, context)).andReturn(req2);
+		expect(mockBuilder.followLink(dup, context)).andReturn(new HttpGet("http://foo.example.com/1"));
+		XhtmlApplicationState s1 = new XhtmlApplicationState(null, success, null);
+		XhtmlApplicationState s2 = new XhtmlApplicationState(null, success, null);
+		expect(mockClient.executeAsync(req1)).andReturn(completed(s1));
+		expect(mockClient.executeAsync(req2)).andReturn(completed(s2));
+		
+		replayMocks();
+		List<XhtmlApplicationState> result = impl.followAllLinks(initState, "item", 4);
+		verifyMocks();
+		assertEquals(Arrays.asList(s1, s2), result);
+	}
+	
+	@Test
+	public void testCanReturnLinksInCompletionOrder() throws Exception {
+		Element a1 = anchor("/1");
+		Element a2 = anchor("/2");
+		expect(mockParser.getLinksWithRelation(initState, "item"))
+			.andReturn(Arrays.asList(a1, a2));
+		HttpGet req1 = new HttpGet("http://foo.example.com/1");
+		HttpGet req2 = new HttpGet("http://foo.example.com/2");
+		expect(mockBuilder.followLink(a1, context)).andReturn(req1);
+		expect(mockBuilder.followLink(a2, context)).andReturn(req2);
+		final NavigationFuture<XhtmlApplicationState> f1 = new NavigationFuture<XhtmlApplicationState>();
+		final XhtmlApplicationState s1 = new XhtmlApplicationState(null, success, null);
+		XhtmlApplicationState s2 = new XhtmlApplicationState(null, success, null);
+		expect(mockClient.executeAsync(req1)).andReturn(f1);
+		expect(mockClient.executeAsync(req2)).andReturn(completed(s2));
+		
+		replayMocks();
+		new Thread() {
+			public void run() {
+				try { Thread.sleep(50); } catch (InterruptedException e) { }
+				f1.set(s1);
+			}
+		}.start();
+		List<XhtmlApplicationState> result = 
+			impl.followAllLinks(initState, "item", 2, ResultOrder.COMPLETION);
+		verifyMocks();
+		assertEquals(Arrays.asList(s2, s1), result);
+	}
+	
+	@Test
+	public void testBoundsRequestsInFlight() throws Exception {
+		Element a1 = anchor("/1");
+		Element a2 = anchor("/2");
+		expect(mockParser.getLinksWithRelation(initState, "item"))
+			.andReturn(Arrays.asList(a1, a2));
+		HttpGet req1 = new HttpGet("http://foo.example.com/1");
+		HttpGet req2 = new HttpGet("http://foo.example.com/2");
+		expect(mockBuilder.followLink(a1, context)).andReturn(req1);
+		expect(mockBuilder.followLink(a2, context)).andReturn(req2);
+		final NavigationFuture<XhtmlApplicationState> f1 = new NavigationFuture<XhtmlApplicationState>();
+		final XhtmlApplicationState s1 = new XhtmlApplicationState(null, success, null);
+		XhtmlApplicationState s2 = new XhtmlApplicationState(null, success, null);
+		expect(mockClient.executeAsync(req1)).andReturn(f1);
+		expect(mockClient.executeAsync(req2)).andReturn(completed(s2));
+		
+		replayMocks();
+		new Thread() {
+			public void run() {
+				try { Thread.sleep(50); } catch (InterruptedException e) { }
+				f1.set(s1);
+			}
+		}.start();
+		List<XhtmlApplicationState> result = 
+			impl.followAllLinks(initState, "item", 1, ResultOrder.COMPLETION);
+		verifyMocks();
+		assertEquals(Arrays.asList(s1, s2), result);
+	}
+	
+	@Test
+	public void testFollowAllLinksFailsAndCancelsOnServerError() throws Exception {
+		Element a1 = anchor("/1");
+		Element a2 = anchor("/2");
+		expect(mockParser.getLinksWithRelation(initState, "item"))
+			.andReturn(Arrays.asList(a1, a2));
+		HttpGet req1 = new HttpGet("http://foo.example.com/1");
+		HttpGet req2 = new HttpGet("http://foo.example.com/2");
+		expect(mockBuilder.followLink(a1, context)).andReturn(req1);
+		expect(mockBuilder.followLink(a2, context)).andReturn(req2);
+		HttpResponse error = new BasicHttpResponse(HttpVersion.HTTP_1_1, 
+				HttpStatus.SC_INTERNAL_SERVER_ERROR, "Internal Server Error");
+		NavigationFuture<XhtmlApplicationState> pending = new NavigationFuture<XhtmlApplicationState>();
+		expect(mockClient.executeAsync(req1))
+			.andReturn(completed(new XhtmlApplicationState(null, error, null)));
+		expect(mockClient.executeAsync(req2)).andReturn(pending);
+		
+		replayMocks();
+		try {
+			impl.followAllLinks(initState, "item", 2);
+			fail("should have thrown ServerErrorException");
+		} catch (ServerErrorException expected) {
+		}
+		verifyMocks();
+		assertTrue(pending.isCancelled());
+	}
+
 }
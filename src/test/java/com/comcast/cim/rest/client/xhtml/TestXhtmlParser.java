@@ -17,6 +17,8 @@ package com.comcast.cim.rest.client.xhtml;
 
 import static org.junit.Assert.*;
 
+import java.util.List;
+
 import org.jdom.Document;
 import org.jdom.Element;
 import org.junit.Before;
@@ -132,4 +134,100 @@ public class TestXhtmlParser extends XhtmlTestCase {
 		Element result = impl.getLinkWithRelation(inner, rel);
 		assertSame(right, result);
 	}
+	
+	@Test
+	public void testCanLocateLinkWithRelationContainingQuotes() throws Exception {
+		String xhtml = buildXhtml("<p><a rel=\"it's\" href=\"/foo\">Link</a></p>");
+		Document doc = getDocument(xhtml);
+		Element result = impl.getLinkWithRelation(doc, "it's");
+		assertNotNull(result);
+	}
+	
+	@Test
+	public void testCanFindFormWithNameContainingQuotes() throws Exception {
+		String xhtml = buildXhtml("<p><form name='say \"hi\"'></form></p>");
+		Document doc = getDocument(xhtml);
+		Element result = impl.getFormWithName(doc, "say \"hi\"");
+		assertNotNull(result);
+	}
+	
+	@Test
+	public void testRepeatedLookupsDoNotRecompileExpressions() throws Exception {
+		XPathCache cache = new XPathCache();
+		impl = new XhtmlParser(cache);
+		Document doc = getDocument(buildXhtml("<p><a rel=\"one\" href=\"/1\">1</a>" +
+				"<a rel=\"two\" href=\"/2\">2</a></p>"));
+		assertEquals("1", impl.getLinkWithRelation(doc, "one").getText());
+		assertEquals("2", impl.getLinkWithRelation(doc, "two").getText());
+		assertNull(impl.getLinkWithRelation(doc, "three"));
+		assertEquals(1, cache.size());
+	}
+	
+	@Test
+	public void testMatchesOneOfSeveralLinkRelations() throws Exception {
+		Document doc = getDocument(buildXhtml("<p><a rel=\"first  test_relation\" " +
+				"href=\"/foo\">Link</a></p>"));
+		assertNotNull(impl.getLinkWithRelation(doc, "test_relation"));
+		assertNull(impl.getLinkWithRelation(doc, "test"));
+	}
+	
+	@Test
+	public void testCanLocateLinkWithRelationInApplicationState() throws Exception {
+		Document doc = getDocument(buildXhtml("<p><a rel=\"next test_relation\" " +
+				"href=\"/foo\">Link</a></p>"));
+		XhtmlApplicationState state = new XhtmlApplicationState(null, null, doc);
+		assertEquals("Link", impl.getLinkWithRelation(state, "test_relation").getText());
+		assertNull(impl.getLinkWithRelation(state, "notfound_relation"));
+	}
+	
+	@Test
+	public void testCanFindFormWithNameInApplicationState() throws Exception {
+		Document doc = getDocument(buildXhtml("<p><form name=\"test_name\">Form 1</form></p>"));
+		XhtmlApplicationState state = new XhtmlApplicationState(null, null, doc);
+		assertEquals("Form 1", impl.getFormWithName(state, "test_name").getText());
+		assertNull(impl.getFormWithName(state, "notfound_name"));
+	}
+	
+	@Test
+	public void testFindsLinkFromContextInApplicationState() throws Exception {
+		Document doc = getDocument(buildXhtml("<div><a rel=\"item\" href=\"/bad\">bad</a>" +
+				"<div id=\"inner\"><a rel=\"item\" href=\"/good\">good</a></div></div>"));
+		XhtmlApplicationState state = new XhtmlApplicationState(null, null, doc);
+		Element inner = (Element)impl.getLinksWithRelation(state, "item").get(1).getParent();
+		assertEquals("good", impl.getLinkWithRelation(state, inner, "item").getText());
+	}
+	
+	@Test
+	public void testFindsLinkFromContextOutsideApplicationState() throws Exception {
+		Document doc = getDocument(buildXhtml("<p><a rel=\"item\" href=\"/bad\">bad</a></p>"));
+		XhtmlApplicationState state = new XhtmlApplicationState(null, null, doc);
+		Element outer = new Element("div", XhtmlParser.XHTML_NS);
+		Element right = new Element("a", XhtmlParser.XHTML_NS);
+		right.setAttribute("rel", "item");
+		right.setAttribute("href", "/good");
+		outer.addContent(right);
+		assertSame(right, impl.getLinkWithRelation(state, outer, "item"));
+	}
+	
+	@Test
+	public void testFindsNothingInApplicationStateWithoutDocument() throws Exception {
+		XhtmlApplicationState state = new XhtmlApplicationState(null, null, null);
+		assertNull(impl.getLinkWithRelation(state, "test_relation"));
+		assertNull(impl.getFormWithName(state, "test_name"));
+	}
+	
+	@Test
+	public void testFindsAllLinksWithRelationInDocumentOrder() throws Exception {
+		Document doc = getDocument(buildXhtml("<ul><li><a rel=\"item\" href=\"/1\">1</a></li>" +
+				"<li><a rel=\"other\" href=\"/x\">x</a></li>" +
+				"<li><a rel=\"item next\" href=\"/2\">2</a></li></ul>"));
+		List<Element> links = impl.getLinksWithRelation(doc.getRootElement(), "item");
+		assertEquals(2, links.size());
+		assertEquals("1", links.get(0).getText());
+		assertEquals("2", links.get(1).getText());
+		
+		XhtmlApplicationState state = new XhtmlApplicationState(null, null, doc);
+		assertEquals(links, impl.getLinksWithRelation(state, "item"));
+		assertTrue(impl.getLinksWithRelation(state, "missing").isEmpty());
+	}
 }
@@ -18,6 +18,7 @@ package com.comcast.cim.rest.client.xhtml;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.URL;
 
 import org.apache.commons.logging.impl.NoOpLog;
@@ -137,4 +138,294 @@ public class TestXhtmlResponseHandler {
 		XhtmlApplicationState result = impl.handleResponse(resp);
 		Assert.assertSame(context, result.getContext());
 	}
+
+	@Test
+	public void testReusesPooledParserAcrossResponses() throws Exception {
+		SAXBuilderPool pool = new SAXBuilderPool(1);
+		impl = new XhtmlResponseHandler(context, pool);
+		impl.setLogger(new NoOpLog());
+		
+		impl.handleResponse(xhtmlResponse("<head/><body/>"));
+		impl.handleResponse(xhtmlResponse("<head/><body/>"));
+		Assert.assertEquals(1, pool.getCreatedCount());
+		Assert.assertEquals(1, pool.getIdleCount());
+	}
+	
+	@Test
+	public void testPooledParserIsReusableAfterMalformedDocument() throws Exception {
+		SAXBuilderPool pool = new SAXBuilderPool(1);
+		impl = new XhtmlResponseHandler(context, pool);
+		impl.setLogger(new NoOpLog());
+		
+		XhtmlApplicationState bad = impl.handleResponse(xhtmlResponse("<head><body/>"));
+		Assert.assertNull(bad.getDocument());
+		XhtmlApplicationState good = impl.handleResponse(xhtmlResponse("<head/><body/>"));
+		Assert.assertNotNull(good.getDocument());
+		Assert.assertEquals(1, pool.getCreatedCount());
+	}
+	
+	@Test
+	public void testPooledParserIsReusableAfterIOException() throws Exception {
+		SAXBuilderPool pool = new SAXBuilderPool(1);
+		impl = new XhtmlResponseHandler(context, pool);
+		impl.setLogger(new NoOpLog());
+		
+		HttpResponse resp = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK");
+		byte[] bytes = xhtmlDocument("<head/><body/>").substring(0, 150).getBytes();
+		InterruptedInputStream iis = new InterruptedInputStream(new ByteArrayInputStream(bytes));
+		resp.setEntity(new InputStreamEntity(iis, bytes.length + 6));
+		try {
+			impl.handleResponse(resp);
+			Assert.fail("should have thrown IOException");
+		} catch (IOException expected) {
+		}
+		
+		XhtmlApplicationState good = impl.handleResponse(xhtmlResponse("<head/><body/>"));
+		Assert.assertNotNull(good.getDocument());
+		Assert.assertEquals(1, pool.getCreatedCount());
+		Assert.assertEquals(1, pool.getReusedCount());
+	}
+	
+	private String xhtmlDocument(String content) {
+		return "<!DOCTYPE html PUBLIC \"-//W3C//DTD XHTML " +
+				"1.0 Transitional//EN\" " +
+				"\"http://www.w3.org/TR/xhtml1/DTD/xhtml1-transitional.dtd\">" +
+				"<html xmlns=\"http://www.w3.org/1999/xhtml\" " +
+				"xml:lang=\"en\" lang=\"en\">" + content + "</html>";
+	}
+	
+	private HttpResponse xhtmlResponse(String content) {
+		HttpResponse resp = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK");
+		resp.setHeader("Content-Type","application/xhtml+xml;charset=utf-8");
+		byte[] bytes = xhtmlDocument(content).getBytes();
+		resp.setEntity(new ByteArrayEntity(bytes));
+		resp.setHeader("Content-Length", "" + bytes.length);
+		return resp;
+	}
+
+	@Test
+	public void testDoesNotParseBodiesTheDispatcherRoutesElsewhere() throws Exception {
+		SAXBuilderPool pool = new SAXBuilderPool();
+		impl = new XhtmlResponseHandler(context, pool);
+		impl.setDispatcher(ResponseDispatcher.xhtmlOnly());
+		HttpResponse resp = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK");
+		resp.setHeader("Content-Type","image/png");
+		MockHttpEntity entity = new MockHttpEntity(new byte[] { 1, 2, 3 });
+		resp.setEntity(entity);
+		
+		XhtmlApplicationState result = impl.handleResponse(resp);
+		Assert.assertNull(result.getDocument());
+		Assert.assertEquals(0, pool.getCreatedCount());
+	}
+	
+	@Test
+	public void testParsesBodiesTheDispatcherRoutesToParser() throws Exception {
+		impl.setDispatcher(ResponseDispatcher.xhtmlOnly());
+		XhtmlApplicationState result = impl.handleResponse(xhtmlResponse("<head/><body/>"));
+		Assert.assertNotNull(result.getDocument());
+	}
+
+	@Test
+	public void testAbortsConnectionWhenBodyExceedsLimit() throws Exception {
+		impl.setBodyLimits(BodyLimits.capped(100));
+		HttpResponse resp = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK");
+		byte[] bytes = xhtmlDocument("<head/><body/>").getBytes();
+		AbortableHttpEntity entity = new AbortableHttpEntity(new ByteArrayInputStream(bytes), -1);
+		resp.setEntity(entity);
+		
+		try {
+			impl.handleResponse(resp);
+			Assert.fail("should have thrown ResponseTooLargeException");
+		} catch (ResponseTooLargeException expected) {
+			Assert.assertEquals(100, expected.getLimit());
+		}
+		Assert.assertTrue(entity.aborted());
+	}
+	
+	@Test
+	public void testRejectsDeclaredLengthOverLimitWithoutReading() throws Exception {
+		impl.setBodyLimits(BodyLimits.capped(100));
+		HttpResponse resp = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK");
+		InterruptedInputStream unreadable = new InterruptedInputStream(new ByteArrayInputStream(new byte[0]));
+		AbortableHttpEntity entity = new AbortableHttpEntity(unreadable, 1000000);
+		resp.setEntity(entity);
+		
+		try {
+			impl.handleResponse(resp);
+			Assert.fail("should have thrown ResponseTooLargeException");
+		} catch (ResponseTooLargeException expected) {
+		}
+		Assert.assertTrue(entity.aborted());
+	}
+	
+	@Test
+	public void testLimitsBodiesTheDispatcherRoutesElsewhere() throws Exception {
+		impl.setDispatcher(ResponseDispatcher.xhtmlOnly());
+		impl.getDispatcher().register("image/*", BodyHandlers.RAW_BYTES);
+		impl.setBodyLimits(BodyLimits.capped(100));
+		HttpResponse resp = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK");
+		resp.setHeader("Content-Type","image/png");
+		AbortableHttpEntity entity = new AbortableHttpEntity(new ByteArrayInputStream(new byte[1000]), -1);
+		resp.setEntity(entity);
+		
+		try {
+			impl.handleResponse(resp);
+			Assert.fail("should have thrown ResponseTooLargeException");
+		} catch (ResponseTooLargeException expected) {
+			Assert.assertEquals(100, expected.getLimit());
+		}
+		Assert.assertTrue(entity.aborted());
+	}
+	
+	@Test
+	public void testRejectsDeclaredLengthOverLimitBeforeDispatching() throws Exception {
+		impl.setDispatcher(ResponseDispatcher.xhtmlOnly());
+		impl.setBodyLimits(BodyLimits.capped(100));
+		HttpResponse resp = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK");
+		resp.setHeader("Content-Type","image/png");
+		InterruptedInputStream unreadable = new InterruptedInputStream(new ByteArrayInputStream(new byte[0]));
+		AbortableHttpEntity entity = new AbortableHttpEntity(unreadable, 1000000);
+		resp.setEntity(entity);
+		
+		try {
+			impl.handleResponse(resp);
+			Assert.fail("should have thrown ResponseTooLargeException");
+		} catch (ResponseTooLargeException expected) {
+		}
+		Assert.assertTrue(entity.aborted());
+	}
+	
+	@Test
+	public void testParsesBodiesWithinLimit() throws Exception {
+		impl.setBodyLimits(BodyLimits.capped(100000));
+		XhtmlApplicationState result = impl.handleResponse(xhtmlResponse("<head/><body/>"));
+		Assert.assertNotNull(result.getDocument());
+	}
+	
+	@Test
+	public void testParsesSpilledBodies() throws Exception {
+		impl.setBodyLimits(BodyLimits.spilling(16, 100000));
+		XhtmlApplicationState result = impl.handleResponse(xhtmlResponse("<head/><body/>"));
+		Assert.assertNotNull(result.getDocument());
+	}
+	
+	@Test
+	public void testReusesCachedDocumentForSameValidator() throws Exception {
+		SAXBuilderPool pool = new SAXBuilderPool(1);
+		impl = new XhtmlResponseHandler(context, pool);
+		impl.setDocumentCache(new ParsedDocumentCache());
+		HttpResponse first = xhtmlResponse("<head/><body/>");
+		first.setHeader("ETag", "\"v1\"");
+		HttpResponse second = xhtmlResponse("<head/><body/>");
+		second.setHeader("ETag", "\"v1\"");
+		
+		XhtmlApplicationState s1 = impl.handleResponse(first);
+		XhtmlApplicationState s2 = impl.handleResponse(second);
+		Assert.assertSame(s1.getDocument(), s2.getDocument());
+		Assert.assertEquals(0, pool.getReusedCount());
+	}
+	
+	@Test
+	public void testParsesAgainWhenValidatorChanges() throws Exception {
+		impl.setDocumentCache(new ParsedDocumentCache());
+		HttpResponse first = xhtmlResponse("<head/><body/>");
+		first.setHeader("ETag", "\"v1\"");
+		HttpResponse second = xhtmlResponse("<head/><body/>");
+		second.setHeader("ETag", "\"v2\"");
+		
+		XhtmlApplicationState s1 = impl.handleResponse(first);
+		XhtmlApplicationState s2 = impl.handleResponse(second);
+		Assert.assertNotNull(s2.getDocument());
+		Assert.assertNotSame(s1.getDocument(), s2.getDocument());
+	}
+	
+	@Test
+	public void testParsesAgainForSameLastModified() throws Exception {
+		impl.setDocumentCache(new ParsedDocumentCache());
+		String date = "Sat, 01 Jan 2011 00:00:00 GMT";
+		HttpResponse first = xhtmlResponse("<head/><body/>");
+		first.setHeader("Last-Modified", date);
+		HttpResponse second = xhtmlResponse("<head/><body/>");
+		second.setHeader("Last-Modified", date);
+		
+		XhtmlApplicationState s1 = impl.handleResponse(first);
+		XhtmlApplicationState s2 = impl.handleResponse(second);
+		Assert.assertNotSame(s1.getDocument(), s2.getDocument());
+	}
+	
+	@Test
+	public void testParsesAgainForSameWeakETag() throws Exception {
+		impl.setDocumentCache(new ParsedDocumentCache());
+		HttpResponse first = xhtmlResponse("<head/><body/>");
+		first.setHeader("ETag", "W/\"v1\"");
+		HttpResponse second = xhtmlResponse("<head/><body/>");
+		second.setHeader("ETag", "W/\"v1\"");
+		
+		XhtmlApplicationState s1 = impl.handleResponse(first);
+		XhtmlApplicationState s2 = impl.handleResponse(second);
+		Assert.assertNotSame(s1.getDocument(), s2.getDocument());
+	}
+	
+	@Test
+	public void testReusesCachedDocumentForNotModifiedSinceLastModified() throws Exception {
+		impl.setDocumentCache(new ParsedDocumentCache());
+		String date = "Sat, 01 Jan 2011 00:00:00 GMT";
+		HttpResponse first = xhtmlResponse("<head/><body/>");
+		first.setHeader("Last-Modified", date);
+		HttpResponse notModified = new BasicHttpResponse(HttpVersion.HTTP_1_1,
+				HttpStatus.SC_NOT_MODIFIED, "Not Modified");
+		notModified.setHeader("Last-Modified", date);
+		
+		XhtmlApplicationState s1 = impl.handleResponse(first);
+		XhtmlApplicationState s2 = impl.handleResponse(notModified);
+		Assert.assertSame(s1.getDocument(), s2.getDocument());
+	}
+	
+	@Test
+	public void testReusesCachedDocumentForNotModified() throws Exception {
+		impl.setDocumentCache(new ParsedDocumentCache());
+		HttpResponse first = xhtmlResponse("<head/><body/>");
+		first.setHeader("ETag", "\"v1\"");
+		HttpResponse notModified = new BasicHttpResponse(HttpVersion.HTTP_1_1,
+				HttpStatus.SC_NOT_MODIFIED, "Not Modified");
+		notModified.setHeader("ETag", "\"v1\"");
+		
+		XhtmlApplicationState s1 = impl.handleResponse(first);
+		XhtmlApplicationState s2 = impl.handleResponse(notModified);
+		Assert.assertSame(s1.getDocument(), s2.getDocument());
+	}
+	
+	@Test
+	public void testInterruptStopsParsingAndAbortsConnection() throws Exception {
+		HttpResponse resp = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK");
+		byte[] bytes = xhtmlDocument("<head/><body/>").getBytes();
+		AbortableHttpEntity entity = new AbortableHttpEntity(new ByteArrayInputStream(bytes), -1);
+		resp.setEntity(entity);
+		
+		Thread.currentThread().interrupt();
+		try {
+			impl.handleResponse(resp);
+			Assert.fail("should have thrown InterruptedIOException");
+		} catch (InterruptedIOException expected) {
+		} finally {
+			Assert.assertTrue(Thread.interrupted());
+		}
+		Assert.assertTrue(entity.aborted());
+		Assert.assertFalse(entity.released());
+	}
+	
+	@Test
+	public void testAbortsConnectionWhenBodyCannotBeRead() throws Exception {
+		HttpResponse resp = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK");
+		byte[] bytes = xhtmlDocument("<head/><body/>").substring(0, 150).getBytes();
+		InterruptedInputStream iis = new InterruptedInputStream(new ByteArrayInputStream(bytes));
+		AbortableHttpEntity entity = new AbortableHttpEntity(iis, bytes.length + 6);
+		resp.setEntity(entity);
+		try {
+			impl.handleResponse(resp);
+			Assert.fail("should have thrown IOException");
+		} catch (IOException expected) {
+		}
+		Assert.assertTrue(entity.aborted());
+	}
 }
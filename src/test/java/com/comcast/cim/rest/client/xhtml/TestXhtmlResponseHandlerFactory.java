@@ -40,5 +40,32 @@ public class TestXhtmlResponseHandlerFactory {
 		XhtmlResponseHandler result = impl.get(context);
 		Assert.assertSame(context, result.getContext());
 	}
+	
+	@Test
+	public void testHandlersShareParserPool() throws Exception {
+		URL context = new URL("http://foo.example.com/");
+		XhtmlResponseHandler first = impl.get(context);
+		XhtmlResponseHandler second = impl.get(context);
+		Assert.assertSame(impl.getBuilderPool(), first.getBuilderPool());
+		Assert.assertSame(first.getBuilderPool(), second.getBuilderPool());
+	}
+	
+	@Test
+	public void testCreatesControlsOnlyHandlersWhenAsked() throws Exception {
+		URL context = new URL("http://foo.example.com/");
+		impl.setParseMode(ParseMode.CONTROLS_ONLY);
+		XhtmlResponseHandler result = impl.get(context);
+		Assert.assertTrue(result instanceof ControlsOnlyResponseHandler);
+		Assert.assertSame(context, result.getContext());
+	}
+
+	@Test
+	public void testHandlersShareDispatcher() throws Exception {
+		URL context = new URL("http://foo.example.com/");
+		Assert.assertNotNull(impl.getDispatcher());
+		Assert.assertSame(impl.getDispatcher(), impl.get(context).getDispatcher());
+		Assert.assertSame(impl.getDispatcher(), 
+				impl.get(context, ControlTarget.link("next")).getDispatcher());
+	}
 
 }
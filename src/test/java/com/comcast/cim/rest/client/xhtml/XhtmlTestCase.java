@@ -17,6 +17,12 @@ package com.comcast.cim.rest.client.xhtml;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.message.BasicHttpResponse;
 
 import org.jdom.DocType;
 import org.jdom.Document;
@@ -64,5 +70,26 @@ public abstract class XhtmlTestCase {
 	protected void buildDocument(Element content) {
 		getDocument(content);
 	}
+	
+	protected static Element link(String rel, String href) {
+		Element a = new Element("a", XhtmlParser.XHTML_NS);
+		a.setAttribute("rel", rel);
+		a.setAttribute("href", href);
+		return a;
+	}
+	
+	/** A parsed page at {@code url} whose body holds {@code content}. */
+	protected static XhtmlApplicationState page(String url, int status, Element... content) {
+		Element html = new Element("html", XhtmlParser.XHTML_NS);
+		Element body = new Element("body", XhtmlParser.XHTML_NS);
+		html.addContent(body);
+		for(Element e : content) body.addContent(e);
+		HttpResponse resp = new BasicHttpResponse(HttpVersion.HTTP_1_1, status, "Status");
+		try {
+			return new XhtmlApplicationState(new URL(url), resp, new Document(html));
+		} catch (MalformedURLException e) {
+			throw new IllegalArgumentException(e);
+		}
+	}
 
 }
\ No newline at end of file